@@ -0,0 +1,515 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache for the results of fetch requests with closed time ranges.
+ * <p>
+ * Only requests whose end lies in the past are cached as the results of
+ * requests for current values change constantly. The results are cached for
+ * each item and property. Cached results are invalidated if the store
+ * reports a new value within their time range by
+ * {@link KvinListener#valueAdded}.
+ * <p>
+ * Deletions are only recognized if they are executed via this cache. Entries
+ * expire after a fixed time to bound the staleness of results after other
+ * modifications or if the store does not notify listeners.
+ * <p>
+ * The size of the cache is limited by the total number of cached values.
+ * Closing the cache removes its listener from the store but does not close
+ * the store.
+ */
+public class CachingKvin extends DelegatingKvin {
+	public static final long DEFAULT_EXPIRE_AFTER = 60000;
+
+	final Kvin delegate;
+	final Cache<Key, List<KvinTuple>> cache;
+	// maximum number of values that are cached for one request
+	final long maxLoadValues;
+	// cached keys and pending loads by item and context
+	final Map<Series, Set<Key>> keys = new ConcurrentHashMap<>();
+	final Map<Series, Set<Load>> loads = new ConcurrentHashMap<>();
+
+	final KvinListener listener = new KvinListener() {
+		@Override
+		public void entityCreated(URI item) {
+		}
+
+		@Override
+		public void valueAdded(URI item, URI property, URI context, long time, long seqNr, Object value) {
+			invalidate(item, property, context, time, time);
+		}
+	};
+
+	/**
+	 * Creates a cache for the given store.
+	 *
+	 * @param delegate    the store
+	 * @param maxValues   the maximum number of cached values
+	 * @param expireAfter the time in milliseconds after which cached results expire
+	 */
+	public CachingKvin(Kvin delegate, long maxValues, long expireAfter) {
+		super(() -> delegate);
+		if (maxValues < 1) {
+			throw new IllegalArgumentException("The number of values must be positive.");
+		}
+		this.delegate = delegate;
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxValues)
+				.<Key, List<KvinTuple>>weigher((key, values) -> 1 + values.size())
+				.expireAfterWrite(expireAfter, TimeUnit.MILLISECONDS)
+				.<Key, List<KvinTuple>>removalListener(notification -> {
+					if (notification.getCause() != RemovalCause.REPLACED) {
+						Key key = notification.getKey();
+						keys.computeIfPresent(key.series(), (s, cached) -> {
+							cached.remove(key);
+							return cached.isEmpty() ? null : cached;
+						});
+					}
+				})
+				.recordStats()
+				.build();
+		// the weight is divided among the segments of the cache
+		this.maxLoadValues = Math.max(1, maxValues / 8);
+		delegate.addListener(listener);
+	}
+
+	/**
+	 * Returns <code>true</code> if the results of a request are cached.
+	 */
+	protected boolean isCacheable(long end, long begin) {
+		return end < System.currentTimeMillis() && begin <= end;
+	}
+
+	@Override
+	public IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long end, long begin, long limit,
+	                                          long interval, String op) {
+		if (!isCacheable(end, begin)) {
+			return delegate.fetch(item, property, context, end, begin, limit, interval, op);
+		}
+		return fetch(List.of(item), property == null ? Collections.emptyList() : List.of(property), context,
+				end, begin, limit, interval, op);
+	}
+
+	@Override
+	public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
+	                                          long limit, long interval, String op) {
+		if (!isCacheable(end, begin)) {
+			return delegate.fetch(items, properties, context, end, begin, limit, interval, op);
+		}
+		URI ctx = context == null ? Kvin.DEFAULT_CONTEXT : context;
+		// a null property stands for all properties of an item
+		List<URI> keyProperties = properties.isEmpty() ? Kvin.NULL_PROPERTY : properties;
+		Map<URI, List<List<KvinTuple>>> cached = new HashMap<>();
+		Set<URI> missing = new LinkedHashSet<>();
+		for (URI item : items) {
+			List<List<KvinTuple>> itemValues = new ArrayList<>(keyProperties.size());
+			for (URI property : keyProperties) {
+				List<KvinTuple> values = cache.getIfPresent(new Key(item, property, ctx, end, begin, limit, interval, op));
+				if (values == null) {
+					break;
+				}
+				itemValues.add(values);
+			}
+			if (itemValues.size() == keyProperties.size()) {
+				cached.put(item, itemValues);
+			} else {
+				missing.add(item);
+			}
+		}
+		if (missing.isEmpty()) {
+			return WrappedIterator.create(items.stream().flatMap(item -> cached.get(item).stream())
+					.flatMap(List::stream).iterator());
+		}
+		Load load = new Load(new ArrayList<>(missing), properties, ctx, end, begin, limit, interval, op);
+		load.register();
+		IExtendedIterator<KvinTuple> loaded = new LoadingIterator(delegate.fetch(load.items, properties, context,
+				end, begin, limit, interval, op), load);
+		return cached.isEmpty() ? loaded : new RequestOrderIterator(items, cached, loaded);
+	}
+
+	@Override
+	public long delete(URI item, URI property, URI context, long end, long begin) {
+		try {
+			return delegate.delete(item, property, context, end, begin);
+		} finally {
+			invalidate(item, property, context, begin, end);
+		}
+	}
+
+	@Override
+	public boolean delete(URI item, URI context) {
+		try {
+			return delegate.delete(item, context);
+		} finally {
+			invalidate(item, null, context, 0, KvinTuple.TIME_MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Invalidates cached and pending results for the given item and property
+	 * that overlap the time interval [begin, end].
+	 *
+	 * @param property the property or <code>null</code> for all properties
+	 */
+	public void invalidate(URI item, URI property, URI context, long begin, long end) {
+		Series series = new Series(item, context == null ? Kvin.DEFAULT_CONTEXT : context);
+		// mark pending loads first as they add their results before they are unregistered
+		Set<Load> pending = loads.get(series);
+		if (pending != null) {
+			for (Load load : pending) {
+				if (load.overlaps(property, begin, end)) {
+					load.dirty = true;
+				}
+			}
+		}
+		Set<Key> cached = keys.get(series);
+		if (cached != null) {
+			for (Key key : cached) {
+				if (key.overlaps(property, begin, end)) {
+					cache.invalidate(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Returns the statistics of the cache. Each looked up item and property is
+	 * counted as a hit or a miss.
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public void close() {
+		delegate.removeListener(listener);
+		cache.invalidateAll();
+	}
+
+	static boolean overlaps(URI property, long begin, long end, URI keyProperty, long keyBegin, long keyEnd) {
+		return (property == null || keyProperty == null || property.equals(keyProperty))
+				&& begin <= keyEnd && keyBegin <= end;
+	}
+
+	static class Series {
+		final URI item;
+		final URI context;
+
+		Series(URI item, URI context) {
+			this.item = item;
+			this.context = context;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Series)) {
+				return false;
+			}
+			Series other = (Series) o;
+			return item.equals(other.item) && context.equals(other.context);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * item.hashCode() + context.hashCode();
+		}
+	}
+
+	static class Key {
+		final URI item, property, context;
+		final long end, begin, limit, interval;
+		final String op;
+
+		Key(URI item, URI property, URI context, long end, long begin, long limit, long interval, String op) {
+			this.item = item;
+			this.property = property;
+			this.context = context;
+			this.end = end;
+			this.begin = begin;
+			this.limit = limit;
+			this.interval = interval;
+			this.op = op;
+		}
+
+		Series series() {
+			return new Series(item, context);
+		}
+
+		boolean overlaps(URI property, long begin, long end) {
+			return CachingKvin.overlaps(property, begin, end, this.property, this.begin, this.end);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return end == other.end && begin == other.begin && limit == other.limit && interval == other.interval
+					&& item.equals(other.item) && Objects.equals(property, other.property)
+					&& context.equals(other.context) && Objects.equals(op, other.op);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(item, property, context, end, begin, limit, interval, op);
+		}
+	}
+
+	/**
+	 * A request for values that are not yet cached.
+	 */
+	class Load {
+		final List<URI> items;
+		final List<URI> properties;
+		final URI context;
+		final long end, begin, limit, interval;
+		final String op;
+		// set if the values have been modified while they were loaded
+		volatile boolean dirty;
+
+		Load(List<URI> items, List<URI> properties, URI context, long end, long begin, long limit, long interval,
+		     String op) {
+			this.items = items;
+			this.properties = properties;
+			this.context = context;
+			this.end = end;
+			this.begin = begin;
+			this.limit = limit;
+			this.interval = interval;
+			this.op = op;
+		}
+
+		boolean overlaps(URI property, long begin, long end) {
+			if (property != null && !properties.isEmpty() && !properties.contains(property)) {
+				return false;
+			}
+			return CachingKvin.overlaps(property, begin, end, null, this.begin, this.end);
+		}
+
+		Key key(URI item, URI property) {
+			return new Key(item, property, context, end, begin, limit, interval, op);
+		}
+
+		void register() {
+			for (URI item : items) {
+				loads.computeIfAbsent(new Series(item, context), s -> ConcurrentHashMap.newKeySet()).add(this);
+			}
+		}
+
+		void unregister() {
+			for (URI item : items) {
+				loads.computeIfPresent(new Series(item, context), (s, pending) -> {
+					pending.remove(this);
+					return pending.isEmpty() ? null : pending;
+				});
+			}
+		}
+
+		void complete(Map<Key, List<KvinTuple>> results) {
+			List<Key> added = new ArrayList<>();
+			if (!dirty) {
+				for (URI item : items) {
+					for (URI property : properties.isEmpty() ? Kvin.NULL_PROPERTY : properties) {
+						Key key = key(item, property);
+						List<KvinTuple> values = results.get(key);
+						// keys are indexed before the values are added to ensure that they can be invalidated
+						keys.computeIfAbsent(key.series(), s -> ConcurrentHashMap.newKeySet()).add(key);
+						cache.put(key, values == null ? Collections.emptyList() : Collections.unmodifiableList(values));
+						added.add(key);
+					}
+				}
+			}
+			unregister();
+			if (dirty) {
+				// the values have been modified concurrently
+				cache.invalidateAll(added);
+			}
+		}
+	}
+
+	/**
+	 * Returns cached and loaded values in the order of the requested items.
+	 * <p>
+	 * The loaded values are expected to be grouped in the order of the requested
+	 * items. Loaded values that do not follow this order are returned at the end.
+	 */
+	static class RequestOrderIterator extends NiceIterator<KvinTuple> {
+		final Iterator<URI> items;
+		final Map<URI, List<List<KvinTuple>>> cached;
+		final IExtendedIterator<KvinTuple> loaded;
+		Iterator<KvinTuple> current;
+		URI loadingItem;
+		KvinTuple nextLoaded;
+
+		RequestOrderIterator(List<URI> items, Map<URI, List<List<KvinTuple>>> cached,
+		                     IExtendedIterator<KvinTuple> loaded) {
+			this.items = items.iterator();
+			this.cached = cached;
+			this.loaded = loaded;
+		}
+
+		KvinTuple peekLoaded() {
+			if (nextLoaded == null && loaded.hasNext()) {
+				nextLoaded = loaded.next();
+			}
+			return nextLoaded;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (true) {
+				if (current != null) {
+					if (current.hasNext()) {
+						return true;
+					}
+					current = null;
+				}
+				if (loadingItem != null) {
+					KvinTuple tuple = peekLoaded();
+					if (tuple != null && tuple.item.equals(loadingItem)) {
+						return true;
+					}
+					loadingItem = null;
+				}
+				if (!items.hasNext()) {
+					return peekLoaded() != null;
+				}
+				URI item = items.next();
+				List<List<KvinTuple>> values = cached.get(item);
+				if (values != null) {
+					current = values.stream().flatMap(List::stream).iterator();
+				} else {
+					loadingItem = item;
+				}
+			}
+		}
+
+		@Override
+		public KvinTuple next() {
+			ensureHasNext();
+			if (current != null) {
+				return current.next();
+			}
+			KvinTuple tuple = nextLoaded;
+			nextLoaded = null;
+			return tuple;
+		}
+
+		@Override
+		public void close() {
+			loaded.close();
+		}
+	}
+
+	/**
+	 * Iterates over loaded values and caches them after the iteration is finished.
+	 */
+	class LoadingIterator extends NiceIterator<KvinTuple> {
+		final IExtendedIterator<KvinTuple> base;
+		final Load load;
+		final Set<URI> properties;
+		Map<Key, List<KvinTuple>> results = new HashMap<>();
+		long count;
+		boolean done;
+
+		LoadingIterator(IExtendedIterator<KvinTuple> base, Load load) {
+			this.base = base;
+			this.load = load;
+			this.properties = new LinkedHashSet<>(load.properties);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (done) {
+				return false;
+			}
+			if (base.hasNext()) {
+				return true;
+			}
+			done = true;
+			if (results != null) {
+				load.complete(results);
+				results = null;
+			} else {
+				load.unregister();
+			}
+			return false;
+		}
+
+		@Override
+		public KvinTuple next() {
+			ensureHasNext();
+			KvinTuple tuple = base.next();
+			if (results != null) {
+				if (++count > maxLoadValues) {
+					// the results are too large to be cached
+					results = null;
+				} else if (properties.isEmpty() || properties.contains(tuple.property)) {
+					// the store may return values of properties that were not requested
+					URI property = properties.isEmpty() ? null : tuple.property;
+					results.computeIfAbsent(load.key(tuple.item, property), k -> new ArrayList<>()).add(tuple);
+				}
+			}
+			return tuple;
+		}
+
+		@Override
+		public void close() {
+			if (!done) {
+				done = true;
+				results = null;
+				load.unregister();
+			}
+			base.close();
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package io.github.linkedfactory.core.kvin;
 
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.komma.core.URI;
+import java.util.List;
 import java.util.function.Supplier;
 
 public class DelegatingKvin implements Kvin {
@@ -42,6 +44,39 @@ public class DelegatingKvin implements Kvin {
         return getDelegate().fetch(item, property, context, end, begin, limit, interval, op);
     }
 
+    @Override
+    public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
+        long limit, long interval, String op) {
+        return getDelegate().fetch(items, properties, context, end, begin, limit, interval, op);
+    }
+
+    @Override
+    public IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long end, long begin, long limit,
+        long interval, String op, ValueFilter filter) {
+        return getDelegate().fetch(item, property, context, end, begin, limit, interval, op, filter);
+    }
+
+    @Override
+    public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
+        long limit, long interval, String op, ValueFilter filter) {
+        return getDelegate().fetch(items, properties, context, end, begin, limit, interval, op, filter);
+    }
+
+    @Override
+    public KvinCursor cursor(URI item, URI property, URI context, long end, long begin, long limit) {
+        return getDelegate().cursor(item, property, context, end, begin, limit);
+    }
+
+    @Override
+    public ParallelFetch getParallelFetch() {
+        return getDelegate().getParallelFetch();
+    }
+
+    @Override
+    public long approximateSize(URI item, URI property, URI context, long end, long begin) {
+        return getDelegate().approximateSize(item, property, context, end, begin);
+    }
+
     @Override
     public long delete(URI item, URI property, URI context, long end, long begin) {
         return getDelegate().delete(item, property, context, end, begin);
@@ -16,9 +16,14 @@
 package io.github.linkedfactory.core.kvin;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
+import io.github.linkedfactory.core.kvin.util.AggregatingIterator;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.komma.core.URI;
@@ -114,10 +119,91 @@ public interface Kvin extends Closeable {
 	 */
 	default IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
 	                                           long limit, long interval, String op) {
+		return fetchEach(items, properties,
+				(item, property) -> fetch(item, property, context, end, begin, limit, interval, op));
+	}
+
+	/**
+	 * Fetches the values of a given item and property within the time interval
+	 * [begin, end] that are accepted by the given filter.
+	 * <p>
+	 * The filter is applied to the stored values before the limit and the
+	 * aggregation. The default implementation filters the values of
+	 * {@link #cursor(URI, URI, URI, long, long, long)} and hence reads numeric
+	 * values as primitives if the store provides a native cursor.
+	 *
+	 * @param item     The item URI.
+	 * @param property The property URI or <code>null</code> for all properties.
+	 * @param context  The context URI.
+	 * @param end      The end of the time interval.
+	 * @param begin    The beginning of the time interval.
+	 * @param limit    Maximum number of elements that should be fetched.
+	 * @param interval Minimum distance (in milliseconds) between two data points
+	 *                 starting from given end or from the timestamp of the most
+	 *                 recent value.
+	 * @param op       Operator that is used to aggregate the values within the given
+	 *                 interval.
+	 * @param filter   Filter for the values or <code>null</code> to fetch all values.
+	 * @return A list of pairs of unique value URIs and associated values.
+	 */
+	default IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long end, long begin, long limit,
+	                                           long interval, String op, ValueFilter filter) {
+		if (filter == null) {
+			return fetch(item, property, context, end, begin, limit, interval, op);
+		}
+		KvinCursor cursor = filter.filter(cursor(item, property, context, end, begin, 0));
+		if (op != null || interval > 0) {
+			// an interval without operator selects the most recent value of each interval
+			return AggregatingIterator.create(cursor, interval, op != null ? op : "first", limit);
+		}
+		return KvinCursor.toTuples(cursor, limit);
+	}
+
+	/**
+	 * Fetches the values of a given items and properties within the time interval
+	 * [begin, end] that are accepted by the given filter.
+	 *
+	 * @param items      The item URIs.
+	 * @param properties The property URIs.
+	 * @param context    The context URI.
+	 * @param end        The end of the time interval.
+	 * @param begin      The beginning of the time interval.
+	 * @param limit      Maximum number of elements that should be fetched.
+	 * @param interval   Minimum distance (in milliseconds) between two data points
+	 *                   starting from given end or from the timestamp of the most
+	 *                   recent value.
+	 * @param op         Operator that is used to aggregate the values within the given
+	 *                   interval.
+	 * @param filter     Filter for the values or <code>null</code> to fetch all values.
+	 * @return A list of pairs of unique value URIs and associated values.
+	 * @see #fetch(URI, URI, URI, long, long, long, long, String, ValueFilter)
+	 */
+	default IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
+	                                           long limit, long interval, String op, ValueFilter filter) {
+		if (filter == null) {
+			return fetch(items, properties, context, end, begin, limit, interval, op);
+		}
+		return fetchEach(items, properties,
+				(item, property) -> fetch(item, property, context, end, begin, limit, interval, op, filter));
+	}
+
+	private IExtendedIterator<KvinTuple> fetchEach(List<URI> items, List<URI> properties,
+	                                               BiFunction<URI, URI, IExtendedIterator<KvinTuple>> fetch) {
 		IExtendedIterator<KvinTuple> it = NiceIterator.emptyIterator();
 		if (properties.isEmpty()) {
 			properties = NULL_PROPERTY;
 		}
+		ParallelFetch parallelFetch = getParallelFetch();
+		if (parallelFetch != null && items.size() * properties.size() > 1) {
+			// fetch the values of multiple items and properties concurrently
+			List<Supplier<IExtendedIterator<KvinTuple>>> sources = new ArrayList<>();
+			for (URI item : items) {
+				for (URI property : properties) {
+					sources.add(() -> fetch.apply(item, property));
+				}
+			}
+			return parallelFetch.concat(sources);
+		}
 		for (URI item : items) {
 			for (URI property : properties) {
 				// use lazy initialization for further iterators
@@ -127,7 +213,7 @@ public interface Kvin extends Closeable {
 					@Override
 					public boolean hasNext() {
 						if (base == null) {
-							base = fetch(item, property, context, end, begin, limit, interval, op);
+							base = fetch.apply(item, property);
 						}
 						return base.hasNext();
 					}
@@ -148,6 +234,53 @@ public interface Kvin extends Closeable {
 		return it;
 	}
 
+	/**
+	 * Opens a cursor over the values of a given item and property within the
+	 * time interval [begin, end].
+	 * <p>
+	 * Stores should override this method if they are able to provide the values
+	 * without creating a {@link KvinTuple} for each of them.
+	 *
+	 * @param item     The item URI.
+	 * @param property The property URI or <code>null</code> for all properties.
+	 * @param context  The context URI.
+	 * @param end      The end of the time interval.
+	 * @param begin    The beginning of the time interval.
+	 * @param limit    Maximum number of values per property or 0 for no limit.
+	 * @return A cursor that needs to be closed after use.
+	 */
+	default KvinCursor cursor(URI item, URI property, URI context, long end, long begin, long limit) {
+		return KvinCursor.of(fetch(item, property, context, end, begin, limit, 0, null));
+	}
+
+	/**
+	 * Returns the policy for concurrently fetching the values of multiple items
+	 * and properties.
+	 *
+	 * @return the policy or <code>null</code> if values are fetched sequentially
+	 */
+	default ParallelFetch getParallelFetch() {
+		return null;
+	}
+
+	/**
+	 * Estimates the number of values of a given item and property within the
+	 * time interval [begin, end].
+	 * <p>
+	 * The estimate is used for planning queries. It should be cheap to compute
+	 * and may considerably differ from the actual number of values.
+	 *
+	 * @param item     The item URI.
+	 * @param property The property URI or <code>null</code> for all properties.
+	 * @param context  The context URI.
+	 * @param end      The end of the time interval.
+	 * @param begin    The beginning of the time interval.
+	 * @return The estimated number of values or <code>-1</code> if it is unknown.
+	 */
+	default long approximateSize(URI item, URI property, URI context, long end, long begin) {
+		return -1;
+	}
+
 	/**
 	 * Deletes the values of a given item and property within the time interval
 	 * [begin, end].
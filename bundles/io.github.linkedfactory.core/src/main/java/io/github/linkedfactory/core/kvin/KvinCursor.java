@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin;
+
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.komma.core.URI;
+
+import java.io.Closeable;
+import java.util.Objects;
+
+/**
+ * A cursor over the values of one or more time series.
+ * <p>
+ * In contrast to an iterator of {@link KvinTuple} objects a cursor is a
+ * flyweight that exposes the current value by accessor methods. Numeric values
+ * can be read as primitives by {@link #getLong()} and {@link #getDouble()}
+ * without creating any objects. The accessors are only valid until
+ * {@link #next()} is called again.
+ */
+public interface KvinCursor extends Closeable {
+	/**
+	 * Moves to the next value.
+	 *
+	 * @return <code>false</code> if no further values exist
+	 */
+	boolean next();
+
+	URI getItem();
+
+	URI getProperty();
+
+	URI getContext();
+
+	long getTime();
+
+	int getSeqNr();
+
+	/**
+	 * Returns <code>true</code> if the current value is an integral number that
+	 * can be read by {@link #getLong()}.
+	 */
+	boolean isLong();
+
+	/**
+	 * Returns <code>true</code> if the current value is a floating point number
+	 * that can be read by {@link #getDouble()}.
+	 */
+	boolean isDouble();
+
+	long getLong();
+
+	double getDouble();
+
+	/**
+	 * Returns the current value as object.
+	 */
+	Object getValue();
+
+	/**
+	 * Skips the remaining values of the current series and moves to the first
+	 * value of the next series.
+	 * <p>
+	 * Stores should override this method if they can skip the values without
+	 * reading them.
+	 *
+	 * @return <code>false</code> if no further values exist
+	 */
+	default boolean skipSeries() {
+		URI item = getItem(), property = getProperty(), context = getContext();
+		while (next()) {
+			if (!(Objects.equals(item, getItem()) && Objects.equals(property, getProperty()) &&
+					Objects.equals(context, getContext()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a tuple for the current value.
+	 */
+	default KvinTuple toTuple() {
+		return new KvinTuple(getItem(), getProperty(), getContext(), getTime(), getSeqNr(), getValue());
+	}
+
+	@Override
+	void close();
+
+	/**
+	 * Creates an iterator over the tuples of the given cursor.
+	 *
+	 * @param cursor the cursor that is closed by the iterator
+	 * @param limit  maximum number of values per item and property or 0 for no limit
+	 */
+	static IExtendedIterator<KvinTuple> toTuples(KvinCursor cursor, long limit) {
+		return new NiceIterator<>() {
+			KvinTuple next;
+			URI item, property;
+			long count;
+			// true if the cursor was already moved to the next series
+			boolean skipped;
+			boolean done;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && !done) {
+					if (!skipped && !cursor.next()) {
+						close();
+						return false;
+					}
+					skipped = false;
+					if (!cursor.getItem().equals(item) || !cursor.getProperty().equals(property)) {
+						// the limit applies to each item-property pair
+						item = cursor.getItem();
+						property = cursor.getProperty();
+						count = 0;
+					}
+					if (limit == 0 || count < limit) {
+						count++;
+						next = cursor.toTuple();
+					} else if (cursor.skipSeries()) {
+						skipped = true;
+					} else {
+						close();
+						return false;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public KvinTuple next() {
+				ensureHasNext();
+				KvinTuple result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void close() {
+				if (!done) {
+					done = true;
+					cursor.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Creates a cursor that reads the given tuples.
+	 */
+	static KvinCursor of(IExtendedIterator<KvinTuple> tuples) {
+		return new KvinCursor() {
+			KvinTuple tuple;
+
+			@Override
+			public boolean next() {
+				if (tuples.hasNext()) {
+					tuple = tuples.next();
+					return true;
+				}
+				tuple = null;
+				return false;
+			}
+
+			@Override
+			public URI getItem() {
+				return tuple.item;
+			}
+
+			@Override
+			public URI getProperty() {
+				return tuple.property;
+			}
+
+			@Override
+			public URI getContext() {
+				return tuple.context;
+			}
+
+			@Override
+			public long getTime() {
+				return tuple.time;
+			}
+
+			@Override
+			public int getSeqNr() {
+				return tuple.seqNr;
+			}
+
+			@Override
+			public boolean isLong() {
+				return tuple.value instanceof Long || tuple.value instanceof Integer ||
+						tuple.value instanceof Short || tuple.value instanceof Byte;
+			}
+
+			@Override
+			public boolean isDouble() {
+				return tuple.value instanceof Double || tuple.value instanceof Float;
+			}
+
+			@Override
+			public long getLong() {
+				return ((Number) tuple.value).longValue();
+			}
+
+			@Override
+			public double getDouble() {
+				return ((Number) tuple.value).doubleValue();
+			}
+
+			@Override
+			public Object getValue() {
+				return tuple.value;
+			}
+
+			@Override
+			public KvinTuple toTuple() {
+				return tuple;
+			}
+
+			@Override
+			public void close() {
+				tuples.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin;
+
+import net.enilink.komma.core.URI;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * A range of numeric values that is used to filter the values of time series
+ * while they are fetched from a {@link Kvin} store.
+ * <p>
+ * Only values of type {@link Long}, {@link Integer}, {@link Double},
+ * {@link Float}, {@link BigInteger} and {@link BigDecimal} are numeric. Any
+ * other value is rejected by a filter. Integral bounds are compared exactly
+ * with integral values while all other comparisons are done with double
+ * precision.
+ */
+public final class ValueFilter {
+	// the bounds are either Long or Double values or null if unbounded
+	final Number lower, upper;
+	final boolean lowerInclusive, upperInclusive;
+
+	private ValueFilter(Number lower, boolean lowerInclusive, Number upper, boolean upperInclusive) {
+		this.lower = lower;
+		this.lowerInclusive = lowerInclusive;
+		this.upper = upper;
+		this.upperInclusive = upperInclusive;
+	}
+
+	/**
+	 * Accepts values that are greater than the given value.
+	 */
+	public static ValueFilter greaterThan(Number value) {
+		return new ValueFilter(normalize(value), false, null, false);
+	}
+
+	/**
+	 * Accepts values that are greater than or equal to the given value.
+	 */
+	public static ValueFilter atLeast(Number value) {
+		return new ValueFilter(normalize(value), true, null, false);
+	}
+
+	/**
+	 * Accepts values that are less than the given value.
+	 */
+	public static ValueFilter lessThan(Number value) {
+		return new ValueFilter(null, false, normalize(value), false);
+	}
+
+	/**
+	 * Accepts values that are less than or equal to the given value.
+	 */
+	public static ValueFilter atMost(Number value) {
+		return new ValueFilter(null, false, normalize(value), true);
+	}
+
+	/**
+	 * Accepts values that are numerically equal to the given value.
+	 */
+	public static ValueFilter equalTo(Number value) {
+		Number bound = normalize(value);
+		return new ValueFilter(bound, true, bound, true);
+	}
+
+	static Number normalize(Number value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return value.longValue();
+		} else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+			return value.longValue();
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = ((BigDecimal) value).stripTrailingZeros();
+			if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() < 19) {
+				return decimal.longValueExact();
+			}
+		}
+		double doubleValue = value.doubleValue();
+		if (Double.isNaN(doubleValue)) {
+			throw new IllegalArgumentException("A bound must not be NaN.");
+		}
+		return doubleValue;
+	}
+
+	/**
+	 * Returns a filter that only accepts values which are accepted by this and
+	 * the given filter.
+	 */
+	public ValueFilter and(ValueFilter other) {
+		if (other == null) {
+			return this;
+		}
+		Number newLower = lower;
+		boolean newLowerInclusive = lowerInclusive;
+		if (newLower == null || other.lower != null && (compare(other.lower, newLower) > 0 ||
+				compare(other.lower, newLower) == 0 && !other.lowerInclusive)) {
+			newLower = other.lower;
+			newLowerInclusive = other.lowerInclusive;
+		}
+		Number newUpper = upper;
+		boolean newUpperInclusive = upperInclusive;
+		if (newUpper == null || other.upper != null && (compare(other.upper, newUpper) < 0 ||
+				compare(other.upper, newUpper) == 0 && !other.upperInclusive)) {
+			newUpper = other.upper;
+			newUpperInclusive = other.upperInclusive;
+		}
+		return new ValueFilter(newLower, newLowerInclusive, newUpper, newUpperInclusive);
+	}
+
+	static int compare(Number a, Number b) {
+		if (a instanceof Long && b instanceof Long) {
+			return Long.compare(a.longValue(), b.longValue());
+		}
+		return Double.compare(a.doubleValue(), b.doubleValue());
+	}
+
+	/**
+	 * Returns the smallest integral value that is accepted by this filter or
+	 * {@link Long#MIN_VALUE} if the values are not bounded below.
+	 */
+	public long getMinLong() {
+		if (lower == null) {
+			return Long.MIN_VALUE;
+		}
+		if (lower instanceof Long) {
+			long bound = lower.longValue();
+			return lowerInclusive || bound == Long.MAX_VALUE ? bound : bound + 1;
+		}
+		double bound = lower.doubleValue();
+		double min = lowerInclusive ? Math.ceil(bound) : Math.floor(bound) + 1;
+		return min >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) min;
+	}
+
+	/**
+	 * Returns the largest integral value that is accepted by this filter or
+	 * {@link Long#MAX_VALUE} if the values are not bounded above.
+	 */
+	public long getMaxLong() {
+		if (upper == null) {
+			return Long.MAX_VALUE;
+		}
+		if (upper instanceof Long) {
+			long bound = upper.longValue();
+			return upperInclusive || bound == Long.MIN_VALUE ? bound : bound - 1;
+		}
+		double bound = upper.doubleValue();
+		double max = upperInclusive ? Math.floor(bound) : Math.ceil(bound) - 1;
+		return max <= Long.MIN_VALUE ? Long.MIN_VALUE : (long) max;
+	}
+
+	public boolean test(long value) {
+		if (lower != null) {
+			int diff = lower instanceof Long ? Long.compare(value, lower.longValue()) :
+					compareDouble(value, lower.doubleValue());
+			if (diff < 0 || diff == 0 && !lowerInclusive) {
+				return false;
+			}
+		}
+		if (upper != null) {
+			int diff = upper instanceof Long ? Long.compare(value, upper.longValue()) :
+					compareDouble(value, upper.doubleValue());
+			if (diff > 0 || diff == 0 && !upperInclusive) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int compareDouble(double a, double b) {
+		return a < b ? -1 : (a > b ? 1 : 0);
+	}
+
+	public boolean test(double value) {
+		if (Double.isNaN(value)) {
+			// NaN is not comparable
+			return false;
+		}
+		if (lower != null) {
+			int diff = compareDouble(value, lower.doubleValue());
+			if (diff < 0 || diff == 0 && !lowerInclusive) {
+				return false;
+			}
+		}
+		if (upper != null) {
+			int diff = compareDouble(value, upper.doubleValue());
+			if (diff > 0 || diff == 0 && !upperInclusive) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if the given value is numeric and within the range of this filter.
+	 */
+	public boolean test(Object value) {
+		if (value instanceof Long || value instanceof Integer) {
+			return test(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			return test(((Number) value).doubleValue());
+		} else if (value instanceof BigInteger) {
+			BigInteger bigInteger = (BigInteger) value;
+			return bigInteger.bitLength() < 64 ? test(bigInteger.longValue()) : test(bigInteger.doubleValue());
+		} else if (value instanceof BigDecimal) {
+			return test(((BigDecimal) value).doubleValue());
+		}
+		return false;
+	}
+
+	/**
+	 * Tests the current value of the given cursor. Numeric values are read as
+	 * primitives.
+	 */
+	public boolean test(KvinCursor cursor) {
+		if (cursor.isLong()) {
+			return test(cursor.getLong());
+		} else if (cursor.isDouble()) {
+			return test(cursor.getDouble());
+		}
+		return test(cursor.getValue());
+	}
+
+	/**
+	 * Returns a cursor that skips all values of the given cursor which are not
+	 * accepted by this filter.
+	 */
+	public KvinCursor filter(KvinCursor cursor) {
+		return new KvinCursor() {
+			@Override
+			public boolean next() {
+				while (cursor.next()) {
+					if (test(cursor)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean skipSeries() {
+				if (!cursor.skipSeries()) {
+					return false;
+				}
+				return test(cursor) || next();
+			}
+
+			@Override
+			public URI getItem() {
+				return cursor.getItem();
+			}
+
+			@Override
+			public URI getProperty() {
+				return cursor.getProperty();
+			}
+
+			@Override
+			public URI getContext() {
+				return cursor.getContext();
+			}
+
+			@Override
+			public long getTime() {
+				return cursor.getTime();
+			}
+
+			@Override
+			public int getSeqNr() {
+				return cursor.getSeqNr();
+			}
+
+			@Override
+			public boolean isLong() {
+				return cursor.isLong();
+			}
+
+			@Override
+			public boolean isDouble() {
+				return cursor.isDouble();
+			}
+
+			@Override
+			public long getLong() {
+				return cursor.getLong();
+			}
+
+			@Override
+			public double getDouble() {
+				return cursor.getDouble();
+			}
+
+			@Override
+			public Object getValue() {
+				return cursor.getValue();
+			}
+
+			@Override
+			public KvinTuple toTuple() {
+				return cursor.toTuple();
+			}
+
+			@Override
+			public void close() {
+				cursor.close();
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ValueFilter that = (ValueFilter) o;
+		return lowerInclusive == that.lowerInclusive && upperInclusive == that.upperInclusive &&
+				Objects.equals(lower, that.lower) && Objects.equals(upper, that.upper);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(lower, lowerInclusive, upper, upperInclusive);
+	}
+
+	@Override
+	public String toString() {
+		return (lower == null ? "(-inf" : (lowerInclusive ? "[" : "(") + lower) + ", " +
+				(upper == null ? "inf)" : upper + (upperInclusive ? "]" : ")"));
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.http;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of HTTP connections that is shared by multiple HTTP clients.
+ * <p>
+ * The number of concurrent connections is limited in total and per host.
+ * Idle connections are kept alive for at most <code>keepAlive</code>
+ * milliseconds. Responses are transparently decompressed if the server
+ * supports compression. The pool records how long requests wait for a
+ * connection.
+ */
+public class HttpClientPool implements Closeable {
+	public static final int DEFAULT_MAX_CONNECTIONS = 200;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 32;
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+	public static final long DEFAULT_KEEP_ALIVE = 30000;
+
+	static volatile HttpClientPool shared;
+
+	final PoolingHttpClientConnectionManager connectionManager;
+	final IdleConnectionEvictor evictor;
+	final RequestConfig requestConfig;
+	final ConnectionKeepAliveStrategy keepAliveStrategy;
+
+	final LongAdder poolWaits = new LongAdder();
+	final LongAdder poolWaitNanos = new LongAdder();
+	final AtomicLong maxPoolWaitNanos = new AtomicLong();
+
+	public HttpClientPool() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT,
+				DEFAULT_KEEP_ALIVE);
+	}
+
+	/**
+	 * Creates a new connection pool.
+	 *
+	 * @param maxConnections        the maximum number of connections
+	 * @param maxConnectionsPerHost the maximum number of connections per host
+	 * @param connectTimeout        timeout in milliseconds for establishing a connection or
+	 *                              for obtaining a connection from the pool
+	 * @param socketTimeout         timeout in milliseconds while waiting for data of a response
+	 * @param keepAlive             maximum time in milliseconds that idle connections are kept
+	 */
+	public HttpClientPool(int maxConnections, int maxConnectionsPerHost, int connectTimeout, int socketTimeout,
+	                      long keepAlive) {
+		if (maxConnections < 1 || maxConnectionsPerHost < 1) {
+			throw new IllegalArgumentException("The number of connections must be positive.");
+		}
+		this.connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS) {
+			@Override
+			public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+				ConnectionRequest request = super.requestConnection(route, state);
+				return new ConnectionRequest() {
+					@Override
+					public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+							throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+						long start = System.nanoTime();
+						try {
+							return request.get(timeout, timeUnit);
+						} finally {
+							recordPoolWait(System.nanoTime() - start);
+						}
+					}
+
+					@Override
+					public boolean cancel() {
+						return request.cancel();
+					}
+				};
+			}
+		};
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+		this.requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeout)
+				.setConnectionRequestTimeout(connectTimeout)
+				.setSocketTimeout(socketTimeout)
+				.build();
+		// use the keep-alive time of the server if it is shorter
+		this.keepAliveStrategy = (response, context) -> {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration < 0 || duration > keepAlive ? keepAlive : duration;
+		};
+		this.evictor = new IdleConnectionEvictor(connectionManager, keepAlive, TimeUnit.MILLISECONDS);
+		this.evictor.start();
+	}
+
+	/**
+	 * Returns the pool that is shared by all clients that are not configured otherwise.
+	 */
+	public static HttpClientPool getShared() {
+		if (shared == null) {
+			synchronized (HttpClientPool.class) {
+				if (shared == null) {
+					shared = new HttpClientPool();
+				}
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Replaces the shared pool. Clients that have already been created keep
+	 * using the previous pool.
+	 *
+	 * @return the previous pool or <code>null</code>
+	 */
+	public static synchronized HttpClientPool setShared(HttpClientPool pool) {
+		HttpClientPool previous = shared;
+		shared = pool;
+		return previous;
+	}
+
+	void recordPoolWait(long nanos) {
+		poolWaits.increment();
+		poolWaitNanos.add(nanos);
+		maxPoolWaitNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * Creates a new client that uses the connections of this pool. Closing the
+	 * client does not close the pool.
+	 */
+	public CloseableHttpClient createClient() {
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setConnectionManagerShared(true)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.build();
+	}
+
+	/**
+	 * Overrides the maximum number of connections for a specific host.
+	 */
+	public void setMaxConnections(HttpHost host, int maxConnections) {
+		connectionManager.setMaxPerRoute(route(host), maxConnections);
+	}
+
+	static HttpRoute route(HttpHost host) {
+		boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+		if (host.getPort() < 0) {
+			// routes of requests always use explicit ports
+			host = new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
+		}
+		return new HttpRoute(host, null, secure);
+	}
+
+	/**
+	 * Returns the number of requests that currently use a connection.
+	 */
+	public int getInFlightRequests() {
+		return connectionManager.getTotalStats().getLeased();
+	}
+
+	/**
+	 * Returns the number of requests that are waiting for a connection.
+	 */
+	public int getPendingRequests() {
+		return connectionManager.getTotalStats().getPending();
+	}
+
+	/**
+	 * Returns the statistics of the pool for a specific host.
+	 */
+	public PoolStats getStats(HttpHost host) {
+		return connectionManager.getStats(route(host));
+	}
+
+	/**
+	 * Returns the number of connections that were obtained from the pool.
+	 */
+	public long getPoolWaitCount() {
+		return poolWaits.sum();
+	}
+
+	/**
+	 * Returns the total time that requests have waited for a connection.
+	 */
+	public long getPoolWaitTime(TimeUnit unit) {
+		return unit.convert(poolWaitNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the maximum time that a request has waited for a connection.
+	 */
+	public long getMaxPoolWaitTime(TimeUnit unit) {
+		return unit.convert(maxPoolWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void close() {
+		evictor.shutdown();
+		connectionManager.shutdown();
+	}
+}
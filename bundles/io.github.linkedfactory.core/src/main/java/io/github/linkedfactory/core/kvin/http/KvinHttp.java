@@ -6,18 +6,21 @@ import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.io.ByteStreams;
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.KvinListener;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 import io.github.linkedfactory.core.kvin.Record;
+import io.github.linkedfactory.core.kvin.util.BinaryFormatParser;
+import io.github.linkedfactory.core.kvin.util.BinaryFormatWriter;
 import io.github.linkedfactory.core.kvin.util.JsonFormatParser;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.komma.core.URI;
 import net.enilink.komma.core.URIs;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpHeaders;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -26,17 +29,20 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class KvinHttp implements Kvin {
@@ -47,6 +53,10 @@ public class KvinHttp implements Kvin {
     ObjectMapper mapper = new ObjectMapper();
     CloseableHttpClient httpClient;
     JsonFactory jsonFactory = new JsonFactory();
+    volatile ParallelFetch parallelFetch;
+    volatile boolean binaryFormat = true;
+    volatile boolean queryBodySupported = true;
+    volatile boolean binaryPutSupported = true;
 
     public KvinHttp(String hostEndpoint) {
         this.hostEndpoint = hostEndpoint.endsWith("/") ? hostEndpoint.substring(0, hostEndpoint.length() - 1) : hostEndpoint;
@@ -54,7 +64,22 @@ public class KvinHttp implements Kvin {
     }
 
     public CloseableHttpClient getHttpClient() {
-        return HttpClients.createDefault();
+        return HttpClientPool.getShared().createClient();
+    }
+
+    /**
+     * Enables or disables the use of the binary format for transferring values.
+     * <p>
+     * If enabled then values are sent in binary format and the binary format is preferred for
+     * received values. Should be disabled for endpoints that do not support the binary format.
+     * Values are sent as JSON if the endpoint rejects binary values with status 415.
+     */
+    public void setBinaryFormat(boolean binaryFormat) {
+        this.binaryFormat = binaryFormat;
+    }
+
+    public boolean isBinaryFormat() {
+        return binaryFormat;
     }
 
     @Override
@@ -88,6 +113,9 @@ public class KvinHttp implements Kvin {
 
     @Override
     public void put(Iterable<KvinTuple> tuples) {
+        if (binaryFormat && binaryPutSupported && putBinary(tuples)) {
+            return;
+        }
         try {
             // grouping
             Map<URI, Map<URI, List<KvinTuple>>> groupedData = new HashMap<>();
@@ -121,13 +149,63 @@ public class KvinHttp implements Kvin {
                     ContentType.APPLICATION_JSON
             );
             httpPost.setEntity(requestPayload);
-            CloseableHttpResponse response = httpClient.execute(httpPost);
-            HttpEntity entity = response.getEntity();
+            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+                EntityUtils.consume(response.getEntity());
+                checkPutStatus(response);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Streams the tuples in binary format without buffering the whole request.
+     *
+     * @return <code>false</code> if the endpoint does not accept the binary format and the
+     * tuples need to be sent as JSON instead, this is only possible for collections as other
+     * iterables can not be reliably iterated twice
+     */
+    private boolean putBinary(Iterable<KvinTuple> tuples) {
+        try {
+            HttpPost httpPost = createHttpPost(this.hostEndpoint + "/values");
+            EntityTemplate requestPayload = new EntityTemplate(out -> {
+                try (BinaryFormatWriter writer = new BinaryFormatWriter(out)) {
+                    for (KvinTuple tuple : tuples) {
+                        writer.writeTuple(tuple);
+                    }
+                }
+            });
+            requestPayload.setContentType(BinaryFormatWriter.MIME_TYPE);
+            requestPayload.setChunked(true);
+            httpPost.setEntity(requestPayload);
+            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+                EntityUtils.consume(response.getEntity());
+                int status = response.getStatusLine().getStatusCode();
+                if (status == 415) {
+                    // the endpoint does not support the binary format for writes
+                    binaryPutSupported = false;
+                    if (!(tuples instanceof Collection)) {
+                        // the tuples may have already been consumed and can not be sent again
+                        throw new IOException("Binary format is not supported by the endpoint: "
+                                + response.getStatusLine());
+                    }
+                    return false;
+                }
+                checkPutStatus(response);
+                return true;
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    static void checkPutStatus(CloseableHttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || status >= 300) {
+            throw new IOException("Storing values failed: " + response.getStatusLine());
+        }
+    }
+
     // The method will return the passed object converted to jackson JsonNode
     private JsonNode objectToJson(Object object) {
         JsonNode rootNode;
@@ -160,74 +238,222 @@ public class KvinHttp implements Kvin {
                 begin != 0 ? begin : null, limit != 0 ? limit : null, interval != 0 ? interval : null, op);
     }
 
+    /**
+     * Enables sending multiple concurrent requests for fetching the values of multiple items or
+     * disables it if <code>null</code> is given.
+     */
+    public void setParallelFetch(ParallelFetch parallelFetch) {
+        this.parallelFetch = parallelFetch;
+    }
+
+    @Override
+    public ParallelFetch getParallelFetch() {
+        return parallelFetch;
+    }
+
     @Override
     public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin, long limit, long interval, String op) {
-        return fetchInternal(items, properties,
-                context, end != KvinTuple.TIME_MAX_VALUE ? end : null,
-                begin != 0 ? begin : null, limit != 0 ? limit : null, interval != 0 ? interval : null, op);
+        Long endParam = end != KvinTuple.TIME_MAX_VALUE ? end : null;
+        Long beginParam = begin != 0 ? begin : null;
+        Long limitParam = limit != 0 ? limit : null;
+        Long intervalParam = interval != 0 ? interval : null;
+        ParallelFetch parallelFetch = this.parallelFetch;
+        if (parallelFetch != null && items.size() > 1) {
+            // split items into one chunk per concurrent request while preserving their order
+            int chunks = Math.min(items.size(), parallelFetch.getMaxConcurrency());
+            int chunkSize = (items.size() + chunks - 1) / chunks;
+            List<Supplier<IExtendedIterator<KvinTuple>>> requests = new ArrayList<>();
+            for (int i = 0; i < items.size(); i += chunkSize) {
+                List<URI> chunk = items.subList(i, Math.min(items.size(), i + chunkSize));
+                requests.add(() -> fetchInternal(chunk, properties, context, endParam, beginParam, limitParam, intervalParam, op));
+            }
+            return parallelFetch.concat(requests);
+        }
+        return fetchInternal(items, properties, context, endParam, beginParam, limitParam, intervalParam, op);
     }
 
     protected IExtendedIterator<KvinTuple> fetchInternal(List<URI> items, List<URI> properties, URI context, Long end, Long begin, Long limit, Long interval, String op) {
         CloseableHttpResponse response = null;
-        InputStream content = null;
         try {
+            ValuesQuery query = new ValuesQuery(items, properties);
             final List<NameValuePair> params = new ArrayList<>();
-            params.add(new BasicNameValuePair("item",
-                    String.join(" ", items.stream().map(URI::toString).collect(Collectors.toSet()))));
-            if (!properties.isEmpty()) params.add(new BasicNameValuePair("property",
-                    String.join(" ", properties.stream().map(URI::toString).collect(Collectors.toSet()))));
             if (context != null) params.add(new BasicNameValuePair("model", context.toString()));
             if (limit != null) params.add(new BasicNameValuePair("limit", Long.toString(limit)));
             if (end != null) params.add(new BasicNameValuePair("to", Long.toString(end)));
             if (begin != null) params.add(new BasicNameValuePair("from", Long.toString(begin)));
             if (interval != null) params.add(new BasicNameValuePair("interval", Long.toString(interval)));
             if (op != null) params.add(new BasicNameValuePair("op", op));
+            final List<NameValuePair> allParams = new ArrayList<>();
+            allParams.add(new BasicNameValuePair("item",
+                    query.getItems().stream().map(URI::toString).collect(Collectors.joining(" "))));
+            if (!properties.isEmpty()) allParams.add(new BasicNameValuePair("property",
+                    query.getProperties().stream().map(URI::toString).collect(Collectors.joining(" "))));
+            allParams.addAll(params);
             String endpointUrl = this.hostEndpoint + "/values";
             // start with length of URL plus '?', '&' and '=' characters
-            int approximateSize = endpointUrl.length() + 1 + params.size() * 2;
-            for (var pair : params) {
+            int approximateSize = endpointUrl.length() + 1 + allParams.size() * 2;
+            for (var pair : allParams) {
                 approximateSize += pair.getName().length() + pair.getValue().length();
             }
             // add some overhead for encoding
             approximateSize = (int) (approximateSize * 1.3);
-            HttpUriRequest request;
             // decide if GET or POST should be used to send query
-            if (approximateSize > MAX_GET_URL_LENGTH) {
-                HttpPost post = createHttpPost(endpointUrl);
-                post.setEntity(new UrlEncodedFormEntity(params));
-                request = post;
-            } else {
+            boolean queryInBody = false;
+            HttpUriRequest request;
+            if (approximateSize <= MAX_GET_URL_LENGTH) {
                 URIBuilder uriBuilder = new URIBuilder(endpointUrl);
-                uriBuilder.addParameters(params);
+                uriBuilder.addParameters(allParams);
                 java.net.URI getRequestUri = uriBuilder.build();
                 request = createHttpGet(getRequestUri.toString());
+            } else if (queryBodySupported) {
+                // send items and properties as compact request body
+                URIBuilder uriBuilder = new URIBuilder(endpointUrl);
+                uriBuilder.addParameters(params);
+                HttpPost post = createHttpPost(uriBuilder.build().toString());
+                EntityTemplate body = new EntityTemplate(query::write);
+                body.setContentType(ValuesQuery.MIME_TYPE);
+                post.setEntity(body);
+                request = post;
+                queryInBody = true;
+            } else {
+                request = createFormPost(endpointUrl, allParams);
+            }
+            response = execute(request);
+            int status = response.getStatusLine().getStatusCode();
+            if (queryInBody && (status == 415 || status == 404 && !isJson(response.getEntity()))) {
+                // the endpoint does not support queries within the request body,
+                // a 404 with a JSON error body is a regular response of the endpoint
+                EntityUtils.consume(response.getEntity());
+                response.close();
+                queryBodySupported = false;
+                response = execute(createFormPost(endpointUrl, allParams));
             }
-            response = this.httpClient.execute(request);
             HttpEntity entity = response.getEntity();
             if (response.getStatusLine().getStatusCode() != 200) {
+                EntityUtils.consume(entity);
+                response.close();
                 return NiceIterator.emptyIterator();
             }
-            // converting json to kvin tuples
-            // TODO directly read from stream with pooled HTTP client
-            content = entity.getContent();
-            JsonFormatParser jsonParser = new JsonFormatParser(new ByteArrayInputStream(ByteStreams.toByteArray(content)));
-            return jsonParser.parse();
+            // converting binary data or json to kvin tuples while they are received
+            ResponseContent content = new ResponseContent(entity.getContent());
+            Header contentType = entity.getContentType();
+            if (contentType != null && contentType.getValue().startsWith(BinaryFormatWriter.MIME_TYPE)) {
+                return new ResponseIterator<>(response, content, new BinaryFormatParser(content).parse());
+            }
+            JsonFormatParser jsonParser = new JsonFormatParser(content);
+            return new ResponseIterator<>(response, content, jsonParser.parse());
         } catch (Exception e) {
+            closeResponse(response);
             throw new RuntimeException(e);
-        } finally {
-            if (content != null) {
-                try {
-                    content.close();
-                } catch (IOException ioe) {
-                    logger.error("Error while closing input stream", ioe);
-                }
+        }
+    }
+
+    static boolean isJson(HttpEntity entity) {
+        Header contentType = entity == null ? null : entity.getContentType();
+        return contentType != null && contentType.getValue().startsWith("application/json");
+    }
+
+    HttpPost createFormPost(String endpointUrl, List<NameValuePair> params) {
+        HttpPost post = createHttpPost(endpointUrl);
+        post.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+        return post;
+    }
+
+    CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        if (binaryFormat) {
+            request.setHeader(HttpHeaders.ACCEPT, BinaryFormatWriter.MIME_TYPE + ", application/json;q=0.9");
+        }
+        return this.httpClient.execute(request);
+    }
+
+    static void closeResponse(CloseableHttpResponse response) {
+        if (response != null) {
+            try {
+                response.close();
+            } catch (IOException ioe) {
+                logger.error("Error while closing response", ioe);
             }
-            if (response != null) {
-                try {
-                    response.close();
-                } catch (IOException ioe) {
-                    logger.error("Error while closing response", ioe);
-                }
+        }
+    }
+
+    /**
+     * Iterator over the contents of a response that is parsed while it is received.
+     * <p>
+     * The connection is released when the iterator is exhausted or closed. If the iterator is
+     * closed before the end of the response is reached then the connection is shut down instead of
+     * reading the remaining content.
+     */
+    static class ResponseIterator<T> extends NiceIterator<T> {
+        final CloseableHttpResponse response;
+        final ResponseContent content;
+        IExtendedIterator<T> delegate;
+
+        ResponseIterator(CloseableHttpResponse response, ResponseContent content, IExtendedIterator<T> delegate) {
+            this.response = response;
+            this.content = content;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (delegate == null) {
+                return false;
+            }
+            boolean hasNext;
+            try {
+                hasNext = delegate.hasNext();
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+            if (!hasNext) {
+                // the whole response has been read and the connection can be reused
+                delegate.close();
+                delegate = null;
+                closeResponse(response);
+            }
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            if (delegate == null) {
+                throw new NoSuchElementException();
+            }
+            return delegate.next();
+        }
+
+        @Override
+        public void close() {
+            if (delegate != null) {
+                // closing the response without consuming its content shuts down the connection
+                content.detach();
+                closeResponse(response);
+                delegate.close();
+                delegate = null;
+            }
+        }
+    }
+
+    /**
+     * Content of a response that can be detached from the underlying stream to prevent
+     * that the remaining content is read when the stream is closed.
+     */
+    static class ResponseContent extends FilterInputStream {
+        boolean detached;
+
+        ResponseContent(InputStream in) {
+            super(in);
+        }
+
+        void detach() {
+            detached = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!detached) {
+                super.close();
             }
         }
     }
@@ -253,6 +479,7 @@ public class KvinHttp implements Kvin {
     }
 
     private IExtendedIterator<URI> descendantsInternal(URI item, URI context, Long limit) {
+        CloseableHttpResponse response = null;
         try {
             // building url
             URIBuilder uriBuilder = new URIBuilder(this.hostEndpoint + "/**");
@@ -262,14 +489,17 @@ public class KvinHttp implements Kvin {
             java.net.URI getRequestUri = uriBuilder.build();
             // sending get request to the endpoint
             HttpGet httpGet = createHttpGet(getRequestUri.toString());
-            HttpResponse response = this.httpClient.execute(httpGet);
+            response = this.httpClient.execute(httpGet);
             HttpEntity entity = response.getEntity();
             if (response.getStatusLine().getStatusCode() != 200) {
+                EntityUtils.consume(entity);
+                response.close();
                 return NiceIterator.emptyIterator();
             }
-            // converting json to URI
-            return new NiceIterator<>() {
-                JsonParser jsonParser = jsonFactory.createParser(new ByteArrayInputStream(ByteStreams.toByteArray(entity.getContent())));
+            // converting json to URI while it is received
+            ResponseContent content = new ResponseContent(entity.getContent());
+            return new ResponseIterator<>(response, content, new NiceIterator<>() {
+                JsonParser jsonParser = jsonFactory.createParser(content);
 
                 @Override
                 public boolean hasNext() {
@@ -313,14 +543,16 @@ public class KvinHttp implements Kvin {
                         logger.error("Exception while closing JSON parser", e);
                     }
                 }
-            };
+            });
         } catch (Exception e) {
+            closeResponse(response);
             throw new RuntimeException(e);
         }
     }
 
     @Override
     public IExtendedIterator<URI> properties(URI item, URI context) {
+        CloseableHttpResponse response = null;
         try {
             // building url
             URIBuilder uriBuilder = new URIBuilder(this.hostEndpoint + "/properties");
@@ -329,14 +561,17 @@ public class KvinHttp implements Kvin {
             java.net.URI getRequestUri = uriBuilder.build();
             // sending get request to the endpoint
             HttpGet httpGet = createHttpGet(getRequestUri.toString());
-            HttpResponse response = this.httpClient.execute(httpGet);
+            response = this.httpClient.execute(httpGet);
             HttpEntity entity = response.getEntity();
             if (response.getStatusLine().getStatusCode() != 200) {
+                EntityUtils.consume(entity);
+                response.close();
                 return NiceIterator.emptyIterator();
             }
-            // converting json to URI
-            return new NiceIterator<>() {
-                JsonParser jsonParser = jsonFactory.createParser(new ByteArrayInputStream(ByteStreams.toByteArray(entity.getContent())));
+            // converting json to URI while it is received
+            ResponseContent content = new ResponseContent(entity.getContent());
+            return new ResponseIterator<>(response, content, new NiceIterator<>() {
+                JsonParser jsonParser = jsonFactory.createParser(content);
 
                 @Override
                 public boolean hasNext() {
@@ -380,8 +615,9 @@ public class KvinHttp implements Kvin {
                         logger.error("Exception while closing JSON parser", e);
                     }
                 }
-            };
+            });
         } catch (Exception e) {
+            closeResponse(response);
             throw new RuntimeException(e);
         }
     }
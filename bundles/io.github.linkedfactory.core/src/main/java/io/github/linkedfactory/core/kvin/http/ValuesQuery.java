@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Items and properties of a query for values that is sent as body of a POST
+ * request to the <code>values</code> endpoint.
+ * <p>
+ * This allows to query thousands of items and properties with one request. All
+ * other parameters are given as URL parameters like for GET requests. The body
+ * is a JSON object of the form:
+ * <pre>
+ * { "items" : [ "http://example.org/item1", ... ], "properties" : [ "http://example.org/p1", ... ] }
+ * </pre>
+ * An empty list of properties selects all properties of the items.
+ */
+public class ValuesQuery {
+	public static final String MIME_TYPE = "application/x-kvin-query";
+
+	final static JsonFactory jsonFactory = new JsonFactory().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+	final List<URI> items;
+	final List<URI> properties;
+
+	public ValuesQuery(Collection<URI> items, Collection<URI> properties) {
+		// remove duplicates while retaining the order
+		this.items = new ArrayList<>(new LinkedHashSet<>(items));
+		this.properties = new ArrayList<>(new LinkedHashSet<>(properties));
+	}
+
+	public List<URI> getItems() {
+		return items;
+	}
+
+	public List<URI> getProperties() {
+		return properties;
+	}
+
+	/**
+	 * Writes this query as JSON to the given stream. The stream is not closed.
+	 */
+	public void write(OutputStream out) throws IOException {
+		try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+			generator.writeStartObject();
+			writeList(generator, "items", items);
+			writeList(generator, "properties", properties);
+			generator.writeEndObject();
+		}
+	}
+
+	private static void writeList(JsonGenerator generator, String name, List<URI> uris) throws IOException {
+		generator.writeArrayFieldStart(name);
+		for (URI uri : uris) {
+			generator.writeString(uri.toString());
+		}
+		generator.writeEndArray();
+	}
+
+	public static ValuesQuery read(InputStream in) throws IOException {
+		List<URI> items = new ArrayList<>();
+		List<URI> properties = new ArrayList<>();
+		try (JsonParser parser = jsonFactory.createParser(in)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Expected a JSON object as query");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.currentName();
+				if ("items".equals(name)) {
+					readList(parser, items);
+				} else if ("properties".equals(name)) {
+					readList(parser, properties);
+				} else {
+					// ignore unknown fields
+					parser.nextToken();
+					parser.skipChildren();
+				}
+			}
+			if (parser.currentToken() != JsonToken.END_OBJECT) {
+				throw new IOException("Invalid query at " + parser.getCurrentLocation());
+			}
+		}
+		return new ValuesQuery(items, properties);
+	}
+
+	private static void readList(JsonParser parser, List<URI> uris) throws IOException {
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+			throw new IOException("Expected an array of URIs for '" + parser.currentName() + "'");
+		}
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.VALUE_STRING) {
+			try {
+				uris.add(URIs.createURI(parser.getText()));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid URI: " + parser.getText(), e);
+			}
+		}
+		if (token != JsonToken.END_ARRAY) {
+			throw new IOException("Expected an array of URIs at " + parser.getCurrentLocation());
+		}
+	}
+}
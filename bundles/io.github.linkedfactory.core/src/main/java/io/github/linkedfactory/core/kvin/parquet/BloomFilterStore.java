@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.parquet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.HadoopReadOptions;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.column.values.bloomfilter.BloomFilter;
+import org.apache.parquet.hadoop.BloomFilterReader;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static io.github.linkedfactory.core.kvin.parquet.ParquetHelpers.configuration;
+
+/**
+ * Cache for the item id Bloom filters of data files that is used to skip files
+ * which do not contain any of the requested items without opening them.
+ * <p>
+ * The filters of all row groups of a file are loaded once. Row groups without
+ * a Bloom filter (e.g. of files written by older versions) are checked by using
+ * the min/max statistics of the item id column only.
+ */
+class BloomFilterStore {
+	static final Logger log = LoggerFactory.getLogger(BloomFilterStore.class);
+	static final ColumnPath ITEM_ID_COLUMN = ColumnPath.get("itemId");
+
+	static class RowGroupFilter {
+		final long min, max;
+		final BloomFilter bloomFilter;
+
+		RowGroupFilter(long min, long max, BloomFilter bloomFilter) {
+			this.min = min;
+			this.max = max;
+			this.bloomFilter = bloomFilter;
+		}
+
+		boolean mightContain(long itemId) {
+			return itemId >= min && itemId <= max &&
+					(bloomFilter == null || bloomFilter.findHash(bloomFilter.hash(itemId)));
+		}
+	}
+
+	final Cache<Path, RowGroupFilter[]> filterCache;
+
+	BloomFilterStore(long maximumSize) {
+		this.filterCache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+	}
+
+	/**
+	 * Returns true if the given file may contain records of one of the items.
+	 */
+	boolean mightContain(KvinParquet.InputFileInfo fileInfo, long[] itemIds) {
+		RowGroupFilter[] filters;
+		try {
+			filters = filterCache.get(fileInfo.path, () -> loadFilters(fileInfo));
+		} catch (ExecutionException e) {
+			log.error("Error while loading Bloom filters for {}", fileInfo.path, e);
+			return true;
+		}
+		for (RowGroupFilter filter : filters) {
+			for (long itemId : itemIds) {
+				if (itemId != 0L && filter.mightContain(itemId)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	RowGroupFilter[] loadFilters(KvinParquet.InputFileInfo fileInfo) throws IOException {
+		List<BlockMetaData> blocks = fileInfo.metadata.getBlocks();
+		RowGroupFilter[] filters = new RowGroupFilter[blocks.size()];
+		try (ParquetFileReader reader = new ParquetFileReader(configuration, fileInfo.path, fileInfo.metadata,
+				HadoopReadOptions.builder(configuration, fileInfo.path).build())) {
+			for (int i = 0; i < blocks.size(); i++) {
+				BlockMetaData block = blocks.get(i);
+				long min = Long.MIN_VALUE, max = Long.MAX_VALUE;
+				BloomFilter bloomFilter = null;
+				for (ColumnChunkMetaData column : block.getColumns()) {
+					if (ITEM_ID_COLUMN.equals(column.getPath())) {
+						Statistics<?> statistics = column.getStatistics();
+						if (statistics != null && statistics.hasNonNullValue()) {
+							min = (Long) statistics.genericGetMin();
+							max = (Long) statistics.genericGetMax();
+						}
+						BloomFilterReader bloomFilterReader = reader.getBloomFilterDataReader(block);
+						bloomFilter = bloomFilterReader.readBloomFilter(column);
+						break;
+					}
+				}
+				filters[i] = new RowGroupFilter(min, max, bloomFilter);
+			}
+		}
+		return filters;
+	}
+
+	void invalidateAll() {
+		filterCache.invalidateAll();
+	}
+}
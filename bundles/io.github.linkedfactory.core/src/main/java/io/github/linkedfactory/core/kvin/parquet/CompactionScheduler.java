@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.parquet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the {@link Compactor} of an archive as background service.
+ * <p>
+ * A compaction run first merges the mapping files and then compacts the eligible
+ * week folders in the order of their priority. Up to <code>parallelism</code>
+ * folders are merged concurrently while the total read rate of all merges is
+ * limited to <code>maxBytesPerSecond</code>. Each folder is swapped separately
+ * such that the write lock of the archive is only held for moving its files.
+ */
+public class CompactionScheduler implements Closeable {
+	static final Logger log = LoggerFactory.getLogger(CompactionScheduler.class);
+
+	final Compactor compactor;
+	final int parallelism;
+	final ScheduledExecutorService scheduler;
+	final ExecutorService workers;
+	final AtomicBoolean requested = new AtomicBoolean();
+	volatile boolean closed;
+
+	/**
+	 * Creates a scheduler that compacts the archive on request.
+	 *
+	 * @param parallelism       the maximum number of folders that are merged concurrently
+	 * @param maxBytesPerSecond the maximum read rate of all merges or a value &lt;= 0 for no limit
+	 */
+	public CompactionScheduler(KvinParquet kvinParquet, int parallelism, long maxBytesPerSecond) {
+		this(new Compactor(kvinParquet).setMaxBytesPerSecond(maxBytesPerSecond), parallelism);
+	}
+
+	public CompactionScheduler(Compactor compactor, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive.");
+		}
+		this.compactor = compactor;
+		this.parallelism = parallelism;
+		AtomicInteger nr = new AtomicInteger();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "kvin-compaction");
+			t.setDaemon(true);
+			return t;
+		});
+		this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread t = new Thread(r, "kvin-compaction-" + nr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Additionally runs the compaction periodically.
+	 */
+	public CompactionScheduler schedule(Duration interval) {
+		scheduler.scheduleWithFixedDelay(this::requestCompaction, interval.toMillis(), interval.toMillis(),
+				TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	/**
+	 * Requests a compaction run. Multiple requests are combined if a run is already pending.
+	 *
+	 * @return future that completes when the requested run has finished
+	 */
+	public Future<?> requestCompaction() {
+		if (closed) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (requested.compareAndSet(false, true)) {
+			return scheduler.submit(() -> {
+				requested.set(false);
+				run();
+			});
+		}
+		// a run is pending that will also consider the latest changes
+		return scheduler.submit(() -> {
+		});
+	}
+
+	void run() {
+		try {
+			compactor.cleanup();
+			compactor.compactMappingFiles();
+			Compactor.Plan plan = compactor.plan();
+			if (plan.isEmpty()) {
+				return;
+			}
+			log.info("Compacting {} folders", plan.getTasks().size());
+			List<Future<?>> futures = new ArrayList<>();
+			for (Compactor.FolderTask task : plan.getTasks()) {
+				futures.add(workers.submit(() -> {
+					if (!closed) {
+						compactor.compactDataFiles(task.getFolder());
+					}
+					return null;
+				}));
+			}
+			boolean completed = true;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					completed = false;
+					log.error("Compacting folder failed", e.getCause());
+				}
+			}
+			// deletions are only applied if all affected folders have been rewritten
+			if (completed && !closed) {
+				compactor.applyTombstones(plan);
+			}
+			compactor.cleanup();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("Compacting archive store failed", e);
+		}
+	}
+
+	/**
+	 * Stops the scheduler after the running merges have been finished.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+	}
+}
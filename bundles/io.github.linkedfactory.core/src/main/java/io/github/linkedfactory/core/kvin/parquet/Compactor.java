@@ -1,7 +1,9 @@
 package io.github.linkedfactory.core.kvin.parquet;
 
+import com.google.common.util.concurrent.RateLimiter;
 import io.github.linkedfactory.core.kvin.parquet.records.KvinRecord;
 import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.commons.util.Pair;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -9,24 +11,86 @@ import org.apache.hadoop.fs.Path;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
 import org.apache.parquet.hadoop.util.HadoopInputFile;
 import org.eclipse.rdf4j.common.concurrent.locks.Lock;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static io.github.linkedfactory.core.kvin.parquet.ParquetHelpers.*;
 
+/**
+ * Merges the data files of week folders and the mapping files of the archive.
+ * <p>
+ * Each week folder and each mapping type is merged into a separate staging folder
+ * without holding a lock of the archive. Afterwards, only the merged input files
+ * are replaced while holding the write lock. Hence, readers and writers are blocked
+ * just for the time that is required to move the files. Files that are added
+ * concurrently by writers are not touched.
+ */
 public class Compactor {
 	final KvinParquet kvinParquet;
 	final File compactionFolder;
 	String archiveLocation;
 	int dataFileCompactionTrigger, mappingFileCompactionTrigger;
+	RateLimiter rateLimiter;
+
+	/**
+	 * A week folder that should be compacted.
+	 */
+	public static class FolderTask {
+		final File folder;
+		final int fileCount;
+		final long size;
+
+		FolderTask(File folder, int fileCount, long size) {
+			this.folder = folder;
+			this.fileCount = fileCount;
+			this.size = size;
+		}
+
+		public File getFolder() {
+			return folder;
+		}
+
+		@Override
+		public String toString() {
+			return folder + " (" + fileCount + " files, " + size + " bytes)";
+		}
+	}
+
+	/**
+	 * The week folders that should be compacted and the deletions that are applied to them.
+	 */
+	public static class Plan {
+		final List<Tombstones.Tombstone> pendingTombstones;
+		final List<FolderTask> tasks;
+
+		Plan(List<Tombstones.Tombstone> pendingTombstones, List<FolderTask> tasks) {
+			this.pendingTombstones = pendingTombstones;
+			this.tasks = tasks;
+		}
+
+		/**
+		 * Returns the tasks ordered by priority.
+		 */
+		public List<FolderTask> getTasks() {
+			return tasks;
+		}
+
+		public boolean isEmpty() {
+			return tasks.isEmpty() && pendingTombstones.isEmpty();
+		}
+	}
 
 	public Compactor(KvinParquet kvinParquet) {
 		this(kvinParquet, 3, 3);
@@ -40,96 +104,142 @@ public class Compactor {
 		this.mappingFileCompactionTrigger = mappingFileCompactionTrigger;
 	}
 
+	/**
+	 * Limits the rate at which input files are read.
+	 *
+	 * @param maxBytesPerSecond the maximum number of bytes per second or a value &lt;= 0 for no limit
+	 */
+	public Compactor setMaxBytesPerSecond(long maxBytesPerSecond) {
+		this.rateLimiter = maxBytesPerSecond > 0 ? RateLimiter.create(Math.max(1.0, maxBytesPerSecond / 1024.0)) : null;
+		return this;
+	}
+
+	/**
+	 * Compacts all eligible mapping files and week folders sequentially.
+	 */
 	public void execute() throws IOException {
-		Set<String> compactedMappings;
-		List<File> weekFolders;
+		cleanup();
+		compactMappingFiles();
+		Plan plan = plan();
+		for (FolderTask task : plan.getTasks()) {
+			compactDataFiles(task.folder);
+		}
+		applyTombstones(plan);
+		cleanup();
+	}
+
+	/**
+	 * Removes the staging folder, e.g. of an interrupted compaction.
+	 */
+	public void cleanup() throws IOException {
+		if (compactionFolder.exists()) {
+			FileUtils.deleteDirectory(compactionFolder);
+		}
+	}
+
+	/**
+	 * Determines the week folders that need to be compacted, either because they contain too many files or
+	 * because they contain deleted records. Folders with more files and more data come first.
+	 */
+	public Plan plan() throws IOException {
 		Lock readLock = kvinParquet.readLock();
 		try {
-			compactedMappings = compactMappingFiles();
-			weekFolders = getCompactionEligibleWeekFolders();
-			for (File weekFolder : weekFolders) {
-				try {
-					compactDataFiles(weekFolder);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			}
+			// deletions can not happen concurrently as they require the write lock
+			Tombstones tombstones = kvinParquet.getTombstones();
+			List<Tombstones.Tombstone> pendingTombstones = tombstones.pending();
+			List<FolderTask> tasks = getCompactionEligibleWeekFolders(pendingTombstones);
+			tasks.sort(Comparator.<FolderTask>comparingInt(t -> t.fileCount).thenComparingLong(t -> t.size).reversed());
+			return new Plan(pendingTombstones, tasks);
 		} finally {
 			readLock.release();
 		}
+	}
 
-		if (!compactionFolder.exists()) {
-			// nothing to do, compaction was not necessary
+	/**
+	 * Marks the deletions of the plan as applied after all of its tasks have been executed.
+	 */
+	public void applyTombstones(Plan plan) throws IOException {
+		if (plan.pendingTombstones.isEmpty()) {
 			return;
 		}
-
 		Lock writeLock = kvinParquet.writeLock();
 		try {
-			// replace existing files with compacted files
-			if (!compactedMappings.isEmpty()) {
-				// delete compacted mapping files
-				deleteMappingFiles(Paths.get(archiveLocation, "metadata"), compactedMappings);
-			}
-			for (File weekFolder : weekFolders) {
-				FileUtils.cleanDirectory(weekFolder);
-			}
-			java.nio.file.Path source = compactionFolder.toPath();
-			java.nio.file.Path destination = Paths.get(archiveLocation);
-			Files.walk(source)
-					.skip(1)
-					.filter(p -> Files.isRegularFile(p))
-					.forEach(p -> {
-						java.nio.file.Path dest = destination.resolve(source.relativize(p));
-						try {
-							Files.createDirectories(dest.getParent());
-							Files.move(p, dest);
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						}
-					});
-			// completely delete compaction folder
-			FileUtils.deleteDirectory(compactionFolder);
+			// the deleted records have been removed from all data files
+			kvinParquet.setTombstones(kvinParquet.getTombstones().applied(plan.pendingTombstones));
 		} finally {
-			// clear all caches
-			kvinParquet.clearCaches();
 			writeLock.release();
 		}
 	}
 
-	private List<File> getCompactionEligibleWeekFolders() {
-		List<File> weekFolderList = new ArrayList<>();
+	private List<FolderTask> getCompactionEligibleWeekFolders(List<Tombstones.Tombstone> pendingTombstones) throws IOException {
+		List<FolderTask> tasks = new ArrayList<>();
 		File[] yearFolders = new File(archiveLocation).listFiles((file, s) ->
-				!s.startsWith("meta") && !s.startsWith(".compaction"));
+				!s.startsWith("meta") && !s.startsWith("."));
+		if (yearFolders == null) {
+			return tasks;
+		}
 		for (File yearFolder : yearFolders) {
+			if (!yearFolder.isDirectory()) {
+				continue;
+			}
+			Properties yearMeta = new Properties();
+			File yearMetaFile = new File(yearFolder, "meta.properties");
+			if (!pendingTombstones.isEmpty() && yearMetaFile.exists()) {
+				try (InputStream in = new FileInputStream(yearMetaFile)) {
+					yearMeta.load(in);
+				}
+			}
 			File[] weekFolders = yearFolder.listFiles((file) -> file.isDirectory());
 			for (File weekFolder : weekFolders) {
-				File[] dataFiles = weekFolder.listFiles((file, s) -> s.endsWith(".parquet"));
-				if (dataFiles.length >= dataFileCompactionTrigger) {
-					weekFolderList.add(weekFolder);
+				File[] dataFiles = weekFolder.listFiles((file, s) -> s.startsWith("data__") && s.endsWith(".parquet"));
+				if (dataFiles.length >= dataFileCompactionTrigger ||
+						dataFiles.length > 0 && containsDeletedItems(yearMeta.getProperty(weekFolder.getName()), pendingTombstones)) {
+					long size = 0;
+					for (File dataFile : dataFiles) {
+						size += dataFile.length();
+					}
+					tasks.add(new FolderTask(weekFolder, dataFiles.length, size));
 				}
 			}
 		}
-		return weekFolderList;
+		return tasks;
+	}
+
+	private boolean containsDeletedItems(String idRange, List<Tombstones.Tombstone> pendingTombstones) {
+		String[] minMax = idRange == null ? null : idRange.split("-");
+		for (Tombstones.Tombstone tombstone : pendingTombstones) {
+			// rewrite folder if its item id range is unknown
+			if (minMax == null || minMax.length <= 1 || tombstone.itemId >= Long.parseLong(minMax[0]) &&
+					tombstone.itemId <= Long.parseLong(minMax[1])) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	private Set<String> compactMappingFiles() throws IOException {
-		Set<String> compacted = new HashSet<>();
-		Map<String, List<Pair<String, Integer>>> mappingFiles = getMappingFiles(Paths.get(archiveLocation, "metadata"));
+	/**
+	 * Merges the mapping files of each type if their number exceeds the trigger.
+	 */
+	public void compactMappingFiles() throws IOException {
+		java.nio.file.Path metadataPath = Paths.get(archiveLocation, "metadata");
+		Map<String, List<Pair<String, Integer>>> mappingFiles = getMappingFiles(metadataPath);
 		for (Map.Entry<String, List<Pair<String, Integer>>> mapping : mappingFiles.entrySet()) {
 			if (mapping.getValue().size() < mappingFileCompactionTrigger) {
 				// do nothing if number of files for compaction is not yet reached
 				continue;
 			}
-			compacted.add(mapping.getKey());
 
-			Path compactedFile = new Path(new File(compactionFolder, "metadata").toString(), mapping.getKey() + "__1.parquet");
+			java.nio.file.Path stagingFolder = compactionFolder.toPath().resolve("metadata-" + mapping.getKey());
+			Path compactedFile = new Path(stagingFolder.toString(), mapping.getKey() + "__1.parquet");
 			ParquetWriter<Object> compactedFileWriter = getParquetMappingWriter(compactedFile);
 
 			PriorityQueue<Pair<IdMapping, ParquetReader<IdMapping>>> nextMappings =
 					new PriorityQueue<>(Comparator.comparing(p -> p.getFirst().getValue()));
 			for (Pair<String, Integer> file : mapping.getValue()) {
+				java.nio.file.Path mappingFile = metadataPath.resolve(file.getFirst());
+				acquire(Files.size(mappingFile));
 				ParquetReader<IdMapping> mappingFileReader = getParquetMappingReader(
-						HadoopInputFile.fromPath(new Path(archiveLocation + "metadata/" + file.getFirst()), new Configuration()));
+						HadoopInputFile.fromPath(new Path(mappingFile.toString()), new Configuration()));
 				IdMapping idMapping = mappingFileReader.read();
 				if (idMapping != null) {
 					nextMappings.add(new Pair<>(idMapping, mappingFileReader));
@@ -150,8 +260,21 @@ public class Compactor {
 				}
 			}
 			compactedFileWriter.close();
+
+			Lock writeLock = kvinParquet.writeLock();
+			try {
+				// replace only the merged files as further files may have been added concurrently
+				for (Pair<String, Integer> file : mapping.getValue()) {
+					Files.delete(metadataPath.resolve(file.getFirst()));
+				}
+				Files.move(stagingFolder.resolve(compactedFile.getName()), metadataPath.resolve(compactedFile.getName()));
+			} finally {
+				// clear all caches
+				kvinParquet.clearCaches();
+				writeLock.release();
+			}
+			FileUtils.deleteDirectory(stagingFolder.toFile());
 		}
-		return compacted;
 	}
 
 	private ParquetReader<IdMapping> getParquetMappingReader(HadoopInputFile file) throws IOException {
@@ -161,62 +284,140 @@ public class Compactor {
 				.build();
 	}
 
-	private void compactDataFiles(File weekFolder) throws IOException {
+	/**
+	 * Merges the data files of a week folder and removes deleted records.
+	 * <p>
+	 * The data files are listed together with the current tombstones. Hence, each tombstone that is
+	 * newer than a merged file is either applied while merging or it is also newer than the merged file.
+	 */
+	public void compactDataFiles(File weekFolder) throws IOException {
+		List<java.nio.file.Path> dataFiles;
+		Tombstones tombstones;
 		Lock readLock = kvinParquet.readLock();
 		try {
-			List<java.nio.file.Path> dataFiles = Files.walk(weekFolder.toPath(), 1)
-					.skip(1)
-					.filter(path -> path.getFileName().toString().startsWith("data_"))
-					// sort descending by index
-					.sorted(Comparator.comparing(p -> {
-						try {
-							return -Integer.parseInt(p.getFileName().toString()
-									.replaceAll("^.*__", "")
-									.replaceAll("\\..*$", ""));
-						} catch (NumberFormatException nfe) {
-							return 0;
-						}
-					}))
-					.collect(Collectors.toList());
-
-			java.nio.file.Path targetFolder = compactionFolder.toPath().resolve(
-					Paths.get(archiveLocation).relativize(weekFolder.toPath()));
-
-			Path compactionFile = new Path(targetFolder.toAbsolutePath().toString(), "data__1.parquet");
-			ParquetWriter<KvinRecord> compactionFileWriter = getKvinRecordWriter(compactionFile);
-
-			PriorityQueue<Pair<KvinRecord, IExtendedIterator<KvinRecord>>> nextRecords =
-					new PriorityQueue<>(Comparator.comparing(Pair::getFirst));
+			// deletions and writes can not happen concurrently as they require the write lock
+			tombstones = kvinParquet.getTombstones();
+			try (Stream<java.nio.file.Path> files = Files.walk(weekFolder.toPath(), 1)) {
+				dataFiles = files.skip(1)
+						.filter(path -> path.getFileName().toString().startsWith("data_"))
+						// sort descending by index
+						.sorted(Comparator.comparing(p -> {
+							try {
+								return -Integer.parseInt(p.getFileName().toString()
+										.replaceAll("^.*__", "")
+										.replaceAll("\\..*$", ""));
+							} catch (NumberFormatException nfe) {
+								return 0;
+							}
+						}))
+						.collect(Collectors.toList());
+			}
+		} finally {
+			readLock.release();
+		}
+		if (dataFiles.isEmpty()) {
+			return;
+		}
+
+		java.nio.file.Path targetFolder = compactionFolder.toPath().resolve(
+				Paths.get(archiveLocation).relativize(weekFolder.toPath()));
+
+		long generation = 0L;
+		List<IExtendedIterator<KvinRecord>> readers = new ArrayList<>();
+		for (java.nio.file.Path dataFile : dataFiles) {
+			KvinParquet.InputFileInfo fileInfo = kvinParquet.getFile(new Path(dataFile.toString()));
+			generation = Math.max(generation, fileInfo.generation);
+			// omit deleted records
+			readers.add(tombstones.filter(throttle(createKvinRecordReader(fileInfo.path, null),
+					fileInfo.metadata.getBlocks()), fileInfo.generation));
+		}
+
+		Path compactionFile = new Path(targetFolder.toAbsolutePath().toString(), "data__1.parquet");
+		ParquetWriter<KvinRecord> compactionFileWriter = getKvinRecordWriter(compactionFile, generation);
+
+		PriorityQueue<Pair<KvinRecord, IExtendedIterator<KvinRecord>>> nextRecords =
+				new PriorityQueue<>(Comparator.comparing(Pair::getFirst));
+		for (IExtendedIterator<KvinRecord> it : readers) {
+			if (it.hasNext()) {
+				nextRecords.add(new Pair<>(it.next(), it));
+			} else {
+				it.close();
+			}
+		}
+
+		KvinRecord prevRecord = null;
+		while (!nextRecords.isEmpty()) {
+			var pair = nextRecords.poll();
+			if (prevRecord == null || prevRecord.compareTo(pair.getFirst()) != 0) {
+				var tuple = pair.getFirst();
+				compactionFileWriter.write(tuple);
+				prevRecord = tuple;
+			} else if (prevRecord != null) {
+				// omit tuple as it is duplicate in terms of id, time, and seqNr
+			}
+
+			if (pair.getSecond().hasNext()) {
+				nextRecords.add(new Pair<>(pair.getSecond().next(), pair.getSecond()));
+			} else {
+				pair.getSecond().close();
+			}
+		}
+
+		compactionFileWriter.close();
+
+		Lock writeLock = kvinParquet.writeLock();
+		try {
+			// replace only the merged files as further files may have been added concurrently
 			for (java.nio.file.Path dataFile : dataFiles) {
-				IExtendedIterator<KvinRecord> it = createKvinRecordReader(new Path(dataFile.toString()), null);
-				if (it.hasNext()) {
-					nextRecords.add(new Pair<>(it.next(), it));
-				} else {
-					it.close();
-				}
+				Files.delete(dataFile);
 			}
+			Files.move(targetFolder.resolve(compactionFile.getName()), weekFolder.toPath().resolve(compactionFile.getName()),
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			kvinParquet.clearCaches(weekFolder.toPath());
+			writeLock.release();
+		}
+		FileUtils.deleteDirectory(targetFolder.toFile());
+	}
 
-			KvinRecord prevRecord = null;
-			while (!nextRecords.isEmpty()) {
-				var pair = nextRecords.poll();
-				if (prevRecord == null || prevRecord.compareTo(pair.getFirst()) != 0) {
-					var tuple = pair.getFirst();
-					compactionFileWriter.write(tuple);
-					prevRecord = tuple;
-				} else if (prevRecord != null) {
-					// omit tuple as it is duplicate in terms of id, time, and seqNr
-				}
+	/**
+	 * Limits the read rate by acquiring the compressed size of each row group before it is read.
+	 */
+	private IExtendedIterator<KvinRecord> throttle(IExtendedIterator<KvinRecord> records, List<BlockMetaData> blocks) {
+		if (rateLimiter == null) {
+			return records;
+		}
+		return new NiceIterator<>() {
+			int block = 0;
+			long rowsOfBlocks = 0, rows = 0;
 
-				if (pair.getSecond().hasNext()) {
-					nextRecords.add(new Pair<>(pair.getSecond().next(), pair.getSecond()));
-				} else {
-					pair.getSecond().close();
+			@Override
+			public boolean hasNext() {
+				return records.hasNext();
+			}
+
+			@Override
+			public KvinRecord next() {
+				while (rows >= rowsOfBlocks && block < blocks.size()) {
+					acquire(blocks.get(block).getCompressedSize());
+					rowsOfBlocks += blocks.get(block).getRowCount();
+					block++;
 				}
+				rows++;
+				return records.next();
 			}
 
-			compactionFileWriter.close();
-		} finally {
-			readLock.release();
+			@Override
+			public void close() {
+				records.close();
+			}
+		};
+	}
+
+	private void acquire(long bytes) {
+		if (rateLimiter != null) {
+			// permits are kilobytes
+			rateLimiter.acquire((int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / 1024)));
 		}
 	}
 }
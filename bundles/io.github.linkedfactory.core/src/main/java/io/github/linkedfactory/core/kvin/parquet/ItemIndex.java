@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.parquet;
+
+import io.github.linkedfactory.core.kvin.util.Varint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.LongPredicate;
+
+/**
+ * Sorted index of the item URIs and their ids that answers prefix queries in
+ * O(log n + k).
+ * <p>
+ * The index is stored within the metadata folder using front coding and
+ * records the item mapping files that it covers. It is extended with the
+ * mappings of new files and rebuilt if mapping files have been compacted.
+ */
+class ItemIndex {
+	static final String FILE_NAME = "paths.index";
+	static final int VERSION = 1;
+	static final ItemIndex EMPTY = new ItemIndex(new String[0], new long[0], Collections.emptyList());
+
+	final String[] items;
+	final long[] ids;
+	final List<String> sources;
+
+	ItemIndex(String[] items, long[] ids, List<String> sources) {
+		this.items = items;
+		this.ids = ids;
+		this.sources = sources;
+	}
+
+	/**
+	 * Returns a new index that additionally contains the given mappings.
+	 */
+	ItemIndex add(Collection<IdMapping> mappings, List<String> sources) {
+		String[] newItems = Arrays.copyOf(items, items.length + mappings.size());
+		long[] newIds = Arrays.copyOf(ids, ids.length + mappings.size());
+		Integer[] order = new Integer[newItems.length];
+		int i = items.length;
+		for (IdMapping mapping : mappings) {
+			newItems[i] = mapping.getValue();
+			newIds[i] = mapping.getId();
+			i++;
+		}
+		for (i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing(index -> newItems[index]));
+		String[] sortedItems = new String[newItems.length];
+		long[] sortedIds = new long[newItems.length];
+		int size = 0;
+		for (int index : order) {
+			// omit duplicates
+			if (size == 0 || !sortedItems[size - 1].equals(newItems[index])) {
+				sortedItems[size] = newItems[index];
+				sortedIds[size] = newIds[index];
+				size++;
+			}
+		}
+		return new ItemIndex(Arrays.copyOf(sortedItems, size), Arrays.copyOf(sortedIds, size), sources);
+	}
+
+	/**
+	 * Returns all items that start with the given prefix.
+	 *
+	 * @param filter filter for the item ids
+	 */
+	List<String> find(String prefix, long limit, LongPredicate filter) {
+		int pos = Arrays.binarySearch(items, prefix);
+		if (pos < 0) {
+			pos = -(pos + 1);
+		}
+		List<String> result = new ArrayList<>();
+		for (int i = pos; i < items.length && result.size() < limit && items[i].startsWith(prefix); i++) {
+			if (filter.test(ids[i])) {
+				result.add(items[i]);
+			}
+		}
+		return result;
+	}
+
+	int size() {
+		return items.length;
+	}
+
+	static ItemIndex read(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(file));
+		try {
+			if (Varint.readUnsigned(bb) != VERSION) {
+				return null;
+			}
+			int sourceCount = (int) Varint.readUnsigned(bb);
+			List<String> sources = new ArrayList<>(sourceCount);
+			for (int i = 0; i < sourceCount; i++) {
+				sources.add(readString(bb));
+			}
+			int size = (int) Varint.readUnsigned(bb);
+			String[] items = new String[size];
+			long[] ids = new long[size];
+			byte[] prev = new byte[0];
+			for (int i = 0; i < size; i++) {
+				int shared = (int) Varint.readUnsigned(bb);
+				int length = (int) Varint.readUnsigned(bb);
+				byte[] bytes = new byte[shared + length];
+				System.arraycopy(prev, 0, bytes, 0, shared);
+				bb.get(bytes, shared, length);
+				items[i] = new String(bytes, StandardCharsets.UTF_8);
+				ids[i] = Varint.readUnsigned(bb);
+				prev = bytes;
+			}
+			return new ItemIndex(items, ids, sources);
+		} catch (RuntimeException e) {
+			// the index is invalid and is rebuilt
+			return null;
+		}
+	}
+
+	static String readString(ByteBuffer bb) {
+		byte[] bytes = new byte[(int) Varint.readUnsigned(bb)];
+		bb.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	void write(Path file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] varint = new byte[Varint.MAX_BYTES];
+		writeVarint(out, varint, VERSION);
+		writeVarint(out, varint, sources.size());
+		for (String source : sources) {
+			byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+			writeVarint(out, varint, bytes.length);
+			out.write(bytes);
+		}
+		writeVarint(out, varint, items.length);
+		byte[] prev = new byte[0];
+		for (int i = 0; i < items.length; i++) {
+			byte[] bytes = items[i].getBytes(StandardCharsets.UTF_8);
+			int shared = 0;
+			int maxShared = Math.min(prev.length, bytes.length);
+			while (shared < maxShared && prev[shared] == bytes[shared]) {
+				shared++;
+			}
+			writeVarint(out, varint, shared);
+			writeVarint(out, varint, bytes.length - shared);
+			out.write(bytes, shared, bytes.length - shared);
+			writeVarint(out, varint, ids[i]);
+			prev = bytes;
+		}
+		Path tempFile = file.resolveSibling("." + file.getFileName());
+		Files.write(tempFile, out.toByteArray());
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, byte[] buffer, long value) {
+		int length = Varint.calcLengthUnsigned(value);
+		Varint.writeUnsigned(buffer, 0, value);
+		out.write(buffer, 0, length);
+	}
+}
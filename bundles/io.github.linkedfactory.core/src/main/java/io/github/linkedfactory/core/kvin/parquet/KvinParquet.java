@@ -3,13 +3,17 @@ package io.github.linkedfactory.core.kvin.parquet;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinCursor;
 import io.github.linkedfactory.core.kvin.KvinListener;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 import io.github.linkedfactory.core.kvin.Record;
+import io.github.linkedfactory.core.kvin.ValueFilter;
 import io.github.linkedfactory.core.kvin.parquet.records.KvinRecordConverter;
 import io.github.linkedfactory.core.kvin.parquet.records.KvinRecord;
 import io.github.linkedfactory.core.kvin.parquet.records.SimpleGroupExt;
 import io.github.linkedfactory.core.kvin.util.AggregatingIterator;
+import io.github.linkedfactory.core.kvin.util.Aggregator;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.commons.iterator.WrappedIterator;
@@ -23,6 +27,7 @@ import org.apache.parquet.ParquetReadOptions;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.bytes.HeapByteBufferAllocator;
 import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.statistics.Statistics;
 import org.apache.parquet.example.data.Group;
 import org.apache.parquet.filter2.compat.FilterCompat;
 import org.apache.parquet.filter2.predicate.FilterApi;
@@ -63,6 +68,7 @@ import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -101,6 +107,7 @@ public class KvinParquet implements Kvin {
 	final Cache<URI, Long> propertyIdCache = CacheBuilder.newBuilder().maximumSize(10000).build();
 	final Cache<URI, Long> contextIdCache = CacheBuilder.newBuilder().maximumSize(10000).build();
 	final Cache<Pair<Path, Integer>, ColumnIndexStore> indexCache = CacheBuilder.newBuilder().maximumSize(10000).build();
+	final BloomFilterStore bloomFilterStore = new BloomFilterStore(10000);
 
 	// Lock
 	Map<Path, InputFileInfo> inputFileCache = new HashMap<>(); // hadoop input file cache
@@ -109,6 +116,13 @@ public class KvinParquet implements Kvin {
 	Cache<java.nio.file.Path, List<Path>> filesCache = CacheBuilder.newBuilder().maximumSize(10000).build();
 	String archiveLocation;
 	ReadWriteLockManager lockManager = new ReadPrefReadWriteLockManager(true, 5000);
+	volatile ParallelFetch parallelFetch;
+	// deleted values and the index of item URIs, both are reloaded after changes of the archive
+	volatile Tombstones tombstones;
+	volatile ItemIndex itemIndex;
+	final Object itemIndexLock = new Object();
+	// generation of the last write or delete operation
+	long lastGeneration;
 
 	public KvinParquet(String archiveLocation) {
 		this.archiveLocation = archiveLocation;
@@ -135,7 +149,8 @@ public class KvinParquet implements Kvin {
 	private List<IdMapping> fetchMappingIds(Path mappingFile, FilterPredicate filter) throws IOException {
 		List<IdMapping> mappings = null;
 		HadoopInputFile inputFile = getFile(mappingFile).file;
-		try (ParquetReader<IdMapping> reader = createReader(inputFile, FilterCompat.get(filter))) {
+		try (ParquetReader<IdMapping> reader = createReader(inputFile,
+				filter == null ? FilterCompat.NOOP : FilterCompat.get(filter))) {
 			while (true) {
 				var mapping = reader.read();
 				if (mapping != null) {
@@ -181,7 +196,7 @@ public class KvinParquet implements Kvin {
 		}
 	}
 
-	private InputFileInfo getFile(Path path) {
+	InputFileInfo getFile(Path path) {
 		InputFileInfo inputFileInfo;
 		synchronized (inputFileCache) {
 			inputFileInfo = inputFileCache.get(path);
@@ -217,6 +232,52 @@ public class KvinParquet implements Kvin {
 		}
 	}
 
+	/**
+	 * Enables parallel scanning of data files. The files of the current and of
+	 * up to <code>prefetch</code> following week folders are then decoded
+	 * ahead in background tasks before they are merged.
+	 *
+	 * @param parallelFetch the policy for reading files ahead or <code>null</code>
+	 *                      to read all files within the calling thread
+	 */
+	public void setParallelFetch(ParallelFetch parallelFetch) {
+		this.parallelFetch = parallelFetch;
+	}
+
+	@Override
+	public ParallelFetch getParallelFetch() {
+		return parallelFetch;
+	}
+
+	/**
+	 * Returns a new generation for data files and tombstones that is greater than all previous generations.
+	 * <p>
+	 * This method must only be called while holding the write lock.
+	 */
+	long nextGeneration() throws IOException {
+		long generation = Math.max(System.currentTimeMillis(), Math.max(lastGeneration, getTombstones().maxGeneration()) + 1);
+		lastGeneration = generation;
+		return generation;
+	}
+
+	java.nio.file.Path getTombstonesPath() {
+		return Paths.get(archiveLocation, "metadata", Tombstones.FILE_NAME);
+	}
+
+	Tombstones getTombstones() throws IOException {
+		Tombstones current = tombstones;
+		if (current == null) {
+			current = Tombstones.load(getTombstonesPath());
+			tombstones = current;
+		}
+		return current;
+	}
+
+	void setTombstones(Tombstones newTombstones) throws IOException {
+		newTombstones.store(getTombstonesPath());
+		tombstones = newTombstones;
+	}
+
 	@Override
 	public boolean addListener(KvinListener listener) {
 		return false;
@@ -234,14 +295,23 @@ public class KvinParquet implements Kvin {
 
 	@Override
 	public void put(Iterable<KvinTuple> tuples) {
+		put(KvinCursor.of(WrappedIterator.create(tuples.iterator())));
+	}
+
+	/**
+	 * Stores the values of the given cursor without requiring a tuple for each value.
+	 * <p>
+	 * The cursor is not closed by this method.
+	 */
+	public void put(KvinCursor cursor) {
 		try {
-			putInternal(tuples);
+			putInternal(cursor);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	private synchronized void putInternal(Iterable<KvinTuple> tuples) throws IOException {
+	private synchronized void putInternal(KvinCursor cursor) throws IOException {
 		ClassLoader contextCl = Thread.currentThread().getContextClassLoader();
 		Lock writeLock = null;
 		try {
@@ -249,6 +319,11 @@ public class KvinParquet implements Kvin {
 
 			writeLock = writeLock();
 
+			long generation = nextGeneration();
+			Tombstones currentTombstones = getTombstones();
+			// item and context ids of items that have been deleted before
+			Set<Pair<Long, Long>> restoredItems = new HashSet<>();
+
 			java.nio.file.Path metadataPath = Paths.get(archiveLocation, "metadata");
 			WriteContext writeContext = new WriteContext();
 			writeContext.hasExistingData = Files.exists(metadataPath);
@@ -275,10 +350,10 @@ public class KvinParquet implements Kvin {
 
 			WriterState writerState = null;
 			String prevKey = null;
-			for (KvinTuple tuple : tuples) {
+			while (cursor.next()) {
 				KvinRecord record = new KvinRecord();
-
-				Calendar tupleDate = getDate(tuple.time);
+				long time = cursor.getTime();
+				Calendar tupleDate = getDate(time);
 				int year = tupleDate.get(Calendar.YEAR);
 				int week = tupleDate.get(Calendar.WEEK_OF_YEAR);
 
@@ -292,7 +367,7 @@ public class KvinParquet implements Kvin {
 								.resolve(weekFolderName)
 								.resolve("data__1.parquet");
 						Files.createDirectories(file.getParent());
-						writerState = new WriterState(file, getKvinRecordWriter(new Path(file.toString())),
+						writerState = new WriterState(file, getKvinRecordWriter(new Path(file.toString()), generation),
 								year, week);
 						writers.put(key, writerState);
 					}
@@ -300,15 +375,12 @@ public class KvinParquet implements Kvin {
 				}
 
 				// writing mappings and values
-				long[] id = generateIds(tuple, writeContext,
-						itemMappingWriter, propertyMappingWriter, contextMappingWriter);
-				record.itemId = id[0];
-				record.contextId = id[1];
-				record.propertyId = id[2];
-				record.time = tuple.time;
-				record.seqNr = tuple.seqNr;
-
-				Object value = tuple.value;
+				generateIds(cursor.getItem(), cursor.getProperty(), cursor.getContext(), writeContext,
+						itemMappingWriter, propertyMappingWriter, contextMappingWriter, record);
+				record.time = time;
+				record.seqNr = cursor.getSeqNr();
+
+				Object value = cursor.getValue();
 				if (value instanceof Record || value instanceof URI || value instanceof BigInteger ||
 						value instanceof BigDecimal || value instanceof Short || value instanceof Object[]) {
 					value = ByteBuffer.wrap(encodeRecord(value));
@@ -316,6 +388,9 @@ public class KvinParquet implements Kvin {
 				record.value = value;
 
 				writerState.writer.write(record);
+				if (currentTombstones.isItemDeleted(record.itemId, record.contextId)) {
+					restoredItems.add(new Pair<>(record.itemId, record.contextId));
+				}
 				writerState.minMax[0] = Math.min(writerState.minMax[0], writeContext.lastItemId);
 				writerState.minMax[1] = Math.max(writerState.minMax[1], writeContext.lastItemId);
 			}
@@ -414,6 +489,13 @@ public class KvinParquet implements Kvin {
 
 			writeLock = writeLock();
 			moveTempFiles(tempPath);
+			if (!restoredItems.isEmpty()) {
+				Tombstones newTombstones = getTombstones();
+				for (Pair<Long, Long> item : restoredItems) {
+					newTombstones = newTombstones.restore(item.getFirst(), item.getSecond());
+				}
+				setTombstones(newTombstones);
+			}
 		} catch (Throwable e) {
 			log.error("Error while adding data", e);
 		} finally {
@@ -438,6 +520,21 @@ public class KvinParquet implements Kvin {
 				.forEach(File::delete);
 	}
 
+	/**
+	 * Invalidates the cached file lists and file metadata of a single data folder, e.g. after it has been compacted.
+	 */
+	void clearCaches(java.nio.file.Path dataFolder) {
+		java.nio.file.Path folder = dataFolder.toAbsolutePath().normalize();
+		Predicate<Path> inFolder = path -> folder.equals(
+				Paths.get(path.toUri().getPath()).toAbsolutePath().normalize().getParent());
+		filesCache.asMap().keySet().removeIf(path -> folder.equals(path.toAbsolutePath().normalize()));
+		synchronized (inputFileCache) {
+			inputFileCache.keySet().removeIf(inFolder);
+		}
+		indexCache.asMap().keySet().removeIf(key -> inFolder.test(key.getFirst()));
+		bloomFilterStore.filterCache.asMap().keySet().removeIf(inFolder);
+	}
+
 	private void validateAndRepairTempFiles(java.nio.file.Path tempPath) throws IOException {
 		if (Files.exists(tempPath)) {
 			if (Files.exists(tempPath.resolve("valid"))) {
@@ -535,6 +632,9 @@ public class KvinParquet implements Kvin {
 		metaCache.invalidateAll();
 		filesCache.invalidateAll();
 		inputFileCache.clear();
+		bloomFilterStore.invalidateAll();
+		tombstones = null;
+		itemIndex = null;
 
 		// invalidate id caches - TODO could be improved by directly updating the caches
 		itemIdCache.invalidateAll();
@@ -550,14 +650,23 @@ public class KvinParquet implements Kvin {
 		return calendar;
 	}
 
-	private long[] generateIds(KvinTuple tuple,
-	                          WriteContext writeContext,
-	                          ParquetWriter itemMappingWriter,
-	                          ParquetWriter propertyMappingWriter,
-	                          ParquetWriter contextMappingWriter) {
-		long itemId = writeContext.itemMap.computeIfAbsent(tuple.item.toString(), key -> {
+	private void generateIds(URI item, URI property, URI context,
+	                         WriteContext writeContext,
+	                         ParquetWriter itemMappingWriter,
+	                         ParquetWriter propertyMappingWriter,
+	                         ParquetWriter contextMappingWriter,
+	                         KvinRecord record) {
+		// consecutive values of a series share the same URI instances
+		if (item == writeContext.lastItem && property == writeContext.lastProperty &&
+				context == writeContext.lastContext) {
+			record.itemId = writeContext.lastIds[0];
+			record.contextId = writeContext.lastIds[1];
+			record.propertyId = writeContext.lastIds[2];
+			return;
+		}
+		long itemId = writeContext.itemMap.computeIfAbsent(item.toString(), key -> {
 			if (writeContext.hasExistingData) {
-				long id = getId(tuple.item, IdType.ITEM_ID);
+				long id = getId(item, IdType.ITEM_ID);
 				if (id != 0L) {
 					writeContext.lastItemId = id;
 					return id;
@@ -575,9 +684,9 @@ public class KvinParquet implements Kvin {
 			}
 			return newId;
 		});
-		long propertyId = writeContext.propertyMap.computeIfAbsent(tuple.property.toString(), key -> {
+		long propertyId = writeContext.propertyMap.computeIfAbsent(property.toString(), key -> {
 			if (writeContext.hasExistingData) {
-				long id = getId(tuple.property, IdType.PROPERTY_ID);
+				long id = getId(property, IdType.PROPERTY_ID);
 				if (id != 0L) {
 					return id;
 				}
@@ -594,9 +703,9 @@ public class KvinParquet implements Kvin {
 			return newId;
 		});
 
-		long contextId = writeContext.contextMap.computeIfAbsent(tuple.context.toString(), key -> {
+		long contextId = writeContext.contextMap.computeIfAbsent(context.toString(), key -> {
 			if (writeContext.hasExistingData) {
-				long id = getId(tuple.context, IdType.CONTEXT_ID);
+				long id = getId(context, IdType.CONTEXT_ID);
 				if (id != 0L) {
 					return id;
 				}
@@ -612,7 +721,12 @@ public class KvinParquet implements Kvin {
 			}
 			return newId;
 		});
-		return new long[] {itemId, contextId, propertyId};
+		writeContext.lastItem = item;
+		writeContext.lastProperty = property;
+		writeContext.lastContext = context;
+		writeContext.lastIds[0] = record.itemId = itemId;
+		writeContext.lastIds[1] = record.contextId = contextId;
+		writeContext.lastIds[2] = record.propertyId = propertyId;
 	}
 
 	private long getId(URI entity, IdType idType) {
@@ -731,7 +845,7 @@ public class KvinParquet implements Kvin {
 		return ids;
 	}
 
-	private IdMappings getIdMappings(URI item, URI property, URI context) throws IOException {
+	IdMappings getIdMappings(URI item, URI property, URI context) throws IOException {
 		final IdMappings mappings = new IdMappings();
 		if (item != null) {
 			mappings.itemId = getId(item, IdType.ITEM_ID);
@@ -762,6 +876,17 @@ public class KvinParquet implements Kvin {
 		return filter;
 	}
 
+	private FilterPredicate generateFetchFilter(long[] itemIds, long[] propertyIds, long contextId, Long end, Long begin) {
+		FilterPredicate filter = generateFetchFilter(itemIds, propertyIds, contextId);
+		if (filter != null && begin != null) {
+			filter = and(gtEq(FilterApi.longColumn("time"), begin), filter);
+		}
+		if (filter != null && end != null) {
+			filter = and(ltEq(FilterApi.longColumn("time"), end), filter);
+		}
+		return filter;
+	}
+
 	private FilterPredicate createIdFilter(long itemId, long propertyId, long contextId) {
 		if (itemId != 0L && propertyId != 0L && contextId != 0L) {
 			return and(eq(FilterApi.longColumn("propertyId"), propertyId),
@@ -777,17 +902,34 @@ public class KvinParquet implements Kvin {
 
 	@Override
 	public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin, long limit, long interval, String op) {
+		return fetch(items, properties, context, end, begin, limit, interval, op, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The filter is applied to the records of the data files before they are
+	 * converted into tuples.
+	 */
+	@Override
+	public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin,
+	                                          long limit, long interval, String op, ValueFilter filter) {
 		try {
-			IExtendedIterator<KvinTuple> internalResult = fetchInternal(items, properties, context, end, begin, limit);
 			if (op != null) {
-				internalResult = new AggregatingIterator<>(internalResult, interval == 0 ? end - begin : interval, op.trim().toLowerCase(), limit) {
-					@Override
-					protected KvinTuple createElement(URI item, URI property, URI context, long time, int seqNr, Object value) {
-						return new KvinTuple(item, property, context, time, seqNr, value);
+				long aggregationInterval = interval == 0 ? end - begin : interval;
+				if (filter == null && limit == 0 && aggregationInterval > 0 && Aggregator.Op.of(op).supportsPartials()) {
+					// aggregate numeric values directly from the columns of the data files
+					List<KvinTuple> partials = fetchPartials(items, properties, context, end, begin, aggregationInterval);
+					if (partials != null) {
+						return AggregatingIterator.create(partials.iterator(), aggregationInterval, op, limit);
 					}
-				};
+				}
+				// filtered values are only limited after their aggregation
+				return AggregatingIterator.create(fetchInternal(items, properties, context, end, begin,
+						filter == null ? limit : 0L, filter), aggregationInterval, op, limit,
+						items.size() == 1 && properties.size() == 1);
 			}
-			return internalResult;
+			return fetchInternal(items, properties, context, end, begin, limit, filter);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
@@ -797,7 +939,7 @@ public class KvinParquet implements Kvin {
 	public IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long limit) {
 		try {
 			return fetchInternal(List.of(item), property == null ? List.of() : List.of(property),
-					context, null, null, limit);
+					context, null, null, limit, null);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
@@ -809,6 +951,13 @@ public class KvinParquet implements Kvin {
 		return fetch(List.of(item), properties, context, end, begin, limit, interval, op);
 	}
 
+	@Override
+	public IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long end, long begin, long limit,
+	                                          long interval, String op, ValueFilter filter) {
+		var properties = property == null ? Collections.<URI>emptyList() : List.of(property);
+		return fetch(List.of(item), properties, context, end, begin, limit, interval, op, filter);
+	}
+
 	public URI getProperty(long propertyId) throws IOException {
 		URI cachedProperty = propertyIdReverseLookUpCache.getIfPresent(propertyId);
 		if (cachedProperty == null) {
@@ -843,55 +992,62 @@ public class KvinParquet implements Kvin {
 				.build();
 	}
 
-	private IExtendedIterator<KvinRecord> createKvinRecordReader(InputFileInfo fileInfo, FilterCompat.Filter filter) {
-		try {
-			ParquetReadOptions.Builder optionsBuilder = HadoopReadOptions.builder(configuration, fileInfo.path);
-			optionsBuilder.withAllocator(new HeapByteBufferAllocator());
-			optionsBuilder.withRecordFilter(filter);
-			ParquetReadOptions options = optionsBuilder.build();
-			ParquetFileReader r = new ParquetFileReader(configuration, fileInfo.path, fileInfo.metadata, options) {
-				static Field blocksField;
-				static {
-					try {
-						blocksField = ParquetFileReader.class.getDeclaredField("blocks");
-						// make it accessible
-						blocksField.setAccessible(true);
-					} catch (NoSuchFieldException e) {
-						// ignore
-					}
+	/**
+	 * Opens a reader for the row groups and pages of the given file that may match the filter.
+	 */
+	ParquetFileReader openFileReader(InputFileInfo fileInfo, FilterCompat.Filter filter) throws IOException {
+		ParquetReadOptions.Builder optionsBuilder = HadoopReadOptions.builder(configuration, fileInfo.path);
+		optionsBuilder.withAllocator(new HeapByteBufferAllocator());
+		optionsBuilder.withRecordFilter(filter);
+		ParquetReadOptions options = optionsBuilder.build();
+		return new ParquetFileReader(configuration, fileInfo.path, fileInfo.metadata, options) {
+			static Field blocksField;
+			static {
+				try {
+					blocksField = ParquetFileReader.class.getDeclaredField("blocks");
+					// make it accessible
+					blocksField.setAccessible(true);
+				} catch (NoSuchFieldException e) {
+					// ignore
 				}
+			}
 
-				@Override
-				public ColumnIndexStore getColumnIndexStore(int blockIndex) {
-					if (blocksField != null) {
-						try {
-							BlockMetaData block = (BlockMetaData) ((List<?>) blocksField.get(this)).get(blockIndex);
-							return indexCache.get(new Pair<>(fileInfo.path, block.getOrdinal()), () -> {
-								Map<ColumnPath, ColumnIndex> columnIndexes = new HashMap<>();
-								Map<ColumnPath, OffsetIndex> offsetIndexes = new HashMap<>();
-								for (ColumnChunkMetaData columnChunkMetaData : block.getColumns()) {
-									columnIndexes.put(columnChunkMetaData.getPath(), readColumnIndex(columnChunkMetaData));
-									offsetIndexes.put(columnChunkMetaData.getPath(), readOffsetIndex(columnChunkMetaData));
+			@Override
+			public ColumnIndexStore getColumnIndexStore(int blockIndex) {
+				if (blocksField != null) {
+					try {
+						BlockMetaData block = (BlockMetaData) ((List<?>) blocksField.get(this)).get(blockIndex);
+						return indexCache.get(new Pair<>(fileInfo.path, block.getOrdinal()), () -> {
+							Map<ColumnPath, ColumnIndex> columnIndexes = new HashMap<>();
+							Map<ColumnPath, OffsetIndex> offsetIndexes = new HashMap<>();
+							for (ColumnChunkMetaData columnChunkMetaData : block.getColumns()) {
+								columnIndexes.put(columnChunkMetaData.getPath(), readColumnIndex(columnChunkMetaData));
+								offsetIndexes.put(columnChunkMetaData.getPath(), readOffsetIndex(columnChunkMetaData));
+							}
+							return new ColumnIndexStore() {
+								@Override
+								public ColumnIndex getColumnIndex(ColumnPath column) {
+									return columnIndexes.get(column);
 								}
-								return new ColumnIndexStore() {
-									@Override
-									public ColumnIndex getColumnIndex(ColumnPath column) {
-										return columnIndexes.get(column);
-									}
 
-									@Override
-									public OffsetIndex getOffsetIndex(ColumnPath column) throws MissingOffsetIndexException {
-										return offsetIndexes.get(column);
-									}
-								};
-							});
-						} catch (IllegalAccessException | ExecutionException e) {
-							log.error("Error while creating index store", e);
-						}
+								@Override
+								public OffsetIndex getOffsetIndex(ColumnPath column) throws MissingOffsetIndexException {
+									return offsetIndexes.get(column);
+								}
+							};
+						});
+					} catch (IllegalAccessException | ExecutionException e) {
+						log.error("Error while creating index store", e);
 					}
-					return super.getColumnIndexStore(blockIndex);
 				}
-			};
+				return super.getColumnIndexStore(blockIndex);
+			}
+		};
+	}
+
+	private IExtendedIterator<KvinRecord> createKvinRecordReader(InputFileInfo fileInfo, FilterCompat.Filter filter) {
+		try {
+			ParquetFileReader r = openFileReader(fileInfo, filter);
 			return new NiceIterator<>() {
 				RecordReader recordReader;
 				KvinRecord next;
@@ -966,7 +1122,8 @@ public class KvinParquet implements Kvin {
 		}
 	}
 
-	private IExtendedIterator<KvinTuple> fetchInternal(List<URI> items, List<URI> properties, URI context, Long end, Long begin, Long limit) throws IOException {
+	private IExtendedIterator<KvinTuple> fetchInternal(List<URI> items, List<URI> properties, URI context, Long end, Long begin, Long limit,
+	                                                   ValueFilter valueFilter) throws IOException {
 		if (items.size() == 1 && limit != null && limit > 0L) {
 			// this optimizes the case where data needs to be skipped due to a limit as this is currently not
 			// achievable with filters
@@ -983,7 +1140,7 @@ public class KvinParquet implements Kvin {
 					public boolean hasNext() {
 						if (base == null) {
 							try {
-								base = doFetch(items, Collections.singletonList(property), context, end, begin, limit);
+								base = doFetch(items, Collections.singletonList(property), context, end, begin, limit, valueFilter);
 							} catch (IOException e) {
 								throw new UncheckedIOException(e);
 							}
@@ -999,17 +1156,121 @@ public class KvinParquet implements Kvin {
 
 					@Override
 					public void close() {
-						base.close();
+						if (base != null) {
+							base.close();
+						}
 					}
 				});
 			}
 			return it;
 		} else {
-			return doFetch(items, properties, context, end, begin, limit);
+			return doFetch(items, properties, context, end, begin, limit, valueFilter);
 		}
 	}
 
-	private IExtendedIterator<KvinTuple> doFetch(List<URI> items, List<URI> properties, URI context, Long end, Long begin, Long limit) throws IOException {
+	/**
+	 * Computes partial aggregates of the values within the time buckets of the given interval.
+	 *
+	 * @return the partial aggregates or <code>null</code> if the values contain non-numeric values
+	 */
+	private List<KvinTuple> fetchPartials(List<URI> items, List<URI> properties, URI context, long end, long begin,
+	                                      long interval) throws IOException {
+		Lock readLock = readLock();
+		try {
+			long[] itemIds = getIds(items, IdType.ITEM_ID);
+			long[] propertyIds = properties.isEmpty() ? EMPTY_IDS : getIds(properties, IdType.PROPERTY_ID);
+			long contextId = 0;
+			if (context != null) {
+				contextId = getId(context, IdType.CONTEXT_ID);
+			}
+			if (contextId == 0L) {
+				return Collections.emptyList();
+			}
+			FilterPredicate filter = generateFetchFilter(itemIds, propertyIds, contextId, end, begin);
+			if (filter == null) {
+				return Collections.emptyList();
+			}
+			Tombstones tombstones = getTombstones();
+			VectorizedAggregator aggregator = new VectorizedAggregator(itemIds,
+					propertyIds == EMPTY_IDS ? null : propertyIds, contextId, begin, end, interval, tombstones);
+			for (java.nio.file.Path dataFolder : getDataFolders(itemIds)) {
+				List<InputFileInfo> files = new ArrayList<>();
+				for (Path file : getDataFiles(dataFolder.toString())) {
+					InputFileInfo fileInfo = getFile(file);
+					if (bloomFilterStore.mightContain(fileInfo, itemIds)) {
+						files.add(fileInfo);
+					}
+				}
+				if (files.size() == 1) {
+					try (ParquetFileReader reader = openFileReader(files.get(0), FilterCompat.get(filter))) {
+						aggregator.addFile(reader, files.get(0).generation);
+					}
+				} else if (!files.isEmpty()) {
+					// records of multiple files need to be merged to omit duplicates
+					addMergedRecords(aggregator, files, filter, tombstones);
+				}
+			}
+			return aggregator.toTuples(itemId -> {
+				for (int i = 0; i < itemIds.length; i++) {
+					if (itemIds[i] == itemId) {
+						return items.get(i);
+					}
+				}
+				throw new IllegalStateException("Unknown item with id: " + itemId);
+			}, propertyId -> {
+				for (int i = 0; i < propertyIds.length && !properties.isEmpty(); i++) {
+					if (propertyIds[i] == propertyId) {
+						return properties.get(i);
+					}
+				}
+				try {
+					return getProperty(propertyId);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, context);
+		} catch (VectorizedAggregator.NotVectorizableException e) {
+			return null;
+		} finally {
+			readLock.release();
+		}
+	}
+
+	private void addMergedRecords(VectorizedAggregator aggregator, List<InputFileInfo> files, FilterPredicate filter,
+	                              Tombstones tombstones) {
+		PriorityQueue<Pair<KvinRecord, IExtendedIterator<KvinRecord>>> nextRecords =
+				new PriorityQueue<>(Comparator.comparing(Pair::getFirst, KVIN_RECORD_COMPARATOR));
+		try {
+			for (InputFileInfo fileInfo : files) {
+				IExtendedIterator<KvinRecord> reader = tombstones.filter(
+						createKvinRecordReader(fileInfo, FilterCompat.get(filter)), fileInfo.generation);
+				if (reader.hasNext()) {
+					nextRecords.add(new Pair<>(reader.next(), reader));
+				} else {
+					reader.close();
+				}
+			}
+			KvinRecord prevRecord = null;
+			while (!nextRecords.isEmpty()) {
+				Pair<KvinRecord, IExtendedIterator<KvinRecord>> min = nextRecords.poll();
+				KvinRecord record = min.getFirst();
+				if (prevRecord == null || KVIN_RECORD_COMPARATOR.compare(prevRecord, record) != 0) {
+					aggregator.add(record);
+					prevRecord = record;
+				}
+				if (min.getSecond().hasNext()) {
+					nextRecords.add(new Pair<>(min.getSecond().next(), min.getSecond()));
+				} else {
+					min.getSecond().close();
+				}
+			}
+		} finally {
+			nextRecords.forEach(pair -> pair.getSecond().close());
+		}
+	}
+
+	private IExtendedIterator<KvinTuple> doFetch(List<URI> items, List<URI> properties, URI context, Long end, Long begin, Long limit,
+	                                             ValueFilter valueFilter) throws IOException {
 		Lock readLock = readLock();
 		try {
 			URI contextFinal = context != null ? context : Kvin.DEFAULT_CONTEXT;
@@ -1025,20 +1286,16 @@ public class KvinParquet implements Kvin {
 				return NiceIterator.emptyIterator();
 			}
 			// filters
-			FilterPredicate filter = generateFetchFilter(itemIds, propertyIds, contextId);
+			FilterPredicate filter = generateFetchFilter(itemIds, propertyIds, contextId, end, begin);
 			if (filter == null) {
 				// ensure read lock is freed
 				readLock.release();
 				return NiceIterator.emptyIterator();
 			}
-			if (begin != null) {
-				filter = and(gtEq(FilterApi.longColumn("time"), begin), filter);
-			}
-			if (end != null) {
-				filter = and(ltEq(FilterApi.longColumn("time"), end), filter);
-			}
 
 			final FilterPredicate filterFinal = filter;
+			final ParallelFetch parallelFetchFinal = parallelFetch;
+			final Tombstones tombstonesFinal = getTombstones();
 			List<java.nio.file.Path> dataFolders = getDataFolders(itemIds);
 			if (dataFolders.isEmpty()) {
 				// ensure read lock is freed
@@ -1048,10 +1305,13 @@ public class KvinParquet implements Kvin {
 			return new NiceIterator<KvinTuple>() {
 				final PriorityQueue<Pair<KvinRecord, IExtendedIterator<KvinRecord>>> nextTuples =
 						new PriorityQueue<>(Comparator.comparing(Pair::getFirst, KVIN_RECORD_COMPARATOR));
+				// readers of the folders after folderIndex that are already read ahead
+				final Deque<List<IExtendedIterator<KvinRecord>>> aheadReaders = new ArrayDeque<>();
 				KvinRecord prevRecord;
 				KvinTuple nextTuple;
 				long propertyValueCount;
 				int folderIndex = -1;
+				int openedFolderIndex = -1;
 				boolean closed;
 				URI lastItem, lastProperty;
 				long lastItemId, lastPropertyId;
@@ -1098,8 +1358,11 @@ public class KvinParquet implements Kvin {
 								}
 								if (!skipAfterLimit) {
 									prevRecord = min.getFirst();
-									tuple = convert(min.getFirst());
-									propertyValueCount++;
+									// filter records after omitting duplicates as the value of a newer record may be rejected
+									if (valueFilter == null || valueFilter.test(prevRecord.value)) {
+										tuple = convert(prevRecord);
+										propertyValueCount++;
+									}
 								}
 							}
 							if (min.getSecond().hasNext()) {
@@ -1150,6 +1413,9 @@ public class KvinParquet implements Kvin {
 							while (!nextTuples.isEmpty()) {
 								nextTuples.poll().getSecond().close();
 							}
+							while (!aheadReaders.isEmpty()) {
+								aheadReaders.poll().forEach(IExtendedIterator::close);
+							}
 						} finally {
 							readLock.release();
 							closed = true;
@@ -1186,11 +1452,43 @@ public class KvinParquet implements Kvin {
 					return recordToTuple(lastItem, lastProperty, contextFinal, record);
 				}
 
+				List<IExtendedIterator<KvinRecord>> openReaders(int index) throws IOException {
+					List<Path> files = getDataFiles(dataFolders.get(index).toString());
+					List<IExtendedIterator<KvinRecord>> readers = new ArrayList<>(files.size());
+					for (Path file : files) {
+						InputFileInfo fileInfo = getFile(file);
+						if (!bloomFilterStore.mightContain(fileInfo, itemIds)) {
+							// file does not contain any of the items
+							continue;
+						}
+						if (parallelFetchFinal == null) {
+							readers.add(tombstonesFinal.filter(createKvinRecordReader(fileInfo, FilterCompat.get(filterFinal)),
+									fileInfo.generation));
+						} else {
+							// decode file within a background task
+							readers.add(parallelFetchFinal.prefetch(() -> tombstonesFinal.filter(
+									createKvinRecordReader(fileInfo, FilterCompat.get(filterFinal)), fileInfo.generation)));
+						}
+					}
+					return readers;
+				}
+
 				void nextReaders() throws IOException {
 					folderIndex++;
-					List<Path> currentFiles = getDataFiles(dataFolders.get(folderIndex).toString());
-					for (Path file : currentFiles) {
-						IExtendedIterator<KvinRecord> reader = createKvinRecordReader(getFile(file), FilterCompat.get(filterFinal));
+					List<IExtendedIterator<KvinRecord>> readers;
+					if (folderIndex <= openedFolderIndex) {
+						readers = aheadReaders.poll();
+					} else {
+						readers = openReaders(folderIndex);
+						openedFolderIndex = folderIndex;
+					}
+					if (parallelFetchFinal != null) {
+						int lastIndex = Math.min(dataFolders.size() - 1, folderIndex + parallelFetchFinal.getPrefetch());
+						while (openedFolderIndex < lastIndex) {
+							aheadReaders.add(openReaders(++openedFolderIndex));
+						}
+					}
+					for (IExtendedIterator<KvinRecord> reader : readers) {
 						if (reader.hasNext()) {
 							nextTuples.add(new Pair<>(reader.next(), reader));
 						} else {
@@ -1207,12 +1505,53 @@ public class KvinParquet implements Kvin {
 
 	@Override
 	public long delete(URI item, URI property, URI context, long end, long begin) {
-		return 0;
+		URI contextFinal = context != null ? context : Kvin.DEFAULT_CONTEXT;
+		long count = 0;
+		try (IExtendedIterator<KvinTuple> values = fetch(item, property, contextFinal, end, begin, 0, 0, null)) {
+			while (values.hasNext()) {
+				values.next();
+				count++;
+			}
+		}
+		if (count > 0) {
+			addTombstone(item, property, contextFinal, end, begin);
+		}
+		return count;
 	}
 
 	@Override
 	public boolean delete(URI item, URI context) {
-		return false;
+		URI contextFinal = context != null ? context : Kvin.DEFAULT_CONTEXT;
+		boolean exists;
+		try (IExtendedIterator<KvinTuple> values = fetch(item, null, contextFinal, 1)) {
+			exists = values.hasNext();
+		}
+		if (exists) {
+			addTombstone(item, null, contextFinal, KvinTuple.TIME_MAX_VALUE, 0L);
+		}
+		return exists;
+	}
+
+	/**
+	 * Marks the values within the given range as deleted. The values are finally removed by the {@link Compactor}.
+	 */
+	private void addTombstone(URI item, URI property, URI context, long end, long begin) {
+		Lock writeLock = null;
+		try {
+			writeLock = writeLock();
+			IdMappings ids = getIdMappings(item, property, context);
+			if (ids.itemId == 0L || ids.contextId == 0L || property != null && ids.propertyId == 0L) {
+				return;
+			}
+			setTombstones(getTombstones().add(new Tombstones.Tombstone(nextGeneration(),
+					ids.itemId, ids.contextId, ids.propertyId, begin, end, 0)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (writeLock != null) {
+				writeLock.release();
+			}
+		}
 	}
 
 	private long[] splitRange(String range) {
@@ -1278,14 +1617,147 @@ public class KvinParquet implements Kvin {
 				.collect(Collectors.toList());
 	}
 
+	/**
+	 * Estimates the number of values from the row counts and the column statistics
+	 * of the row groups. The ids and times within a row group are assumed to be
+	 * uniformly distributed between their minimum and maximum values.
+	 */
+	@Override
+	public long approximateSize(URI item, URI property, URI context, long end, long begin) {
+		Lock readLock = null;
+		try {
+			readLock = readLock();
+			long itemId = getId(item, IdType.ITEM_ID);
+			long propertyId = property == null ? 0L : getId(property, IdType.PROPERTY_ID);
+			if (itemId == 0L || property != null && propertyId == 0L) {
+				return 0L;
+			}
+			long[] itemIds = {itemId};
+			double size = 0;
+			for (java.nio.file.Path dataFolder : getDataFolders(itemIds)) {
+				for (Path file : getDataFiles(dataFolder.toString())) {
+					InputFileInfo fileInfo = getFile(file);
+					if (bloomFilterStore.mightContain(fileInfo, itemIds)) {
+						for (BlockMetaData block : fileInfo.metadata.getBlocks()) {
+							size += estimateRows(block, itemId, propertyId, end, begin);
+						}
+					}
+				}
+			}
+			return Math.round(size);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (readLock != null) {
+				readLock.release();
+			}
+		}
+	}
+
+	static double estimateRows(BlockMetaData block, long itemId, long propertyId, long end, long begin) {
+		double fraction = 1.0;
+		for (ColumnChunkMetaData column : block.getColumns()) {
+			Statistics<?> statistics = column.getStatistics();
+			if (statistics == null || !statistics.hasNonNullValue()) {
+				continue;
+			}
+			switch (column.getPath().toDotString()) {
+				case "itemId":
+					fraction *= overlap(statistics, itemId, itemId);
+					break;
+				case "propertyId":
+					if (propertyId != 0L) {
+						fraction *= overlap(statistics, propertyId, propertyId);
+					}
+					break;
+				case "time":
+					fraction *= overlap(statistics, begin, end);
+					break;
+			}
+			if (fraction == 0.0) {
+				return 0.0;
+			}
+		}
+		return fraction * block.getRowCount();
+	}
+
+	/**
+	 * Returns the fraction of the value range [min, max] of the statistics that
+	 * lies within [from, to].
+	 */
+	static double overlap(Statistics<?> statistics, long from, long to) {
+		long min = ((Number) statistics.genericGetMin()).longValue();
+		long max = ((Number) statistics.genericGetMax()).longValue();
+		long lower = Math.max(min, from), upper = Math.min(max, to);
+		if (lower > upper) {
+			return 0.0;
+		}
+		return ((double) upper - lower + 1) / ((double) max - min + 1);
+	}
+
 	@Override
 	public IExtendedIterator<URI> descendants(URI item, URI context) {
-		return null;
+		return descendants(item, context, Long.MAX_VALUE);
 	}
 
 	@Override
 	public IExtendedIterator<URI> descendants(URI item, URI context, long limit) {
-		return null;
+		Lock readLock = null;
+		try {
+			readLock = readLock();
+			long contextId = getId(context != null ? context : Kvin.DEFAULT_CONTEXT, IdType.CONTEXT_ID);
+			if (contextId == 0L) {
+				return NiceIterator.emptyIterator();
+			}
+			Tombstones currentTombstones = getTombstones();
+			List<String> items = getItemIndex().find(item.toString(), limit,
+					id -> !currentTombstones.isItemDeleted(id, contextId));
+			return WrappedIterator.create(items.iterator()).mapWith(URIs::createURI);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (readLock != null) {
+				readLock.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of all item URIs. The index is updated if new item mapping files have been added.
+	 */
+	ItemIndex getItemIndex() throws IOException {
+		synchronized (itemIndexLock) {
+			java.nio.file.Path metadataPath = Paths.get(archiveLocation, "metadata");
+			List<String> sources = new ArrayList<>();
+			for (Pair<String, Integer> mappingFile : getMappingFiles(metadataPath).getOrDefault("items", Collections.emptyList())) {
+				sources.add(mappingFile.getFirst() + ":" + Files.size(metadataPath.resolve(mappingFile.getFirst())));
+			}
+			ItemIndex index = itemIndex;
+			if (index != null && index.sources.equals(sources)) {
+				return index;
+			}
+			java.nio.file.Path indexPath = metadataPath.resolve(ItemIndex.FILE_NAME);
+			index = ItemIndex.read(indexPath);
+			if (index == null || !sources.containsAll(index.sources)) {
+				// mapping files have been compacted
+				index = ItemIndex.EMPTY;
+			}
+			if (!index.sources.equals(sources)) {
+				List<IdMapping> mappings = new ArrayList<>();
+				for (String source : sources) {
+					if (!index.sources.contains(source)) {
+						String fileName = source.substring(0, source.lastIndexOf(':'));
+						mappings.addAll(fetchMappingIds(new Path(metadataPath.resolve(fileName).toString()), null));
+					}
+				}
+				index = index.add(mappings, sources);
+				if (Files.isDirectory(metadataPath)) {
+					index.write(indexPath);
+				}
+			}
+			itemIndex = index;
+			return index;
+		}
 	}
 
 	private List<URI> getProperties(long itemId, long contextId) {
@@ -1298,7 +1770,11 @@ public class KvinParquet implements Kvin {
 
 			for (java.nio.file.Path dataFolder : dataFolders) {
 				for (Path dataFile : getDataFiles(dataFolder.toString())) {
-					var reader = createKvinRecordReader(getFile(dataFile), FilterCompat.get(filter));
+					InputFileInfo fileInfo = getFile(dataFile);
+					if (!bloomFilterStore.mightContain(fileInfo, new long[]{itemId})) {
+						continue;
+					}
+					var reader = createKvinRecordReader(fileInfo, FilterCompat.get(filter));
 					while (reader.hasNext()) {
 						var record = reader.next();
 						long currentPropertyId = record.propertyId;
@@ -1329,7 +1805,8 @@ public class KvinParquet implements Kvin {
 		try {
 			readLock = readLock();
 			IdMappings idMappings = getIdMappings(item, null, context);
-			if (idMappings.itemId == 0L || idMappings.contextId == 0L) {
+			if (idMappings.itemId == 0L || idMappings.contextId == 0L ||
+					getTombstones().isItemDeleted(idMappings.itemId, idMappings.contextId)) {
 				return NiceIterator.emptyIterator();
 			}
 			List<URI> properties = getProperties(idMappings.itemId, idMappings.contextId);
@@ -1397,12 +1874,15 @@ public class KvinParquet implements Kvin {
 		final HadoopInputFile file;
 		final ParquetMetadata metadata;
 		final MessageColumnIO columnIO;
+		final long generation;
 
 		InputFileInfo(Path path, HadoopInputFile file, ParquetMetadata metadata) {
 			this.path = path;
 			this.file = file;
 			this.metadata = metadata;
 			this.columnIO = new ColumnIOFactory().getColumnIO(metadata.getFileMetaData().getSchema());
+			String generation = metadata.getFileMetaData().getKeyValueMetaData().get(GENERATION_KEY);
+			this.generation = generation != null ? Long.parseLong(generation) : 0L;
 		}
 	}
 
@@ -1432,5 +1912,8 @@ public class KvinParquet implements Kvin {
 		Map<String, Long> itemMap = new HashMap<>();
 		Map<String, Long> propertyMap = new HashMap<>();
 		Map<String, Long> contextMap = new HashMap<>();
+		// URIs and ids of the last written value
+		URI lastItem, lastProperty, lastContext;
+		final long[] lastIds = new long[3];
 	}
 }
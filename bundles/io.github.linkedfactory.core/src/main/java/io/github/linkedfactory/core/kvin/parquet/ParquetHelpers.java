@@ -55,6 +55,10 @@ public class ParquetHelpers {
 	static final int PAGE_SIZE = 8192; // 8 KB
 	static final int DICT_PAGE_SIZE = 1048576; // 1 MB
 	static final int ZSTD_COMPRESSION_LEVEL = 12; // 1 - 22
+	// expected number of distinct items per row group of data files
+	static final long BLOOM_FILTER_ITEM_NDV = 10000L;
+	// key of the generation within the key-value metadata of data files
+	static final String GENERATION_KEY = "kvin.generation";
 	public static MessageType kvinTupleType = new MessageType("KvinTupleInternal",
 			// new PrimitiveType(Repetition.REQUIRED, PrimitiveType.PrimitiveTypeName.BINARY, "id"),
 
@@ -88,7 +92,12 @@ public class ParquetHelpers {
 	}
 
 	static ParquetWriter<KvinRecord> getKvinRecordWriter(Path dataFile) throws IOException {
+		return getKvinRecordWriter(dataFile, 0L);
+	}
+
+	static ParquetWriter<KvinRecord> getKvinRecordWriter(Path dataFile, long generation) throws IOException {
 		return KvinParquetWriter.builder(HadoopOutputFile.fromPath(dataFile, configuration))
+				.withExtraMetaData(generation > 0 ? Map.of(GENERATION_KEY, String.valueOf(generation)) : Map.of())
 				.withWriterVersion(ParquetProperties.WriterVersion.PARQUET_2_0)
 				.withConf(configuration)
 				.withDictionaryEncoding(true)
@@ -98,7 +107,8 @@ public class ParquetHelpers {
 				.withRowGroupSize(ROW_GROUP_SIZE_DATA)
 				.withPageSize(PAGE_SIZE)
 				.withDictionaryPageSize(DICT_PAGE_SIZE)
-				//.withBloomFilterEnabled("id", true)
+				.withBloomFilterEnabled("itemId", true)
+				.withBloomFilterNDV("itemId", BLOOM_FILTER_ITEM_NDV)
 				.build();
 	}
 
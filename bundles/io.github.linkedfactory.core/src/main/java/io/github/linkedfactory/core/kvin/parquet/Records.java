@@ -64,7 +64,7 @@ public class Records {
 				int lengthBytes = Varint.calcLengthUnsigned(content.length);
 				byte[] uriBytes = new byte[lengthBytes + content.length];
 				Varint.writeUnsigned(uriBytes, 0, content.length);
-				System.arraycopy(content, 0, uriBytes, 1, content.length);
+				System.arraycopy(content, 0, uriBytes, lengthBytes, content.length);
 				baos.write(uriBytes);
 
 				// write the value
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.parquet;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.parquet.records.KvinRecord;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Deleted value ranges of the archive.
+ * <p>
+ * Each tombstone has a generation and only hides records of data files with a
+ * lower generation. Hence, values that are added after a deletion are visible
+ * again. The tombstones are removed by the {@link Compactor} after the affected
+ * data files have been rewritten without the deleted records.
+ */
+class Tombstones {
+	static final String FILE_NAME = "tombstones.properties";
+	static final Tombstones EMPTY = new Tombstones(Collections.emptyList());
+
+	// the records have been removed from all data files
+	static final int APPLIED = 1;
+	// new values have been added for the item after it was deleted
+	static final int RESTORED = 2;
+
+	static class Tombstone {
+		final long generation;
+		final long itemId, contextId, propertyId;
+		final long begin, end;
+		final int flags;
+
+		Tombstone(long generation, long itemId, long contextId, long propertyId, long begin, long end, int flags) {
+			this.generation = generation;
+			this.itemId = itemId;
+			this.contextId = contextId;
+			this.propertyId = propertyId;
+			this.begin = begin;
+			this.end = end;
+			this.flags = flags;
+		}
+
+		static Tombstone parse(String generation, String value) {
+			String[] fields = value.split(",");
+			return new Tombstone(Long.parseLong(generation), Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+					Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+					fields.length > 5 ? Integer.parseInt(fields[5]) : 0);
+		}
+
+		String format() {
+			return itemId + "," + contextId + "," + propertyId + "," + begin + "," + end + "," + flags;
+		}
+
+		Tombstone withFlags(int flags) {
+			return new Tombstone(generation, itemId, contextId, propertyId, begin, end, flags);
+		}
+
+		boolean hasFlag(int flag) {
+			return (flags & flag) != 0;
+		}
+
+		/**
+		 * Returns true if all values of the item within the context are deleted.
+		 */
+		boolean deletesItem() {
+			return propertyId == 0L && begin <= 0L && end >= KvinTuple.TIME_MAX_VALUE;
+		}
+
+		boolean matches(long itemId, long contextId, long propertyId, long time) {
+			return this.itemId == itemId && this.contextId == contextId &&
+					(this.propertyId == 0L || this.propertyId == propertyId) &&
+					time >= begin && time <= end;
+		}
+	}
+
+	final List<Tombstone> tombstones;
+	final Map<Long, List<Tombstone>> byItem = new HashMap<>();
+
+	Tombstones(List<Tombstone> tombstones) {
+		this.tombstones = tombstones;
+		for (Tombstone tombstone : tombstones) {
+			byItem.computeIfAbsent(tombstone.itemId, id -> new ArrayList<>()).add(tombstone);
+		}
+	}
+
+	static Tombstones load(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return EMPTY;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		List<Tombstone> tombstones = new ArrayList<>();
+		for (String generation : properties.stringPropertyNames()) {
+			tombstones.add(Tombstone.parse(generation, properties.getProperty(generation)));
+		}
+		tombstones.sort(Comparator.comparingLong(t -> t.generation));
+		return new Tombstones(tombstones);
+	}
+
+	void store(Path file) throws IOException {
+		if (tombstones.isEmpty()) {
+			Files.deleteIfExists(file);
+			return;
+		}
+		Properties properties = new Properties();
+		for (Tombstone tombstone : tombstones) {
+			properties.put(String.valueOf(tombstone.generation), tombstone.format());
+		}
+		Files.createDirectories(file.getParent());
+		Path tempFile = file.resolveSibling("." + file.getFileName());
+		try (OutputStream out = Files.newOutputStream(tempFile)) {
+			properties.store(out, null);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	boolean isEmpty() {
+		return tombstones.isEmpty();
+	}
+
+	long maxGeneration() {
+		return tombstones.isEmpty() ? 0L : tombstones.get(tombstones.size() - 1).generation;
+	}
+
+	/**
+	 * Returns the tombstones whose records may still exist within some data files.
+	 */
+	List<Tombstone> pending() {
+		List<Tombstone> pending = new ArrayList<>();
+		for (Tombstone tombstone : tombstones) {
+			if (!tombstone.hasFlag(APPLIED)) {
+				pending.add(tombstone);
+			}
+		}
+		return pending;
+	}
+
+	Tombstones add(Tombstone tombstone) {
+		List<Tombstone> newTombstones = new ArrayList<>(tombstones);
+		newTombstones.add(tombstone);
+		return new Tombstones(newTombstones);
+	}
+
+	/**
+	 * Marks the tombstones of items that are deleted completely as restored if
+	 * new values are added for the given item and context.
+	 */
+	Tombstones restore(long itemId, long contextId) {
+		List<Tombstone> newTombstones = null;
+		for (Tombstone tombstone : byItem.getOrDefault(itemId, Collections.emptyList())) {
+			if (tombstone.contextId == contextId && tombstone.deletesItem() && !tombstone.hasFlag(RESTORED)) {
+				if (newTombstones == null) {
+					newTombstones = new ArrayList<>(tombstones);
+				}
+				newTombstones.remove(tombstone);
+				if (!tombstone.hasFlag(APPLIED)) {
+					newTombstones.add(tombstone.withFlags(tombstone.flags | RESTORED));
+				}
+			}
+		}
+		if (newTombstones == null) {
+			return this;
+		}
+		newTombstones.sort(Comparator.comparingLong(t -> t.generation));
+		return new Tombstones(newTombstones);
+	}
+
+	/**
+	 * Removes the given tombstones after they have been applied to all data files.
+	 * Tombstones of deleted items are kept to exclude them from the list of
+	 * descendants unless the items have been restored.
+	 */
+	Tombstones applied(Collection<Tombstone> applied) {
+		Set<Long> generations = new HashSet<>();
+		applied.forEach(t -> generations.add(t.generation));
+		List<Tombstone> newTombstones = new ArrayList<>();
+		for (Tombstone tombstone : tombstones) {
+			if (!generations.contains(tombstone.generation)) {
+				newTombstones.add(tombstone);
+			} else if (tombstone.deletesItem() && !tombstone.hasFlag(RESTORED)) {
+				newTombstones.add(tombstone.withFlags(tombstone.flags | APPLIED));
+			}
+		}
+		return new Tombstones(newTombstones);
+	}
+
+	/**
+	 * Returns true if the record of a data file with the given generation is deleted.
+	 */
+	boolean isDeleted(KvinRecord record, long fileGeneration) {
+		return isDeleted(record.itemId, record.contextId, record.propertyId, record.time, fileGeneration);
+	}
+
+	/**
+	 * Returns true if the value with the given ids and time of a data file with the given generation is deleted.
+	 */
+	boolean isDeleted(long itemId, long contextId, long propertyId, long time, long fileGeneration) {
+		List<Tombstone> candidates = byItem.get(itemId);
+		if (candidates != null) {
+			for (Tombstone tombstone : candidates) {
+				if (tombstone.generation > fileGeneration && !tombstone.hasFlag(APPLIED) &&
+						tombstone.matches(itemId, contextId, propertyId, time)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if any tombstone may hide records of a data file with the given generation.
+	 */
+	boolean affects(long fileGeneration) {
+		for (Tombstone tombstone : tombstones) {
+			if (tombstone.generation > fileGeneration && !tombstone.hasFlag(APPLIED)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if all values of the item within the given context have been deleted.
+	 */
+	boolean isItemDeleted(long itemId, long contextId) {
+		List<Tombstone> candidates = byItem.get(itemId);
+		if (candidates != null) {
+			for (Tombstone tombstone : candidates) {
+				if (tombstone.contextId == contextId && tombstone.deletesItem() && !tombstone.hasFlag(RESTORED)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the deleted records from the records of a data file with the given generation.
+	 */
+	IExtendedIterator<KvinRecord> filter(IExtendedIterator<KvinRecord> records, long fileGeneration) {
+		if (!affects(fileGeneration)) {
+			return records;
+		}
+		return new NiceIterator<>() {
+			KvinRecord next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && records.hasNext()) {
+					KvinRecord record = records.next();
+					if (!isDeleted(record, fileGeneration)) {
+						next = record;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public KvinRecord next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				KvinRecord result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void close() {
+				records.close();
+			}
+		};
+	}
+}
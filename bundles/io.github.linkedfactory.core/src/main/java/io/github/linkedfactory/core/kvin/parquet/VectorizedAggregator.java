@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.parquet;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.parquet.records.KvinRecord;
+import io.github.linkedfactory.core.kvin.util.Aggregator;
+import net.enilink.komma.core.URI;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.LongFunction;
+
+/**
+ * Computes {@link Aggregator.Partial} aggregates over time buckets directly
+ * from the columns of data files.
+ * <p>
+ * The id, time and numeric value columns of each row group are decoded in
+ * batches into primitive arrays that are folded into the partial aggregates
+ * without creating a record for each row. Non-numeric values are not supported
+ * and lead to a {@link NotVectorizableException}. In this case the caller needs
+ * to fall back to the row-based read path.
+ */
+class VectorizedAggregator {
+	static final int BATCH_SIZE = 4096;
+
+	static final byte NO_VALUE = 0;
+	static final byte LONG_VALUE = 1;
+	static final byte DOUBLE_VALUE = 2;
+	static final byte OTHER_VALUE = 3;
+
+	static final GroupConverter NO_OP_CONVERTER = new GroupConverter() {
+		final PrimitiveConverter primitiveConverter = new PrimitiveConverter() {
+		};
+
+		@Override
+		public Converter getConverter(int fieldIndex) {
+			return primitiveConverter;
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void end() {
+		}
+	};
+
+	/**
+	 * Signals that the requested values can not be aggregated by this class.
+	 */
+	static class NotVectorizableException extends RuntimeException {
+		NotVectorizableException(String message) {
+			super(message, null, false, false);
+		}
+	}
+
+	final long[] itemIds;
+	// null if all properties are requested
+	final long[] propertyIds;
+	final long contextId;
+	final long begin, end;
+	final long interval;
+	final Tombstones tombstones;
+
+	// item -> property -> bucket (descending) -> partial
+	final NavigableMap<Long, NavigableMap<Long, NavigableMap<Long, Aggregator.Partial>>> results = new TreeMap<>();
+	NavigableMap<Long, Aggregator.Partial> lastSeries;
+	long lastItemId, lastPropertyId;
+	long lastBucket;
+	Aggregator.Partial lastPartial;
+
+	// key of the previous row of the current file, also across batches and row groups
+	boolean hasPrevRow;
+	long prevItemId, prevContextId, prevPropertyId, prevTime;
+	int prevSeqNr;
+
+	// decoded columns of the current batch
+	final long[] itemIdColumn = new long[BATCH_SIZE];
+	final long[] contextIdColumn = new long[BATCH_SIZE];
+	final long[] propertyIdColumn = new long[BATCH_SIZE];
+	final long[] timeColumn = new long[BATCH_SIZE];
+	final int[] seqNrColumn = new int[BATCH_SIZE];
+	final byte[] valueTypes = new byte[BATCH_SIZE];
+	final long[] longValues = new long[BATCH_SIZE];
+	final double[] doubleValues = new double[BATCH_SIZE];
+
+	/**
+	 * @param itemIds     the requested items
+	 * @param propertyIds the requested properties or <code>null</code> for all properties
+	 * @param interval    the length of the time buckets, must be greater than zero
+	 */
+	VectorizedAggregator(long[] itemIds, long[] propertyIds, long contextId, long begin, long end, long interval,
+	                     Tombstones tombstones) {
+		this.itemIds = itemIds.clone();
+		Arrays.sort(this.itemIds);
+		if (propertyIds != null) {
+			this.propertyIds = propertyIds.clone();
+			Arrays.sort(this.propertyIds);
+		} else {
+			this.propertyIds = null;
+		}
+		this.contextId = contextId;
+		this.begin = begin;
+		this.end = end;
+		this.interval = interval;
+		this.tombstones = tombstones;
+	}
+
+	/**
+	 * Aggregates all matching values of the row groups returned by the given reader.
+	 * <p>
+	 * The rows of the file must not contain duplicates with respect to other files.
+	 */
+	void addFile(ParquetFileReader reader, long generation) throws IOException {
+		MessageType schema = reader.getFileMetaData().getSchema();
+		String createdBy = reader.getFileMetaData().getCreatedBy();
+		boolean checkTombstones = tombstones.affects(generation);
+		// duplicates are only omitted within a file
+		hasPrevRow = false;
+		PageReadStore pages;
+		while ((pages = reader.readNextFilteredRowGroup()) != null) {
+			try {
+				ColumnReadStoreImpl store = new ColumnReadStoreImpl(pages, NO_OP_CONVERTER, schema, createdBy);
+				ColumnReader itemId = store.getColumnReader(column(schema, "itemId"));
+				ColumnReader contextId = store.getColumnReader(column(schema, "contextId"));
+				ColumnReader propertyId = store.getColumnReader(column(schema, "propertyId"));
+				ColumnReader time = store.getColumnReader(column(schema, "time"));
+				ColumnReader seqNr = store.getColumnReader(column(schema, "seqNr"));
+				ColumnReader[] valueColumns = {
+						store.getColumnReader(column(schema, "valueInt")),
+						store.getColumnReader(column(schema, "valueLong")),
+						store.getColumnReader(column(schema, "valueFloat")),
+						store.getColumnReader(column(schema, "valueDouble")),
+						store.getColumnReader(column(schema, "valueString")),
+						store.getColumnReader(column(schema, "valueBool")),
+						store.getColumnReader(column(schema, "valueObject"))
+				};
+				long rowCount = pages.getRowCount();
+				for (long offset = 0; offset < rowCount; offset += BATCH_SIZE) {
+					int size = (int) Math.min(BATCH_SIZE, rowCount - offset);
+					readLongs(itemId, itemIdColumn, size);
+					readLongs(contextId, contextIdColumn, size);
+					readLongs(propertyId, propertyIdColumn, size);
+					readLongs(time, timeColumn, size);
+					for (int i = 0; i < size; i++) {
+						seqNrColumn[i] = seqNr.getInteger();
+						seqNr.consume();
+					}
+					readValues(valueColumns, size);
+					aggregate(size, checkTombstones, generation);
+				}
+			} finally {
+				pages.close();
+			}
+		}
+	}
+
+	static ColumnDescriptor column(MessageType schema, String name) {
+		return schema.getColumnDescription(new String[]{name});
+	}
+
+	static void readLongs(ColumnReader reader, long[] column, int size) {
+		for (int i = 0; i < size; i++) {
+			column[i] = reader.getLong();
+			reader.consume();
+		}
+	}
+
+	void readValues(ColumnReader[] valueColumns, int size) {
+		Arrays.fill(valueTypes, 0, size, NO_VALUE);
+		for (int c = 0; c < valueColumns.length; c++) {
+			ColumnReader reader = valueColumns[c];
+			int maxDefinitionLevel = reader.getDescriptor().getMaxDefinitionLevel();
+			for (int i = 0; i < size; i++) {
+				if (reader.getCurrentDefinitionLevel() == maxDefinitionLevel) {
+					switch (c) {
+						case 0:
+							valueTypes[i] = LONG_VALUE;
+							longValues[i] = reader.getInteger();
+							break;
+						case 1:
+							valueTypes[i] = LONG_VALUE;
+							longValues[i] = reader.getLong();
+							break;
+						case 2:
+							valueTypes[i] = DOUBLE_VALUE;
+							doubleValues[i] = reader.getFloat();
+							break;
+						case 3:
+							valueTypes[i] = DOUBLE_VALUE;
+							doubleValues[i] = reader.getDouble();
+							break;
+						default:
+							// values are not decoded as they can not be aggregated
+							valueTypes[i] = OTHER_VALUE;
+							reader.skip();
+					}
+				}
+				reader.consume();
+			}
+		}
+	}
+
+	void aggregate(int size, boolean checkTombstones, long generation) {
+		for (int i = 0; i < size; i++) {
+			long itemId = itemIdColumn[i], propertyId = propertyIdColumn[i], time = timeColumn[i];
+			long rowContextId = contextIdColumn[i];
+			int seqNr = seqNrColumn[i];
+			// like the row-based read path, only adjacent duplicates are omitted
+			boolean isDuplicate = hasPrevRow && prevItemId == itemId && prevPropertyId == propertyId &&
+					prevContextId == rowContextId && prevTime == time && prevSeqNr == seqNr;
+			hasPrevRow = true;
+			prevItemId = itemId;
+			prevContextId = rowContextId;
+			prevPropertyId = propertyId;
+			prevTime = time;
+			prevSeqNr = seqNr;
+			if (isDuplicate || time < begin || time > end || rowContextId != contextId ||
+					Arrays.binarySearch(itemIds, itemId) < 0 ||
+					propertyIds != null && Arrays.binarySearch(propertyIds, propertyId) < 0) {
+				continue;
+			}
+			if (checkTombstones && tombstones.isDeleted(itemId, contextId, propertyId, time, generation)) {
+				continue;
+			}
+			switch (valueTypes[i]) {
+				case LONG_VALUE:
+					partial(itemId, propertyId, time).addLong(longValues[i]);
+					break;
+				case DOUBLE_VALUE:
+					partial(itemId, propertyId, time).addDouble(doubleValues[i]);
+					break;
+				case OTHER_VALUE:
+					throw new NotVectorizableException("Non-numeric value for item " + itemId + " and property " + propertyId);
+				default:
+					// no value
+			}
+		}
+	}
+
+	/**
+	 * Aggregates a single record that was already filtered by the caller.
+	 */
+	void add(KvinRecord record) {
+		if (!(record.value instanceof Number)) {
+			throw new NotVectorizableException("Non-numeric value for item " + record.itemId +
+					" and property " + record.propertyId);
+		}
+		Number value = (Number) record.value;
+		if (value instanceof Double || value instanceof Float) {
+			partial(record.itemId, record.propertyId, record.time).addDouble(value.doubleValue());
+		} else {
+			partial(record.itemId, record.propertyId, record.time).addLong(value.longValue());
+		}
+	}
+
+	Aggregator.Partial partial(long itemId, long propertyId, long time) {
+		long bucket = time - (time % interval);
+		if (lastPartial != null && bucket == lastBucket && itemId == lastItemId && propertyId == lastPropertyId) {
+			return lastPartial;
+		}
+		if (lastSeries == null || itemId != lastItemId || propertyId != lastPropertyId) {
+			lastSeries = results.computeIfAbsent(itemId, id -> new TreeMap<>())
+					.computeIfAbsent(propertyId, id -> new TreeMap<>(Comparator.reverseOrder()));
+			lastItemId = itemId;
+			lastPropertyId = propertyId;
+		}
+		lastBucket = bucket;
+		lastPartial = lastSeries.computeIfAbsent(bucket, b -> new Aggregator.Partial());
+		return lastPartial;
+	}
+
+	/**
+	 * Returns the partial aggregates ordered like the records of the data files, i.e. by item,
+	 * property and descending time.
+	 */
+	List<KvinTuple> toTuples(LongFunction<URI> items, LongFunction<URI> properties, URI context) {
+		List<KvinTuple> tuples = new ArrayList<>();
+		for (Map.Entry<Long, NavigableMap<Long, NavigableMap<Long, Aggregator.Partial>>> itemEntry : results.entrySet()) {
+			URI item = items.apply(itemEntry.getKey());
+			for (Map.Entry<Long, NavigableMap<Long, Aggregator.Partial>> propertyEntry : itemEntry.getValue().entrySet()) {
+				URI property = properties.apply(propertyEntry.getKey());
+				for (Map.Entry<Long, Aggregator.Partial> bucket : propertyEntry.getValue().entrySet()) {
+					tuples.add(new KvinTuple(item, property, context, bucket.getKey(), bucket.getValue()));
+				}
+			}
+		}
+		return tuples;
+	}
+}
@@ -5,9 +5,11 @@ import io.github.linkedfactory.core.kvin.KvinListener;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb;
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDbArchiver;
-import io.github.linkedfactory.core.kvin.parquet.Compactor;
+import io.github.linkedfactory.core.kvin.parquet.CompactionScheduler;
 import io.github.linkedfactory.core.kvin.parquet.KvinParquet;
 import io.github.linkedfactory.core.kvin.util.AggregatingIterator;
+import io.github.linkedfactory.core.kvin.util.LatestValueCache;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.commons.iterator.WrappedIterator;
@@ -26,6 +28,7 @@ import java.nio.file.Files;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +41,8 @@ public class KvinPartitioned implements Kvin {
 	protected File currentStorePath, currentStoreArchivePath, archiveStorePath;
 	protected volatile KvinLevelDb hotStore, hotStoreArchive;
 	protected KvinParquet archiveStore;
+	protected volatile CompactionScheduler compactionScheduler;
+	protected volatile LatestValueCache<List<URI>> latestValues;
 
 	ReadWriteLockManager lockManager = new ReadPrefReadWriteLockManager(true, 5000);
 
@@ -57,6 +62,7 @@ public class KvinPartitioned implements Kvin {
 			hotStoreArchive = new KvinLevelDb(this.currentStoreArchivePath);
 		}
 		archiveStore = new KvinParquet(archiveStorePath.toString());
+		compactionScheduler = new CompactionScheduler(archiveStore, 1, 0);
 		scheduleCyclicArchival();
 	}
 
@@ -76,6 +82,56 @@ public class KvinPartitioned implements Kvin {
 		}
 	}
 
+	/**
+	 * Enables parallel scanning of the archived data files.
+	 */
+	public void setArchiveParallelFetch(ParallelFetch parallelFetch) {
+		archiveStore.setParallelFetch(parallelFetch);
+	}
+
+	/**
+	 * Configures the background compaction of the archive.
+	 *
+	 * @param parallelism       the maximum number of week folders that are merged concurrently
+	 * @param maxBytesPerSecond the maximum read rate of the compaction or a value &lt;= 0 for no limit
+	 */
+	public void setArchiveCompaction(int parallelism, long maxBytesPerSecond) {
+		CompactionScheduler previous = compactionScheduler;
+		compactionScheduler = new CompactionScheduler(archiveStore, parallelism, maxBytesPerSecond);
+		previous.close();
+	}
+
+	/**
+	 * Requests a compaction of the archive that is executed in the background.
+	 *
+	 * @return future that completes when the compaction has finished
+	 */
+	public Future<?> compactArchive() {
+		return compactionScheduler.requestCompaction();
+	}
+
+	/**
+	 * Enables an in-memory cache for the latest value of each series that is
+	 * used to answer fetches with a limit of 1 without reading the stores.
+	 *
+	 * @param maxBytes the approximate memory budget of the cache or a value &lt;= 0 to disable the cache
+	 */
+	public void enableLatestValueCache(long maxBytes) {
+		// the URIs of the keys are shared with the tuples
+		latestValues = maxBytes > 0 ? new LatestValueCache<>(maxBytes, key -> 64) : null;
+	}
+
+	/**
+	 * Returns the cache for latest values, e.g. to read its hit rate, or <code>null</code> if it is not enabled.
+	 */
+	public LatestValueCache<List<URI>> getLatestValueCache() {
+		return latestValues;
+	}
+
+	static List<URI> seriesKey(URI item, URI property, URI context) {
+		return List.of(item, property, context == null ? Kvin.DEFAULT_CONTEXT : context);
+	}
+
 	public void runArchival() {
 		log.info("Run archival");
 		Lock writeLock = null;
@@ -95,11 +151,7 @@ public class KvinPartitioned implements Kvin {
 
 		try {
 			new KvinLevelDbArchiver(hotStoreArchive, archiveStore).archive();
-			try {
-				new Compactor(archiveStore).execute();
-			} catch (IOException e) {
-				log.error("Compacting archive store failed", e);
-			}
+			compactArchive();
 		} catch (Exception e) {
 			log.error("Archiving data to archive store failed", e);
 		}
@@ -151,9 +203,22 @@ public class KvinPartitioned implements Kvin {
 
 	@Override
 	public void put(Iterable<KvinTuple> tuples) {
+		LatestValueCache<List<URI>> cache = latestValues;
+		if (cache != null && !(tuples instanceof Collection)) {
+			// the tuples are required again to update the cache
+			List<KvinTuple> list = new ArrayList<>();
+			tuples.forEach(list::add);
+			tuples = list;
+		}
 		Lock readLock = readLock();
 		try {
 			hotStore.put(tuples);
+			if (cache != null) {
+				for (KvinTuple tuple : tuples) {
+					cache.update(seriesKey(tuple.item, tuple.property, tuple.context), tuple.context != null ? tuple :
+							new KvinTuple(tuple.item, tuple.property, Kvin.DEFAULT_CONTEXT, tuple.time, tuple.seqNr, tuple.value));
+				}
+			}
 		} finally {
 			readLock.release();
 		}
@@ -180,22 +245,43 @@ public class KvinPartitioned implements Kvin {
 	public IExtendedIterator<KvinTuple> fetch(List<URI> items, List<URI> properties, URI context, long end, long begin, long limit, long interval, String op) {
 		IExtendedIterator<KvinTuple> internalResult = fetchInternal(items, properties, context, end, begin, limit);
 		if (op != null) {
-			internalResult = new AggregatingIterator<>(internalResult, interval == 0 ? end - begin : interval, op.trim().toLowerCase(), limit) {
-				@Override
-				protected KvinTuple createElement(URI item, URI property, URI context, long time, int seqNr, Object value) {
-					return new KvinTuple(item, property, context, time, seqNr, value);
-				}
-			};
+			internalResult = AggregatingIterator.create(internalResult, interval == 0 ? end - begin : interval, op, limit,
+					items.size() == 1 && properties.size() == 1);
 		}
 		return internalResult;
 	}
 
 	@Override
 	public IExtendedIterator<KvinTuple> fetch(URI item, URI property, URI context, long end, long begin, long limit, long interval, String op) {
+		LatestValueCache<List<URI>> cache = latestValues;
+		// values of items with a TTL are removed asynchronously and are therefore not cached
+		if (cache != null && limit == 1 && op == null && property != null &&
+				(item.query() == null || !item.query().contains("ttl="))) {
+			return fetchLatest(cache, item, property, context, end, begin);
+		}
 		var properties = property == null ? Collections.<URI>emptyList() : List.of(property);
 		return fetch(List.of(item),	properties, context, end, begin, limit, interval, op);
 	}
 
+	/**
+	 * Returns the latest value of a series within the given time range from the cache or loads it from the stores.
+	 */
+	protected IExtendedIterator<KvinTuple> fetchLatest(LatestValueCache<List<URI>> cache, URI item, URI property,
+	                                                   URI context, long end, long begin) {
+		List<URI> key = seriesKey(item, property, context);
+		KvinTuple cached = cache.get(key);
+		if (cached != null && cached.time <= end) {
+			// the latest value is either within the range or no value exists within the range
+			return cached.time >= begin ? WrappedIterator.create(List.of(cached).iterator()) : NiceIterator.emptyIterator();
+		}
+		long stamp = cache.stamp(key);
+		List<KvinTuple> latest = fetchInternal(List.of(item), List.of(property), context, end, begin, 1).toList();
+		if (cached == null && end == KvinTuple.TIME_MAX_VALUE && begin == 0 && !latest.isEmpty()) {
+			cache.load(key, latest.get(0), stamp);
+		}
+		return WrappedIterator.create(latest.iterator());
+	}
+
 	protected IExtendedIterator<KvinTuple> fetchInternal(List<URI> items, List<URI> properties, URI context, long end, long begin, long limit) {
 		Lock readLock = readLock();
 		return new NiceIterator<>() {
@@ -322,101 +408,86 @@ public class KvinPartitioned implements Kvin {
 	}
 
 	@Override
-	public long delete(URI item, URI property, URI context, long end, long begin) {
+	public long approximateSize(URI item, URI property, URI context, long end, long begin) {
 		Lock readLock = readLock();
 		try {
-			return hotStore.delete(item, property, context, end, begin);
+			long size = Math.max(0, hotStore.approximateSize(item, property, context, end, begin));
+			if (hotStoreArchive != null) {
+				size += Math.max(0, hotStoreArchive.approximateSize(item, property, context, end, begin));
+			}
+			return size + Math.max(0, archiveStore.approximateSize(item, property, context, end, begin));
 		} finally {
 			readLock.release();
 		}
 	}
 
 	@Override
-	public boolean delete(URI item, URI context) {
+	public long delete(URI item, URI property, URI context, long end, long begin) {
 		Lock readLock = readLock();
 		try {
-			return hotStore.delete(item, context);
+			long count = hotStore.delete(item, property, context, end, begin);
+			if (hotStoreArchive != null) {
+				count += hotStoreArchive.delete(item, property, context, end, begin);
+			}
+			count += archiveStore.delete(item, property, context, end, begin);
+			LatestValueCache<List<URI>> cache = latestValues;
+			if (cache != null) {
+				cache.invalidate(seriesKey(item, property, context));
+			}
+			return count;
 		} finally {
 			readLock.release();
 		}
 	}
 
 	@Override
-	public IExtendedIterator<URI> descendants(URI item, URI context) {
+	public boolean delete(URI item, URI context) {
 		Lock readLock = readLock();
-		IExtendedIterator<URI> results = hotStore.descendants(item, context);
-		return new NiceIterator<>() {
-			boolean closed;
-
-			@Override
-			public boolean hasNext() {
-				if (results.hasNext()) {
-					return true;
-				} else {
-					close();
-					return false;
-				}
+		try {
+			boolean deleted = hotStore.delete(item, context);
+			if (hotStoreArchive != null) {
+				deleted |= hotStoreArchive.delete(item, context);
 			}
-
-			@Override
-			public URI next() {
-				if (hasNext()) {
-					return results.next();
-				}
-				throw new NoSuchElementException();
+			deleted |= archiveStore.delete(item, context);
+			LatestValueCache<List<URI>> cache = latestValues;
+			if (cache != null && deleted) {
+				cache.clear();
 			}
+			return deleted;
+		} finally {
+			readLock.release();
+		}
+	}
 
-			@Override
-			public void close() {
-				if (!closed) {
-					try {
-						results.close();
-					} finally {
-						readLock.release();
-						closed = true;
-					}
-				}
-			}
-		};
+	@Override
+	public IExtendedIterator<URI> descendants(URI item, URI context) {
+		return descendants(item, context, Long.MAX_VALUE);
 	}
 
 	@Override
 	public IExtendedIterator<URI> descendants(URI item, URI context, long limit) {
+		Set<URI> descendants = new LinkedHashSet<>();
 		Lock readLock = readLock();
-		IExtendedIterator<URI> results = hotStore.descendants(item, context, limit);
-		return new NiceIterator<>() {
-			boolean closed;
-
-			@Override
-			public boolean hasNext() {
-				if (results.hasNext()) {
-					return true;
-				} else {
-					close();
-					return false;
-				}
-			}
-
-			@Override
-			public URI next() {
-				if (hasNext()) {
-					return results.next();
-				}
-				throw new NoSuchElementException();
+		try {
+			addDescendants(descendants, hotStore.descendants(item, context, limit), limit);
+			if (hotStoreArchive != null) {
+				addDescendants(descendants, hotStoreArchive.descendants(item, context, limit), limit);
 			}
+			addDescendants(descendants, archiveStore.descendants(item, context, limit), limit);
+		} finally {
+			readLock.release();
+		}
+		return WrappedIterator.create(descendants.iterator());
+	}
 
-			@Override
-			public void close() {
-				if (!closed) {
-					try {
-						results.close();
-					} finally {
-						readLock.release();
-						closed = true;
-					}
-				}
+	private void addDescendants(Set<URI> descendants, IExtendedIterator<URI> it, long limit) {
+		try {
+			while (descendants.size() < limit && it.hasNext()) {
+				descendants.add(it.next());
 			}
-		};
+		} finally {
+			it.close();
+		}
 	}
 
 	@Override
@@ -437,6 +508,7 @@ public class KvinPartitioned implements Kvin {
 
 	@Override
 	public void close() {
+		compactionScheduler.close();
 		Lock readLock = readLock();
 		try {
 			hotStore.close();
@@ -15,24 +15,27 @@
  */
 package io.github.linkedfactory.core.kvin.util;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
-import net.enilink.commons.util.ValueUtils;
 import net.enilink.komma.core.URI;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 
 /**
  * An iterator for KVIN tuples supporting a set of aggregation operators (min,
- * max, sum, avg) that required all values within a given time range. This is
- * actually a helper class for {@link Kvin} compatible stores to provide
- * pre-aggregated values.
+ * max, sum, avg, count, first, last, stddev, variance) that require all values
+ * within a given time range. This is actually a helper class for {@link Kvin}
+ * compatible stores to provide pre-aggregated values.
+ * <p>
+ * The values of each interval are folded into an {@link Aggregator} while
+ * streaming over the base iterator, hence intervals with many values do not
+ * need to be buffered in memory.
  *
  * @param <T>
  *            A sub-class of {@link KvinTuple}
@@ -44,116 +47,148 @@ public abstract class AggregatingIterator<T extends KvinTuple> extends NiceItera
 	final long interval;
 	final String op;
 	final long limit;
+	final boolean singleSeries;
+	final Aggregator aggregator;
 
 	T next;
+	T series;
 	int seqNr = 1;
 	long count = 0;
 
 	public AggregatingIterator(Iterator<T> base, long interval, String op, long limit) {
+		this(base, interval, op, limit, false);
+	}
+
+	/**
+	 * @param singleSeries <code>true</code> if the base iterator contains only the values of one
+	 *                     item-property pair and hence may be abandoned as soon as the limit is reached
+	 */
+	public AggregatingIterator(Iterator<T> base, long interval, String op, long limit, boolean singleSeries) {
 		this.base = base;
 		this.interval = interval;
 		this.op = op;
 		this.limit = limit;
+		this.singleSeries = singleSeries;
+		this.aggregator = new Aggregator(op);
+	}
+
+	/**
+	 * Creates an aggregating iterator that returns plain {@link KvinTuple}
+	 * instances.
+	 */
+	public static IExtendedIterator<KvinTuple> create(Iterator<KvinTuple> base, long interval, String op, long limit) {
+		return create(base, interval, op, limit, false);
+	}
+
+	/**
+	 * Creates an aggregating iterator that returns plain {@link KvinTuple}
+	 * instances and stops reading the base iterator if it only contains one
+	 * series whose limit has been reached.
+	 */
+	public static IExtendedIterator<KvinTuple> create(Iterator<KvinTuple> base, long interval, String op, long limit,
+	                                                  boolean singleSeries) {
+		return new AggregatingIterator<>(base, interval, op, limit, singleSeries) {
+			@Override
+			protected KvinTuple createElement(URI item, URI property, URI context, long time, int seqNr, Object value) {
+				return new KvinTuple(item, property, context, time, seqNr, value);
+			}
+		};
+	}
+
+	/**
+	 * Creates an aggregating iterator that reads the values of the given cursor.
+	 * <p>
+	 * Numeric values are aggregated as primitives if supported by the operator.
+	 */
+	public static IExtendedIterator<KvinTuple> create(KvinCursor base, long interval, String op, long limit) {
+		return new CursorAggregatingIterator(base, interval, op, limit);
 	}
 
 	protected abstract T createElement(URI item, URI property, URI context, long time, int seqNr, Object value);
 
+	long intervalStart(long time) {
+		// an interval of zero aggregates all values into one element
+		return interval > 0 ? time - (time % interval) : 0;
+	}
+
 	@Override
 	public boolean hasNext() {
-		if (next != null) {
-			return true;
-		}
-		boolean hasNext = false;
-		if (limit == 0 || count < limit) {
-			hasNext = base.hasNext();
-		}
-		if (!hasNext) {
-			close();
+		while (true) {
+			if (next == null) {
+				if (!base.hasNext()) {
+					close();
+					return false;
+				}
+				next = base.next();
+			}
+			if (series == null || !sameSeries(series, next)) {
+				// limit and sequence numbers apply to each item-property pair
+				series = next;
+				count = 0;
+				seqNr = 1;
+			}
+			if (limit == 0 || count < limit) {
+				return true;
+			}
+			if (singleSeries) {
+				// no further series exist
+				close();
+				return false;
+			}
+			// skip remaining values of the current series
+			next = null;
 		}
-		return hasNext;
+	}
+
+	static boolean sameSeries(KvinTuple a, KvinTuple b) {
+		return a.item.equals(b.item) && a.property.equals(b.property) &&
+				(a.context == null ? b.context == null : a.context.equals(b.context));
 	}
 
 	@Override
 	public T next() {
-		// keeps elements of current active interval
-		List<T> inInterval = new ArrayList<>();
-		if (next == null) {
-			next = base.next();
-		}
-		inInterval.add(next);
+		ensureHasNext();
+		T first = next;
+		long intervalStart = intervalStart(first.time);
+		long time = interval > 0 ? intervalStart : first.time;
 
-		long intervalStart = next.time - (next.time % interval);
+		aggregator.reset();
+		boolean valid = add(first);
 		next = null;
 		while (base.hasNext()) {
 			T entry = base.next();
-			long entryIntervalStart = entry.time - (entry.time % interval);
-			if (entryIntervalStart != intervalStart) {
+			if (intervalStart(entry.time) != intervalStart || !sameSeries(first, entry)) {
 				next = entry;
 				// starts new interval
 				break;
-			} else {
-				inInterval.add(entry);
+			} else if (valid) {
+				valid = add(entry);
 			}
 		}
 
 		count++;
 		Object value;
-		T first = inInterval.get(0);
-		try {
-			value = aggregate(inInterval, op);
-		} catch (NumberFormatException nfe) {
+		if (valid) {
+			value = aggregator.result();
+		} else {
 			log.error("Invalid number format for item {} and property {} in interval [{}, {}]", first.item,
 					first.property, intervalStart, intervalStart + interval);
 			value = 0;
 		}
-		return createElement(first.item, first.property, first.context, intervalStart, seqNr++, value);
+		return createElement(first.item, first.property, first.context, time, seqNr++, value);
+	}
+
+	boolean add(T entry) {
+		try {
+			aggregator.add(entry.time, entry.value);
+			return true;
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
 	}
 
 	@Override
 	public void close() {
 		close(base);
 	}
-
-	/**
-	 * Applies the given operator to the list of elements.
-	 */
-	protected Object aggregate(List<T> elements, String op) {
-		ValueUtils utils = ValueUtils.getInstance();
-		Iterator<T> it = elements.iterator();
-		Object value = it.next().value;
-		switch (op) {
-		case "min":
-			while (it.hasNext()) {
-				Object current = it.next().value;
-				if (utils.compareWithConversion(value, current) > 0) {
-					value = current;
-				}
-			}
-			break;
-		case "max":
-			while (it.hasNext()) {
-				Object current = it.next().value;
-				if (utils.compareWithConversion(value, current) < 0) {
-					value = current;
-				}
-			}
-			break;
-		case "avg":
-			long count = 1;
-			while (it.hasNext()) {
-				Object current = it.next().value;
-				value = utils.add(value, current);
-				count++;
-			}
-			value = utils.divide(value, count);
-			break;
-		case "sum":
-			while (it.hasNext()) {
-				Object current = it.next().value;
-				value = utils.add(value, current);
-			}
-			break;
-		}
-		return value;
-	}
 }
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import net.enilink.commons.util.ValueUtils;
+
+/**
+ * Streaming accumulator for a single aggregation operator.
+ * <p>
+ * Values are folded one at a time into primitive state, hence the memory
+ * consumption is constant and independent of the number of aggregated values.
+ * Integral numbers are accumulated as <code>long</code> as long as no floating
+ * point value is seen, other numbers as <code>double</code>. Non-numeric values
+ * are only supported by the operators min, max, first and last.
+ * <p>
+ * The operators min, max, sum, avg and count also accept {@link Partial}
+ * values that summarize multiple values, e.g. from pre-aggregated rollups.
+ * <p>
+ * An instance can be reused for multiple intervals by calling {@link #reset()}.
+ */
+public final class Aggregator {
+	/**
+	 * The supported aggregation operators.
+	 */
+	public enum Op {
+		MIN, MAX, SUM, AVG, COUNT, FIRST, LAST, STDDEV, VARIANCE,
+		/**
+		 * Fallback for unknown operators, simply returns the first value that was
+		 * added.
+		 */
+		SAMPLE;
+
+		/**
+		 * Returns the operator for the given name or {@link #SAMPLE} if the name is
+		 * unknown.
+		 */
+		public static Op of(String name) {
+			switch (name.trim().toLowerCase()) {
+				case "min":
+					return MIN;
+				case "max":
+					return MAX;
+				case "sum":
+					return SUM;
+				case "avg":
+				case "mean":
+					return AVG;
+				case "count":
+					return COUNT;
+				case "first":
+					return FIRST;
+				case "last":
+					return LAST;
+				case "stddev":
+					return STDDEV;
+				case "var":
+				case "variance":
+					return VARIANCE;
+				default:
+					return SAMPLE;
+			}
+		}
+
+		/**
+		 * Returns <code>true</code> if this operator can be computed from
+		 * {@link Partial} aggregates.
+		 */
+		public boolean supportsPartials() {
+			return this == MIN || this == MAX || this == SUM || this == AVG || this == COUNT;
+		}
+
+		/**
+		 * Returns <code>true</code> if this operator can be computed by
+		 * {@link Aggregator#addLong(long, long)} and
+		 * {@link Aggregator#addDouble(long, double)} without retaining the
+		 * original value objects.
+		 */
+		public boolean supportsPrimitives() {
+			return this == SUM || this == AVG || this == COUNT || this == STDDEV || this == VARIANCE;
+		}
+	}
+
+	/**
+	 * A summary of multiple numeric values consisting of count, minimum, maximum
+	 * and sum.
+	 */
+	public static final class Partial {
+		public long count;
+		public boolean integral = true;
+		public long minLong, maxLong, sumLong;
+		public double min, max, sum;
+
+		/**
+		 * Adds a numeric value to this summary.
+		 */
+		public void add(Number value) {
+			if (Aggregator.isIntegral(value)) {
+				addLong(value.longValue());
+			} else {
+				addDouble(value.doubleValue());
+			}
+		}
+
+		/**
+		 * Adds an integral value to this summary.
+		 */
+		public void addLong(long v) {
+			if (integral) {
+				long s = sumLong + v;
+				if (((sumLong ^ s) & (v ^ s)) < 0) {
+					toDouble();
+				} else {
+					minLong = count == 0 ? v : Math.min(minLong, v);
+					maxLong = count == 0 ? v : Math.max(maxLong, v);
+					sumLong = s;
+					count++;
+					return;
+				}
+			}
+			addDouble(v);
+		}
+
+		/**
+		 * Adds a floating point value to this summary.
+		 */
+		public void addDouble(double v) {
+			if (integral) {
+				toDouble();
+			}
+			min = count == 0 ? v : Math.min(min, v);
+			max = count == 0 ? v : Math.max(max, v);
+			sum += v;
+			count++;
+		}
+
+		/**
+		 * Adds all values of another summary to this summary.
+		 */
+		public void add(Partial other) {
+			if (other.count == 0) {
+				return;
+			}
+			if (count == 0) {
+				count = other.count;
+				integral = other.integral;
+				minLong = other.minLong;
+				maxLong = other.maxLong;
+				sumLong = other.sumLong;
+				min = other.min;
+				max = other.max;
+				sum = other.sum;
+				return;
+			}
+			if (integral && other.integral) {
+				long s = sumLong + other.sumLong;
+				if (((sumLong ^ s) & (other.sumLong ^ s)) >= 0) {
+					minLong = Math.min(minLong, other.minLong);
+					maxLong = Math.max(maxLong, other.maxLong);
+					sumLong = s;
+					count += other.count;
+					return;
+				}
+			}
+			if (integral) {
+				toDouble();
+			}
+			min = Math.min(min, other.integral ? other.minLong : other.min);
+			max = Math.max(max, other.integral ? other.maxLong : other.max);
+			sum += other.integral ? other.sumLong : other.sum;
+			count += other.count;
+		}
+
+		void toDouble() {
+			integral = false;
+			min = minLong;
+			max = maxLong;
+			sum = sumLong;
+		}
+
+		@Override
+		public String toString() {
+			return "Partial(count=" + count + ", min=" + (integral ? minLong : min) +
+					", max=" + (integral ? maxLong : max) + ", sum=" + (integral ? sumLong : sum) + ")";
+		}
+	}
+
+	final Op op;
+
+	long count;
+	boolean integral;
+	long longValue;
+	double doubleValue;
+	// running mean and sum of squared differences (Welford's algorithm)
+	double mean, m2;
+	// first, last or extreme value in its original representation
+	Object value;
+	long valueTime;
+
+	public Aggregator(Op op) {
+		this.op = op;
+		reset();
+	}
+
+	public Aggregator(String op) {
+		this(Op.of(op));
+	}
+
+	public Op getOp() {
+		return op;
+	}
+
+	/**
+	 * Clears the state of this aggregator so that it can be used for the next
+	 * interval.
+	 */
+	public void reset() {
+		count = 0;
+		integral = true;
+		longValue = 0;
+		doubleValue = 0;
+		mean = 0;
+		m2 = 0;
+		value = null;
+		valueTime = 0;
+	}
+
+	/**
+	 * Returns the number of values that were added since the last reset.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Adds a value with its timestamp to this aggregator.
+	 *
+	 * @throws NumberFormatException if the operator requires a number and the
+	 *                               value can not be converted into one
+	 */
+	public void add(long time, Object value) {
+		if (value instanceof Partial) {
+			addPartial((Partial) value);
+			return;
+		}
+		long n = count++;
+		switch (op) {
+			case COUNT:
+				return;
+			case SAMPLE:
+				if (n == 0) {
+					this.value = value;
+				}
+				return;
+			case FIRST:
+				if (n == 0 || time < valueTime) {
+					this.value = value;
+					this.valueTime = time;
+				}
+				return;
+			case LAST:
+				if (n == 0 || time > valueTime) {
+					this.value = value;
+					this.valueTime = time;
+				}
+				return;
+			case MIN:
+			case MAX:
+				addExtreme(n, value);
+				return;
+			default:
+				break;
+		}
+
+		// numeric operators
+		if (isIntegral(value)) {
+			addLong(((Number) value).longValue());
+		} else {
+			addDouble(value instanceof Number ? ((Number) value).doubleValue() :
+					Double.parseDouble(value.toString()));
+		}
+	}
+
+	/**
+	 * Adds an integral value with its timestamp to this aggregator.
+	 * <p>
+	 * Operators that return one of the original values receive a boxed
+	 * {@link Long}.
+	 */
+	public void addLong(long time, long value) {
+		if (op.supportsPrimitives()) {
+			count++;
+			if (op != Op.COUNT) {
+				addLong(value);
+			}
+		} else {
+			add(time, (Object) value);
+		}
+	}
+
+	/**
+	 * Adds a floating point value with its timestamp to this aggregator.
+	 * <p>
+	 * Operators that return one of the original values receive a boxed
+	 * {@link Double}.
+	 */
+	public void addDouble(long time, double value) {
+		if (op.supportsPrimitives()) {
+			count++;
+			if (op != Op.COUNT) {
+				addDouble(value);
+			}
+		} else {
+			add(time, (Object) value);
+		}
+	}
+
+	void addPartial(Partial p) {
+		if (p.count == 0) {
+			return;
+		}
+		long n = count;
+		count += p.count;
+		switch (op) {
+			case COUNT:
+				return;
+			case MIN:
+				addExtreme(n, p.integral ? (Object) p.minLong : (Object) p.min);
+				return;
+			case MAX:
+				addExtreme(n, p.integral ? (Object) p.maxLong : (Object) p.max);
+				return;
+			case SUM:
+			case AVG:
+				if (p.integral) {
+					addLongSum(p.sumLong);
+				} else {
+					addDoubleSum(p.sum);
+				}
+				return;
+			default:
+				throw new IllegalArgumentException("Operator " + op + " does not support partial aggregates");
+		}
+	}
+
+	void addLong(long v) {
+		addLongSum(v);
+		updateMoments(v);
+	}
+
+	void addDouble(double v) {
+		addDoubleSum(v);
+		updateMoments(v);
+	}
+
+	void addLongSum(long v) {
+		if (integral) {
+			long sum = longValue + v;
+			// detect overflow and switch to floating point
+			if (((longValue ^ sum) & (v ^ sum)) < 0) {
+				integral = false;
+				doubleValue = (double) longValue + v;
+			} else {
+				longValue = sum;
+			}
+		} else {
+			doubleValue += v;
+		}
+	}
+
+	void addDoubleSum(double v) {
+		if (integral) {
+			integral = false;
+			doubleValue = longValue;
+		}
+		doubleValue += v;
+	}
+
+	void updateMoments(double v) {
+		if (op == Op.STDDEV || op == Op.VARIANCE) {
+			double delta = v - mean;
+			mean += delta / count;
+			m2 += delta * (v - mean);
+		}
+	}
+
+	void addExtreme(long n, Object v) {
+		if (n == 0) {
+			value = v;
+			if (isIntegral(v)) {
+				longValue = ((Number) v).longValue();
+			} else if (v instanceof Number) {
+				integral = false;
+				doubleValue = ((Number) v).doubleValue();
+			} else {
+				integral = false;
+			}
+			return;
+		}
+
+		int cmp;
+		if (integral && isIntegral(v)) {
+			cmp = Long.compare(((Number) v).longValue(), longValue);
+			if (op == Op.MIN ? cmp < 0 : cmp > 0) {
+				longValue = ((Number) v).longValue();
+				value = v;
+			}
+			return;
+		}
+		if (v instanceof Number && value instanceof Number) {
+			double d = ((Number) v).doubleValue();
+			double current = integral ? longValue : doubleValue;
+			integral = false;
+			cmp = Double.compare(d, current);
+			if (op == Op.MIN ? cmp < 0 : cmp > 0) {
+				doubleValue = d;
+				value = v;
+			} else {
+				doubleValue = current;
+			}
+			return;
+		}
+		// generic comparison for other values
+		integral = false;
+		cmp = ValueUtils.getInstance().compareWithConversion(v, value);
+		if (op == Op.MIN ? cmp < 0 : cmp > 0) {
+			value = v;
+		}
+	}
+
+	static boolean isIntegral(Object value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+
+	/**
+	 * Returns the aggregated result or <code>null</code> if no value was added.
+	 */
+	public Object result() {
+		if (count == 0) {
+			return null;
+		}
+		switch (op) {
+			case COUNT:
+				return count;
+			case SUM:
+				return integral ? (Object) longValue : (Object) doubleValue;
+			case AVG:
+				return (integral ? (double) longValue : doubleValue) / count;
+			case VARIANCE:
+				return count > 1 ? m2 / (count - 1) : 0.0;
+			case STDDEV:
+				return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0.0;
+			default:
+				return value;
+		}
+	}
+}
@@ -1,90 +1,96 @@
 package io.github.linkedfactory.core.kvin.util;
 
-import io.github.linkedfactory.core.rdf4j.common.query.InnerJoinIterator;
+import io.github.linkedfactory.core.rdf4j.common.query.BatchExchange;
+import io.github.linkedfactory.core.rdf4j.common.query.QueryExecutorService;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
-import org.eclipse.rdf4j.query.QueryEvaluationException;
 
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+/**
+ * Computes the elements of an iterator within a separate thread.
+ * <p>
+ * If the executor declines the task then the iterator is lazily computed
+ * within the consuming thread.
+ */
 public class AsyncExtendedIterator<T> extends NiceIterator<T> {
-	static final Object NULL_ELEMENT = new Object();
-	final BlockingQueue<T> nextElements;
-	volatile boolean closed = false;
-	T next;
+	final BatchExchange<T> exchange;
+	Supplier<IExtendedIterator<T>> base;
+	IExtendedIterator<T> baseIt;
+	boolean closed;
 
 	public AsyncExtendedIterator(Supplier<IExtendedIterator<T>> base, Supplier<ExecutorService> executorService) {
-		nextElements = new ArrayBlockingQueue<>(100);
-		executorService.get().submit(() -> {
-			var baseIt = base.get();
+		BatchExchange<T> exchange = new BatchExchange<>();
+		if (QueryExecutorService.tryExecute(executorService.get(), () -> {
 			try {
-				while (baseIt.hasNext()) {
-					T element = baseIt.next();
-					while (!nextElements.offer(element, 10, TimeUnit.MILLISECONDS)) {
-						if (closed) {
-							return;
-						}
-					}
-				}
-			} catch (InterruptedException e) {
-				// just return
-			} finally {
+				var baseIt = base.get();
 				try {
-					baseIt.close();
-				} finally {
-					try {
-						while (!nextElements.offer((T) NULL_ELEMENT, 10, TimeUnit.MILLISECONDS)) {
-							if (closed) {
-								return;
-							}
-						}
-					} catch (InterruptedException e) {
-						// just return
+					while (baseIt.hasNext() && exchange.add(baseIt.next())) {
+						// continue until the base iterator is exhausted or this iterator is closed
 					}
+				} finally {
+					baseIt.close();
 				}
+				exchange.complete();
+			} catch (Throwable e) {
+				exchange.fail(e);
 			}
-		});
+		})) {
+			this.exchange = exchange;
+		} else {
+			this.exchange = null;
+			this.base = base;
+		}
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (next == null && !closed) {
-			try {
-				T nextElement = nextElements.take();
-				if (nextElement == NULL_ELEMENT) {
-					close();
-				}  else {
-					next = nextElement;
-				}
-			} catch (InterruptedException e) {
-				return false;
-			}
+		if (exchange != null) {
+			return exchange.hasNext();
+		}
+		if (closed) {
+			return false;
+		}
+		if (baseIt == null) {
+			baseIt = base.get();
+			base = null;
 		}
-		return next != null;
+		if (baseIt.hasNext()) {
+			return true;
+		}
+		// release the resources of the exhausted iterator
+		close();
+		return false;
 	}
 
 	@Override
 	public T next() {
+		if (exchange != null) {
+			return exchange.next();
+		}
 		if (!hasNext()) {
 			throw new NoSuchElementException();
 		}
-		T result = next;
-		next = null;
-		return result;
+		return baseIt.next();
 	}
 
 	@Override
-	public void remove() throws QueryEvaluationException {
+	public void remove() {
 		throw new UnsupportedOperationException("Remove is not supported");
 	}
 
 	@Override
 	public void close() {
-		closed = true;
+		if (exchange != null) {
+			exchange.close();
+		} else if (!closed) {
+			closed = true;
+			base = null;
+			if (baseIt != null) {
+				baseIt.close();
+			}
+		}
 	}
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a stream of tuples in batches to a store.
+ * <p>
+ * The tuples are consumed (e.g. parsed) in the calling thread while a single
+ * writer task that is run by the given executor stores the filled batches via
+ * {@link Kvin#put(Iterable)}. Hence, consuming the input and writing to the
+ * store overlap. At most <code>queueSize</code> batches are pending at any
+ * time - if the store falls behind then the calling thread is blocked until
+ * the next batch has been written.
+ * <p>
+ * The writer tasks use a separate thread pool by default to ensure that
+ * uploads do not compete with other tasks like queries. If the executor
+ * rejects the writer task then the batches are written by the calling thread.
+ * <p>
+ * The batches are written in the order of the input. If either the input or
+ * the store fails then the remaining input is not consumed and the error is
+ * rethrown by {@link #write(Iterator)}. Batches that have already been written
+ * are not rolled back.
+ */
+public class BatchWriter {
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+
+	// marks the end of the input
+	static final List<KvinTuple> END = Collections.emptyList();
+
+	static volatile ExecutorService defaultExecutor;
+
+	final Kvin store;
+	final Executor executor;
+	final int batchSize;
+	final int queueSize;
+
+	public BatchWriter(Kvin store) {
+		this(store, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+	}
+
+	public BatchWriter(Kvin store, int batchSize, int queueSize) {
+		this(store, getDefaultExecutor(), batchSize, queueSize);
+	}
+
+	public BatchWriter(Kvin store, Executor executor) {
+		this(store, executor, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+	}
+
+	public BatchWriter(Kvin store, Executor executor, int batchSize, int queueSize) {
+		if (batchSize < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("Batch size and queue size must be positive.");
+		}
+		this.store = store;
+		this.executor = executor;
+		this.batchSize = batchSize;
+		this.queueSize = queueSize;
+	}
+
+	static ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (BatchWriter.class) {
+				if (defaultExecutor == null) {
+					AtomicInteger nr = new AtomicInteger();
+					defaultExecutor = Executors.newCachedThreadPool(r -> {
+						Thread t = new Thread(r, "kvin-batch-writer-" + nr.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * Writes all tuples of the given iterator to the store.
+	 *
+	 * @return the number of written tuples
+	 */
+	public long write(Iterator<KvinTuple> tuples) {
+		List<KvinTuple> batch = nextBatch(tuples);
+		if (batch.size() < batchSize) {
+			// small inputs are directly written by the calling thread
+			if (!batch.isEmpty()) {
+				store.put(batch);
+			}
+			return batch.size();
+		}
+
+		Pipeline pipeline = new Pipeline();
+		long count = 0;
+		try {
+			executor.execute(pipeline);
+		} catch (RejectedExecutionException e) {
+			// write within the calling thread without overlapping input and output
+			while (!batch.isEmpty()) {
+				store.put(batch);
+				count += batch.size();
+				batch = nextBatch(tuples);
+			}
+			return count;
+		}
+		try {
+			while (!batch.isEmpty() && pipeline.error == null) {
+				pipeline.add(batch);
+				count += batch.size();
+				batch = nextBatch(tuples);
+			}
+		} finally {
+			pipeline.add(END);
+			pipeline.await();
+		}
+		Throwable error = pipeline.error;
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new RuntimeException(error);
+		}
+		return count;
+	}
+
+	List<KvinTuple> nextBatch(Iterator<KvinTuple> tuples) {
+		List<KvinTuple> batch = new ArrayList<>(batchSize);
+		while (batch.size() < batchSize && tuples.hasNext()) {
+			batch.add(tuples.next());
+		}
+		return batch;
+	}
+
+	class Pipeline implements Runnable {
+		final BlockingQueue<List<KvinTuple>> queue = new ArrayBlockingQueue<>(queueSize);
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Throwable error;
+
+		void add(List<KvinTuple> batch) {
+			boolean interrupted = false;
+			try {
+				// blocks if the writer falls behind
+				while (done.getCount() > 0) {
+					try {
+						if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+							return;
+						}
+					} catch (InterruptedException e) {
+						// the writer must always receive the end marker
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		void await() {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						done.await();
+						return;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				List<KvinTuple> batch;
+				while ((batch = queue.take()) != END) {
+					// remaining batches are discarded after an error
+					if (error == null) {
+						try {
+							store.put(batch);
+						} catch (Throwable e) {
+							error = e;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				error = e;
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.parquet.Records;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads tuples from the binary format that is written by {@link BinaryFormatWriter}.
+ * <p>
+ * The input is read incrementally and only the current block of values is kept
+ * in memory.
+ */
+public class BinaryFormatParser {
+	final static Logger logger = LoggerFactory.getLogger(BinaryFormatParser.class);
+
+	final InputStream in;
+	final List<URI> dictionary = new ArrayList<>();
+	final byte[] varintBuffer = new byte[Varint.MAX_BYTES];
+
+	public BinaryFormatParser(InputStream in) {
+		this.in = in;
+	}
+
+	public NiceIterator<KvinTuple> parse() {
+		return new NiceIterator<>() {
+			boolean started, finished;
+			// the current block
+			URI item, property, context;
+			int count, index;
+			long[] times = new long[0];
+			int[] seqNrs = new int[0];
+			ByteBuffer values;
+
+			@Override
+			public boolean hasNext() {
+				if (index < count) {
+					return true;
+				}
+				try {
+					if (!started) {
+						started = true;
+						readHeader();
+					}
+					while (!finished && index == count) {
+						readFrame();
+					}
+				} catch (IOException e) {
+					close();
+					throw new RuntimeException(e);
+				}
+				if (finished) {
+					close();
+				}
+				return index < count;
+			}
+
+			@Override
+			public KvinTuple next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				try {
+					Object value = Records.decodeRecord(values);
+					KvinTuple tuple = new KvinTuple(item, property, context, times[index], seqNrs[index], value);
+					index++;
+					return tuple;
+				} catch (IOException e) {
+					close();
+					throw new RuntimeException(e);
+				}
+			}
+
+			private void readHeader() throws IOException {
+				byte[] header = readFully(BinaryFormatWriter.HEADER.length);
+				for (int i = 0; i < 3; i++) {
+					if (header[i] != BinaryFormatWriter.HEADER[i]) {
+						throw new IOException("Invalid binary data");
+					}
+				}
+				if (header[3] != BinaryFormatWriter.VERSION) {
+					throw new IOException("Unsupported version of binary format: " + header[3]);
+				}
+			}
+
+			private void readFrame() throws IOException {
+				int type = in.read();
+				if (type == BinaryFormatWriter.END) {
+					finished = true;
+					return;
+				} else if (type < 0) {
+					throw new EOFException("Unexpected end of binary data");
+				}
+				long length = readVarint();
+				if (length < 0 || length > BinaryFormatWriter.MAX_FRAME_SIZE) {
+					throw new IOException("Invalid frame length: " + length);
+				}
+				byte[] payload = readFully((int) length);
+				if (type == BinaryFormatWriter.URI_FRAME) {
+					dictionary.add(URIs.createURI(new String(payload, StandardCharsets.UTF_8)));
+				} else if (type == BinaryFormatWriter.SERIES_FRAME) {
+					ByteBuffer bb = ByteBuffer.wrap(payload).order(ByteOrder.BIG_ENDIAN);
+					item = lookup(Varint.readUnsigned(bb));
+					property = lookup(Varint.readUnsigned(bb));
+					long contextId = Varint.readUnsigned(bb);
+					context = contextId == 0 ? null : lookup(contextId - 1);
+					long blockSize = Varint.readUnsigned(bb);
+					// each time and sequence number occupies at least one byte
+					if (blockSize < 0 || blockSize > BinaryFormatWriter.MAX_BLOCK_SIZE || 2 * blockSize > bb.remaining()) {
+						throw new IOException("Invalid number of values: " + blockSize);
+					}
+					count = (int) blockSize;
+					index = 0;
+					if (times.length < count) {
+						times = new long[count];
+						seqNrs = new int[count];
+					}
+					long time = 0;
+					for (int i = 0; i < count; i++) {
+						long delta = zigZagDecode(Varint.readUnsigned(bb));
+						time = i == 0 ? delta : time - delta;
+						times[i] = time;
+					}
+					for (int i = 0; i < count; i++) {
+						seqNrs[i] = (int) Varint.readUnsigned(bb);
+					}
+					values = bb;
+				} else {
+					// skip unknown frames for compatibility with future versions
+					logger.debug("Skipping unknown frame of type {}", (char) type);
+				}
+			}
+
+			@Override
+			public void close() {
+				finished = true;
+				count = 0;
+				index = 0;
+				try {
+					in.close();
+				} catch (IOException e) {
+					logger.error("Exception while closing input stream", e);
+				}
+			}
+		};
+	}
+
+	static long zigZagDecode(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	URI lookup(long id) throws IOException {
+		if (id >= dictionary.size()) {
+			throw new IOException("Invalid URI reference: " + id);
+		}
+		return dictionary.get((int) id);
+	}
+
+	long readVarint() throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			throw new EOFException("Unexpected end of binary data");
+		}
+		varintBuffer[0] = (byte) first;
+		int length = Varint.firstToLength((byte) first);
+		for (int i = 1; i < length; i++) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("Unexpected end of binary data");
+			}
+			varintBuffer[i] = (byte) b;
+		}
+		return Varint.readUnsigned(varintBuffer, 0);
+	}
+
+	byte[] readFully(int length) throws IOException {
+		byte[] b = in.readNBytes(length);
+		if (b.length < length) {
+			throw new EOFException("Unexpected end of binary data");
+		}
+		return b;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.parquet.Records;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.komma.core.URI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes tuples in a compact binary format that is read by {@link BinaryFormatParser}.
+ * <p>
+ * The format consists of a header followed by a sequence of frames. Each frame
+ * starts with a type byte and the length of its payload as varint:
+ * <pre>
+ * stream := 'K' 'V' 'B' version frame* 'E'
+ * frame  := 'U' length utf8-bytes
+ *         | 'S' length item property context count time* seqNr* value*
+ * </pre>
+ * A <code>'U'</code> frame adds a URI to the dictionary whose entries are
+ * referenced by their index. An <code>'S'</code> frame contains up to
+ * {@link #MAX_BLOCK_SIZE} consecutive values of one series in columnar form.
+ * Item, property and context are dictionary indexes (the context is stored as
+ * index + 1 and 0 denotes no context). The first time is encoded as zig-zag
+ * varint and the following times as zig-zag varints of the difference to the
+ * previous time. Sequence numbers are varints and values use the encoding of
+ * {@link Records}. The length of a frame is limited to {@link #MAX_FRAME_SIZE}.
+ */
+public class BinaryFormatWriter implements AutoCloseable {
+	public static final String MIME_TYPE = "application/x-kvin";
+	public static final int VERSION = 1;
+	public static final int MAX_BLOCK_SIZE = 1024;
+	/**
+	 * The maximum length of a frame in bytes.
+	 */
+	public static final int MAX_FRAME_SIZE = 1 << 26;
+
+	static final byte[] HEADER = { 'K', 'V', 'B', VERSION };
+	static final byte URI_FRAME = 'U';
+	static final byte SERIES_FRAME = 'S';
+	static final byte END = 'E';
+
+	final OutputStream out;
+	final Map<URI, Integer> dictionary = new HashMap<>();
+	final byte[] varintBuffer = new byte[Varint.MAX_BYTES];
+
+	// the current block
+	URI item, property, context;
+	int count;
+	final long[] times = new long[MAX_BLOCK_SIZE];
+	final int[] seqNrs = new int[MAX_BLOCK_SIZE];
+	final ByteArrayOutputStream values = new ByteArrayOutputStream();
+	final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+	boolean closed;
+
+	public BinaryFormatWriter(OutputStream out) throws IOException {
+		this.out = out;
+		out.write(HEADER);
+	}
+
+	public static byte[] toBytes(IExtendedIterator<KvinTuple> it) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (BinaryFormatWriter writer = new BinaryFormatWriter(baos)) {
+			while (it.hasNext()) {
+				writer.writeTuple(it.next());
+			}
+		} finally {
+			it.close();
+		}
+		return baos.toByteArray();
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static boolean equals(URI a, URI b) {
+		return a == b || a != null && a.equals(b);
+	}
+
+	public void writeTuple(KvinTuple tuple) throws IOException {
+		byte[] value = Records.encodeRecord(tuple.value);
+		// large values are split into multiple blocks to respect the maximum frame size
+		if (count == MAX_BLOCK_SIZE || count > 0 && !(equals(item, tuple.item) && equals(property, tuple.property) &&
+				equals(context, tuple.context)) || count > 0 && values.size() + value.length > MAX_FRAME_SIZE / 2) {
+			flushBlock();
+		}
+		if (count == 0) {
+			item = tuple.item;
+			property = tuple.property;
+			context = tuple.context;
+		}
+		times[count] = tuple.time;
+		seqNrs[count] = tuple.seqNr;
+		values.write(value);
+		count++;
+	}
+
+	int id(URI uri) throws IOException {
+		Integer id = dictionary.get(uri);
+		if (id == null) {
+			byte[] content = uri.toString().getBytes(StandardCharsets.UTF_8);
+			if (content.length > MAX_FRAME_SIZE) {
+				throw new IOException("URI exceeds the maximum frame size of " + MAX_FRAME_SIZE + " bytes");
+			}
+			id = dictionary.size();
+			dictionary.put(uri, id);
+			out.write(URI_FRAME);
+			writeVarint(out, content.length);
+			out.write(content);
+		}
+		return id;
+	}
+
+	void writeVarint(OutputStream stream, long value) throws IOException {
+		Varint.writeUnsigned(varintBuffer, 0, value);
+		stream.write(varintBuffer, 0, Varint.calcLengthUnsigned(value));
+	}
+
+	void flushBlock() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		// the dictionary entries precede the block
+		int itemId = id(item);
+		int propertyId = id(property);
+		int contextId = context == null ? 0 : id(context) + 1;
+
+		frame.reset();
+		writeVarint(frame, itemId);
+		writeVarint(frame, propertyId);
+		writeVarint(frame, contextId);
+		writeVarint(frame, count);
+		writeVarint(frame, zigZag(times[0]));
+		for (int i = 1; i < count; i++) {
+			writeVarint(frame, zigZag(times[i - 1] - times[i]));
+		}
+		for (int i = 0; i < count; i++) {
+			writeVarint(frame, seqNrs[i] & 0xFFFFFFFFL);
+		}
+		values.writeTo(frame);
+		if (frame.size() > MAX_FRAME_SIZE) {
+			throw new IOException("Value exceeds the maximum frame size of " + MAX_FRAME_SIZE + " bytes");
+		}
+
+		out.write(SERIES_FRAME);
+		writeVarint(out, frame.size());
+		frame.writeTo(out);
+		values.reset();
+		count = 0;
+	}
+
+	/**
+	 * Writes all pending values and flushes the underlying stream.
+	 */
+	public void flush() throws IOException {
+		flushBlock();
+		out.flush();
+	}
+
+	/**
+	 * Writes all pending values and the end marker. The underlying stream is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			flushBlock();
+			out.write(END);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinCursor;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.komma.core.URI;
+
+/**
+ * Variant of {@link AggregatingIterator} that reads its values from a
+ * {@link KvinCursor}.
+ * <p>
+ * Numeric values are passed as primitives to the {@link Aggregator} if the
+ * operator does not need to retain the original values.
+ */
+class CursorAggregatingIterator extends NiceIterator<KvinTuple> {
+	final KvinCursor base;
+	final long interval;
+	final long limit;
+	final Aggregator aggregator;
+	final boolean primitives;
+
+	// true if the cursor is positioned at a value that was not yet consumed
+	boolean pending;
+	URI item, property, context;
+	int seqNr = 1;
+	long count = 0;
+
+	CursorAggregatingIterator(KvinCursor base, long interval, String op, long limit) {
+		this.base = base;
+		this.interval = interval;
+		this.limit = limit;
+		this.aggregator = new Aggregator(op);
+		this.primitives = aggregator.getOp().supportsPrimitives();
+	}
+
+	long intervalStart(long time) {
+		// an interval of zero aggregates all values into one element
+		return interval > 0 ? time - (time % interval) : 0;
+	}
+
+	static boolean equals(URI a, URI b) {
+		return a == b || a != null && a.equals(b);
+	}
+
+	boolean sameSeries() {
+		return equals(item, base.getItem()) && equals(property, base.getProperty()) &&
+				equals(context, base.getContext());
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (true) {
+			if (!pending) {
+				if (!base.next()) {
+					close();
+					return false;
+				}
+				pending = true;
+			}
+			if (item == null || !sameSeries()) {
+				// limit and sequence numbers apply to each item-property pair
+				item = base.getItem();
+				property = base.getProperty();
+				context = base.getContext();
+				count = 0;
+				seqNr = 1;
+			}
+			if (limit == 0 || count < limit) {
+				return true;
+			}
+			// skip remaining values of the current series without reading them
+			if (!base.skipSeries()) {
+				close();
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public KvinTuple next() {
+		ensureHasNext();
+		long firstTime = base.getTime();
+		long intervalStart = intervalStart(firstTime);
+		long time = interval > 0 ? intervalStart : firstTime;
+
+		aggregator.reset();
+		boolean valid = add();
+		pending = false;
+		while (base.next()) {
+			if (intervalStart(base.getTime()) != intervalStart || !sameSeries()) {
+				// starts new interval
+				pending = true;
+				break;
+			} else if (valid) {
+				valid = add();
+			}
+		}
+
+		count++;
+		Object value;
+		if (valid) {
+			value = aggregator.result();
+		} else {
+			AggregatingIterator.log.error("Invalid number format for item {} and property {} in interval [{}, {}]",
+					item, property, intervalStart, intervalStart + interval);
+			value = 0;
+		}
+		return new KvinTuple(item, property, context, time, seqNr++, value);
+	}
+
+	boolean add() {
+		long time = base.getTime();
+		try {
+			if (primitives && base.isLong()) {
+				aggregator.addLong(time, base.getLong());
+			} else if (primitives && base.isDouble()) {
+				aggregator.addDouble(time, base.getDouble());
+			} else {
+				aggregator.add(time, base.getValue());
+			}
+			return true;
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
+	}
+
+	@Override
+	public void close() {
+		base.close();
+	}
+}
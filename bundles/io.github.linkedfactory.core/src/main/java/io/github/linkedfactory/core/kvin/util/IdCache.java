@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for the mapping of URIs (or combinations of up to three URIs)
+ * to their binary ids.
+ * <p>
+ * The cache uses primitive arrays with open addressing that are allocated once
+ * for the given capacity. Keys are identified by a 64-bit hash that is derived
+ * from the (cached) hash codes of the key strings and a tag, hence no key
+ * objects are created for lookups.
+ * <p>
+ * Entries are evicted with the scan-resistant S3-FIFO policy: new entries are
+ * first added to a small FIFO queue and only promoted to the main queue if
+ * they are accessed again before they reach its end. Recently evicted keys are
+ * remembered in a ghost table and directly inserted into the main queue.
+ */
+public class IdCache {
+	static final int MAX_FREQ = 3;
+	static final int MIN_SEGMENT_CAPACITY = 1024;
+	static final int MAX_SEGMENTS = 16;
+
+	final Segment[] segments;
+	final int segmentMask;
+	final int capacity;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache for at most <code>capacity</code> entries.
+	 */
+	public IdCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+		int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+		int segmentCapacity = (capacity + segmentCount - 1) / segmentCount;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+		this.segmentMask = segmentCount - 1;
+		this.capacity = segmentCapacity * segmentCount;
+	}
+
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	static long hash(int tag, String k1, String k2, String k3) {
+		long h = tag * 0x9e3779b97f4a7c15L + k1.hashCode();
+		if (k2 != null) {
+			h = h * 0x9e3779b97f4a7c15L + k2.hashCode();
+		}
+		if (k3 != null) {
+			h = h * 0x9e3779b97f4a7c15L + k3.hashCode();
+		}
+		return mix(h);
+	}
+
+	Segment segmentFor(long hash) {
+		return segments[(int) (hash >>> 40) & segmentMask];
+	}
+
+	/**
+	 * Returns the id for the given key or <code>null</code> if it is not cached.
+	 */
+	public byte[] get(int tag, String key) {
+		return get(tag, key, null, null);
+	}
+
+	/**
+	 * Returns the id for the given composite key or <code>null</code> if it is not cached.
+	 */
+	public byte[] get(int tag, String k1, String k2, String k3) {
+		long hash = hash(tag, k1, k2, k3);
+		byte[] id = segmentFor(hash).get(hash, tag, k1, k2, k3);
+		if (id == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return id;
+	}
+
+	/**
+	 * Adds the id for the given key.
+	 */
+	public void put(int tag, String key, byte[] id) {
+		put(tag, key, null, null, id);
+	}
+
+	/**
+	 * Adds the id for the given composite key.
+	 */
+	public void put(int tag, String k1, String k2, String k3, byte[] id) {
+		long hash = hash(tag, k1, k2, k3);
+		if (segmentFor(hash).put(hash, tag, k1, k2, k3, id)) {
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	public double hitRate() {
+		long hits = hitCount();
+		long requests = hits + missCount();
+		return requests == 0 ? 1.0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "IdCache{size=" + size() + ", capacity=" + capacity + ", hits=" + hitCount() + ", misses=" + missCount() +
+				", evictions=" + evictionCount() + "}";
+	}
+
+	static final class Segment {
+		final int capacity;
+		final int smallCapacity;
+
+		// entries
+		final long[] hashes;
+		final int[] tags;
+		final String[] keys;
+		final byte[][] ids;
+		final byte[] freq;
+
+		// hash table with slot + 1 as values
+		final int[] table;
+		final int tableMask;
+
+		// FIFO queues as ring buffers of slots
+		final int[] small;
+		int smallHead, smallSize;
+		final int[] main;
+		int mainHead, mainSize;
+
+		// hashes of recently evicted entries
+		final long[] ghost;
+		final int ghostMask;
+
+		final int[] free;
+		int freeCount;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.smallCapacity = Math.max(1, capacity / 10);
+			this.hashes = new long[capacity];
+			this.tags = new int[capacity];
+			this.keys = new String[capacity * 3];
+			this.ids = new byte[capacity][];
+			this.freq = new byte[capacity];
+			int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+			this.table = new int[tableSize];
+			this.tableMask = tableSize - 1;
+			this.small = new int[capacity];
+			this.main = new int[capacity];
+			int ghostSize = tableSize >>> 1;
+			this.ghost = new long[ghostSize];
+			this.ghostMask = ghostSize - 1;
+			this.free = new int[capacity];
+			initFree();
+		}
+
+		void initFree() {
+			for (int i = 0; i < capacity; i++) {
+				free[i] = capacity - 1 - i;
+			}
+			freeCount = capacity;
+		}
+
+		int size() {
+			return capacity - freeCount;
+		}
+
+		boolean matches(int slot, long hash, int tag, String k1, String k2, String k3) {
+			int k = slot * 3;
+			return hashes[slot] == hash && tags[slot] == tag && k1.equals(keys[k]) &&
+					(k2 == null ? keys[k + 1] == null : k2.equals(keys[k + 1])) &&
+					(k3 == null ? keys[k + 2] == null : k3.equals(keys[k + 2]));
+		}
+
+		int find(long hash, int tag, String k1, String k2, String k3) {
+			int i = (int) hash & tableMask;
+			int s;
+			while ((s = table[i]) != 0) {
+				if (matches(s - 1, hash, tag, k1, k2, k3)) {
+					return i;
+				}
+				i = (i + 1) & tableMask;
+			}
+			return -1;
+		}
+
+		synchronized byte[] get(long hash, int tag, String k1, String k2, String k3) {
+			int pos = find(hash, tag, k1, k2, k3);
+			if (pos < 0) {
+				return null;
+			}
+			int slot = table[pos] - 1;
+			if (freq[slot] < MAX_FREQ) {
+				freq[slot]++;
+			}
+			return ids[slot];
+		}
+
+		/**
+		 * Adds an entry and returns <code>true</code> if another entry has been evicted.
+		 */
+		synchronized boolean put(long hash, int tag, String k1, String k2, String k3, byte[] id) {
+			int pos = find(hash, tag, k1, k2, k3);
+			if (pos >= 0) {
+				ids[table[pos] - 1] = id;
+				return false;
+			}
+			boolean evicted = false;
+			if (freeCount == 0) {
+				evict();
+				evicted = true;
+			}
+			int slot = free[--freeCount];
+			hashes[slot] = hash;
+			tags[slot] = tag;
+			int k = slot * 3;
+			keys[k] = k1;
+			keys[k + 1] = k2;
+			keys[k + 2] = k3;
+			ids[slot] = id;
+			freq[slot] = 0;
+
+			int i = (int) hash & tableMask;
+			while (table[i] != 0) {
+				i = (i + 1) & tableMask;
+			}
+			table[i] = slot + 1;
+
+			int g = ghostIndex(hash);
+			if (ghost[g] == hash) {
+				// the entry has been evicted recently
+				ghost[g] = 0;
+				main[(mainHead + mainSize++) % capacity] = slot;
+			} else {
+				small[(smallHead + smallSize++) % capacity] = slot;
+			}
+			return evicted;
+		}
+
+		int ghostIndex(long hash) {
+			return (int) (hash >>> 20) & ghostMask;
+		}
+
+		void evict() {
+			while (true) {
+				if (smallSize >= smallCapacity || mainSize == 0) {
+					int slot = small[smallHead];
+					smallHead = (smallHead + 1) % capacity;
+					smallSize--;
+					if (freq[slot] > 0) {
+						// promote to main queue
+						freq[slot] = 0;
+						main[(mainHead + mainSize++) % capacity] = slot;
+					} else {
+						ghost[ghostIndex(hashes[slot])] = hashes[slot];
+						remove(slot);
+						return;
+					}
+				} else {
+					int slot = main[mainHead];
+					mainHead = (mainHead + 1) % capacity;
+					mainSize--;
+					if (freq[slot] > 0) {
+						// reinsert at the head of the main queue
+						freq[slot]--;
+						main[(mainHead + mainSize++) % capacity] = slot;
+					} else {
+						remove(slot);
+						return;
+					}
+				}
+			}
+		}
+
+		void remove(int slot) {
+			// remove from hash table by shifting back the following entries
+			int i = (int) hashes[slot] & tableMask;
+			while (table[i] != slot + 1) {
+				i = (i + 1) & tableMask;
+			}
+			int j = i;
+			while (true) {
+				j = (j + 1) & tableMask;
+				int s = table[j];
+				if (s == 0) {
+					break;
+				}
+				int home = (int) hashes[s - 1] & tableMask;
+				boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+				if (!stays) {
+					table[i] = s;
+					i = j;
+				}
+			}
+			table[i] = 0;
+
+			int k = slot * 3;
+			keys[k] = keys[k + 1] = keys[k + 2] = null;
+			ids[slot] = null;
+			free[freeCount++] = slot;
+		}
+
+		synchronized void clear() {
+			Arrays.fill(table, 0);
+			Arrays.fill(keys, null);
+			Arrays.fill(ids, null);
+			Arrays.fill(ghost, 0);
+			smallHead = smallSize = mainHead = mainSize = 0;
+			initFree();
+		}
+	}
+}
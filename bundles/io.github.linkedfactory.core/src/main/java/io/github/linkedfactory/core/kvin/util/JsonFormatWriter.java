@@ -2,6 +2,7 @@ package io.github.linkedfactory.core.kvin.util;
 
 import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
+import io.github.linkedfactory.core.kvin.KvinCursor;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 import io.github.linkedfactory.core.kvin.Record;
 import net.enilink.commons.iterator.IExtendedIterator;
@@ -49,8 +50,26 @@ public class JsonFormatWriter implements AutoCloseable {
 	}
 
 	public void writeTuple(KvinTuple tuple) throws IOException {
-		URI item = tuple.item;
-		URI property = tuple.property;
+		startValue(tuple.item, tuple.property, tuple.time, tuple.seqNr);
+		writeValue(tuple.value);
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the current value of the given cursor without creating a tuple.
+	 */
+	public void writeCursor(KvinCursor cursor) throws IOException {
+		startValue(cursor.getItem(), cursor.getProperty(), cursor.getTime(), cursor.getSeqNr());
+		if (cursor.isLong()) {
+			generator.writeNumber(cursor.getLong());
+		} else {
+			// floats are written by their own representation
+			writeValue(cursor.getValue());
+		}
+		generator.writeEndObject();
+	}
+
+	void startValue(URI item, URI property, long time, int seqNr) throws IOException {
 		if (lastItem == null) {
 			generator.writeObjectFieldStart(item.toString());
 		} else if (!lastItem.equals(item)) {
@@ -74,13 +93,11 @@ public class JsonFormatWriter implements AutoCloseable {
 		lastProperty = property;
 
 		generator.writeStartObject();
-		generator.writeNumberField("time", tuple.time);
-		if (tuple.seqNr > 0) {
-			generator.writeNumberField("seqNr", tuple.seqNr);
+		generator.writeNumberField("time", time);
+		if (seqNr > 0) {
+			generator.writeNumberField("seqNr", seqNr);
 		}
 		generator.writeFieldName("value");
-		writeValue(tuple.value);
-		generator.writeEndObject();
 	}
 
 	protected void writeValue(Object value) throws IOException {
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.komma.core.URI;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded cache for the latest value of time series.
+ * <p>
+ * The cache is kept up-to-date by the store: written values replace cached
+ * values with an older time (write-through) and deleted values invalidate the
+ * corresponding entries. Values are only added for series that are not yet
+ * cached when they are loaded from the store, as a written value is not
+ * necessarily the latest value of its series.
+ * <p>
+ * To prevent a concurrent write from being overridden by an outdated value,
+ * a load must be prepared by {@link #stamp(Object)} before reading the store.
+ * The loaded value is then discarded by {@link #load(Object, KvinTuple, long)}
+ * if the series was written in the meantime.
+ * <p>
+ * The size of the cache is limited by an estimate of the memory that is used
+ * by its entries. Least recently used entries are evicted first.
+ */
+public class LatestValueCache<K> {
+	static final int SEGMENTS = 16;
+	// estimated size of the map entry, the tuple and their headers
+	static final int ENTRY_BYTES = 128;
+
+	final Segment<K>[] segments;
+	final ToIntFunction<K> keySize;
+	final long maxBytes;
+	// modification stamps for groups of keys
+	final AtomicLongArray stamps = new AtomicLongArray(SEGMENTS * 8);
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache that uses approximately at most <code>maxBytes</code> of memory.
+	 *
+	 * @param keySize function that estimates the memory used by a key in bytes
+	 */
+	@SuppressWarnings("unchecked")
+	public LatestValueCache(long maxBytes, ToIntFunction<K> keySize) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Memory budget must be positive.");
+		}
+		this.maxBytes = maxBytes;
+		this.keySize = keySize;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<>(Math.max(1, maxBytes / SEGMENTS));
+		}
+	}
+
+	static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	Segment<K> segmentFor(K key) {
+		return segments[spread(key.hashCode()) & (SEGMENTS - 1)];
+	}
+
+	int stampIndex(K key) {
+		return spread(key.hashCode()) & (stamps.length() - 1);
+	}
+
+	/**
+	 * Returns <code>true</code> if values of the given type are returned unchanged
+	 * after they have been written to and read from a store. Other values are
+	 * not cached on write.
+	 */
+	public static boolean isCacheable(Object value) {
+		return value instanceof Long || value instanceof Double || value instanceof Integer || value instanceof Float ||
+				value instanceof Short || value instanceof Byte || value instanceof String || value instanceof Boolean ||
+				value instanceof Character || value instanceof URI;
+	}
+
+	static long sizeOf(Object value) {
+		if (value instanceof String) {
+			return 40 + 2L * ((String) value).length();
+		}
+		return 16;
+	}
+
+	/**
+	 * Returns the latest value of the given series or <code>null</code> if it is not cached.
+	 */
+	public KvinTuple get(K key) {
+		KvinTuple tuple = segmentFor(key).get(key);
+		if (tuple == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return tuple;
+	}
+
+	/**
+	 * Returns the current modification stamp for the given series that must be
+	 * obtained before its latest value is read from the store.
+	 */
+	public long stamp(K key) {
+		return stamps.get(stampIndex(key));
+	}
+
+	/**
+	 * Adds the latest value of a series that was read from the store if the
+	 * series was not modified since the given stamp was obtained.
+	 */
+	public void load(K key, KvinTuple tuple, long stamp) {
+		Segment<K> segment = segmentFor(key);
+		synchronized (segment) {
+			if (stamps.get(stampIndex(key)) == stamp) {
+				evictions.add(segment.put(key, tuple, keySize.applyAsInt(key) + ENTRY_BYTES + sizeOf(tuple.value)));
+			}
+		}
+	}
+
+	/**
+	 * Updates the cached value of a series after a value has been written to the
+	 * store.
+	 */
+	public void update(K key, KvinTuple tuple) {
+		Segment<K> segment = segmentFor(key);
+		synchronized (segment) {
+			stamps.incrementAndGet(stampIndex(key));
+			Entry current = segment.map.get(key);
+			if (current != null && (tuple.time > current.tuple.time ||
+					tuple.time == current.tuple.time && tuple.seqNr >= current.tuple.seqNr)) {
+				if (isCacheable(tuple.value)) {
+					evictions.add(segment.put(key, tuple, keySize.applyAsInt(key) + ENTRY_BYTES + sizeOf(tuple.value)));
+				} else {
+					segment.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached value of a series, e.g. after values have been deleted.
+	 */
+	public void invalidate(K key) {
+		Segment<K> segment = segmentFor(key);
+		synchronized (segment) {
+			stamps.incrementAndGet(stampIndex(key));
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		// discard all loads that are currently in progress
+		for (int i = 0; i < stamps.length(); i++) {
+			stamps.incrementAndGet(i);
+		}
+		for (Segment<K> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<K> segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the estimated memory used by the cached entries in bytes.
+	 */
+	public long weight() {
+		long weight = 0;
+		for (Segment<K> segment : segments) {
+			synchronized (segment) {
+				weight += segment.weight;
+			}
+		}
+		return weight;
+	}
+
+	public long maxWeight() {
+		return maxBytes;
+	}
+
+	public long hitCount() {
+		return hits.sum();
+	}
+
+	public long missCount() {
+		return misses.sum();
+	}
+
+	public long evictionCount() {
+		return evictions.sum();
+	}
+
+	public double hitRate() {
+		long hits = hitCount();
+		long requests = hits + missCount();
+		return requests == 0 ? 1.0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "LatestValueCache{size=" + size() + ", weight=" + weight() + ", maxWeight=" + maxBytes + ", hits=" +
+				hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + "}";
+	}
+
+	static final class Entry {
+		final KvinTuple tuple;
+		final long weight;
+
+		Entry(KvinTuple tuple, long weight) {
+			this.tuple = tuple;
+			this.weight = weight;
+		}
+	}
+
+	static final class Segment<K> {
+		final long maxWeight;
+		// access ordered map for LRU eviction
+		final LinkedHashMap<K, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+		long weight;
+
+		Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+
+		synchronized KvinTuple get(K key) {
+			Entry entry = map.get(key);
+			return entry == null ? null : entry.tuple;
+		}
+
+		/**
+		 * Adds an entry and returns the number of evicted entries.
+		 */
+		int put(K key, KvinTuple tuple, long entryWeight) {
+			remove(key);
+			map.put(key, new Entry(tuple, entryWeight));
+			weight += entryWeight;
+			int evicted = 0;
+			Iterator<Entry> it = map.values().iterator();
+			while (weight > maxWeight && it.hasNext()) {
+				weight -= it.next().weight;
+				it.remove();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		void remove(K key) {
+			Entry entry = map.remove(key);
+			if (entry != null) {
+				weight -= entry.weight;
+			}
+		}
+
+		void clear() {
+			map.clear();
+			weight = 0;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Policy for fetching multiple streams of values concurrently while returning
+ * them in their original order.
+ * <p>
+ * The streams are consumed one after another. While the current stream is read,
+ * up to <code>prefetch</code> following streams are opened in the background
+ * and buffer at most <code>bufferSize</code> elements each. The number of
+ * background tasks of all fetch operations is limited by
+ * <code>maxConcurrency</code>. If no background task is available for the
+ * current stream then it is read within the calling thread.
+ * <p>
+ * Single streams can also be read ahead with {@link #prefetch(Supplier)}, for
+ * example to decode multiple files concurrently that are merged afterwards.
+ */
+public class ParallelFetch {
+	static final Object END = new Object();
+	static final int CHUNK_SIZE = 256;
+
+	static volatile ExecutorService defaultExecutor;
+
+	final ExecutorService executor;
+	final Semaphore permits;
+	final int maxConcurrency;
+	final int prefetch;
+	final int bufferSize;
+
+	public ParallelFetch(int maxConcurrency, int prefetch, int bufferSize) {
+		this(null, maxConcurrency, prefetch, bufferSize);
+	}
+
+	public ParallelFetch(ExecutorService executor, int maxConcurrency, int prefetch, int bufferSize) {
+		if (maxConcurrency < 1 || prefetch < 1 || bufferSize < 1) {
+			throw new IllegalArgumentException("Concurrency, prefetch and buffer size must be positive.");
+		}
+		this.executor = executor;
+		this.permits = new Semaphore(maxConcurrency);
+		this.maxConcurrency = maxConcurrency;
+		this.prefetch = prefetch;
+		this.bufferSize = bufferSize;
+	}
+
+	static ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (ParallelFetch.class) {
+				if (defaultExecutor == null) {
+					AtomicInteger nr = new AtomicInteger();
+					defaultExecutor = Executors.newCachedThreadPool(r -> {
+						Thread t = new Thread(r, "kvin-fetch-" + nr.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	protected ExecutorService getExecutor() {
+		return executor != null ? executor : getDefaultExecutor();
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the concatenation of the given streams in their original order.
+	 *
+	 * @param sources Suppliers for the streams that are invoked at most once.
+	 */
+	public <T> IExtendedIterator<T> concat(List<? extends Supplier<? extends IExtendedIterator<? extends T>>> sources) {
+		return new ConcatIterator<>(sources);
+	}
+
+	/**
+	 * Returns an iterator over the given stream that is read ahead within a
+	 * background task. The stream is read within the calling thread if no
+	 * background task is available.
+	 *
+	 * @param source Supplier for the stream that is invoked at most once.
+	 */
+	public <T> IExtendedIterator<T> prefetch(Supplier<? extends IExtendedIterator<? extends T>> source) {
+		return new PrefetchIterator<>(source);
+	}
+
+	static void rethrow(Throwable error) {
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		}
+		throw new RuntimeException(error);
+	}
+
+	abstract static class BufferedIterator<T> extends NiceIterator<T> {
+		volatile boolean closed;
+
+		boolean offer(BlockingQueue<Object> buffer, Object element) {
+			try {
+				while (!buffer.offer(element, 10, TimeUnit.MILLISECONDS)) {
+					if (closed) {
+						return false;
+					}
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		Object take(BlockingQueue<Object> buffer) {
+			try {
+				return buffer.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	class PrefetchIterator<T> extends BufferedIterator<T> {
+		final Supplier<? extends IExtendedIterator<? extends T>> source;
+		// chunks of elements
+		BlockingQueue<Object> buffer;
+		CountDownLatch done;
+		volatile Throwable error;
+		IExtendedIterator<? extends T> iterator;
+		Object[] chunk;
+		int chunkIndex;
+		boolean finished;
+
+		PrefetchIterator(Supplier<? extends IExtendedIterator<? extends T>> source) {
+			this.source = source;
+			if (permits.tryAcquire()) {
+				buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize / CHUNK_SIZE));
+				done = new CountDownLatch(1);
+				try {
+					getExecutor().submit(this::produce);
+				} catch (RuntimeException e) {
+					permits.release();
+					buffer = null;
+					done = null;
+					throw e;
+				}
+			}
+		}
+
+		void produce() {
+			IExtendedIterator<? extends T> it = null;
+			try {
+				if (closed) {
+					return;
+				}
+				it = source.get();
+				Object[] elements = new Object[CHUNK_SIZE];
+				int size = 0;
+				while (!closed && it.hasNext()) {
+					elements[size++] = it.next();
+					if (size == CHUNK_SIZE) {
+						if (!offer(buffer, elements)) {
+							return;
+						}
+						elements = new Object[CHUNK_SIZE];
+						size = 0;
+					}
+				}
+				if (size > 0) {
+					offer(buffer, Arrays.copyOf(elements, size));
+				}
+			} catch (Throwable t) {
+				error = t;
+			} finally {
+				try {
+					if (it != null) {
+						it.close();
+					}
+				} finally {
+					permits.release();
+					offer(buffer, END);
+					done.countDown();
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+			if (buffer == null) {
+				// read within the calling thread
+				if (iterator == null) {
+					iterator = source.get();
+				}
+				return iterator.hasNext();
+			}
+			while (chunk == null || chunkIndex >= chunk.length) {
+				if (finished) {
+					return false;
+				}
+				Object element = take(buffer);
+				if (element == END) {
+					finished = true;
+					chunk = null;
+					if (error != null) {
+						close();
+						rethrow(error);
+					}
+					return false;
+				}
+				chunk = (Object[]) element;
+				chunkIndex = 0;
+			}
+			return true;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (buffer == null) {
+				return iterator.next();
+			}
+			T value = (T) chunk[chunkIndex];
+			chunk[chunkIndex++] = null;
+			return value;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				if (iterator != null) {
+					iterator.close();
+				}
+				if (done != null) {
+					// ensure that the source is not accessed after closing
+					try {
+						done.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+
+	class Stream<T> {
+		final Supplier<? extends IExtendedIterator<? extends T>> source;
+		BlockingQueue<Object> buffer;
+		IExtendedIterator<? extends T> iterator;
+		volatile Throwable error;
+
+		Stream(Supplier<? extends IExtendedIterator<? extends T>> source) {
+			this.source = source;
+		}
+
+		boolean started() {
+			return buffer != null || iterator != null;
+		}
+	}
+
+	class ConcatIterator<T> extends BufferedIterator<T> {
+		final List<Stream<T>> streams;
+		int index;
+		Stream<T> current;
+		T next;
+
+		ConcatIterator(List<? extends Supplier<? extends IExtendedIterator<? extends T>>> sources) {
+			streams = new ArrayList<>(sources.size());
+			for (Supplier<? extends IExtendedIterator<? extends T>> source : sources) {
+				streams.add(new Stream<>(source));
+			}
+		}
+
+		void startAhead() {
+			int end = Math.min(streams.size(), index + prefetch + 1);
+			for (int i = index; i < end; i++) {
+				Stream<T> stream = streams.get(i);
+				if (!stream.started()) {
+					if (!permits.tryAcquire()) {
+						// preserve order of started streams
+						break;
+					}
+					start(stream);
+				}
+			}
+		}
+
+		void start(Stream<T> stream) {
+			stream.buffer = new ArrayBlockingQueue<>(bufferSize);
+			try {
+				getExecutor().submit(() -> produce(stream));
+			} catch (RuntimeException e) {
+				permits.release();
+				stream.buffer = null;
+				throw e;
+			}
+		}
+
+		void produce(Stream<T> stream) {
+			IExtendedIterator<? extends T> it = null;
+			try {
+				if (closed) {
+					return;
+				}
+				it = stream.source.get();
+				while (!closed && it.hasNext()) {
+					if (!offer(stream.buffer, it.next())) {
+						return;
+					}
+				}
+			} catch (Throwable t) {
+				stream.error = t;
+			} finally {
+				try {
+					if (it != null) {
+						it.close();
+					}
+				} finally {
+					permits.release();
+					offer(stream.buffer, END);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				if (closed) {
+					return false;
+				}
+				if (current == null) {
+					if (index >= streams.size()) {
+						close();
+						return false;
+					}
+					current = streams.get(index);
+					startAhead();
+					if (!current.started()) {
+						// read the current stream within the calling thread
+						current.iterator = current.source.get();
+					}
+				}
+				Object element = nextElement(current);
+				if (element == END) {
+					if (current.iterator != null) {
+						current.iterator.close();
+					}
+					Throwable error = current.error;
+					current = null;
+					index++;
+					if (error != null) {
+						close();
+						rethrow(error);
+					}
+				} else {
+					@SuppressWarnings("unchecked")
+					T value = (T) element;
+					next = value;
+				}
+			}
+			return true;
+		}
+
+		Object nextElement(Stream<T> stream) {
+			if (stream.iterator != null) {
+				return stream.iterator.hasNext() ? stream.iterator.next() : END;
+			}
+			return take(stream.buffer);
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				if (current != null && current.iterator != null) {
+					current.iterator.close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinCursor;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.commons.iterator.IExtendedIterator;
+
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Merges multiple time series into rows of values that share the same time
+ * and sequence number, e.g. for exporting the series as columns of a table.
+ * <p>
+ * Each series must be ordered by time and sequence number in descending order
+ * as returned by {@link io.github.linkedfactory.core.kvin.Kvin#fetch}. The
+ * series are opened when the first row is requested and only their current
+ * values are kept in memory. The next row is determined by a heap over the
+ * columns, hence each value requires O(log columns) operations.
+ * <p>
+ * The series are read through cursors. Hence, the values of series that are
+ * created by {@link #ofCursors(List)} can be read by {@link #getValue(int)}
+ * without creating a tuple for each value.
+ */
+public class SeriesMerger implements AutoCloseable {
+	final IntFunction<KvinCursor> openSeries;
+	// each cursor is positioned on the next value of its series
+	final KvinCursor[] series;
+	// the values of the current row
+	final boolean[] inRow;
+	// columns of the current row
+	final int[] rowColumns;
+	int rowSize;
+	// binary heap of column indexes, ordered by the next value of each series
+	final int[] heap;
+	int heapSize;
+	boolean opened, closed;
+
+	public SeriesMerger(List<Supplier<IExtendedIterator<KvinTuple>>> series) {
+		this(series.size(), column -> KvinCursor.of(series.get(column).get()));
+	}
+
+	private SeriesMerger(int columns, IntFunction<KvinCursor> openSeries) {
+		this.openSeries = openSeries;
+		this.series = new KvinCursor[columns];
+		this.inRow = new boolean[columns];
+		this.rowColumns = new int[columns];
+		this.heap = new int[columns];
+	}
+
+	/**
+	 * Creates a merger for series that are read by the given cursors.
+	 */
+	public static SeriesMerger ofCursors(List<Supplier<KvinCursor>> series) {
+		return new SeriesMerger(series.size(), column -> series.get(column).get());
+	}
+
+	/**
+	 * Returns the number of columns.
+	 */
+	public int getColumnCount() {
+		return series.length;
+	}
+
+	/**
+	 * Moves to the next row.
+	 *
+	 * @return <code>false</code> if all series are exhausted
+	 */
+	public boolean next() {
+		if (closed) {
+			return false;
+		}
+		if (!opened) {
+			opened = true;
+			for (int i = 0; i < series.length; i++) {
+				series[i] = openSeries.apply(i);
+				advance(i);
+			}
+		}
+		// replace the values of the previous row
+		for (int i = 0; i < rowSize; i++) {
+			int column = rowColumns[i];
+			inRow[column] = false;
+			advance(column);
+		}
+		rowSize = 0;
+		if (heapSize == 0) {
+			close();
+			return false;
+		}
+		int first = heap[0];
+		long time = series[first].getTime();
+		int seqNr = series[first].getSeqNr();
+		do {
+			int column = poll();
+			inRow[column] = true;
+			rowColumns[rowSize++] = column;
+		} while (heapSize > 0 && compare(series[heap[0]], time, seqNr) == 0);
+		return true;
+	}
+
+	/**
+	 * Returns the time of the current row.
+	 */
+	public long getTime() {
+		return series[rowColumns[0]].getTime();
+	}
+
+	/**
+	 * Returns the sequence number of the current row.
+	 */
+	public int getSeqNr() {
+		return series[rowColumns[0]].getSeqNr();
+	}
+
+	/**
+	 * Returns <code>true</code> if the given column has a value within the
+	 * current row.
+	 */
+	public boolean hasValue(int column) {
+		return inRow[column];
+	}
+
+	/**
+	 * Returns the value of the given column within the current row or
+	 * <code>null</code> if the corresponding series has no such value.
+	 */
+	public Object getValue(int column) {
+		return inRow[column] ? series[column].getValue() : null;
+	}
+
+	/**
+	 * Returns the tuple of the given column within the current row or
+	 * <code>null</code> if the corresponding series has no such value.
+	 */
+	public KvinTuple get(int column) {
+		return inRow[column] ? series[column].toTuple() : null;
+	}
+
+	void advance(int column) {
+		KvinCursor cursor = series[column];
+		if (cursor != null && cursor.next()) {
+			offer(column);
+		} else if (cursor != null) {
+			cursor.close();
+			series[column] = null;
+		}
+	}
+
+	/**
+	 * Compares the current value of a cursor with the given time and sequence
+	 * number such that values with a greater time and sequence number come
+	 * first.
+	 */
+	static int compare(KvinCursor a, long time, int seqNr) {
+		int diff = Long.compare(time, a.getTime());
+		return diff != 0 ? diff : Integer.compare(seqNr, a.getSeqNr());
+	}
+
+	boolean before(int columnA, int columnB) {
+		KvinCursor b = series[columnB];
+		int diff = compare(series[columnA], b.getTime(), b.getSeqNr());
+		// retain the column order for equal values
+		return diff < 0 || diff == 0 && columnA < columnB;
+	}
+	void offer(int column) {
+		int pos = heapSize++;
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!before(column, heap[parent])) {
+				break;
+			}
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = column;
+	}
+
+	int poll() {
+		int result = heap[0];
+		int last = heap[--heapSize];
+		int pos = 0;
+		int half = heapSize >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], last)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		if (heapSize > 0) {
+			heap[pos] = last;
+		}
+		return result;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			for (int i = 0; i < series.length; i++) {
+				if (series[i] != null) {
+					series[i].close();
+					series[i] = null;
+				}
+			}
+			heapSize = 0;
+		}
+	}
+}
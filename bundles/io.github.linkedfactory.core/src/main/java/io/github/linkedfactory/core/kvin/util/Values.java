@@ -80,6 +80,76 @@ public class Values {
 		}
 	}
 
+	/**
+	 * Returns the numeric type of an encoded value without decoding it.
+	 *
+	 * @return <code>'J'</code> for integral numbers, <code>'D'</code> for floating point numbers
+	 * or <code>0</code> for other values
+	 */
+	public static char numericType(byte[] data, int offset) {
+		switch (data[offset]) {
+			case 'B':
+			case 'i':
+			case 'j':
+			case 's':
+			case 'I':
+			case 'J':
+			case 'S':
+				return 'J';
+			case 'D':
+			case 'F':
+				return 'D';
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Decodes an integral number without creating an object.
+	 *
+	 * @see #numericType(byte[], int)
+	 */
+	public static long decodeLong(byte[] data, int offset) {
+		switch (data[offset]) {
+			case 'B':
+				return data[offset + 1];
+			case 'i':
+			case 'j':
+			case 's':
+				return -Varint.readUnsigned(data, offset + 1);
+			case 'I':
+			case 'J':
+			case 'S':
+				return Varint.readUnsigned(data, offset + 1);
+			default:
+				throw new IllegalArgumentException("Not an integral number: " + ((char) data[offset]));
+		}
+	}
+
+	/**
+	 * Decodes a floating point number without creating an object.
+	 *
+	 * @see #numericType(byte[], int)
+	 */
+	public static double decodeDouble(byte[] data, int offset) {
+		switch (data[offset]) {
+			case 'D':
+				return Double.longBitsToDouble(readLong(data, offset + 1, 8));
+			case 'F':
+				return Float.intBitsToFloat((int) readLong(data, offset + 1, 4));
+			default:
+				throw new IllegalArgumentException("Not a floating point number: " + ((char) data[offset]));
+		}
+	}
+
+	private static long readLong(byte[] data, int offset, int bytes) {
+		long value = 0;
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
 	private static ByteBuffer buffer(char t, int bitLength) {
 		return ByteBuffer.allocate(1 + bitLength / 8).order(ByteOrder.BIG_ENDIAN).put((byte) t);
 	}
@@ -183,7 +183,7 @@ public final class Varint {
 		} else {
 			int bytes = descriptor(value) + 1;
 			b[pos] = (byte) (250 + (bytes - 3));
-			writeSignificantBits(b, pos, value, bytes);
+			writeSignificantBits(b, pos + 1, value, bytes);
 		}
 	}
 
@@ -311,6 +311,60 @@ public final class Varint {
 		}
 	}
 
+	/**
+	 * Decodes a value using the <a href="https://sqlite.org/src4/doc/trunk/www/varint.wiki">variable-length encoding of
+	 * SQLite</a>.
+	 *
+	 * @param b   byte array for reading the bytes
+	 * @param pos position of the value within the byte array
+	 * @return decoded value
+	 * @see #writeUnsigned(byte[], int, long)
+	 */
+	public static long readUnsigned(byte[] b, int pos) {
+		int a0 = b[pos] & 0xFF;
+		if (a0 <= 240) {
+			return a0;
+		} else if (a0 <= 248) {
+			return 240 + 256 * (a0 - 241) + (b[pos + 1] & 0xFF);
+		} else if (a0 == 249) {
+			return 2288 + 256 * (b[pos + 1] & 0xFF) + (b[pos + 2] & 0xFF);
+		} else {
+			int bytes = a0 - 250 + 3;
+			long value = 0;
+			for (int i = 1; i <= bytes; i++) {
+				value = (value << 8) | (b[pos + i] & 0xFF);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Decodes a value using the <a href="https://sqlite.org/src4/doc/trunk/www/varint.wiki">variable-length encoding of
+	 * SQLite</a>. Inverts the byte value before decoding.
+	 *
+	 * @param b   byte array for reading the bytes
+	 * @param pos position of the value within the byte array
+	 * @return decoded value
+	 * @see #writeUnsignedInverted(ByteBuffer, long)
+	 */
+	public static long readUnsignedInverted(byte[] b, int pos) {
+		int a0 = ~b[pos] & 0xFF;
+		if (a0 <= 240) {
+			return a0;
+		} else if (a0 <= 248) {
+			return 240 + 256 * (a0 - 241) + (~b[pos + 1] & 0xFF);
+		} else if (a0 == 249) {
+			return 2288 + 256 * (~b[pos + 1] & 0xFF) + (~b[pos + 2] & 0xFF);
+		} else {
+			int bytes = a0 - 250 + 3;
+			long value = 0;
+			for (int i = 1; i <= bytes; i++) {
+				value = (value << 8) | (~b[pos + i] & 0xFF);
+			}
+			return value;
+		}
+	}
+
 	/**
 	 * Determines length of an encoded varint value by inspecting the first byte.
 	 *
@@ -2,10 +2,12 @@ package io.github.linkedfactory.core.rdf4j;
 
 import com.google.inject.Binding;
 import com.google.inject.Key;
+import io.github.linkedfactory.core.kvin.CachingKvin;
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.http.KvinHttp;
 import io.github.linkedfactory.core.rdf4j.aas.AasFederatedService;
 import io.github.linkedfactory.core.rdf4j.common.BaseFederatedServiceResolver;
+import io.github.linkedfactory.core.rdf4j.common.query.QueryExecutorService;
 import io.github.linkedfactory.core.rdf4j.kvin.KvinFederatedService;
 import io.github.linkedfactory.core.rdf4j.kvin.functions.DateTimeFunction;
 import net.enilink.komma.model.IModelSet;
@@ -19,11 +21,13 @@ import org.osgi.service.component.annotations.*;
 
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @Component
 public class FederatedServiceComponent {
-	private static ExecutorService executorService;
+	private static QueryExecutorService executorService;
+	private static boolean shutdownHookAdded;
+	private static volatile long fetchCacheSize;
+	private static volatile long fetchCacheExpireAfter = CachingKvin.DEFAULT_EXPIRE_AFTER;
 	IModelSet ms;
 	Kvin kvin;
 	AbstractFederatedServiceResolver serviceResolver;
@@ -32,14 +36,47 @@ public class FederatedServiceComponent {
 
 	public static synchronized ExecutorService getExecutorService() {
 		if (executorService == null) {
-			executorService = Executors.newCachedThreadPool();
+			setExecutorService(new QueryExecutorService());
+		}
+		return executorService;
+	}
+
+	/**
+	 * Replaces the executor that is used for the asynchronous evaluation of
+	 * queries. Tasks that have already been submitted keep using the previous
+	 * executor.
+	 *
+	 * @return the previous executor or <code>null</code>
+	 */
+	public static synchronized QueryExecutorService setExecutorService(QueryExecutorService executor) {
+		QueryExecutorService previous = executorService;
+		executorService = executor;
+		if (!shutdownHookAdded) {
+			shutdownHookAdded = true;
 			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-				if (executorService != null) {
-					executorService.shutdown();
+				ExecutorService current;
+				synchronized (FederatedServiceComponent.class) {
+					current = executorService;
+				}
+				if (current != null) {
+					current.shutdown();
 				}
 			}));
 		}
-		return executorService;
+		return previous;
+	}
+
+	/**
+	 * Enables a cache for the results of requests with closed time ranges
+	 * that are executed by SERVICE calls to the local store. The settings
+	 * apply to services that are created afterwards.
+	 *
+	 * @param maxValues   the maximum number of cached values or 0 to disable the cache
+	 * @param expireAfter the time in milliseconds after which cached results expire
+	 */
+	public static void setFetchCache(long maxValues, long expireAfter) {
+		fetchCacheSize = maxValues;
+		fetchCacheExpireAfter = expireAfter;
 	}
 
 	@Activate
@@ -59,10 +96,13 @@ public class FederatedServiceComponent {
 						if (serviceUrl.startsWith("aas-api:")) {
 							return new AasFederatedService(serviceUrl.replaceFirst("^aas-api:", ""), () -> getExecutorService());
 						} else if (serviceUrl.equals("kvin:")) {
-							return new KvinFederatedService(kvin,
+							long cacheSize = fetchCacheSize;
+							// closing the cache only detaches it from the store
+							return new KvinFederatedService(
+									cacheSize > 0 ? new CachingKvin(kvin, cacheSize, fetchCacheExpireAfter) : kvin,
 									() -> getExecutorService(),
 									() -> contextProvider == null ? Kvin.DEFAULT_CONTEXT : contextProvider.getContext(),
-									false);
+									cacheSize > 0);
 						} else if (getKvinServiceUrl(serviceUrl).isPresent()) {
 							String url = getKvinServiceUrl(serviceUrl).get();
 							return new KvinFederatedService(new KvinHttp(url), () -> getExecutorService(),
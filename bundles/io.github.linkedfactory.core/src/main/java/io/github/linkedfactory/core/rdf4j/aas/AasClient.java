@@ -3,6 +3,7 @@ package io.github.linkedfactory.core.rdf4j.aas;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.linkedfactory.core.kvin.Record;
+import io.github.linkedfactory.core.kvin.http.HttpClientPool;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.commons.iterator.NiceIterator;
 import net.enilink.commons.iterator.WrappedIterator;
@@ -13,7 +14,6 @@ import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -190,7 +190,7 @@ public class AasClient implements Closeable {
 	}
 
 	protected CloseableHttpClient createHttpClient() {
-		return HttpClients.createDefault();
+		return HttpClientPool.getShared().createClient();
 	}
 
 	@Override
@@ -4,6 +4,7 @@ import io.github.linkedfactory.core.rdf4j.aas.query.AasEvaluationStrategy;
 import io.github.linkedfactory.core.rdf4j.aas.query.AasFetchOptimizer;
 import io.github.linkedfactory.core.rdf4j.aas.query.ParameterScanner;
 import io.github.linkedfactory.core.rdf4j.common.query.CompositeBindingSet;
+import io.github.linkedfactory.core.rdf4j.common.query.QueryExecutorService;
 import io.github.linkedfactory.core.rdf4j.common.query.QueryJoinOptimizer;
 import io.github.linkedfactory.core.rdf4j.common.query.QueryModelPruner;
 import org.eclipse.rdf4j.common.exception.RDF4JException;
@@ -93,7 +94,9 @@ public class AasFederatedService implements FederatedService {
         // System.out.println(service);
 
         Map<Value, Object> valueToData = new WeakHashMap<>();
-        EvaluationStrategy strategy = new AasEvaluationStrategy(client, executorService, scanner, vf, null, null, valueToData);
+        // limits the concurrently running tasks of this evaluation
+        ExecutorService queryExecutor = QueryExecutorService.forQuery(executorService.get());
+        EvaluationStrategy strategy = new AasEvaluationStrategy(client, () -> queryExecutor, scanner, vf, null, null, valueToData);
 
         List<CloseableIteration<BindingSet, QueryEvaluationException>> resultIters = new ArrayList<>();
         while (bindings.hasNext()) {
@@ -40,6 +40,7 @@ public class AasFetch extends UnaryTupleOperator implements Fetch {
         return assuredBindingNames;
     }
 
+    @Override
     public Set<String> getRequiredBindings() {
         return requiredBindings;
     }
@@ -1,9 +1,9 @@
 package io.github.linkedfactory.core.rdf4j.common;
 
+import io.github.linkedfactory.core.rdf4j.common.query.QueryExecutorService;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.AbstractFederatedServiceResolver;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Bas implementation of federated service resolver that also provides an executor service.
@@ -13,7 +13,7 @@ public abstract class BaseFederatedServiceResolver extends AbstractFederatedServ
 
 	public synchronized ExecutorService getExecutorService() {
 		if (executorService == null) {
-			executorService = Executors.newCachedThreadPool();
+			executorService = new QueryExecutorService();
 		}
 		return executorService;
 	}
@@ -2,88 +2,70 @@ package io.github.linkedfactory.core.rdf4j.common.query;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+/**
+ * Computes the elements of an iteration within a separate thread and hands
+ * them over in batches.
+ * <p>
+ * If the executor declines the task then the iteration is lazily computed
+ * within the consuming thread.
+ */
 public class AsyncIterator<T> implements CloseableIteration<T, QueryEvaluationException> {
-	static final Logger log = LoggerFactory.getLogger(AsyncIterator.class);
-
-	static final Object NULL_ELEMENT = new Object();
-	final BlockingQueue<T> nextElements;
-	volatile boolean closed = false;
-	T next;
+	final BatchExchange<T> exchange;
+	Supplier<CloseableIteration<T, QueryEvaluationException>> base;
+	CloseableIteration<T, QueryEvaluationException> baseIt;
+	boolean closed;
 
 	public AsyncIterator(Supplier<CloseableIteration<T, QueryEvaluationException>> base, Supplier<ExecutorService> executorService) {
-		nextElements = new ArrayBlockingQueue<>(100);
-		var currentAsync = InnerJoinIterator.asyncDepth.get();
-		executorService.get().submit(() -> {
-			InnerJoinIterator.asyncDepth.set(currentAsync != null ? currentAsync + 1 : 1);
-			try {
-				var baseIt = base.get();
-				try {
-					while (baseIt.hasNext()) {
-						T element = baseIt.next();
-						while (!nextElements.offer(element, 10, TimeUnit.MILLISECONDS)) {
-							if (closed) {
-								return;
-							}
-						}
-					}
-				} catch (InterruptedException e) {
-					// just return
-				} finally {
-					baseIt.close();
-				}
-			} catch (Exception e) {
-				log.error("Error while computing elements", e);
-			} finally {
-				try {
-					while (!nextElements.offer((T) NULL_ELEMENT, 10, TimeUnit.MILLISECONDS)) {
-						if (closed) {
-							return;
-						}
-					}
-				} catch (InterruptedException e) {
-					// just return
-				} finally {
-					InnerJoinIterator.asyncDepth.remove();
-				}
-			}
-		});
+		BatchExchange<T> exchange = new BatchExchange<>();
+		if (QueryExecutorService.tryExecute(executorService.get(), () -> exchange.addAll(base))) {
+			this.exchange = exchange;
+		} else {
+			this.exchange = null;
+			this.base = base;
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the elements are computed within a separate thread.
+	 */
+	public boolean isAsync() {
+		return exchange != null;
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (next == null && !closed) {
-			try {
-				T nextElement = nextElements.take();
-				if (nextElement == NULL_ELEMENT) {
-					close();
-				} else {
-					next = nextElement;
-				}
-			} catch (InterruptedException e) {
-				return false;
-			}
+		if (exchange != null) {
+			return exchange.hasNext();
 		}
-		return next != null;
+		if (closed) {
+			return false;
+		}
+		if (baseIt == null) {
+			baseIt = base.get();
+			base = null;
+		}
+		if (baseIt.hasNext()) {
+			return true;
+		}
+		// release the resources of the exhausted iteration
+		close();
+		return false;
 	}
 
 	@Override
 	public T next() {
+		if (exchange != null) {
+			return exchange.next();
+		}
 		if (!hasNext()) {
 			throw new NoSuchElementException();
 		}
-		T result = next;
-		next = null;
-		return result;
+		return baseIt.next();
 	}
 
 	@Override
@@ -93,6 +75,14 @@ public class AsyncIterator<T> implements CloseableIteration<T, QueryEvaluationEx
 
 	@Override
 	public void close() {
-		closed = true;
+		if (exchange != null) {
+			exchange.close();
+		} else if (!closed) {
+			closed = true;
+			base = null;
+			if (baseIt != null) {
+				baseIt.close();
+			}
+		}
 	}
 }
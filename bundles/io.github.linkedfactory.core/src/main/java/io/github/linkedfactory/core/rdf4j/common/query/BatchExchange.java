@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.rdf4j.common.query;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Hands over elements from one producer thread to one consumer thread in
+ * batches.
+ * <p>
+ * The producer collects elements within a batch that is published to a
+ * lock-free ring buffer if it is full or if the consumer has already taken all
+ * previously published batches. Hence, elements are handed over immediately if
+ * the consumer keeps up while a faster producer only synchronizes once per
+ * batch. The threads are only blocked if the ring buffer is full or empty.
+ * <p>
+ * The consumer cancels the exchange by closing it. An error of the producer is
+ * rethrown to the consumer after the previously published elements.
+ *
+ * @param <T> the type of the elements which must not be <code>null</code>
+ */
+public class BatchExchange<T> implements CloseableIteration<T, QueryEvaluationException> {
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	public static final int DEFAULT_CAPACITY = 4;
+
+	// number of retries before the consumer blocks
+	static final int SPINS = 100;
+
+	final Object[][] ring;
+	final int mask;
+	final int batchSize;
+	// index of the next batch that is taken by the consumer
+	final AtomicLong head = new AtomicLong();
+	// index of the next batch that is published by the producer
+	final AtomicLong tail = new AtomicLong();
+	volatile Thread waitingProducer;
+	volatile Thread waitingConsumer;
+	volatile boolean completed;
+	volatile boolean closed;
+	volatile Throwable error;
+
+	// state of the producer
+	Object[] pending;
+	int pendingSize;
+
+	// state of the consumer
+	Object[] batch;
+	int batchIndex;
+	T next;
+
+	public BatchExchange() {
+		this(DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new exchange.
+	 *
+	 * @param batchSize the maximum number of elements per batch
+	 * @param capacity  the number of batches that may be published ahead of the consumer
+	 */
+	public BatchExchange(int batchSize, int capacity) {
+		if (batchSize < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Batch size and capacity must be positive.");
+		}
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.ring = new Object[size][];
+		this.mask = size - 1;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Adds an element. This method must only be called by the producer.
+	 *
+	 * @return <code>false</code> if the exchange was closed by the consumer or
+	 * the producer was interrupted, else <code>true</code>
+	 */
+	public boolean add(T element) {
+		if (closed || completed) {
+			return false;
+		}
+		if (pending == null) {
+			pending = new Object[batchSize];
+		}
+		pending[pendingSize++] = element;
+		if (pendingSize == batchSize || head.get() == tail.get()) {
+			return publish();
+		}
+		return true;
+	}
+
+	/**
+	 * Publishes the remaining elements and signals the end of the elements to
+	 * the consumer. This method must only be called by the producer.
+	 */
+	public void complete() {
+		if (!completed) {
+			if (pendingSize > 0) {
+				publish();
+			}
+			completed = true;
+			signalConsumer();
+		}
+	}
+
+	/**
+	 * Publishes the remaining elements and then signals the given error to the
+	 * consumer. This method must only be called by the producer.
+	 */
+	public void fail(Throwable e) {
+		if (!completed) {
+			error = e;
+			complete();
+		}
+	}
+
+	/**
+	 * Adds all elements of the given source and completes this exchange. The
+	 * source is evaluated and closed within the current thread. Errors are
+	 * forwarded to the consumer.
+	 */
+	public void addAll(Supplier<? extends CloseableIteration<? extends T, ? extends Exception>> source) {
+		try {
+			CloseableIteration<? extends T, ? extends Exception> it = source.get();
+			try {
+				while (it.hasNext() && add(it.next())) {
+					// continue until the source is exhausted or the exchange is closed
+				}
+			} finally {
+				it.close();
+			}
+			complete();
+		} catch (Throwable e) {
+			fail(e);
+		}
+	}
+
+	private boolean publish() {
+		long t = tail.get();
+		while (t - head.get() >= ring.length) {
+			if (closed) {
+				return false;
+			}
+			waitingProducer = Thread.currentThread();
+			if (t - head.get() >= ring.length && !closed) {
+				LockSupport.park(this);
+			}
+			waitingProducer = null;
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				if (error == null) {
+					error = new QueryEvaluationException("Interrupted while computing elements");
+				}
+				completed = true;
+				signalConsumer();
+				return false;
+			}
+		}
+		Object[] published;
+		if (pendingSize == batchSize) {
+			published = pending;
+			pending = null;
+		} else {
+			// the pending array is reused for further elements
+			published = Arrays.copyOf(pending, pendingSize);
+		}
+		pendingSize = 0;
+		ring[(int) t & mask] = published;
+		tail.set(t + 1);
+		signalConsumer();
+		return true;
+	}
+
+	private void signalConsumer() {
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Returns the next published batch or <code>null</code> if no further
+	 * elements are available.
+	 */
+	private Object[] takeBatch() {
+		int spins = 0;
+		while (!closed) {
+			long h = head.get();
+			if (h < tail.get()) {
+				int index = (int) h & mask;
+				Object[] taken = ring[index];
+				ring[index] = null;
+				head.set(h + 1);
+				Thread producer = waitingProducer;
+				if (producer != null) {
+					LockSupport.unpark(producer);
+				}
+				return taken;
+			}
+			if (completed) {
+				// batches are published before the exchange is completed
+				if (h < tail.get()) {
+					continue;
+				}
+				Throwable e = error;
+				if (e != null) {
+					close();
+					if (e instanceof RuntimeException) {
+						throw (RuntimeException) e;
+					} else if (e instanceof Error) {
+						throw (Error) e;
+					}
+					throw new QueryEvaluationException(e);
+				}
+				return null;
+			}
+			if (spins++ < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			waitingConsumer = Thread.currentThread();
+			if (head.get() == tail.get() && !completed && !closed) {
+				LockSupport.park(this);
+			}
+			waitingConsumer = null;
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				close();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean hasNext() throws QueryEvaluationException {
+		if (next == null) {
+			while (batch == null || batchIndex == batch.length) {
+				batch = takeBatch();
+				batchIndex = 0;
+				if (batch == null) {
+					return false;
+				}
+			}
+			next = (T) batch[batchIndex++];
+		}
+		return true;
+	}
+
+	@Override
+	public T next() throws QueryEvaluationException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T result = next;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void remove() throws QueryEvaluationException {
+		throw new UnsupportedOperationException("Remove is not supported");
+	}
+
+	/**
+	 * Cancels the exchange. This method must only be called by the consumer.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			batch = null;
+			next = null;
+			Thread producer = waitingProducer;
+			if (producer != null) {
+				LockSupport.unpark(producer);
+			}
+		}
+	}
+}
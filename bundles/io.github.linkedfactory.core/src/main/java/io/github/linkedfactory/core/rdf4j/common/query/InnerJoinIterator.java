@@ -7,35 +7,29 @@ import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryEvaluationStep;
-import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvaluationException> {
-	private static final Logger log = LoggerFactory.getLogger(InnerJoinIterator.class);
-
 	/*-----------*
 	 * Variables *
 	 *-----------*/
 
-	public static final ThreadLocal<Integer> asyncDepth = new ThreadLocal<>();
-	public static final int MAX_ASYNC_DEPTH = 3;
-	private static final BindingSet NULL_BINDINGS = new EmptyBindingSet();
 	public static final int BATCH_SIZE = 200;
+	public static final int DEFAULT_PREFETCH = 2;
+	private static volatile int defaultPrefetch = DEFAULT_PREFETCH;
 	private final EvaluationStrategy strategy;
 	private final Supplier<ExecutorService> executorService;
 	private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
 	private final QueryEvaluationStep preparedJoinArg;
-	private final List<BlockingQueue<BindingSet>> joined;
+	private final Deque<AsyncIterator<BindingSet>> joined;
+	private final int prefetch;
 	private volatile CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
 
 	/*--------------*
@@ -44,8 +38,21 @@ public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvalu
 
 	public InnerJoinIterator(EvaluationStrategy strategy, Supplier<ExecutorService> executorService, QueryEvaluationStep leftPrepared,
 	                         QueryEvaluationStep rightPrepared, List<BindingSet> bindingSets, boolean lateral, boolean async) throws QueryEvaluationException {
+		this(strategy, executorService, leftPrepared, rightPrepared, bindingSets, lateral, async, defaultPrefetch);
+	}
+
+	/**
+	 * Creates a join iterator.
+	 *
+	 * @param prefetch the maximum number of right join arguments that are
+	 *                 concurrently evaluated ahead if <code>async</code> is true
+	 */
+	public InnerJoinIterator(EvaluationStrategy strategy, Supplier<ExecutorService> executorService, QueryEvaluationStep leftPrepared,
+	                         QueryEvaluationStep rightPrepared, List<BindingSet> bindingSets, boolean lateral, boolean async,
+	                         int prefetch) throws QueryEvaluationException {
 		this.strategy = strategy;
 		this.executorService = executorService;
+		this.prefetch = Math.max(1, prefetch);
 
 		CloseableIteration<BindingSet, QueryEvaluationException> leftIt = BatchQueryEvaluationStep.evaluate(leftPrepared, bindingSets);
 		if (leftIt.hasNext() || lateral) {
@@ -57,11 +64,22 @@ public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvalu
 		}
 		rightIter = new EmptyIteration<>();
 		leftIter = leftIt;
+		joined = async ? new ArrayDeque<>() : null;
+	}
 
-		if (async && (asyncDepth.get() != null && asyncDepth.get() > InnerJoinIterator.MAX_ASYNC_DEPTH)) {
-			async = false;
+	/**
+	 * Sets the number of right join arguments that are concurrently evaluated
+	 * ahead by asynchronous joins.
+	 */
+	public static void setDefaultPrefetch(int prefetch) {
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("Prefetch must be positive.");
 		}
-		joined = async ? new ArrayList<>() : null;
+		defaultPrefetch = prefetch;
+	}
+
+	public static int getDefaultPrefetch() {
+		return defaultPrefetch;
 	}
 
 	/*---------*
@@ -111,35 +129,30 @@ public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvalu
 
 	protected BindingSet getNextElementAsync() throws QueryEvaluationException {
 		try {
-			while (!joined.isEmpty() || leftIter.hasNext()) {
-				enqueueNext();
-				if (!joined.isEmpty()) {
-					BlockingQueue<BindingSet> nextQueue = joined.get(0);
-					BindingSet next = nextQueue.take();
-					if (next == NULL_BINDINGS) {
-						joined.remove(0);
-						continue;
-					}
+			while (true) {
+				if (joined.size() < prefetch) {
 					enqueueNext();
-					if (next != NULL_BINDINGS) {
-						return next;
-					}
 				}
+				AsyncIterator<BindingSet> nextJoined = joined.peekFirst();
+				if (nextJoined == null) {
+					break;
+				}
+				if (nextJoined.hasNext()) {
+					return nextJoined.next();
+				}
+				nextJoined.close();
+				joined.removeFirst();
 			}
 		} catch (NoSuchElementException ignore) {
 			// probably, one of the iterations has been closed concurrently in
 			// handleClose()
-		} catch (InterruptedException e) {
-			close();
 		}
 
 		return null;
 	}
 
 	private void enqueueNext() {
-		while (joined.size() < 2 && leftIter.hasNext()) {
-			BlockingQueue<BindingSet> queue = new ArrayBlockingQueue<>(50);
-			joined.add(queue);
+		while (joined.size() < prefetch && leftIter.hasNext()) {
 			boolean useBatch = preparedJoinArg instanceof BatchQueryEvaluationStep;
 			List<BindingSet> nextLefts = useBatch ? new ArrayList<>(BATCH_SIZE) : List.of(leftIter.next());
 			if (useBatch) {
@@ -147,43 +160,10 @@ public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvalu
 					nextLefts.add(leftIter.next());
 				}
 			}
-			var currentAsync = asyncDepth.get();
-			executorService.get().submit(() -> {
-				asyncDepth.set(currentAsync != null ? currentAsync + 1 : 1);
-				CloseableIteration<BindingSet, QueryEvaluationException> rightIt = null;
-				try {
-					rightIt = useBatch && nextLefts.size() > 1 ?
-							((BatchQueryEvaluationStep) preparedJoinArg).evaluate(nextLefts) :
-							preparedJoinArg.evaluate(nextLefts.get(0));
-
-					while (rightIt.hasNext()) {
-						BindingSet bindings = rightIt.next();
-						while (!queue.offer(bindings, 100, TimeUnit.MILLISECONDS)) {
-							if (isClosed()) {
-								return;
-							}
-						}
-					}
-					rightIt.close();
-				} catch (Exception e) {
-					log.error("Exception in async iterator", e);
-				} finally {
-					if (rightIt != null) {
-						rightIt.close();
-					}
-					try {
-						while (!queue.offer(NULL_BINDINGS, 100, TimeUnit.MILLISECONDS)) {
-							if (isClosed()) {
-								return;
-							}
-						}
-					} catch (InterruptedException e) {
-						// ignore
-					} finally {
-						asyncDepth.remove();
-					}
-				}
-			});
+			// evaluated by the caller if the executor has no capacity left
+			joined.add(new AsyncIterator<>(() -> useBatch && nextLefts.size() > 1 ?
+					((BatchQueryEvaluationStep) preparedJoinArg).evaluate(nextLefts) :
+					preparedJoinArg.evaluate(nextLefts.get(0)), executorService));
 		}
 	}
 
@@ -193,5 +173,11 @@ public class InnerJoinIterator extends LookAheadIteration<BindingSet, QueryEvalu
 
 		leftIter.close();
 		rightIter.close();
+		if (joined != null) {
+			// cancels the asynchronous evaluations
+			for (AsyncIterator<BindingSet> it : joined) {
+				it.close();
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.rdf4j.common.query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executor for the asynchronous evaluation of queries with a limited number
+ * of concurrently running tasks.
+ * <p>
+ * Tasks that are submitted by {@link #execute(Runnable)} are queued if the
+ * limit is reached. Query operators instead use
+ * {@link #tryExecute(ExecutorService, Runnable)} which only schedules a task if
+ * it can be started immediately. Otherwise, the operator evaluates its
+ * arguments within the calling thread. Hence, nested asynchronous operators
+ * never wait for tasks that can not be started and the limit works as a
+ * scheduling budget for all queries.
+ * <p>
+ * The tasks of a single query can further be restricted by a
+ * {@link #newQueryScope() query scope}.
+ */
+public class QueryExecutorService extends AbstractExecutorService {
+	static final Logger log = LoggerFactory.getLogger(QueryExecutorService.class);
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 256;
+	public static final int DEFAULT_MAX_CONCURRENCY_PER_QUERY = 32;
+
+	/**
+	 * The threads that run the tasks.
+	 */
+	public enum Mode {
+		/**
+		 * One virtual thread per task for I/O-bound tasks. Falls back to
+		 * {@link #CACHED} if virtual threads are not supported by the JVM.
+		 */
+		VIRTUAL,
+		/**
+		 * A fixed number of platform threads for CPU-bound tasks.
+		 */
+		PLATFORM,
+		/**
+		 * Platform threads that are created on demand and reused.
+		 */
+		CACHED
+	}
+
+	final Mode mode;
+	final ExecutorService threads;
+	final int maxConcurrency;
+	final int maxConcurrencyPerQuery;
+	final AtomicInteger active = new AtomicInteger();
+	final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	final AtomicInteger queued = new AtomicInteger();
+	final LongAdder completed = new LongAdder();
+	final LongAdder declined = new LongAdder();
+	volatile boolean shutdown;
+
+	public QueryExecutorService() {
+		this(Mode.VIRTUAL, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_CONCURRENCY,
+				DEFAULT_MAX_CONCURRENCY_PER_QUERY);
+	}
+
+	/**
+	 * Creates a new executor.
+	 *
+	 * @param mode                   the threads that run the tasks
+	 * @param threads                the number of threads if mode is {@link Mode#PLATFORM}
+	 * @param maxConcurrency         the maximum number of concurrently running tasks or 0 for no limit
+	 * @param maxConcurrencyPerQuery the maximum number of concurrently running tasks of a
+	 *                               query scope or 0 for no limit
+	 */
+	public QueryExecutorService(Mode mode, int threads, int maxConcurrency, int maxConcurrencyPerQuery) {
+		if (threads < 1 || maxConcurrency < 0 || maxConcurrencyPerQuery < 0) {
+			throw new IllegalArgumentException("Invalid number of threads or concurrency limit.");
+		}
+		ExecutorService virtualThreads = mode == Mode.VIRTUAL ? createVirtualThreadExecutor() : null;
+		if (virtualThreads != null) {
+			this.threads = virtualThreads;
+		} else if (mode == Mode.PLATFORM) {
+			this.threads = Executors.newFixedThreadPool(threads, threadFactory());
+			// tasks would otherwise wait within the pool
+			maxConcurrency = maxConcurrency == 0 ? threads : Math.min(maxConcurrency, threads);
+		} else {
+			if (mode == Mode.VIRTUAL) {
+				log.info("Virtual threads are not supported, using a cached thread pool");
+				mode = Mode.CACHED;
+			}
+			this.threads = Executors.newCachedThreadPool(threadFactory());
+		}
+		this.mode = mode;
+		this.maxConcurrency = maxConcurrency == 0 ? Integer.MAX_VALUE : maxConcurrency;
+		this.maxConcurrencyPerQuery = maxConcurrencyPerQuery == 0 ? Integer.MAX_VALUE : maxConcurrencyPerQuery;
+	}
+
+	static ThreadFactory threadFactory() {
+		AtomicInteger nr = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "kvin-query-" + nr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Creates an executor with one virtual thread per task.
+	 *
+	 * @return the executor or <code>null</code> if the JVM does not support virtual threads
+	 */
+	static ExecutorService createVirtualThreadExecutor() {
+		try {
+			// use reflection as the code is compiled for Java 17
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "kvin-query-virtual-", 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Schedules the given task if this is possible without waiting.
+	 * <p>
+	 * Other executors than {@link QueryExecutorService} and
+	 * {@link QueryScope} always accept the task.
+	 *
+	 * @return <code>true</code> if the task was scheduled, else
+	 * <code>false</code> and the task should be run by the caller
+	 */
+	public static boolean tryExecute(ExecutorService executor, Runnable task) {
+		if (executor instanceof QueryExecutorService) {
+			return ((QueryExecutorService) executor).tryExecute(task);
+		} else if (executor instanceof QueryScope) {
+			return ((QueryScope) executor).tryExecute(task);
+		}
+		executor.execute(task);
+		return true;
+	}
+
+	/**
+	 * Returns a new query scope if the given executor is a
+	 * {@link QueryExecutorService}, else the executor itself.
+	 */
+	public static ExecutorService forQuery(ExecutorService executor) {
+		if (executor instanceof QueryExecutorService) {
+			return ((QueryExecutorService) executor).newQueryScope();
+		}
+		return executor;
+	}
+
+	/**
+	 * Creates a view of this executor that limits the number of concurrently
+	 * running tasks of a single query.
+	 */
+	public QueryScope newQueryScope() {
+		return new QueryScope(this, maxConcurrencyPerQuery);
+	}
+
+	static boolean acquire(AtomicInteger active, int max) {
+		int current;
+		do {
+			current = active.get();
+			if (current >= max) {
+				return false;
+			}
+		} while (!active.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	/**
+	 * Schedules the given task if the concurrency limit is not yet reached.
+	 *
+	 * @return <code>true</code> if the task was scheduled, else <code>false</code>
+	 */
+	public boolean tryExecute(Runnable task) {
+		// queued tasks take precedence
+		if (shutdown || !queue.isEmpty() || !acquire(active, maxConcurrency)) {
+			declined.increment();
+			return false;
+		}
+		dispatch(task);
+		return true;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+		queue.add(task);
+		queued.incrementAndGet();
+		drain();
+	}
+
+	void drain() {
+		while (!queue.isEmpty() && acquire(active, maxConcurrency)) {
+			Runnable task = queue.poll();
+			if (task == null) {
+				// taken by a concurrent call
+				active.decrementAndGet();
+			} else {
+				queued.decrementAndGet();
+				dispatch(task);
+			}
+		}
+		if (shutdown && queue.isEmpty()) {
+			threads.shutdown();
+		}
+	}
+
+	void dispatch(Runnable task) {
+		try {
+			threads.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					completed.increment();
+					active.decrementAndGet();
+					drain();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			active.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the threads that are used by this executor.
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the number of currently running tasks.
+	 */
+	public int getActiveTasks() {
+		return active.get();
+	}
+
+	/**
+	 * Returns the number of tasks that are waiting for execution.
+	 */
+	public int getQueuedTasks() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns the number of completed tasks.
+	 */
+	public long getCompletedTasks() {
+		return completed.sum();
+	}
+
+	/**
+	 * Returns the number of tasks that were declined by
+	 * {@link #tryExecute(Runnable)} and hence run by the caller.
+	 */
+	public long getDeclinedTasks() {
+		return declined.sum();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		drain();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		List<Runnable> tasks = new ArrayList<>();
+		Runnable task;
+		while ((task = queue.poll()) != null) {
+			queued.decrementAndGet();
+			tasks.add(task);
+		}
+		threads.shutdownNow();
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return threads.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return threads.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Limits the number of concurrently running tasks of a query. The tasks
+	 * are executed by the parent executor and also count towards its limit.
+	 * Queued tasks are only passed to the parent executor while the limit of
+	 * the scope is not reached.
+	 * <p>
+	 * Shutting down a scope does not affect the parent executor.
+	 */
+	public static class QueryScope extends AbstractExecutorService {
+		final QueryExecutorService executor;
+		final int maxConcurrency;
+		final AtomicInteger active = new AtomicInteger();
+		final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		volatile boolean shutdown;
+
+		QueryScope(QueryExecutorService executor, int maxConcurrency) {
+			this.executor = executor;
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		/**
+		 * Schedules the given task if neither the limit of this scope nor the
+		 * limit of the parent executor is reached.
+		 *
+		 * @return <code>true</code> if the task was scheduled, else <code>false</code>
+		 */
+		public boolean tryExecute(Runnable task) {
+			// queued tasks take precedence
+			if (shutdown || !queue.isEmpty() || !acquire(active, maxConcurrency)) {
+				executor.declined.increment();
+				return false;
+			}
+			if (!executor.tryExecute(release(task))) {
+				active.decrementAndGet();
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Queues the given task. It is passed to the parent executor as soon as
+		 * the limit of this scope permits.
+		 */
+		@Override
+		public void execute(Runnable task) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Query scope has been shut down");
+			}
+			queue.add(task);
+			drain();
+		}
+
+		// frees the slot of the task after it has finished and starts queued tasks
+		Runnable release(Runnable task) {
+			return () -> {
+				try {
+					task.run();
+				} finally {
+					active.decrementAndGet();
+					drain();
+				}
+			};
+		}
+
+		void drain() {
+			while (!queue.isEmpty() && acquire(active, maxConcurrency)) {
+				Runnable task = queue.poll();
+				if (task == null) {
+					// taken by a concurrent call
+					active.decrementAndGet();
+				} else {
+					try {
+						executor.execute(release(task));
+					} catch (RejectedExecutionException e) {
+						active.decrementAndGet();
+						throw e;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of tasks of this scope that are waiting for execution.
+		 */
+		public int getQueuedTasks() {
+			return queue.size();
+		}
+
+		/**
+		 * Returns the number of currently running tasks of this scope.
+		 */
+		public int getActiveTasks() {
+			return active.get();
+		}
+
+		@Override
+		public void shutdown() {
+			shutdown = true;
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			List<Runnable> tasks = new ArrayList<>();
+			Runnable task;
+			while ((task = queue.poll()) != null) {
+				tasks.add(task);
+			}
+			return tasks;
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return shutdown && active.get() == 0 && queue.isEmpty();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while (!isTerminated()) {
+				if (System.nanoTime() >= deadline) {
+					return false;
+				}
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -11,6 +11,7 @@
 package io.github.linkedfactory.core.rdf4j.common.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -27,6 +28,7 @@ import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.ZeroLengthPath;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.query.algebra.helpers.TupleExprs;
 import org.eclipse.rdf4j.query.algebra.helpers.collectors.StatementPatternCollector;
@@ -39,6 +41,25 @@ import org.eclipse.rdf4j.query.algebra.helpers.collectors.StatementPatternCollec
  */
 public class QueryJoinOptimizer implements QueryOptimizer {
 
+	protected final EvaluationStatistics statistics;
+
+	/**
+	 * Creates an optimizer that orders joins only by their variables.
+	 */
+	public QueryJoinOptimizer() {
+		this(null);
+	}
+
+	/**
+	 * Creates an optimizer that orders joins by the cardinalities of the given statistics and by their variables.
+	 * This also includes the order of fetches, i.e. the most selective fetches are evaluated first.
+	 *
+	 * @param statistics the statistics or <code>null</code> to treat all join arguments as equally selective
+	 */
+	public QueryJoinOptimizer(EvaluationStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	/**
 	 * Applies generally applicable optimizations: path expressions are sorted from more to less specific.
 	 *
@@ -124,9 +145,18 @@ public class QueryJoinOptimizer implements QueryOptimizer {
 				joinArgs.removeAll(fetches);
 				TupleExpr fetchJoins = null;
 				if (fetches.size() > 0) {
-					fetchJoins = fetches.get(0);
-					for (int i = 1; i < fetches.size(); i++) {
-						fetchJoins = new Join(fetches.get(i), fetchJoins);
+					if (statistics == null) {
+						fetchJoins = fetches.get(0);
+						for (int i = 1; i < fetches.size(); i++) {
+							fetchJoins = new Join(fetches.get(i), fetchJoins);
+						}
+					} else {
+						List<TupleExpr> orderedFetches = reorderFetches(fetches, priorityArgs);
+						int i = orderedFetches.size() - 1;
+						fetchJoins = orderedFetches.get(i);
+						for (i--; i >= 0; i--) {
+							fetchJoins = new Join(orderedFetches.get(i), fetchJoins);
+						}
 					}
 				}
 
@@ -150,14 +180,7 @@ public class QueryJoinOptimizer implements QueryOptimizer {
 					Map<TupleExpr, List<Var>> varsMap = new HashMap<>();
 
 					for (TupleExpr tupleExpr : joinArgs) {
-						double cardinality = 1.0; //statistics.getCardinality(tupleExpr);
-						tupleExpr.setResultSizeEstimate(Math.max(cardinality, tupleExpr.getResultSizeEstimate()));
-						cardinalityMap.put(tupleExpr, cardinality);
-						if (tupleExpr instanceof ZeroLengthPath) {
-							varsMap.put(tupleExpr, ((ZeroLengthPath) tupleExpr).getVarList());
-						} else {
-							varsMap.put(tupleExpr, getStatementPatternVars(tupleExpr));
-						}
+						addStatistics(tupleExpr, cardinalityMap, varsMap);
 					}
 
 					// Build map of var frequencies
@@ -213,6 +236,78 @@ public class QueryJoinOptimizer implements QueryOptimizer {
 			}
 		}
 
+		private void addStatistics(TupleExpr tupleExpr, Map<TupleExpr, Double> cardinalityMap,
+			Map<TupleExpr, List<Var>> varsMap) {
+			double cardinality = statistics == null ? 1.0 : statistics.getCardinality(tupleExpr);
+			tupleExpr.setResultSizeEstimate(Math.max(cardinality, tupleExpr.getResultSizeEstimate()));
+			cardinalityMap.put(tupleExpr, cardinality);
+			if (tupleExpr instanceof ZeroLengthPath) {
+				varsMap.put(tupleExpr, ((ZeroLengthPath) tupleExpr).getVarList());
+			} else {
+				varsMap.put(tupleExpr, getStatementPatternVars(tupleExpr));
+			}
+		}
+
+		/**
+		 * Orders fetches by their estimated costs. Fetches are evaluated before all other join arguments except the
+		 * priority arguments whose bindings are therefore considered as already bound.
+		 * <p>
+		 * Fetches with equal costs are evaluated in reverse order of their occurrence.
+		 */
+		protected List<TupleExpr> reorderFetches(List<TupleExpr> fetches, List<TupleExpr> priorityArgs) {
+			Set<String> saveBoundVars = boundVars;
+			try {
+				boundVars = new HashSet<>(boundVars);
+				for (TupleExpr priorityArg : priorityArgs) {
+					boundVars.addAll(priorityArg.getBindingNames());
+				}
+
+				List<TupleExpr> candidates = new ArrayList<>(fetches);
+				Collections.reverse(candidates);
+				Map<TupleExpr, Double> cardinalityMap = new HashMap<>();
+				Map<TupleExpr, List<Var>> varsMap = new HashMap<>();
+				for (TupleExpr fetch : candidates) {
+					addStatistics(fetch, cardinalityMap, varsMap);
+				}
+				Map<Var, Integer> varFreqMap = new HashMap<>();
+				for (List<Var> varList : varsMap.values()) {
+					getVarFreqMap(varList, varFreqMap);
+				}
+
+				List<TupleExpr> ordered = new ArrayList<>(candidates.size());
+				while (!candidates.isEmpty()) {
+					// fetches that require bindings of other fetches are deferred
+					List<TupleExpr> ready = new ArrayList<>();
+					for (TupleExpr candidate : candidates) {
+						if (!dependsOnOthers((Fetch) candidate, candidates)) {
+							ready.add(candidate);
+						}
+					}
+					TupleExpr fetch = selectNextTupleExpr(ready.isEmpty() ? candidates : ready, cardinalityMap,
+						varsMap, varFreqMap, boundVars);
+					candidates.remove(fetch);
+					ordered.add(fetch);
+					boundVars.addAll(fetch.getBindingNames());
+				}
+				return ordered;
+			} finally {
+				boundVars = saveBoundVars;
+			}
+		}
+
+		private boolean dependsOnOthers(Fetch fetch, List<TupleExpr> others) {
+			for (String name : fetch.getRequiredBindings()) {
+				if (!boundVars.contains(name)) {
+					for (TupleExpr other : others) {
+						if (other != fetch && other.getAssuredBindingNames().contains(name)) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
 		protected <L extends List<TupleExpr>> L getJoinArgs(TupleExpr tupleExpr, L joinArgs) {
 			if (tupleExpr instanceof Join) {
 				Join join = (Join) tupleExpr;
@@ -61,6 +61,19 @@ public class KvinEvaluationStrategy extends StrictEvaluationStrategy {
 //        System.out.println("Stmt: " + stmt);
 
         final Var subjectVar = stmt.getSubjectVar();
+        if (bs instanceof KvinTupleBatch.Row && !subjectVar.hasValue()
+                && ((KvinTupleBatch.Row) bs).isValueVariable(subjectVar.getName())) {
+            // read the fetched value directly without creating a blank node for the tuple
+            KvinTupleBatch.Row row = (KvinTupleBatch.Row) bs;
+            Value predValue = StrictEvaluationStrategy.getVarValue(stmt.getPredicateVar(), bs);
+            if (KVIN.VALUE.equals(predValue)) {
+                return compareAndBind(bs, stmt.getObjectVar(), Conversions.toRdfValue(row.getTupleValue(), vf));
+            } else if (KVIN.TIME.equals(predValue)) {
+                return compareAndBind(bs, stmt.getObjectVar(), Conversions.toRdfValue(row.getTime(), vf));
+            } else if (KVIN.SEQNR.equals(predValue)) {
+                return compareAndBind(bs, stmt.getObjectVar(), Conversions.toRdfValue(row.getSeqNr(), vf));
+            }
+        }
         final Value subjectValue = StrictEvaluationStrategy.getVarValue(subjectVar, bs);
 
         if (subjectValue == null) {
@@ -270,7 +283,10 @@ public class KvinEvaluationStrategy extends StrictEvaluationStrategy {
                             long[] values = new long[compareParams.size()];
                             int i = 0;
                             for (String name : compareParams) {
-                                values[i++] = ((Literal) bs.getValue(name)).longValue();
+                                // avoids the creation of literals for fetched values
+                                values[i++] = bs instanceof KvinTupleBatch.Row ?
+                                        ((KvinTupleBatch.Row) bs).getLongValue(name) :
+                                        ((Literal) bs.getValue(name)).longValue();
                             }
                             return values;
                         }, context, executorService);
@@ -2,9 +2,8 @@ package io.github.linkedfactory.core.rdf4j.kvin;
 
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.KvinTuple;
-import io.github.linkedfactory.core.rdf4j.common.BNodeWithValue;
 import io.github.linkedfactory.core.rdf4j.common.query.AsyncIterator;
-import io.github.linkedfactory.core.rdf4j.common.query.CompositeBindingSet;
+import io.github.linkedfactory.core.rdf4j.kvin.query.KvinTupleBatch;
 import io.github.linkedfactory.core.rdf4j.kvin.query.Parameters;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.komma.core.URI;
@@ -34,6 +33,11 @@ import static io.github.linkedfactory.core.rdf4j.common.Conversions.toRdfValue;
 import static io.github.linkedfactory.core.rdf4j.kvin.KvinEvaluationStrategy.getVarValue;
 
 public class KvinEvaluationUtil {
+	/**
+	 * Initial and maximum number of fetched values that are converted into a
+	 * {@link KvinTupleBatch} at once.
+	 */
+	static final int MIN_BATCH_SIZE = 16, MAX_BATCH_SIZE = 256;
 
 	private final Kvin kvin;
 	private final Supplier<ExecutorService> executorService;
@@ -125,11 +129,29 @@ public class KvinEvaluationUtil {
 			}
 		}
 
+		if (params.timeFilter != null) {
+			// restrict the time interval to the times that are accepted by the filter
+			begin = Math.max(begin, params.timeFilter.getMinLong());
+			end = Math.min(end, params.timeFilter.getMaxLong());
+			if (begin > end) {
+				return new EmptyIteration<>();
+			}
+		}
+
 		Integer seqNrValueInt = pv.seqNrValue == null ? null : ((Literal) pv.seqNrValue).intValue();
 
 		final Var subjectVar = stmt.getSubjectVar();
 		final Var predVar = stmt.getPredicateVar();
 		final long beginFinal = begin, endFinal = end, limitFinal = limit;
+		// the variables that are bound by the fetched values
+		final KvinTupleBatch.Layout layout = new KvinTupleBatch.Layout(vf,
+				!subjectVar.isConstant() && !baseBindings.hasBinding(subjectVar.getName()) ? subjectVar.getName() : null,
+				!objectVar.isConstant() && !baseBindings.hasBinding(objectVar.getName()) ? objectVar.getName() : null,
+				!predVar.isConstant() ? predVar.getName() : null,
+				time != null && !time.isConstant() && !baseBindings.hasBinding(time.getName()) ? time.getName() : null,
+				contextVar != null && !contextVar.isConstant() ? contextVar.getName() : null, contextValue[0],
+				params.seqNr != null && pv.seqNrValue == null ? params.seqNr.getName() : null,
+				params.index != null && pv.indexValue == null ? params.index.getName() : null);
 		final CloseableIteration<BindingSet, QueryEvaluationException> iteration = new AbstractCloseableIteration<BindingSet, QueryEvaluationException>() {
 			final Thread creator = Thread.currentThread();
 			IExtendedIterator<KvinTuple> it;
@@ -138,6 +160,9 @@ public class KvinEvaluationUtil {
 			int index;
 			BindingSet next;
 			boolean skipProperty;
+			KvinTupleBatch batch;
+			int batchRow;
+			int batchCapacity = MIN_BATCH_SIZE;
 
 			@Override
 			public boolean hasNext() throws QueryEvaluationException {
@@ -149,11 +174,13 @@ public class KvinEvaluationUtil {
 
 					// create iterator with values for property
 					if (finalContext[0] != null) {
-						it = kvin.fetch(items, properties, finalContext[0], endFinal, beginFinal, limitFinal, interval, aggregationFunc);
+						it = kvin.fetch(items, properties, finalContext[0], endFinal, beginFinal, limitFinal, interval, aggregationFunc,
+								params.valueFilter);
 					} else {
 						for (IRI defaultGraph : dataset.getDefaultGraphs()) {
 							URI contextUri = toKommaUri(defaultGraph);
-							it = kvin.fetch(items, properties, contextUri, endFinal, beginFinal, limitFinal, interval, aggregationFunc);
+							it = kvin.fetch(items, properties, contextUri, endFinal, beginFinal, limitFinal, interval, aggregationFunc,
+									params.valueFilter);
 							if (it.hasNext()) {
 								break;
 							}
@@ -189,7 +216,22 @@ public class KvinEvaluationUtil {
 			}
 
 			BindingSet computeNext() {
-				while (it.hasNext()) {
+				if (batch == null || batchRow == batch.size()) {
+					batch = nextBatch();
+					batchRow = 0;
+					if (batch == null) {
+						close();
+						return null;
+					}
+				}
+				return batch.get(batchRow++);
+			}
+
+			KvinTupleBatch nextBatch() {
+				KvinTupleBatch newBatch = new KvinTupleBatch(layout, baseBindings, batchCapacity);
+				// start with small batches as often only few values are consumed
+				batchCapacity = Math.min(batchCapacity * 4, MAX_BATCH_SIZE);
+				while (!newBatch.isFull() && it.hasNext()) {
 					KvinTuple tuple = it.next();
 					// check if current property is changed
 					if (!tuple.property.equals(currentProperty)) {
@@ -221,35 +263,9 @@ public class KvinEvaluationUtil {
 						continue;
 					}
 
-					CompositeBindingSet newBs = new CompositeBindingSet(baseBindings);
-					if (!subjectVar.isConstant() && !baseBindings.hasBinding(subjectVar.getName())) {
-						Value subjectValue = toRdfValue(tuple.item, vf);
-						newBs.addBinding(subjectVar.getName(), subjectValue);
-					}
-					if (!objectVar.isConstant() && !baseBindings.hasBinding(objectVar.getName())) {
-						Value objectValue = BNodeWithValue.create(tuple, false);
-						newBs.addBinding(objectVar.getName(), objectValue);
-					}
-					if (!predVar.isConstant()) {
-						newBs.addBinding(predVar.getName(), currentPropertyValue);
-					}
-					if (time != null && !time.isConstant() && !baseBindings.hasBinding(time.getName())) {
-						newBs.addBinding(time.getName(), toRdfValue(tuple.time, vf));
-					}
-					if (contextVar != null && !contextVar.isConstant()) {
-						newBs.addBinding(contextVar.getName(), contextValue[0]);
-					}
-					if (params.seqNr != null && pv.seqNrValue == null) {
-						newBs.addBinding(params.seqNr.getName(), toRdfValue(tuple.seqNr, vf));
-					}
-					if (params.index != null && pv.indexValue == null) {
-						newBs.addBinding(params.index.getName(), toRdfValue(index, vf));
-					}
-
-					return newBs;
+					newBatch.add(tuple, currentPropertyValue, index);
 				}
-				close();
-				return null;
+				return newBatch.size() > 0 ? newBatch : null;
 			}
 
 			@Override
@@ -1,8 +1,12 @@
 package io.github.linkedfactory.core.rdf4j.kvin;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.rdf4j.ContextProvider;
 import io.github.linkedfactory.core.rdf4j.common.query.*;
+import io.github.linkedfactory.core.rdf4j.kvin.query.KvinEvaluationStatistics;
 import io.github.linkedfactory.core.rdf4j.kvin.query.KvinFetchOptimizer;
 import io.github.linkedfactory.core.rdf4j.kvin.query.ParameterScanner;
 import org.eclipse.rdf4j.common.exception.RDF4JException;
@@ -12,20 +16,34 @@ import org.eclipse.rdf4j.model.ValueFactory;
 import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
-import org.eclipse.rdf4j.query.algebra.Service;
-import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.*;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.FederatedService;
 import org.eclipse.rdf4j.query.algebra.evaluation.util.QueryEvaluationUtil;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
 import org.eclipse.rdf4j.query.impl.SimpleDataset;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class KvinFederatedService implements FederatedService {
+    /**
+     * Maximum number of optimized service expressions that are cached.
+     */
+    public static final int PLAN_CACHE_SIZE = 256;
+
+    /**
+     * Time in milliseconds after which cached plans are recreated as they
+     * depend on the estimated sizes of the fetched series.
+     */
+    public static final long PLAN_EXPIRE_AFTER = 600000;
 
     static final ValueFactory vf = SimpleValueFactory.getInstance();
     protected boolean initialized = false;
@@ -33,6 +51,9 @@ public class KvinFederatedService implements FederatedService {
     boolean closeKvinOnShutdown;
     Supplier<ExecutorService> executorService;
     ContextProvider contextProvider;
+    // optimized service expressions by their normalized form
+    final Cache<TupleExpr, Plan> planCache = CacheBuilder.newBuilder().maximumSize(PLAN_CACHE_SIZE)
+            .expireAfterWrite(PLAN_EXPIRE_AFTER, TimeUnit.MILLISECONDS).build();
 
     public KvinFederatedService(Kvin kvin, Supplier<ExecutorService> executorService, ContextProvider contextProvider, boolean closeKvinOnShutdown) {
         this.kvin = kvin;
@@ -66,45 +87,24 @@ public class KvinFederatedService implements FederatedService {
             return new EmptyIteration<>();
         }
 
-        TupleExpr expr = service.getArg();
-        final ParameterScanner scanner = new ParameterScanner();
-        try {
-            scanner.process(expr);
-        } catch (RDF4JException e) {
-            throw new QueryEvaluationException(e);
-        }
-
-        final KvinFetchOptimizer kvinFetchOptimizer = new KvinFetchOptimizer(scanner);
-        try {
-            kvinFetchOptimizer.process(service);
-        } catch (RDF4JException e) {
-            throw new QueryEvaluationException(e);
-        }
-
-        List<QueryOptimizer> optimizers = new ArrayList<>();
-        optimizers.add(new QueryModelPruner());
-        final QueryJoinOptimizer queryJoinOptimizer = new QueryJoinOptimizer();
-        optimizers.add(queryJoinOptimizer);
-        try {
-            for (QueryOptimizer optimizer : optimizers) {
-                optimizer.optimize(service, null, null);
-            }
-        } catch (RDF4JException e) {
-            throw new QueryEvaluationException(e);
-        }
+        Plan plan = getPlan(service);
+        ParameterScanner scanner = plan.scanner;
 
         // for debugging purposes
-        // System.out.println(service);
+        // System.out.println(plan.expr);
 
         Map<Value, Object> valueToData = new WeakHashMap<>();
         SimpleDataset dataset = new SimpleDataset();
         if (this.contextProvider != null) {
             dataset.addDefaultGraph(vf.createIRI(this.contextProvider.getContext().toString()));
         }
-        EvaluationStrategy strategy = new KvinEvaluationStrategy(kvin, executorService, scanner, vf, dataset, null, valueToData);
+        // limits the concurrently running tasks of this evaluation
+        ExecutorService queryExecutor = QueryExecutorService.forQuery(executorService.get());
+        Supplier<ExecutorService> queryExecutorService = () -> queryExecutor;
+        EvaluationStrategy strategy = new KvinEvaluationStrategy(kvin, queryExecutorService, scanner, vf, dataset, null, valueToData);
         List<CloseableIteration<BindingSet, QueryEvaluationException>> resultIters = new ArrayList<>();
 
-        var precompiled = strategy.precompile(service.getArg());
+        var precompiled = strategy.precompile(plan.expr);
         if (precompiled instanceof BatchQueryEvaluationStep) {
             while (bindings.hasNext()) {
                 List<BindingSet> bindingSetList = new ArrayList<>();
@@ -115,7 +115,7 @@ public class KvinFederatedService implements FederatedService {
                     resultIters.add(((BatchQueryEvaluationStep) precompiled).evaluate(bindingSetList));
                 } else {
                     resultIters.add(new AsyncIterator<>(() -> ((BatchQueryEvaluationStep) precompiled)
-                            .evaluate(bindingSetList), executorService));
+                            .evaluate(bindingSetList), queryExecutorService));
                 }
             }
         } else {
@@ -124,7 +124,7 @@ public class KvinFederatedService implements FederatedService {
                 if (! bindings.hasNext()) {
                     resultIters.add(precompiled.evaluate(bs));
                 } else {
-                    resultIters.add(new AsyncIterator<>(() -> precompiled.evaluate(bs), executorService));
+                    resultIters.add(new AsyncIterator<>(() -> precompiled.evaluate(bs), queryExecutorService));
                 }
             }
         }
@@ -132,6 +132,117 @@ public class KvinFederatedService implements FederatedService {
         return resultIters.size() > 1 ? new DistinctIteration<>(new UnionIteration<>(resultIters)) : resultIters.get(0);
     }
 
+    /**
+     * Returns the optimized plan for the expression of the given service.
+     * <p>
+     * Plans are cached by the normalized expression and shared between
+     * evaluations. Hence, they must not be modified after they were created.
+     */
+    protected Plan getPlan(Service service) throws QueryEvaluationException {
+        TupleExpr key = normalize(service.getArg());
+        try {
+            return planCache.get(key, () -> createPlan(service));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof QueryEvaluationException) {
+                throw (QueryEvaluationException) e.getCause();
+            }
+            throw new QueryEvaluationException(e.getCause());
+        }
+    }
+
+    protected Plan createPlan(Service service) throws QueryEvaluationException {
+        // the optimizers modify the expression in place
+        Service planService = service.clone();
+        final ParameterScanner scanner = new ParameterScanner();
+        try {
+            scanner.process(planService.getArg());
+        } catch (RDF4JException e) {
+            throw new QueryEvaluationException(e);
+        }
+
+        final KvinFetchOptimizer kvinFetchOptimizer = new KvinFetchOptimizer(scanner);
+        try {
+            kvinFetchOptimizer.process(planService);
+        } catch (RDF4JException e) {
+            throw new QueryEvaluationException(e);
+        }
+
+        List<QueryOptimizer> optimizers = new ArrayList<>();
+        optimizers.add(new QueryModelPruner());
+        // order fetches by the estimated number of values
+        final QueryJoinOptimizer queryJoinOptimizer = new QueryJoinOptimizer(new KvinEvaluationStatistics(kvin));
+        optimizers.add(queryJoinOptimizer);
+        try {
+            for (QueryOptimizer optimizer : optimizers) {
+                optimizer.optimize(planService, null, null);
+            }
+        } catch (RDF4JException e) {
+            throw new QueryEvaluationException(e);
+        }
+        return new Plan(planService.getArg(), scanner);
+    }
+
+    /**
+     * Returns a copy of the given expression where the generated names of
+     * anonymous variables are replaced by names that only depend on the
+     * structure of the expression. The parser generates random names for
+     * blank nodes, hence the same query would never be recognized otherwise.
+     */
+    static TupleExpr normalize(TupleExpr expr) {
+        TupleExpr normalized = expr.clone();
+        Map<String, String> names = new HashMap<>();
+        Function<String, String> rename = name -> name != null && name.startsWith("_anon_") ?
+                names.computeIfAbsent(name, n -> "_anon_" + names.size()) : name;
+        normalized.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(Var node) {
+                if (!node.hasValue()) {
+                    node.setName(rename.apply(node.getName()));
+                }
+            }
+
+            @Override
+            public void meet(ExtensionElem node) {
+                node.setName(rename.apply(node.getName()));
+                super.meet(node);
+            }
+
+            @Override
+            public void meet(ProjectionElem node) {
+                node.setName(rename.apply(node.getName()));
+                node.setProjectionAlias(rename.apply(node.getProjectionAlias().orElse(null)));
+                super.meet(node);
+            }
+
+            @Override
+            public void meet(GroupElem node) {
+                node.setName(rename.apply(node.getName()));
+                super.meet(node);
+            }
+
+            @Override
+            public void meet(Group node) {
+                super.meet(node);
+                node.setGroupBindingNames(node.getGroupBindingNames().stream().map(rename)
+                        .collect(Collectors.toList()));
+            }
+        });
+        return normalized;
+    }
+
+    /**
+     * An optimized service expression together with its parameters.
+     */
+    protected static class Plan {
+        final TupleExpr expr;
+        final ParameterScanner scanner;
+
+        Plan(TupleExpr expr, ParameterScanner scanner) {
+            this.expr = expr;
+            this.scanner = scanner;
+        }
+    }
+
     @Override
     public void initialize() throws QueryEvaluationException {
         initialized = true;
@@ -18,7 +18,6 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 
 import io.github.linkedfactory.core.rdf4j.common.query.AsyncIterator;
-import io.github.linkedfactory.core.rdf4j.common.query.InnerJoinIterator;
 import org.eclipse.rdf4j.common.annotation.Experimental;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.query.Binding;
@@ -67,15 +66,9 @@ public class InnerMergeJoinIterator<V> implements CloseableIteration<BindingSet,
 			return leftIter;
 		}
 
-		CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
-		if (InnerJoinIterator.asyncDepth.get() == null || InnerJoinIterator.asyncDepth.get() < InnerJoinIterator.MAX_ASYNC_DEPTH) {
-			rightIter = new AsyncIterator<>(() -> preparedRight.evaluate(bindings), executorService);
-		} else {
-			rightIter = preparedRight.evaluate(bindings);
-			if (rightIter == QueryEvaluationStep.EMPTY_ITERATION) {
-				return rightIter;
-			}
-		}
+		// evaluated by the caller if the executor has no capacity left
+		CloseableIteration<BindingSet, QueryEvaluationException> rightIter =
+				new AsyncIterator<>(() -> preparedRight.evaluate(bindings), executorService);
 
 		return new InnerMergeJoinIterator<>(new PeekMarkIterator<>(leftIter), new PeekMarkIterator<>(rightIter), cmp, value, context);
 	}
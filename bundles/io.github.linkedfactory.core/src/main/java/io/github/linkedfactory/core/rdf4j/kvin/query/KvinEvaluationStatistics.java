@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.rdf4j.kvin.query;
+
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.evaluation.impl.EvaluationStatistics;
+
+/**
+ * Estimates the number of results of {@link KvinFetch} operations.
+ * <p>
+ * If item and property of a fetch are constant then the number of values
+ * within the requested time range is estimated by the store. Otherwise, a
+ * default size per series is assumed. The estimate is further restricted by
+ * constant limits, intervals and aggregation functions.
+ */
+public class KvinEvaluationStatistics extends EvaluationStatistics {
+    /**
+     * The assumed number of values of a series if it can not be estimated.
+     */
+    public static final double DEFAULT_SERIES_SIZE = 1000;
+
+    final Kvin kvin;
+
+    public KvinEvaluationStatistics(Kvin kvin) {
+        this.kvin = kvin;
+    }
+
+    @Override
+    protected CardinalityCalculator createCardinalityCalculator() {
+        return new KvinCardinalityCalculator();
+    }
+
+    /**
+     * Returns the estimated number of results of the given fetch.
+     */
+    public double getCardinality(KvinFetch fetch) {
+        Parameters params = fetch.getParams();
+        StatementPattern stmt = fetch.getStatement();
+
+        boolean aggregated = params.aggregationFunction != null;
+        long begin = longValue(params.from, 0L);
+        long end = longValue(params.to, KvinTuple.TIME_MAX_VALUE);
+        long time = longValue(params.time, -1L);
+        if (time >= 0 && !aggregated) {
+            begin = time;
+            end = time;
+        }
+
+        double size = DEFAULT_SERIES_SIZE;
+        URI item = uriValue(stmt.getSubjectVar());
+        URI property = uriValue(stmt.getPredicateVar());
+        if (item != null && (property != null || !stmt.getPredicateVar().hasValue())) {
+            URI context = uriValue(stmt.getContextVar());
+            long approximateSize = kvin.approximateSize(item, property,
+                    context != null ? context : Kvin.DEFAULT_CONTEXT, end, begin);
+            if (approximateSize >= 0) {
+                size = approximateSize;
+            }
+        }
+
+        long interval = longValue(params.interval, 0L);
+        if (aggregated) {
+            // one aggregated value per interval or for the whole time range
+            long buckets = interval > 0 && end >= begin ? (end - begin) / interval + 1 : 1;
+            size = Math.min(size, buckets);
+        } else if (interval > 0 && end >= begin) {
+            // at most one value per interval
+            size = Math.min(size, (end - begin) / interval + 1);
+        }
+        long limit = longValue(params.limit, 0L);
+        if (limit > 0) {
+            size = Math.min(size, limit);
+        }
+        if (params.seqNr != null && params.seqNr.hasValue() || params.index != null && params.index.hasValue()) {
+            size = Math.min(size, 1);
+        }
+        return size;
+    }
+
+    static URI uriValue(Var var) {
+        Value value = var != null ? var.getValue() : null;
+        return value instanceof IRI ? URIs.createURI(value.stringValue()) : null;
+    }
+
+    static long longValue(Var var, long defaultValue) {
+        Value value = var != null ? var.getValue() : null;
+        if (value instanceof Literal) {
+            try {
+                return ((Literal) value).longValue();
+            } catch (NumberFormatException e) {
+                // use default value
+            }
+        }
+        return defaultValue;
+    }
+
+    protected class KvinCardinalityCalculator extends CardinalityCalculator {
+        @Override
+        public void meetOther(QueryModelNode node) {
+            if (node instanceof KvinFetch) {
+                cardinality = KvinEvaluationStatistics.this.getCardinality((KvinFetch) node);
+            } else {
+                super.meetOther(node);
+            }
+        }
+    }
+}
@@ -61,6 +61,7 @@ public class KvinFetch extends UnaryTupleOperator implements Fetch {
         return params;
     }
 
+    @Override
     public Set<String> getRequiredBindings() {
         return requiredBindings;
     }
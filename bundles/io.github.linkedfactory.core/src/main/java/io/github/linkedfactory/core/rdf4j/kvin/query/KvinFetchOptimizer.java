@@ -1,18 +1,69 @@
 package io.github.linkedfactory.core.rdf4j.kvin.query;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import io.github.linkedfactory.core.kvin.ValueFilter;
+import io.github.linkedfactory.core.rdf4j.kvin.KVIN;
 import org.eclipse.rdf4j.common.exception.RDF4JException;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.datatypes.XMLDatatypeUtil;
+import org.eclipse.rdf4j.model.impl.BooleanLiteral;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.FN;
+import org.eclipse.rdf4j.model.vocabulary.XSD;
+import org.eclipse.rdf4j.query.algebra.AbstractAggregateOperator;
+import org.eclipse.rdf4j.query.algebra.AggregateOperator;
+import org.eclipse.rdf4j.query.algebra.And;
+import org.eclipse.rdf4j.query.algebra.Avg;
+import org.eclipse.rdf4j.query.algebra.Compare;
+import org.eclipse.rdf4j.query.algebra.Compare.CompareOp;
+import org.eclipse.rdf4j.query.algebra.Count;
+import org.eclipse.rdf4j.query.algebra.Datatype;
+import org.eclipse.rdf4j.query.algebra.Extension;
+import org.eclipse.rdf4j.query.algebra.ExtensionElem;
 import org.eclipse.rdf4j.query.algebra.Filter;
+import org.eclipse.rdf4j.query.algebra.FunctionCall;
+import org.eclipse.rdf4j.query.algebra.Group;
+import org.eclipse.rdf4j.query.algebra.GroupElem;
+import org.eclipse.rdf4j.query.algebra.If;
 import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.MathExpr;
+import org.eclipse.rdf4j.query.algebra.MathExpr.MathOp;
+import org.eclipse.rdf4j.query.algebra.Max;
+import org.eclipse.rdf4j.query.algebra.Min;
+import org.eclipse.rdf4j.query.algebra.Projection;
+import org.eclipse.rdf4j.query.algebra.ProjectionElem;
+import org.eclipse.rdf4j.query.algebra.ProjectionElemList;
 import org.eclipse.rdf4j.query.algebra.SingletonSet;
 import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Sum;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.ValueConstant;
+import org.eclipse.rdf4j.query.algebra.ValueExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.helpers.TupleExprs;
 
+/**
+ * Replaces the statement patterns of KVIN properties with {@link KvinFetch} nodes.
+ * <p>
+ * Simple comparisons of values or times with numeric constants are moved from filters into the
+ * fetches and aggregates over time buckets like
+ * <code>SELECT (avg(?v) as ?avg) { ... } GROUP BY (floor(?t / 1000) as ?bucket)</code>
+ * are computed by the store with the respective <code>kvin:op</code> and <code>kvin:interval</code>.
+ */
 public class KvinFetchOptimizer extends AbstractQueryModelVisitor<RDF4JException> {
+    static final ValueFactory vf = SimpleValueFactory.getInstance();
 
     ParameterScanner scanner;
 
@@ -27,6 +78,25 @@ public class KvinFetchOptimizer extends AbstractQueryModelVisitor<RDF4JException
      */
     public void process(TupleExpr expr) throws RDF4JException {
         expr.visit(this);
+
+        // filters and aggregates are pushed down after all fetches have been created
+        List<Filter> filters = new ArrayList<>();
+        List<Group> groups = new ArrayList<>();
+        expr.visit(new AbstractQueryModelVisitor<RDF4JException>() {
+            @Override
+            public void meet(Filter node) throws RDF4JException {
+                node.visitChildren(this);
+                filters.add(node);
+            }
+
+            @Override
+            public void meet(Group node) throws RDF4JException {
+                node.visitChildren(this);
+                groups.add(node);
+            }
+        });
+        filters.forEach(this::pushDownFilter);
+        groups.forEach(this::pushDownAggregate);
     }
 
     @Override
@@ -44,6 +114,359 @@ public class KvinFetchOptimizer extends AbstractQueryModelVisitor<RDF4JException
         }
     }
 
+    /**
+     * Moves comparisons of value or time variables with numeric constants into the fetches that
+     * bind these variables.
+     * <p>
+     * The filter may be placed anywhere within the joins of a fetch as the filters of a group are
+     * usually already moved to the statement patterns that bind their variables. Fetches with a
+     * limit, an aggregation or an index are not changed as these are computed before the values
+     * would be filtered.
+     *
+     * @param node The filter whose conditions are moved.
+     */
+    protected void pushDownFilter(Filter node) {
+        Map<String, List<KvinFetch>> valueFetches = new LinkedHashMap<>();
+        Map<String, List<KvinFetch>> timeFetches = new LinkedHashMap<>();
+        TupleExpr scope = node;
+        while (scope.getParentNode() instanceof Join || scope.getParentNode() instanceof Filter
+                || scope.getParentNode() instanceof Extension) {
+            scope = (TupleExpr) scope.getParentNode();
+        }
+        List<TupleExpr> args = new ArrayList<>();
+        collectInnerArgs(scope, args, null);
+        Map<String, List<KvinFetch>> objectFetches = new LinkedHashMap<>();
+        for (TupleExpr arg : args) {
+            if (arg instanceof KvinFetch && acceptsFilters(((KvinFetch) arg).getParams())) {
+                KvinFetch fetch = (KvinFetch) arg;
+                Parameters params = fetch.getParams();
+                if (params.value != null && !params.value.hasValue()) {
+                    addFetch(valueFetches, params.value.getName(), fetch);
+                }
+                if (params.time != null && !params.time.hasValue()) {
+                    addFetch(timeFetches, params.time.getName(), fetch);
+                }
+                addFetch(objectFetches, fetch.getStatement().getObjectVar().getName(), fetch);
+            }
+        }
+        for (TupleExpr arg : args) {
+            // kvin:value patterns may have been moved into another scope together with a filter
+            if (arg instanceof StatementPattern && KVIN.VALUE.equals(((StatementPattern) arg).getPredicateVar().getValue())) {
+                StatementPattern valuePattern = (StatementPattern) arg;
+                List<KvinFetch> fetches = objectFetches.get(valuePattern.getSubjectVar().getName());
+                if (fetches != null && !valuePattern.getObjectVar().hasValue()) {
+                    for (KvinFetch fetch : fetches) {
+                        addFetch(valueFetches, valuePattern.getObjectVar().getName(), fetch);
+                    }
+                }
+            }
+        }
+        if (valueFetches.isEmpty() && timeFetches.isEmpty()) {
+            return;
+        }
+
+        List<ValueExpr> conditions = new ArrayList<>();
+        collectConjuncts(node.getCondition(), conditions);
+        List<ValueExpr> remaining = new ArrayList<>();
+        Map<KvinFetch, Parameters> newParams = new IdentityHashMap<>();
+        for (ValueExpr condition : conditions) {
+            Var var = null;
+            ValueFilter filter = null;
+            if (condition instanceof Compare) {
+                Compare compare = (Compare) condition;
+                Number constant;
+                if (compare.getLeftArg() instanceof Var && (constant = toNumber(compare.getRightArg())) != null) {
+                    var = (Var) compare.getLeftArg();
+                    filter = toFilter(compare.getOperator(), constant);
+                } else if (compare.getRightArg() instanceof Var && (constant = toNumber(compare.getLeftArg())) != null) {
+                    var = (Var) compare.getRightArg();
+                    filter = toFilter(swap(compare.getOperator()), constant);
+                }
+            }
+            List<KvinFetch> fetches;
+            if (filter != null && !var.hasValue() && (fetches = valueFetches.get(var.getName())) != null) {
+                for (KvinFetch fetch : fetches) {
+                    Parameters params = newParams.computeIfAbsent(fetch, f -> f.getParams().clone());
+                    params.valueFilter = filter.and(params.valueFilter);
+                }
+            } else if (filter != null && !var.hasValue() && (fetches = timeFetches.get(var.getName())) != null) {
+                for (KvinFetch fetch : fetches) {
+                    Parameters params = newParams.computeIfAbsent(fetch, f -> f.getParams().clone());
+                    params.timeFilter = filter.and(params.timeFilter);
+                }
+            } else {
+                remaining.add(condition);
+            }
+        }
+        if (remaining.size() == conditions.size()) {
+            return;
+        }
+        newParams.forEach((fetch, params) -> fetch.replaceWith(new KvinFetch(fetch.getStatement().clone(), params)));
+        if (remaining.isEmpty()) {
+            if (node.isVariableScopeChange()) {
+                // keep the node as the parameters of further statements are looked up by their scope
+                node.setCondition(new ValueConstant(BooleanLiteral.TRUE));
+            } else {
+                node.replaceWith(node.getArg());
+            }
+        } else {
+            ValueExpr condition = remaining.get(0);
+            for (int i = 1; i < remaining.size(); i++) {
+                condition = new And(condition, remaining.get(i));
+            }
+            node.setCondition(condition);
+        }
+    }
+
+    /**
+     * Lets the store compute an aggregate of values if the values are grouped by the buckets of
+     * a fixed time interval and the series of the fetch.
+     * <p>
+     * The group is replaced by an extension that binds the aggregated value. The bucket is still
+     * computed from the time which is the start of the bucket's interval. The store computes
+     * <code>avg</code> as <code>xsd:double</code> also for integral values.
+     *
+     * @param group The group that is replaced.
+     */
+    protected void pushDownAggregate(Group group) {
+        if (group.getGroupElements().size() != 1) {
+            return;
+        }
+        GroupElem groupElem = group.getGroupElements().get(0);
+        AggregateOperator operator = groupElem.getOperator();
+        String op = operator instanceof Min ? "min" : operator instanceof Max ? "max" : operator instanceof Avg ? "avg" :
+                operator instanceof Sum ? "sum" : operator instanceof Count ? "count" : null;
+        if (op == null || operator.isDistinct()) {
+            return;
+        }
+        ValueExpr aggregateArg = ((AbstractAggregateOperator) operator).getArg();
+        if (!(aggregateArg instanceof Var) || ((Var) aggregateArg).hasValue()) {
+            return;
+        }
+        Var valueVar = (Var) aggregateArg;
+
+        List<TupleExpr> args = new ArrayList<>();
+        List<ExtensionElem> extensionElems = new ArrayList<>();
+        collectInnerArgs(group.getArg(), args, extensionElems);
+        KvinFetch fetch = null;
+        for (TupleExpr arg : args) {
+            if (arg instanceof KvinFetch) {
+                if (fetch != null) {
+                    return;
+                }
+                fetch = (KvinFetch) arg;
+            }
+        }
+        if (fetch == null) {
+            return;
+        }
+        Parameters params = fetch.getParams();
+        StatementPattern stmt = fetch.getStatement();
+        if (!acceptsFilters(params) || params.seqNr != null || params.time == null || params.time.hasValue()
+                || params.value == null || !params.value.getName().equals(valueVar.getName())) {
+            return;
+        }
+        for (TupleExpr arg : args) {
+            // only the values of the fetch may be grouped
+            if (arg instanceof StatementPattern) {
+                StatementPattern valuePattern = (StatementPattern) arg;
+                if (!KVIN.VALUE.equals(valuePattern.getPredicateVar().getValue())
+                        || !valuePattern.getSubjectVar().getName().equals(stmt.getObjectVar().getName())) {
+                    return;
+                }
+            } else if (arg != fetch && !(arg instanceof SingletonSet)) {
+                return;
+            }
+        }
+
+        // the values must be grouped by the time buckets and the series of the fetch
+        if (extensionElems.size() != 1) {
+            return;
+        }
+        ExtensionElem bucket = extensionElems.get(0);
+        long interval = getBucketInterval(bucket.getExpr(), params.time);
+        if (interval <= 0) {
+            return;
+        }
+        Set<String> seriesVars = new LinkedHashSet<>();
+        for (Var var : new Var[]{stmt.getSubjectVar(), stmt.getPredicateVar(), stmt.getContextVar()}) {
+            if (var != null && !var.hasValue()) {
+                seriesVars.add(var.getName());
+            }
+        }
+        Set<String> groupVars = new LinkedHashSet<>(seriesVars);
+        groupVars.add(bucket.getName());
+        if (!groupVars.equals(group.getGroupBindingNames())) {
+            return;
+        }
+
+        Parameters newParams = params.clone();
+        newParams.aggregationFunction = TupleExprs.createConstVar(vf.createLiteral(op));
+        newParams.interval = TupleExprs.createConstVar(vf.createLiteral(interval));
+        fetch.replaceWith(new KvinFetch(stmt.clone(), newParams));
+
+        ValueExpr result = new Var(valueVar.getName());
+        if ("count".equals(op)) {
+            result = new FunctionCall(XSD.INTEGER.stringValue(), result);
+        } else if ("sum".equals(op)) {
+            // the store computes integral sums as xsd:long
+            result = new If(new Compare(new Datatype(new Var(valueVar.getName())), new ValueConstant(XSD.LONG)),
+                    new FunctionCall(XSD.INTEGER.stringValue(), new Var(valueVar.getName())), result);
+        }
+        ProjectionElemList projectionElems = new ProjectionElemList();
+        for (String name : groupVars) {
+            projectionElems.addElement(new ProjectionElem(name));
+        }
+        projectionElems.addElement(new ProjectionElem(groupElem.getName()));
+        Extension extension = new Extension(group.getArg(), new ExtensionElem(result, groupElem.getName()));
+        group.replaceWith(new Projection(extension, projectionElems, false));
+    }
+
+    /**
+     * Returns the interval of buckets like <code>floor(?t / 1000)</code> or
+     * <code>xsd:long(floor(?t / 1000) * 1000)</code> or <code>-1</code> if the expression is not supported.
+     */
+    static long getBucketInterval(ValueExpr expr, Var time) {
+        if (expr instanceof FunctionCall && ((FunctionCall) expr).getArgs().size() == 1
+                && (XSD.INTEGER.stringValue().equals(((FunctionCall) expr).getURI())
+                || XSD.LONG.stringValue().equals(((FunctionCall) expr).getURI()))) {
+            expr = ((FunctionCall) expr).getArgs().get(0);
+        }
+        Number factor = null;
+        if (expr instanceof MathExpr && ((MathExpr) expr).getOperator() == MathOp.MULTIPLY) {
+            factor = toNumber(((MathExpr) expr).getRightArg());
+            expr = ((MathExpr) expr).getLeftArg();
+        }
+        if (!(expr instanceof FunctionCall) || !FN.NUMERIC_FLOOR.stringValue().equals(((FunctionCall) expr).getURI())
+                || ((FunctionCall) expr).getArgs().size() != 1) {
+            return -1;
+        }
+        ValueExpr arg = ((FunctionCall) expr).getArgs().get(0);
+        if (!(arg instanceof MathExpr) || ((MathExpr) arg).getOperator() != MathOp.DIVIDE
+                || !(((MathExpr) arg).getLeftArg() instanceof Var)
+                || !((Var) ((MathExpr) arg).getLeftArg()).getName().equals(time.getName())) {
+            return -1;
+        }
+        Number divisor = toNumber(((MathExpr) arg).getRightArg());
+        if (!(divisor instanceof BigInteger) || divisor.longValue() <= 0 || ((BigInteger) divisor).bitLength() >= 64
+                || factor != null && !factor.equals(divisor)) {
+            return -1;
+        }
+        return divisor.longValue();
+    }
+
+    static void addFetch(Map<String, List<KvinFetch>> fetches, String name, KvinFetch fetch) {
+        List<KvinFetch> list = fetches.computeIfAbsent(name, n -> new ArrayList<>());
+        if (!list.contains(fetch)) {
+            list.add(fetch);
+        }
+    }
+
+    static boolean acceptsFilters(Parameters params) {
+        return params.limit == null && params.aggregationFunction == null && params.interval == null
+                && params.index == null;
+    }
+
+    /**
+     * Returns the number of a numeric constant or <code>null</code>.
+     */
+    static Number toNumber(ValueExpr expr) {
+        Value value = toValue(expr);
+        if (value instanceof Literal && XMLDatatypeUtil.isNumericDatatype(((Literal) value).getDatatype())) {
+            Literal literal = (Literal) value;
+            try {
+                if (XMLDatatypeUtil.isIntegerDatatype(literal.getDatatype())) {
+                    return literal.integerValue();
+                } else if (XMLDatatypeUtil.isDecimalDatatype(literal.getDatatype())) {
+                    return literal.decimalValue();
+                }
+                double doubleValue = literal.doubleValue();
+                return Double.isNaN(doubleValue) ? null : doubleValue;
+            } catch (IllegalArgumentException e) {
+                // invalid lexical value
+            }
+        }
+        return null;
+    }
+
+    static Value toValue(ValueExpr expr) {
+        if (expr instanceof ValueConstant) {
+            return ((ValueConstant) expr).getValue();
+        } else if (expr instanceof Var) {
+            return ((Var) expr).getValue();
+        }
+        return null;
+    }
+
+    static ValueFilter toFilter(CompareOp op, Number value) {
+        switch (op) {
+            case EQ:
+                return ValueFilter.equalTo(value);
+            case LT:
+                return ValueFilter.lessThan(value);
+            case LE:
+                return ValueFilter.atMost(value);
+            case GT:
+                return ValueFilter.greaterThan(value);
+            case GE:
+                return ValueFilter.atLeast(value);
+            default:
+                return null;
+        }
+    }
+
+    static CompareOp swap(CompareOp op) {
+        switch (op) {
+            case LT:
+                return CompareOp.GT;
+            case LE:
+                return CompareOp.GE;
+            case GT:
+                return CompareOp.LT;
+            case GE:
+                return CompareOp.LE;
+            default:
+                return op;
+        }
+    }
+
+    static void collectConjuncts(ValueExpr expr, List<ValueExpr> conjuncts) {
+        if (expr instanceof And) {
+            collectConjuncts(((And) expr).getLeftArg(), conjuncts);
+            collectConjuncts(((And) expr).getRightArg(), conjuncts);
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    /**
+     * Collects the arguments of (nested) joins, extensions and filters whose bindings are always
+     * part of the results.
+     * <p>
+     * Only filters without conditions are traversed if extension elements are collected, as the
+     * results of other filters are not complete.
+     *
+     * @param node           The root node.
+     * @param args           The collected arguments.
+     * @param extensionElems The collected elements of extensions or <code>null</code>.
+     */
+    static void collectInnerArgs(TupleExpr node, List<TupleExpr> args, List<ExtensionElem> extensionElems) {
+        if (node instanceof Filter && (extensionElems == null
+                || BooleanLiteral.TRUE.equals(toValue(((Filter) node).getCondition())))) {
+            collectInnerArgs(((Filter) node).getArg(), args, extensionElems);
+        } else if (node instanceof Join) {
+            collectInnerArgs(((Join) node).getLeftArg(), args, extensionElems);
+            collectInnerArgs(((Join) node).getRightArg(), args, extensionElems);
+        } else if (node instanceof Extension) {
+            if (extensionElems != null) {
+                extensionElems.addAll(((Extension) node).getElements());
+            }
+            collectInnerArgs(((Extension) node).getArg(), args, extensionElems);
+        } else {
+            args.add(node);
+        }
+    }
+
     /*
      * service <kvin:> { <some:item> <some:prop> [ kvin:time ?t; kvin:value ?v ;
      * kvin:from 213123123; kvin:to 232131234] . }
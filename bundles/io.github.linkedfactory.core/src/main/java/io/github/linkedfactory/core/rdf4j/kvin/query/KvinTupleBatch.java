@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.rdf4j.kvin.query;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.rdf4j.common.BNodeWithValue;
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.AbstractBindingSet;
+import org.eclipse.rdf4j.query.Binding;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.impl.SimpleBinding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static io.github.linkedfactory.core.rdf4j.common.Conversions.toRdfValue;
+
+/**
+ * Columnar batch of the values that are fetched for a {@link KvinFetch}.
+ * <p>
+ * The rows are exposed as binding sets that convert the columns to RDF
+ * values on first access. Hence, only the values of variables that are
+ * actually used by subsequent operators are created.
+ */
+public class KvinTupleBatch {
+	static final int ITEM = 0, OBJECT = 1, PROPERTY = 2, TIME = 3, CONTEXT = 4, SEQNR = 5, INDEX = 6;
+	static final int SLOTS = 7;
+
+	final Layout layout;
+	final BindingSet base;
+	final URI[] items;
+	final URI[] properties;
+	final Value[] propertyValues;
+	final URI[] contexts;
+	final long[] times;
+	final int[] seqNrs;
+	final Object[] values;
+	final int[] indexes;
+	final Value[] itemValues;
+	int size;
+	Set<String> bindingNames;
+
+	public KvinTupleBatch(Layout layout, BindingSet base, int capacity) {
+		this.layout = layout;
+		this.base = base;
+		this.items = new URI[capacity];
+		this.properties = new URI[capacity];
+		this.propertyValues = new Value[capacity];
+		this.contexts = new URI[capacity];
+		this.times = new long[capacity];
+		this.seqNrs = new int[capacity];
+		this.values = new Object[capacity];
+		this.indexes = new int[capacity];
+		this.itemValues = new Value[capacity];
+	}
+
+	/**
+	 * Appends the given tuple as new row.
+	 *
+	 * @param propertyValue the RDF value of the tuple's property
+	 * @param index         the zero-based index of the tuple within its series
+	 */
+	public void add(KvinTuple tuple, Value propertyValue, int index) {
+		int row = size++;
+		items[row] = tuple.item;
+		properties[row] = tuple.property;
+		propertyValues[row] = propertyValue;
+		contexts[row] = tuple.context;
+		times[row] = tuple.time;
+		seqNrs[row] = tuple.seqNr;
+		values[row] = tuple.value;
+		indexes[row] = index;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == items.length;
+	}
+
+	/**
+	 * Returns the binding set for the given row.
+	 */
+	public Row get(int row) {
+		return new Row(this, row);
+	}
+
+	/**
+	 * Reconstructs the tuple of the given row.
+	 */
+	public KvinTuple getTuple(int row) {
+		return new KvinTuple(items[row], properties[row], contexts[row], times[row], seqNrs[row], values[row]);
+	}
+
+	Value materialize(int row, int slot) {
+		ValueFactory vf = layout.vf;
+		switch (slot) {
+			case ITEM:
+				Value itemValue = itemValues[row];
+				if (itemValue == null) {
+					// consecutive rows usually share the same item
+					if (row > 0 && items[row - 1] == items[row] && itemValues[row - 1] != null) {
+						itemValue = itemValues[row - 1];
+					} else {
+						itemValue = toRdfValue(items[row], vf);
+					}
+					itemValues[row] = itemValue;
+				}
+				return itemValue;
+			case OBJECT:
+				return BNodeWithValue.create(getTuple(row), false);
+			case PROPERTY:
+				return propertyValues[row];
+			case TIME:
+				return toRdfValue(times[row], vf);
+			case CONTEXT:
+				return layout.contextValue;
+			case SEQNR:
+				return toRdfValue(seqNrs[row], vf);
+			case INDEX:
+				return toRdfValue(indexes[row], vf);
+			default:
+				throw new IllegalArgumentException("Invalid slot: " + slot);
+		}
+	}
+
+	Set<String> getBindingNames() {
+		if (bindingNames == null) {
+			Set<String> names = new LinkedHashSet<>(base.getBindingNames());
+			for (int slot : layout.slots) {
+				names.add(layout.names[slot]);
+			}
+			bindingNames = Collections.unmodifiableSet(names);
+		}
+		return bindingNames;
+	}
+
+	/**
+	 * The variables that are bound by the rows of a batch.
+	 */
+	public static class Layout {
+		final ValueFactory vf;
+		final String[] names = new String[SLOTS];
+		final Value contextValue;
+		// bound slots, the last slot for a variable name wins
+		final int[] slots;
+
+		/**
+		 * Creates a new layout. Each name may be <code>null</code> if the
+		 * respective variable is not bound.
+		 */
+		public Layout(ValueFactory vf, String item, String object, String property, String time,
+		              String context, Value contextValue, String seqNr, String index) {
+			this.vf = vf;
+			this.contextValue = contextValue;
+			names[ITEM] = item;
+			names[OBJECT] = object;
+			names[PROPERTY] = property;
+			names[TIME] = time;
+			names[CONTEXT] = context;
+			names[SEQNR] = seqNr;
+			names[INDEX] = index;
+			this.slots = IntStream.range(0, SLOTS).filter(slot -> {
+				if (names[slot] == null) {
+					return false;
+				}
+				for (int other = slot + 1; other < SLOTS; other++) {
+					if (names[slot].equals(names[other])) {
+						return false;
+					}
+				}
+				return true;
+			}).toArray();
+		}
+
+		int slot(String name) {
+			for (int slot : slots) {
+				if (names[slot].equals(name)) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * A row of a batch that is based on a given binding set.
+	 */
+	public static class Row extends AbstractBindingSet {
+		final KvinTupleBatch batch;
+		final int row;
+		Value[] materialized;
+
+		Row(KvinTupleBatch batch, int row) {
+			this.batch = batch;
+			this.row = row;
+		}
+
+		Value value(int slot) {
+			if (materialized == null) {
+				materialized = new Value[SLOTS];
+			}
+			Value value = materialized[slot];
+			if (value == null) {
+				value = batch.materialize(row, slot);
+				materialized[slot] = value;
+			}
+			return value;
+		}
+
+		/**
+		 * Returns <code>true</code> if the given variable is bound to the
+		 * fetched value of this row.
+		 */
+		public boolean isValueVariable(String name) {
+			return batch.layout.slot(name) == OBJECT;
+		}
+
+		/**
+		 * Returns the fetched value of this row.
+		 */
+		public Object getTupleValue() {
+			return batch.values[row];
+		}
+
+		public long getTime() {
+			return batch.times[row];
+		}
+
+		public int getSeqNr() {
+			return batch.seqNrs[row];
+		}
+
+		/**
+		 * Returns the value of the given variable as long without creating an
+		 * RDF literal if it is bound to time, seqNr or index.
+		 */
+		public long getLongValue(String name) {
+			switch (batch.layout.slot(name)) {
+				case TIME:
+					return batch.times[row];
+				case SEQNR:
+					return batch.seqNrs[row];
+				case INDEX:
+					return batch.indexes[row];
+				default:
+					return ((Literal) getValue(name)).longValue();
+			}
+		}
+
+		@Override
+		public Iterator<Binding> iterator() {
+			return WrappedIterator.create(batch.base.iterator()).andThen(
+					WrappedIterator.create(Arrays.stream(batch.layout.slots).iterator())
+							.filterKeep(slot -> value(slot) != null)
+							.mapWith(slot -> new SimpleBinding(batch.layout.names[slot], value(slot))));
+		}
+
+		@Override
+		public Set<String> getBindingNames() {
+			return batch.getBindingNames();
+		}
+
+		@Override
+		public Binding getBinding(String name) {
+			int slot = batch.layout.slot(name);
+			if (slot < 0) {
+				return batch.base.getBinding(name);
+			}
+			Value value = value(slot);
+			return value != null ? new SimpleBinding(name, value) : null;
+		}
+
+		@Override
+		public boolean hasBinding(String name) {
+			return batch.layout.slot(name) >= 0 || batch.base.hasBinding(name);
+		}
+
+		@Override
+		public Value getValue(String name) {
+			int slot = batch.layout.slot(name);
+			if (slot < 0) {
+				return batch.base.getValue(name);
+			}
+			return value(slot);
+		}
+
+		@Override
+		public int size() {
+			return batch.base.size() + batch.layout.slots.length;
+		}
+	}
+}
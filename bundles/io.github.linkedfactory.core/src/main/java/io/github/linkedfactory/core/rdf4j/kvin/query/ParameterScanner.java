@@ -117,7 +117,8 @@ public class ParameterScanner extends AbstractQueryModelVisitor<RDF4JException>
 		} else {
 			if (KVIN.VALUE.equals(pValue)) {
 				// ensure that parameters are created if only kvin:value is present
-				createParameters(sp.getSubjectVar());
+				// and remember the value variable for pushing down filters
+				createParameters(sp.getSubjectVar()).value = o;
 			}
 
 			// normal statement
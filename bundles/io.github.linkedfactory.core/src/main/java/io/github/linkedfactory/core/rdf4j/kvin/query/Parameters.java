@@ -1,5 +1,6 @@
 package io.github.linkedfactory.core.rdf4j.kvin.query;
 
+import io.github.linkedfactory.core.kvin.ValueFilter;
 import org.eclipse.rdf4j.query.algebra.Var;
 
 public class Parameters implements Cloneable {
@@ -12,6 +13,12 @@ public class Parameters implements Cloneable {
     public Var time;
     public Var seqNr;
     public Var index;
+    public Var value;
+    /**
+     * Filters that are pushed down from the query to the store.
+     */
+    public ValueFilter valueFilter;
+    public ValueFilter timeFilter;
 
     public static Parameters combine(Parameters params, Parameters defaultParams) {
         Parameters result = new Parameters();
@@ -23,6 +30,9 @@ public class Parameters implements Cloneable {
         result.time = valueOrDefault(params.time, defaultParams.time);
         result.seqNr = valueOrDefault(params.seqNr, defaultParams.seqNr);
         result.index = valueOrDefault(params.index, defaultParams.index);
+        result.value = valueOrDefault(params.value, defaultParams.value);
+        result.valueFilter = valueOrDefault(params.valueFilter, defaultParams.valueFilter);
+        result.timeFilter = valueOrDefault(params.timeFilter, defaultParams.timeFilter);
         return result;
     }
 
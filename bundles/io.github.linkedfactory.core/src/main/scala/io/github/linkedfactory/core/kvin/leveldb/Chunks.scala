@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.leveldb
+
+import com.google.common.util.concurrent.Striped
+import io.github.linkedfactory.core.kvin.util.Varint
+import org.iq80.leveldb.{WriteBatch, WriteOptions}
+import org.slf4j.LoggerFactory
+
+import java.nio.ByteBuffer
+import java.util.concurrent.locks.Lock
+import scala.collection.mutable
+import scala.jdk.CollectionConverters._
+
+object Chunks {
+  /** Marker of chunk values, not used by the scalar encoding of [[io.github.linkedfactory.core.kvin.util.Values]]. */
+  val MARKER: Byte = 'G'
+
+  // key of the chunk interval within the id store
+  val META_KEY: Array[Byte] = Array(0.toByte, 'c'.toByte)
+
+  // count, bit count, last time, last delta, last value bits, last sequence number, leading and trailing zeros
+  val TRAILER_BYTES: Int = 4 + 4 + 8 + 8 + 8 + 4 + 1 + 1
+
+  val log = LoggerFactory.getLogger(classOf[Chunks])
+
+  /**
+   * Returns the kind of chunk that is able to store the given value or 0 if the value can not be chunked.
+   */
+  def kindOf(value: Any): Byte = value match {
+    case _: java.lang.Double => 'D'
+    case _: java.lang.Float => 'F'
+    case _: java.lang.Long => 'J'
+    case _: java.lang.Integer => 'I'
+    case _ => 0
+  }
+
+  def toBits(value: Any): Long = value match {
+    case d: java.lang.Double => java.lang.Double.doubleToRawLongBits(d)
+    case f: java.lang.Float => java.lang.Double.doubleToRawLongBits(f.doubleValue)
+    case l: java.lang.Long => l
+    case i: java.lang.Integer => i.longValue
+  }
+
+  def fromBits(kind: Byte, bits: Long): Any = kind match {
+    case 'D' => java.lang.Double.longBitsToDouble(bits)
+    case 'F' => java.lang.Double.longBitsToDouble(bits).toFloat
+    case 'J' => bits
+    case 'I' => bits.toInt
+  }
+
+  def isChunk(value: Array[Byte]): Boolean = value.length > 2 + TRAILER_BYTES && value(0) == MARKER
+
+  def chunkKind(chunk: Array[Byte]): Byte = chunk(1)
+
+  /**
+   * The decoded samples of a chunk in ascending order of time and sequence number.
+   */
+  class Chunk(val kind: Byte, val times: Array[Long], val seqs: Array[Int], val values: Array[Long], val size: Int) {
+    def value(i: Int): Any = fromBits(kind, values(i))
+
+    /**
+     * Returns the index of the last sample with a time less than or equal to the given time or -1.
+     */
+    def lastIndexAtOrBefore(time: Long): Int = {
+      var i = size - 1
+      while (i >= 0 && times(i) > time) i -= 1
+      i
+    }
+  }
+
+  /**
+   * Writes values with an arbitrary number of bits, most significant bit first.
+   */
+  class BitWriter(var buffer: Array[Byte], var position: Long) {
+    def this() = this(new Array[Byte](64), 0L)
+
+    def writeBit(bit: Boolean): Unit = writeBits(if (bit) 1L else 0L, 1)
+
+    def writeBits(value: Long, bits: Int): Unit = {
+      ensureCapacity(bits)
+      var remaining = bits
+      while (remaining > 0) {
+        val index = (position >>> 3).toInt
+        val free = 8 - (position & 7).toInt
+        val take = math.min(free, remaining)
+        val part = (value >>> (remaining - take)) & ((1L << take) - 1)
+        buffer(index) = (buffer(index) | (part << (free - take))).toByte
+        position += take
+        remaining -= take
+      }
+    }
+
+    def ensureCapacity(bits: Int): Unit = {
+      val required = ((position + bits + 7) >>> 3).toInt
+      if (required > buffer.length) {
+        buffer = java.util.Arrays.copyOf(buffer, math.max(required, buffer.length * 2))
+      }
+    }
+
+    def byteLength: Int = ((position + 7) >>> 3).toInt
+  }
+
+  /**
+   * Reads values that were written by a [[BitWriter]].
+   */
+  class BitReader(buffer: Array[Byte], offset: Int) {
+    var position = 0L
+
+    def readBit(): Boolean = readBits(1) != 0
+
+    def readBits(bits: Int): Long = {
+      var result = 0L
+      var remaining = bits
+      while (remaining > 0) {
+        val index = offset + (position >>> 3).toInt
+        val available = 8 - (position & 7).toInt
+        val take = math.min(available, remaining)
+        val part = ((buffer(index) & 0xFF) >>> (available - take)) & ((1 << take) - 1)
+        result = (result << take) | part
+        position += take
+        remaining -= take
+      }
+      result
+    }
+  }
+
+  /**
+   * Encodes samples in ascending order by using delta-of-delta compression for the timestamps and
+   * XOR compression for the value bits as described in "Gorilla: A Fast, Scalable, In-Memory Time Series Database".
+   *
+   * The state of the encoder is stored within a trailer of the chunk such that new samples can be
+   * appended without decoding the existing ones.
+   */
+  class Encoder(val kind: Byte, writer: BitWriter) {
+    var count = 0
+    var lastTime = 0L
+    var lastDelta = 0L
+    var lastValue = 0L
+    var lastSeq = 0
+    var leading = -1
+    var trailing = 0
+
+    def this(kind: Byte) = this(kind, new BitWriter(new Array[Byte](64), 16L))
+
+    /**
+     * Returns true if a sample with the given time and sequence number can be appended.
+     */
+    def canAppend(time: Long, seq: Int): Boolean = count == 0 || time > lastTime || time == lastTime && seq > lastSeq
+
+    def append(time: Long, seq: Int, value: Long): Unit = {
+      if (count == 0) {
+        writer.writeBits(time, 64)
+        writeSeq(seq)
+        writer.writeBits(value, 64)
+      } else {
+        val delta = time - lastTime
+        writeDeltaOfDelta(delta - lastDelta)
+        writeSeq(seq)
+        writeValue(value)
+        lastDelta = delta
+      }
+      lastTime = time
+      lastSeq = seq
+      lastValue = value
+      count += 1
+    }
+
+    def writeSeq(seq: Int): Unit = {
+      if (seq == 0) writer.writeBit(false) else {
+        writer.writeBit(true)
+        writer.writeBits(seq, 32)
+      }
+    }
+
+    def writeDeltaOfDelta(dod: Long): Unit = {
+      // zig-zag encoding of the signed value
+      val zz = (dod << 1) ^ (dod >> 63)
+      if (zz == 0) writer.writeBit(false)
+      else if ((zz >>> 7) == 0) {
+        writer.writeBits(0x2, 2)
+        writer.writeBits(zz, 7)
+      } else if ((zz >>> 9) == 0) {
+        writer.writeBits(0x6, 3)
+        writer.writeBits(zz, 9)
+      } else if ((zz >>> 12) == 0) {
+        writer.writeBits(0xE, 4)
+        writer.writeBits(zz, 12)
+      } else if ((zz >>> 32) == 0) {
+        writer.writeBits(0x1E, 5)
+        writer.writeBits(zz, 32)
+      } else {
+        writer.writeBits(0x1F, 5)
+        writer.writeBits(zz, 64)
+      }
+    }
+
+    def writeValue(value: Long): Unit = {
+      val xor = value ^ lastValue
+      if (xor == 0) writer.writeBit(false) else {
+        val newLeading = java.lang.Long.numberOfLeadingZeros(xor)
+        val newTrailing = java.lang.Long.numberOfTrailingZeros(xor)
+        if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+          // the meaningful bits fit into the previous window
+          writer.writeBits(0x2, 2)
+          writer.writeBits(xor >>> trailing, 64 - leading - trailing)
+        } else {
+          leading = newLeading
+          trailing = newTrailing
+          val meaningful = 64 - leading - trailing
+          writer.writeBits(0x3, 2)
+          writer.writeBits(leading, 6)
+          writer.writeBits(meaningful - 1, 6)
+          writer.writeBits(xor >>> trailing, meaningful)
+        }
+      }
+    }
+
+    def toBytes: Array[Byte] = {
+      // the first two bytes are reserved for the marker and the kind
+      val length = writer.byteLength
+      val bb = ByteBuffer.allocate(length + TRAILER_BYTES)
+      bb.put(writer.buffer, 0, length)
+      bb.put(0, MARKER)
+      bb.put(1, kind)
+      bb.putInt(count).putInt((writer.position - 16L).toInt)
+        .putLong(lastTime).putLong(lastDelta).putLong(lastValue).putInt(lastSeq)
+        .put(leading.toByte).put(trailing.toByte)
+      bb.array
+    }
+  }
+
+  object Encoder {
+    /**
+     * Restores the encoder of an existing chunk to append further samples.
+     */
+    def resume(data: Array[Byte]): Encoder = {
+      val bb = ByteBuffer.wrap(data, data.length - TRAILER_BYTES, TRAILER_BYTES)
+      val count = bb.getInt
+      val bits = bb.getInt
+      val buffer = java.util.Arrays.copyOf(data, math.max(64, data.length - TRAILER_BYTES + 16))
+      // clear the trailer bytes that have been copied into the buffer
+      java.util.Arrays.fill(buffer, data.length - TRAILER_BYTES, buffer.length, 0.toByte)
+      val encoder = new Encoder(chunkKind(data), new BitWriter(buffer, 16L + bits))
+      encoder.count = count
+      encoder.lastTime = bb.getLong
+      encoder.lastDelta = bb.getLong
+      encoder.lastValue = bb.getLong
+      encoder.lastSeq = bb.getInt
+      encoder.leading = bb.get
+      encoder.trailing = bb.get
+      encoder
+    }
+  }
+
+  def decode(data: Array[Byte]): Chunk = {
+    val kind = chunkKind(data)
+    val count = ByteBuffer.wrap(data, data.length - TRAILER_BYTES, 4).getInt
+    val times = new Array[Long](count)
+    val seqs = new Array[Int](count)
+    val values = new Array[Long](count)
+    val reader = new BitReader(data, 2)
+    var time, delta, value = 0L
+    var leading, trailing = 0
+    var i = 0
+    while (i < count) {
+      if (i == 0) {
+        time = reader.readBits(64)
+        seqs(i) = readSeq(reader)
+        value = reader.readBits(64)
+      } else {
+        var prefix = 0
+        while (prefix < 5 && reader.readBit()) prefix += 1
+        val zz = prefix match {
+          case 0 => 0L
+          case 1 => reader.readBits(7)
+          case 2 => reader.readBits(9)
+          case 3 => reader.readBits(12)
+          case 4 => reader.readBits(32)
+          case _ => reader.readBits(64)
+        }
+        delta += (zz >>> 1) ^ -(zz & 1)
+        time += delta
+        seqs(i) = readSeq(reader)
+        if (reader.readBit()) {
+          if (reader.readBit()) {
+            leading = reader.readBits(6).toInt
+            trailing = 64 - leading - (reader.readBits(6).toInt + 1)
+          }
+          value ^= reader.readBits(64 - leading - trailing) << trailing
+        }
+      }
+      times(i) = time
+      values(i) = value
+      i += 1
+    }
+    new Chunk(kind, times, seqs, values, count)
+  }
+
+  private def readSeq(reader: BitReader): Int = if (reader.readBit()) reader.readBits(32).toInt else 0
+
+  def encode(kind: Byte, times: Array[Long], seqs: Array[Int], values: Array[Long], size: Int): Array[Byte] = {
+    val encoder = new Encoder(kind)
+    for (i <- 0 until size) encoder.append(times(i), seqs(i), values(i))
+    encoder.toBytes
+  }
+
+  /**
+   * A sample that is written to a chunk.
+   */
+  case class Sample(time: Long, seq: Int, value: Any)
+
+  /**
+   * Pending samples of a batch for one chunk.
+   */
+  class PendingChunk(val id: Array[Byte], val key: Array[Byte]) {
+    val samples = new mutable.ArrayBuffer[Sample]
+  }
+}
+
+/**
+ * Optional chunked storage of numeric time series within the value store of a [[KvinLevelDb]].
+ *
+ * The samples of a series (item, context, property) are packed into chunks covering fixed time windows. A chunk is
+ * stored with the key (series id, inverted window end) so that it precedes the single value entries of its window.
+ * Timestamps are compressed by delta-of-delta encoding and values by XOR encoding of their bits. New samples are
+ * appended to the chunk of their window while out-of-order samples or overwritten values lead to a rewrite of the chunk.
+ *
+ * The chunk interval is stored within the id store when chunks are enabled for the first time and can not be changed
+ * afterwards. Chunks remain readable if they are disabled later on.
+ */
+class Chunks(store: KvinLevelDb, configuredInterval: Long) {
+  import Chunks._
+
+  val interval: Long = {
+    val persisted = {
+      val bytes = store.ids.get(META_KEY)
+      if (bytes == null) 0L else ByteBuffer.wrap(bytes).getLong
+    }
+    if (configuredInterval > 0 && persisted == 0L) {
+      store.ids.put(META_KEY, ByteBuffer.allocate(java.lang.Long.BYTES).putLong(configuredInterval).array,
+        new WriteOptions().sync(true))
+      configuredInterval
+    } else {
+      if (configuredInterval > 0 && configuredInterval != persisted) {
+        log.warn("Ignoring chunk interval {} as the store already uses chunks of {} ms", configuredInterval, persisted)
+      }
+      persisted
+    }
+  }
+
+  /** If true then new numeric values are written to chunks. */
+  val writeEnabled: Boolean = configuredInterval > 0
+
+  val locks: Striped[Lock] = Striped.lock(64)
+
+  def windowStart(time: Long): Long = if (interval > 0) time - Math.floorMod(time, interval) else time
+
+  /**
+   * Returns the last time of the window that contains the given time. All entries of a series with times less than or
+   * equal to the given time follow the key of this time.
+   */
+  def windowEnd(time: Long): Long = if (interval > 0) windowStart(time) + interval - 1 else time
+
+  def canChunk(value: Any): Boolean = writeEnabled && kindOf(value) != 0
+
+  def chunkKey(id: Array[Byte], time: Long): Array[Byte] = {
+    val end = windowEnd(time)
+    val key = new Array[Byte](id.length + Varint.calcLengthUnsigned(end))
+    val bb = ByteBuffer.wrap(key).order(store.BYTE_ORDER)
+    bb.put(id)
+    store.writeVarint(bb, end)
+    key
+  }
+
+  def valueKey(id: Array[Byte], time: Long, seq: Int): Array[Byte] = {
+    val key = new Array[Byte](id.length + Varint.calcLengthUnsigned(time) + Varint.calcLengthUnsigned(seq))
+    val bb = ByteBuffer.wrap(key).order(store.BYTE_ORDER)
+    bb.put(id)
+    store.writeVarint(bb, time)
+    store.writeVarint(bb, seq)
+    key
+  }
+
+  /**
+   * Adds a sample to the pending chunks of a batch.
+   */
+  def add(pending: mutable.Map[ByteBuffer, PendingChunk], id: Array[Byte], time: Long, seq: Int, value: Any): Unit = {
+    val key = chunkKey(id, time)
+    pending.getOrElseUpdate(ByteBuffer.wrap(key), new PendingChunk(id, key)).samples += Sample(time, seq, value)
+  }
+
+  /**
+   * Locks the given chunks in a consistent order to prevent deadlocks.
+   */
+  def lock(pending: mutable.Map[ByteBuffer, PendingChunk]): List[Lock] = {
+    val chunkLocks = locks.bulkGet(pending.keys.asJava).asScala.toList
+    chunkLocks.foreach(_.lock())
+    chunkLocks
+  }
+
+  def unlock(chunkLocks: List[Lock]): Unit = chunkLocks.reverse.foreach(_.unlock())
+
+  /**
+   * Merges the pending samples into their chunks and adds the updates to the given batch.
+   * The chunks need to be locked until the batch has been written.
+   */
+  def write(pending: mutable.Map[ByteBuffer, PendingChunk], batch: WriteBatch): Unit = {
+    pending.values.foreach { chunk =>
+      val existing = store.values.get(chunk.key)
+      val kind = if (existing != null && isChunk(existing)) chunkKind(existing) else kindOf(chunk.samples.head.value)
+      // the later sample wins for equal times and sequence numbers
+      val samples = chunk.samples.zipWithIndex.sortBy { case (s, i) => (s.time, s.seq, i) }
+      val merged = new mutable.ArrayBuffer[Sample]
+      samples.foreach { case (s, _) =>
+        if (kindOf(s.value) != kind) {
+          // values of other types are stored as single entries
+          batch.put(valueKey(chunk.id, s.time, s.seq), store.encode(s.value))
+        } else {
+          if (merged.nonEmpty && merged.last.time == s.time && merged.last.seq == s.seq) merged.remove(merged.length - 1)
+          merged += s
+          // remove a single entry that may have been written before
+          batch.delete(valueKey(chunk.id, s.time, s.seq))
+        }
+      }
+      if (merged.nonEmpty) batch.put(chunk.key, update(existing, kind, merged))
+    }
+  }
+
+  /**
+   * Writes the pending samples directly to the store.
+   */
+  def writeDirect(pending: mutable.Map[ByteBuffer, PendingChunk]): Unit = {
+    val chunkLocks = lock(pending)
+    try {
+      val batch = store.values.createWriteBatch()
+      try {
+        write(pending, batch)
+        store.values.write(batch, new WriteOptions().sync(false))
+      } finally {
+        batch.close()
+      }
+    } finally {
+      unlock(chunkLocks)
+    }
+  }
+
+  /**
+   * Appends the given samples in ascending order to an existing chunk or rewrites it if necessary.
+   */
+  def update(existing: Array[Byte], kind: Byte, samples: mutable.ArrayBuffer[Sample]): Array[Byte] = {
+    if (existing == null || !isChunk(existing)) {
+      val encoder = new Encoder(kind)
+      samples.foreach(s => encoder.append(s.time, s.seq, toBits(s.value)))
+      encoder.toBytes
+    } else {
+      val encoder = Encoder.resume(existing)
+      if (encoder.canAppend(samples.head.time, samples.head.seq)) {
+        samples.foreach(s => encoder.append(s.time, s.seq, toBits(s.value)))
+        encoder.toBytes
+      } else {
+        // merge with the existing samples
+        val chunk = decode(existing)
+        val size = chunk.size + samples.length
+        val times = new Array[Long](size)
+        val seqs = new Array[Int](size)
+        val values = new Array[Long](size)
+        var i, j, n = 0
+        while (i < chunk.size || j < samples.length) {
+          val cmp = if (i == chunk.size) 1 else if (j == samples.length) -1 else {
+            val c = java.lang.Long.compare(chunk.times(i), samples(j).time)
+            if (c != 0) c else Integer.compare(chunk.seqs(i), samples(j).seq)
+          }
+          if (cmp < 0) {
+            times(n) = chunk.times(i)
+            seqs(n) = chunk.seqs(i)
+            values(n) = chunk.values(i)
+            i += 1
+          } else {
+            val s = samples(j)
+            times(n) = s.time
+            seqs(n) = s.seq
+            values(n) = toBits(s.value)
+            j += 1
+            // the new sample replaces an existing one
+            if (cmp == 0) i += 1
+          }
+          n += 1
+        }
+        Chunks.encode(kind, times, seqs, values, n)
+      }
+    }
+  }
+
+  /**
+   * Rewrites a chunk with only the samples outside of the given time range.
+   *
+   * @return the number of removed samples
+   */
+  def deleteRange(key: Array[Byte], end: Long, begin: Long): Long = {
+    val lock = locks.get(ByteBuffer.wrap(key))
+    lock.lock()
+    try {
+      val existing = store.values.get(key)
+      if (existing == null || !isChunk(existing)) 0L else {
+        val chunk = decode(existing)
+        val keep = (0 until chunk.size).filter(i => chunk.times(i) < begin || chunk.times(i) > end)
+        val removed = chunk.size - keep.size
+        if (keep.isEmpty) store.values.delete(key)
+        else if (removed > 0) {
+          store.values.put(key, Chunks.encode(chunk.kind, keep.map(chunk.times).toArray, keep.map(chunk.seqs).toArray,
+            keep.map(chunk.values).toArray, keep.size))
+        }
+        removed
+      }
+    } finally {
+      lock.unlock()
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.leveldb
+
+import io.github.linkedfactory.core.kvin.KvinTuple
+import org.slf4j.LoggerFactory
+
+import java.util
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+import java.util.concurrent.{CompletableFuture, ConcurrentLinkedQueue, TimeUnit}
+
+object GroupCommit {
+  val log = LoggerFactory.getLogger(classOf[GroupCommit])
+
+  private case class Request(tuples: Seq[KvinTuple], future: CompletableFuture[Void])
+
+  private val IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100)
+  private val BACK_PRESSURE_NANOS = TimeUnit.MILLISECONDS.toNanos(1)
+}
+
+/**
+ * Combines small concurrent writes to a [[KvinLevelDb]] into larger write batches.
+ *
+ * Writers enqueue their tuples into a lock-free multi-producer queue and a single writer thread drains the queue
+ * into one batch. Requests that arrive while a batch is written are combined into the next batch. The writer only
+ * waits for further requests if the previous batch was combined from multiple requests, i.e. if concurrent writers
+ * exist. It then waits until as many requests as in the previous batch, <code>maxBatchSize</code> tuples are
+ * collected or <code>maxLatencyMillis</code> have passed since the first request of the batch. Hence, a single
+ * sequential writer does not wait for the latency. Listeners are notified once per batch.
+ *
+ * At most <code>4 * maxBatchSize</code> requests are pending. Further writers are parked until the writer thread
+ * has taken requests from the queue.
+ *
+ * @param sync if true then each batch is synced to disk before the writers are notified
+ */
+class GroupCommit(store: KvinLevelDb, val maxLatencyMillis: Long, val maxBatchSize: Int, val sync: Boolean) {
+  import GroupCommit._
+
+  require(maxLatencyMillis >= 0 && maxBatchSize > 0, "Invalid group commit settings")
+
+  private val queue = new ConcurrentLinkedQueue[Request]
+  private val capacity = maxBatchSize * 4
+  private val pending = new AtomicInteger
+  // writers that are parked due to back-pressure
+  private val waiters = new ConcurrentLinkedQueue[Thread]
+  @volatile private var writerWaiting = false
+  @volatile private var running = true
+  private val writer = new Thread(() => run(), "kvin-group-commit")
+  writer.setDaemon(true)
+  writer.start()
+
+  /**
+   * Returns true if the current thread is the writer thread, e.g. if a listener writes further values.
+   */
+  def isWriterThread: Boolean = Thread.currentThread eq writer
+
+  /**
+   * Enqueues the given tuples.
+   *
+   * @return future that is completed after the tuples have been written
+   */
+  def submit(tuples: Seq[KvinTuple]): CompletableFuture[Void] = {
+    val future = new CompletableFuture[Void]
+    if (isWriterThread) {
+      // the writer thread must not wait for itself
+      pending.incrementAndGet
+      queue.offer(Request(tuples, future))
+    } else if (!reserve()) {
+      future.completeExceptionally(closedException)
+    } else {
+      queue.offer(Request(tuples, future))
+      if (writerWaiting) LockSupport.unpark(writer)
+      if (!running) {
+        // the writer may have stopped before the request was enqueued
+        writer.join()
+        rejectPending()
+      }
+    }
+    future
+  }
+
+  /**
+   * Reserves a slot for a request and parks the current thread while the maximum number of requests is pending.
+   *
+   * @return false if this group commit has been closed
+   */
+  private def reserve(): Boolean = {
+    while (running) {
+      val current = pending.get
+      if (current < capacity) {
+        if (pending.compareAndSet(current, current + 1)) return true
+      } else {
+        val thread = Thread.currentThread
+        waiters.offer(thread)
+        // re-check as the writer may have taken requests in the meantime
+        if (pending.get >= capacity && running) LockSupport.parkNanos(this, BACK_PRESSURE_NANOS)
+        waiters.remove(thread)
+      }
+    }
+    false
+  }
+
+  private def closedException = new IllegalStateException("Group commit has been closed.")
+
+  private def take(request: Request, requests: util.List[Request], tuples: util.List[KvinTuple]): Unit = {
+    requests.add(request)
+    request.tuples.foreach(tuples.add)
+    pending.decrementAndGet
+    if (!waiters.isEmpty) waiters.forEach(LockSupport.unpark(_))
+  }
+
+  private def awaitRequest(nanos: Long): Unit = {
+    writerWaiting = true
+    if (queue.isEmpty && running) LockSupport.parkNanos(this, nanos)
+    writerWaiting = false
+    if (Thread.interrupted()) running = false
+  }
+
+  private def rejectPending(): Unit = {
+    var request = queue.poll()
+    while (request != null) {
+      pending.decrementAndGet
+      request.future.completeExceptionally(closedException)
+      request = queue.poll()
+    }
+    waiters.forEach(LockSupport.unpark(_))
+  }
+
+  private def run(): Unit = {
+    val requests = new util.ArrayList[Request]
+    val tuples = new util.ArrayList[KvinTuple]
+    val maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis)
+    // the number of requests within the previous batch as estimate for the number of concurrent writers
+    var concurrency = 1
+    while (running || !queue.isEmpty) {
+      val first = queue.poll()
+      if (first == null) awaitRequest(IDLE_NANOS) else {
+        try {
+          take(first, requests, tuples)
+          val deadline = System.nanoTime + maxLatencyNanos
+          var done = false
+          while (!done && tuples.size < maxBatchSize) {
+            val next = queue.poll()
+            if (next != null) take(next, requests, tuples) else {
+              val remaining = deadline - System.nanoTime
+              // a sequential writer is waiting for its request and would only delay the batch
+              if (requests.size < concurrency && remaining > 0 && running) awaitRequest(remaining) else done = true
+            }
+          }
+          concurrency = requests.size
+          write(requests, tuples)
+        } finally {
+          requests.clear()
+          tuples.clear()
+        }
+      }
+    }
+    // reject requests that were enqueued concurrently to close
+    rejectPending()
+  }
+
+  private def write(requests: util.List[Request], tuples: util.List[KvinTuple]): Unit = {
+    try {
+      store.putBatch(tuples, sync)
+      requests.forEach(_.future.complete(null))
+    } catch {
+      case t: Throwable =>
+        log.error("Error while writing batch", t)
+        requests.forEach(_.future.completeExceptionally(t))
+    }
+  }
+
+  /**
+   * Writes all pending tuples and stops the writer thread.
+   */
+  def close(): Unit = {
+    running = false
+    LockSupport.unpark(writer)
+    writer.join()
+    rejectPending()
+  }
+}
@@ -18,18 +18,19 @@ package io.github.linkedfactory.core.kvin.leveldb
 import com.google.common.cache.{Cache, CacheBuilder}
 import com.google.common.util.concurrent.Striped
 import io.github.linkedfactory.core.kvin._
-import io.github.linkedfactory.core.kvin.util.{AggregatingIterator, Values, Varint}
+import io.github.linkedfactory.core.kvin.util.{AggregatingIterator, Aggregator, IdCache, LatestValueCache, ParallelFetch, Values, Varint}
 import net.enilink.commons.iterator.{IExtendedIterator, NiceIterator, UniqueExtendedIterator, WrappedIterator}
 import net.enilink.komma.core.{URI, URIs}
+import org.apache.commons.io.FileUtils
 import org.iq80.leveldb.impl.Iq80DBFactory.{bytes, factory}
 import org.iq80.leveldb.{CompressionType, DB, Options, Range, WriteBatch, WriteOptions}
 
 import java.io.{ByteArrayOutputStream, File, IOException, UncheckedIOException}
 import java.nio.{ByteBuffer, ByteOrder}
 import java.{io, util}
-import java.util.concurrent.{CopyOnWriteArraySet, Executors, Future}
+import java.util.concurrent.{CompletableFuture, CopyOnWriteArraySet, ExecutionException, Executors, Future}
 import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
-import java.util.concurrent.locks.{ReadWriteLock, ReentrantReadWriteLock}
+import java.util.concurrent.locks.{Lock, ReadWriteLock, ReentrantReadWriteLock}
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
 
@@ -63,16 +64,42 @@ object EntryType {
   }
 }
 
+object KvinLevelDb {
+  val DEFAULT_ID_CACHE_SIZE = 100000
+
+  // tag for combinations of (item, context, property) within the id cache
+  private val SCP_TAG = 0
+
+  // estimated number of bytes that are stored per value (single entries or samples of chunks)
+  private val BYTES_PER_VALUE = 16
+  private val BYTES_PER_CHUNKED_VALUE = 4
+
+  // values of small time ranges are counted as their size on disk is not meaningful
+  private val APPROXIMATE_SIZE_SCAN_LIMIT = 1000
+}
+
 /**
  * Indirect mapping of (item, property) -> ID and (ID, time, sequence-nr) -> value.
+ *
+ * If rollup tiers (interval lengths in milliseconds) are given then numeric values are additionally
+ * pre-aggregated by [[Rollups]] to speed up the aggregation of large time ranges.
+ *
+ * If a chunk interval (in milliseconds) is given then numeric values are stored within compressed [[Chunks]]
+ * that contain all values of a series within the interval.
  */
-class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
+class KvinLevelDb(path: File, rollupTiers: Array[Long], idCacheSize: Int, chunkInterval: Long) extends KvinLevelDbBase with Kvin {
+  def this(path: File, rollupTiers: Array[Long], idCacheSize: Int) = this(path, rollupTiers, idCacheSize, 0L)
+
+  def this(path: File, rollupTiers: Array[Long]) = this(path, rollupTiers, KvinLevelDb.DEFAULT_ID_CACHE_SIZE)
+
+  def this(path: File) = this(path, null)
+
   val locks: Striped[ReadWriteLock] = Striped.readWriteLock(64)
 
   val activeWrites: AtomicInteger = new AtomicInteger(0)
   val uriToIdCacheWrite: Cache[(String, Int), Array[Byte]] = CacheBuilder.newBuilder.build[(String, Int), Array[Byte]]
-  val uriToIdCache: Cache[(String, Int), Array[Byte]] = CacheBuilder.newBuilder.maximumSize(20000).build[(String, Int), Array[Byte]]
-  val scpToIdCache: Cache[(String, String, String), Array[Byte]] = CacheBuilder.newBuilder.maximumSize(20000).build[(String, String, String), Array[Byte]]
+  // shared cache for the ids of URIs and of (item, context, property) combinations
+  val idCache = new IdCache(idCacheSize)
 
   // open the LevelDB instance
   def createOptions(timeSeries: Boolean): Options = {
@@ -99,6 +126,68 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
   val ids: DB = factory.open(new File(path, "ids"), createOptions(false))
   val values: DB = factory.open(new File(path, "values"), createOptions(true))
   val listeners = new CopyOnWriteArraySet[KvinListener]
+  // is required by the rollups to read the values of a series
+  val chunks: Chunks = new Chunks(this, chunkInterval)
+  val rollups: Rollups = {
+    val rollupsPath = new File(path, "rollups")
+    if (rollupTiers == null || rollupTiers.isEmpty) {
+      // existing rollups would be outdated after values are changed without them
+      if (rollupsPath.exists) FileUtils.deleteDirectory(rollupsPath)
+      null
+    } else new Rollups(this, rollupsPath, rollupTiers)
+  }
+
+  @volatile var parallelFetch: ParallelFetch = _
+
+  /**
+   * Enables the concurrent fetching of multiple items and properties or disables it if <code>null</code> is given.
+   */
+  def setParallelFetch(parallelFetch: ParallelFetch): Unit = this.parallelFetch = parallelFetch
+
+  override def getParallelFetch: ParallelFetch = parallelFetch
+
+  @volatile var groupCommit: GroupCommit = _
+
+  /**
+   * Enables group commit for small writes.
+   *
+   * Concurrent calls to put with only a few tuples are then combined into larger write batches by a writer thread.
+   *
+   * @param maxLatencyMillis the maximum time that a write waits for further writes
+   * @param maxBatchSize     the maximum number of tuples within a batch
+   * @param sync             if true then batches are synced to disk before a write returns
+   */
+  def enableGroupCommit(maxLatencyMillis: Long, maxBatchSize: Int, sync: Boolean): Unit = synchronized {
+    disableGroupCommit()
+    groupCommit = new GroupCommit(this, maxLatencyMillis, maxBatchSize, sync)
+  }
+
+  /**
+   * Disables group commit after all pending writes have been completed.
+   */
+  def disableGroupCommit(): Unit = synchronized {
+    if (groupCommit != null) {
+      val gc = groupCommit
+      groupCommit = null
+      gc.close()
+    }
+  }
+
+  @volatile var latestValues: LatestValueCache[ByteBuffer] = _
+
+  /**
+   * Enables an in-memory cache for the latest value of each series that is used to answer fetches with a limit of 1.
+   *
+   * @param maxBytes the approximate memory budget of the cache or a value <= 0 to disable the cache
+   */
+  def enableLatestValueCache(maxBytes: Long): Unit = {
+    latestValues = if (maxBytes > 0) new LatestValueCache[ByteBuffer](maxBytes, key => 48 + key.capacity) else null
+  }
+
+  /**
+   * Returns the cache for latest values, e.g. to read its hit rate, or null if it is not enabled.
+   */
+  def getLatestValueCache: LatestValueCache[ByteBuffer] = latestValues
 
   def getIdStore(): DB = ids
 
@@ -106,6 +195,12 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
 
   def getEntryTypeObj() = EntryType
 
+  /**
+   * Returns true if the values of the given item may be pre-aggregated by rollups.
+   * This is not the case for items with a TTL as their values are removed asynchronously.
+   */
+  def supportsRollups(item: URI): Boolean = ttl(item).isEmpty
+
   override def addListener(listener: KvinListener): Boolean = {
     listeners.add(listener)
   }
@@ -163,9 +258,10 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
   }
 
   protected def toId(uri: URI, entryType: EntryType, generate: Boolean, writeBatch: WriteBatch): Array[Byte] = {
-    val cacheKey = (uri.toString, entryType.id)
-    var idBytes = uriToIdCache.getIfPresent(cacheKey)
+    val uriString = uri.toString
+    var idBytes = idCache.get(entryType.id, uriString)
     if (idBytes == null) {
+      lazy val cacheKey = (uriString, entryType.id)
       val key = uriKey(entryType.id.toByte, uri)
       idBytes = ids.get(key)
       if (idBytes == null && generate) {
@@ -206,7 +302,7 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
         }
       }
       if (idBytes != null) {
-        uriToIdCache.put(cacheKey, idBytes)
+        idCache.put(entryType.id, uriString, idBytes)
       }
     }
     idBytes
@@ -233,8 +329,10 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
   def contextOrDefault(context: URI): URI = if (context == null) Kvin.DEFAULT_CONTEXT else context
 
   def toId(item: URI, property: URI, context: URI, generate: Boolean, writeBatch: WriteBatch): Array[Byte] = {
-    val cacheKey = (item.toString, if (context == null) Kvin.DEFAULT_CONTEXT.toString else context.toString, property.toString)
-    var id = scpToIdCache.getIfPresent(cacheKey)
+    val itemString = item.toString
+    val contextString = contextOrDefault(context).toString
+    val propertyString = property.toString
+    var id = idCache.get(KvinLevelDb.SCP_TAG, itemString, contextString, propertyString)
     if (id == null) {
       val itemId = toId(item, EntryType.SubjectToId, generate, writeBatch)
       if (itemId != null) {
@@ -248,7 +346,7 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
             System.arraycopy(contextId, 0, id, itemId.length, contextId.length)
             System.arraycopy(propertyId, 0, id, itemId.length + contextId.length, propertyId.length)
 
-            scpToIdCache.put(cacheKey, id)
+            idCache.put(KvinLevelDb.SCP_TAG, itemString, contextString, propertyString, id)
           }
           id
         } else null
@@ -299,6 +397,8 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
           values.write(batch, new WriteOptions().sync(false))
           batch.close()
         }
+        if (rollups != null && deletedAny) rollups.deletePrefix(prefix)
+        if (latestValues != null && deletedAny) latestValues.clear()
 
         it.seek(itemId)
         if (! it.hasNext) {
@@ -319,23 +419,27 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
       val BATCH_SIZE = 100000
       val id = toId(item, property, context, false, null)
       if (id == null) 0L else {
-        val idTimePrefix = new Array[Byte](id.length + Varint.MAX_BYTES)
-        val prefixBuffer = ByteBuffer.wrap(idTimePrefix).order(BYTE_ORDER)
-        prefixBuffer.put(id)
-        writeVarint(prefixBuffer, end)
         var batch: WriteBatch = null
         var count = 0L
+        // samples that were removed from chunks
+        var chunkCount = 0L
         val it = values.iterator
         try {
           var done = false
-          it.seek(idTimePrefix)
+          // start with the chunk that may contain the end time
+          it.seek(chunks.chunkKey(id, end))
           while (it.hasNext && !done) {
             val entry = it.next
             val key = entry.getKey
             if (key.startsWith(id)) {
               val bb = ByteBuffer.wrap(key, id.length, key.length - id.length).order(BYTE_ORDER)
               val time = readVarint(bb)
-              if (time <= end && time >= begin) {
+              if (!bb.hasRemaining && Chunks.isChunk(entry.getValue)) {
+                // the time of a chunk is the end of its window
+                if (time >= begin) chunkCount += chunks.deleteRange(key, end, begin) else done = true
+              } else if (time > end) {
+                // single value within the window of the first chunk
+              } else if (time >= begin) {
                 if (batch == null) batch = values.createWriteBatch
                 count += 1
                 batch.delete(key)
@@ -350,6 +454,8 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
           if (batch != null && count % BATCH_SIZE != 0) {
             values.write(batch, new WriteOptions().sync(false))
           }
+          if (rollups != null && count + chunkCount > 0) rollups.deleteRange(id, end, begin)
+          if (latestValues != null) latestValues.invalidate(ByteBuffer.wrap(id))
         } finally {
           it.close()
           if (batch != null) batch.close()
@@ -359,12 +465,12 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
         try {
           writeLock(lock) {
             // test if some other values exist for this item and property
-            checkValuesIt.seek(idTimePrefix)
+            checkValuesIt.seek(id)
             val someValuesExist = checkValuesIt.hasNext && checkValuesIt.next.getKey.startsWith(id)
             // if no values exist then delete the corresponding ID
             if (!someValuesExist) deleteId(item, property, context)
           }
-          count
+          count + chunkCount
         } finally {
           checkValuesIt.close()
           if (batch != null) batch.close()
@@ -494,6 +600,8 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
     var itemId: Long = 0
     var propertyId: Long = 0
     var contextId: Long = 0
+    // remaining samples of the current chunk
+    var chunkSamples: Iterator[KvinTuple] = Iterator.empty
     new StoreIterator[KvinTuple](it) {
       def subArray(key: Array[Byte], index: Int, length: Int): Array[Byte] = {
         val sub = new Array[Byte](length)
@@ -501,8 +609,10 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
         sub
       }
 
+      override protected def baseHasNext: Boolean = it.hasNext || chunkSamples.hasNext
+
       override def computeNext: Option[KvinTuple] = {
-        var next: KvinTuple = null
+        var next: KvinTuple = if (chunkSamples.hasNext) chunkSamples.next() else null
         while (next == null && it.hasNext) {
           val entry = it.next
           val key = entry.getKey
@@ -529,8 +639,17 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
 
           if (item != null && property != null && context != null) {
             val time = readVarint(keyBb)
-            val seq: Int = if (keyBb.hasRemaining) readVarint(keyBb).toInt else 0
-            next = new KvinTuple(item, property, context, time, seq, decode(entry.getValue))
+            if (!keyBb.hasRemaining && Chunks.isChunk(entry.getValue)) {
+              val chunk = Chunks.decode(entry.getValue)
+              val (i, p, c) = (item, property, context)
+              chunkSamples = (chunk.size - 1 to 0 by -1).iterator.map { n =>
+                new KvinTuple(i, p, c, chunk.times(n), chunk.seqs(n), chunk.value(n))
+              }
+              if (chunkSamples.hasNext) next = chunkSamples.next()
+            } else {
+              val seq: Int = if (keyBb.hasRemaining) readVarint(keyBb).toInt else 0
+              next = new KvinTuple(item, property, context, time, seq, decode(entry.getValue))
+            }
           }
         }
         Option(next)
@@ -562,37 +681,84 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
     lock.readLock.unlock()
   }
 
+  /**
+   * Stores the given tuples asynchronously if group commit is enabled.
+   *
+   * @return future that is completed after the tuples have been written
+   */
+  def putAsync(entries: KvinTuple*): CompletableFuture[Void] = {
+    val gc = groupCommit
+    if (gc != null && !gc.isWriterThread) gc.submit(entries) else {
+      try {
+        put(entries: _*)
+        CompletableFuture.completedFuture(null)
+      } catch {
+        case t: Throwable => CompletableFuture.failedFuture(t)
+      }
+    }
+  }
+
   override def put(entries: KvinTuple*): Unit = {
-    if (entries.length > 5) {
+    val gc = groupCommit
+    if (gc != null && entries.length <= 5 && !gc.isWriterThread) {
+      // combine small writes of concurrent threads
+      try {
+        gc.submit(entries).get()
+      } catch {
+        case e: ExecutionException => e.getCause match {
+          case re: RuntimeException => throw re
+          case other => throw new RuntimeException(other)
+        }
+      }
+    } else if (entries.length > 5) {
       // write in batch
       put(entries.asJava)
     } else {
       // write directly
+      val rollupBatch = if (rollups != null) rollups.newBatch() else null
+      val pendingChunks = mutable.Map.empty[ByteBuffer, Chunks.PendingChunk]
+      val cache = latestValues
+      val cacheUpdates = if (cache != null) new mutable.ArrayBuffer[(Array[Byte], KvinTuple)] else null
       entries.foreach { entry => // encode value first to circumvent problems with locks
-        val encodedValue = encode(entry.value)
+        val chunked = chunks.canChunk(entry.value)
+        val encodedValue = if (chunked) null else encode(entry.value)
         val lock = lockFor(entry.item)
         readLock(lock) {
           val prefix = toId(entry.item, entry.property, entry.context, true, null)
-          val key = new Array[Byte](prefix.length + Varint.calcLengthUnsigned(entry.time) +
-            Varint.calcLengthUnsigned(entry.seqNr))
-          val bb = ByteBuffer.wrap(key).order(BYTE_ORDER)
-          bb.put(prefix)
-          writeVarint(bb, entry.time)
-          writeVarint(bb, entry.seqNr)
-
-          values.put(key, encodedValue)
+          if (chunked) chunks.add(pendingChunks, prefix, entry.time, entry.seqNr, entry.value) else {
+            val key = new Array[Byte](prefix.length + Varint.calcLengthUnsigned(entry.time) +
+              Varint.calcLengthUnsigned(entry.seqNr))
+            val bb = ByteBuffer.wrap(key).order(BYTE_ORDER)
+            bb.put(prefix)
+            writeVarint(bb, entry.time)
+            writeVarint(bb, entry.seqNr)
+
+            values.put(key, encodedValue)
+          }
+          if (cacheUpdates != null) cacheUpdates.addOne((prefix, entry))
+          if (rollupBatch != null && supportsRollups(entry.item)) rollupBatch.add(prefix, entry.time, entry.seqNr, entry.value)
 
           // remove timed-out entries
           ttl(entry.item) map (asyncRemoveByTtl(values, prefix, _))
         }
       }
+      if (pendingChunks.nonEmpty) chunks.writeDirect(pendingChunks)
+      if (cacheUpdates != null) updateLatestValues(cache, cacheUpdates)
+      if (rollupBatch != null && !rollupBatch.isEmpty) rollups.write(rollupBatch)
       entries.foreach { entry =>
         for (l <- listeners.asScala) l.valueAdded(entry.item, entry.property, entry.context, entry.time, entry.seqNr, entry.value)
       }
     }
   }
 
-  override def put(entries: java.lang.Iterable[KvinTuple]): Unit = {
+  override def put(entries: java.lang.Iterable[KvinTuple]): Unit = putBatch(entries, sync = false)
+
+  /**
+   * Writes the given tuples within one batch.
+   *
+   * @param sync if true then the values are synced to disk
+   */
+  def putBatch(entries: java.lang.Iterable[KvinTuple], sync: Boolean): Unit = {
     var notifyTuples = Option.empty[mutable.ArrayBuffer[KvinTuple]]
     if (! this.listeners.isEmpty && entries.isInstanceOf[IExtendedIterator[_]]) {
       notifyTuples = Some(new mutable.ArrayBuffer[KvinTuple]())
@@ -600,21 +766,31 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
 
     val idsBatch = ids.createWriteBatch()
     val batch = values.createWriteBatch()
+    val rollupBatch = if (rollups != null) rollups.newBatch() else null
+    val pendingChunks = mutable.Map.empty[ByteBuffer, Chunks.PendingChunk]
+    val cache = latestValues
+    val cacheUpdates = if (cache != null) new mutable.ArrayBuffer[(Array[Byte], KvinTuple)] else null
+    var chunkLocks: List[Lock] = Nil
     activeWrites.incrementAndGet()
     try {
       entries.asScala.foreach { entry => // encode value first to circumvent problems with locks
-        val encodedValue = encode(entry.value)
+        val chunked = chunks.canChunk(entry.value)
+        val encodedValue = if (chunked) null else encode(entry.value)
         val lock = lockFor(entry.item)
         readLock(lock) {
           val prefix = toId(entry.item, entry.property, entry.context, true, idsBatch)
-          val key = new Array[Byte](prefix.length + Varint.calcLengthUnsigned(entry.time) +
-            Varint.calcLengthUnsigned(entry.seqNr))
-          val bb = ByteBuffer.wrap(key).order(BYTE_ORDER)
-          bb.put(prefix)
-          writeVarint(bb, entry.time)
-          writeVarint(bb, entry.seqNr)
-
-          batch.put(key, encodedValue)
+          if (chunked) chunks.add(pendingChunks, prefix, entry.time, entry.seqNr, entry.value) else {
+            val key = new Array[Byte](prefix.length + Varint.calcLengthUnsigned(entry.time) +
+              Varint.calcLengthUnsigned(entry.seqNr))
+            val bb = ByteBuffer.wrap(key).order(BYTE_ORDER)
+            bb.put(prefix)
+            writeVarint(bb, entry.time)
+            writeVarint(bb, entry.seqNr)
+
+            batch.put(key, encodedValue)
+          }
+          if (cacheUpdates != null) cacheUpdates.addOne((prefix, entry))
+          if (rollupBatch != null && supportsRollups(entry.item)) rollupBatch.add(prefix, entry.time, entry.seqNr, entry.value)
 
           // remove timed-out entries
           ttl(entry.item) map (asyncRemoveByTtl(values, prefix, _))
@@ -628,11 +804,23 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
           ids.write(idsBatch, new WriteOptions().sync(true))
         })
       }
-      values.write(batch)
+      if (pendingChunks.nonEmpty) {
+        // the chunks are locked until their updates have been written
+        chunkLocks = chunks.lock(pendingChunks)
+        chunks.write(pendingChunks, batch)
+      }
+      values.write(batch, new WriteOptions().sync(sync))
+      chunks.unlock(chunkLocks)
+      chunkLocks = Nil
+      // the cache is updated after the values are visible to concurrent loads
+      if (cacheUpdates != null) updateLatestValues(cache, cacheUpdates)
       if (writeIds != null) {
         writeIds.get()
       }
+      // rollups are updated after the values have been written as they may need to be recomputed
+      if (rollupBatch != null && !rollupBatch.isEmpty) rollups.write(rollupBatch)
     } finally {
+      chunks.unlock(chunkLocks)
       idsBatch.close()
       batch.close()
       if (activeWrites.decrementAndGet() == 0) {
@@ -644,18 +832,135 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
     }
   }
 
-  override def fetch(item: URI, property: URI, context: URI, limit: Long): IExtendedIterator[KvinTuple] = fetchInternal(item = item, property = property, context = context, limit = limit)
+  def updateLatestValues(cache: LatestValueCache[ByteBuffer], updates: Iterable[(Array[Byte], KvinTuple)]): Unit = {
+    updates.foreach { case (id, entry) =>
+      val tuple = if (entry.context != null) entry else
+        new KvinTuple(entry.item, entry.property, Kvin.DEFAULT_CONTEXT, entry.time, entry.seqNr, entry.value)
+      cache.update(ByteBuffer.wrap(id), tuple)
+    }
+  }
+
+  /**
+   * Returns the latest value of a series within the given time range from the cache or loads it from the store.
+   */
+  def fetchLatest(cache: LatestValueCache[ByteBuffer], item: URI, property: URI, context: URI, end: Long,
+                  begin: Long): IExtendedIterator[KvinTuple] = {
+    val id = toId(item, property, context, false, null)
+    if (id == null) NiceIterator.emptyIterator[KvinTuple] else {
+      val key = ByteBuffer.wrap(id)
+      val cached = cache.get(key)
+      if (cached != null && cached.time <= end) {
+        // the latest value is either within the range or no value exists within the range
+        if (cached.time >= begin) WrappedIterator.create(util.List.of(cached).iterator())
+        else NiceIterator.emptyIterator[KvinTuple]
+      } else {
+        val stamp = cache.stamp(key)
+        val latest = fetchInternal(item, property, context, end, begin, 1L).toList
+        if (cached == null && end == KvinTuple.TIME_MAX_VALUE && begin == 0L && !latest.isEmpty) {
+          cache.load(key, latest.get(0), stamp)
+        }
+        WrappedIterator.create(latest.iterator())
+      }
+    }
+  }
+
+  override def fetch(item: URI, property: URI, context: URI, limit: Long): IExtendedIterator[KvinTuple] = {
+    fetch(item, property, context, KvinTuple.TIME_MAX_VALUE, 0L, limit, 0L, null)
+  }
 
   override def fetch(item: URI, property: URI, context: URI, end: Long = KvinTuple.TIME_MAX_VALUE, begin: Long = 0L, limit: Long = 0L, interval: Long = 0L, op: String = null): IExtendedIterator[KvinTuple] = {
-    var results = fetchInternal(item, property, context, end, begin, if (op == null) limit else 0L, if (op == null) interval else 0L)
-    if (op != null) {
-      results = new AggregatingIterator(results, interval, op.trim.toLowerCase, limit) {
-        override def createElement(item: URI, property: URI, context: URI, time: Long, seqNr: Int, value: Object): KvinTuple = {
-          new KvinTuple(item, property, context, time, seqNr, value)
+    val cache = latestValues
+    if (cache != null && limit == 1L && op == null && interval == 0L && property != null && ttl(item).isEmpty) {
+      // values of items with a TTL are removed asynchronously and are therefore not cached
+      fetchLatest(cache, item, property, context, end, begin)
+    } else {
+      var results: IExtendedIterator[KvinTuple] = null
+      if (op != null && rollups != null && supportsRollups(item) && Aggregator.Op.of(op).supportsPartials) {
+        val tier = rollups.tierFor(end, begin, interval)
+        if (tier >= 0) {
+          // use pre-aggregated values for all complete buckets within the time range
+          val properties = if (property == null) this.properties(item, context).toList.asScala else List(property)
+          results = properties.foldLeft(NiceIterator.emptyIterator[KvinTuple]) { (it, p) =>
+            it.andThen(rollups.fetch(tier, item, p, context, end, begin))
+          }
+        }
+      }
+      if (results == null) {
+        if (op != null) {
+          // aggregate numeric values without decoding them into tuples
+          results = AggregatingIterator.create(cursor(item, property, context, end, begin, 0L), interval, op, limit)
+        } else {
+          results = fetchInternal(item, property, context, end, begin, limit, interval)
         }
+      } else if (op != null) {
+        results = AggregatingIterator.create(results, interval, op, limit, property != null)
+      }
+      results
+    }
+  }
+
+  override def cursor(item: URI, property: URI, context: URI, end: Long, begin: Long, limit: Long): KvinCursor = {
+    val propertiesIt: IExtendedIterator[URI] = if (property == null) {
+      properties(item, context)
+    } else {
+      WrappedIterator.create(List(property).asJava.iterator())
+    }
+    KvinLevelDbCursor.forItem(this, item, propertiesIt, context, end, begin, limit)
+  }
+
+  /**
+   * Returns a cursor over all values in this store.
+   *
+   * @return cursor that needs to be closed by the caller
+   */
+  def cursorAll(): KvinCursor = KvinLevelDbCursor.all(this)
+
+  /**
+   * Estimates the number of values from the approximate size of the key range of each series on disk.
+   *
+   * Values that are not yet written to disk are ignored by LevelDB. Therefore, the values of small key ranges
+   * are counted up to a fixed limit.
+   */
+  override def approximateSize(item: URI, property: URI, context: URI, end: Long, begin: Long): Long = {
+    val properties = if (property == null) this.properties(item, context).toList.asScala else List(property)
+    properties.foldLeft(0L) { (size, p) =>
+      val id = toId(item, p, context, false, null)
+      if (id == null) size else size + approximateSize(id, end, begin)
+    }
+  }
+
+  private def approximateSize(id: Array[Byte], end: Long, begin: Long): Long = {
+    val start = seriesKey(id, chunks.windowEnd(end))
+    val limit = if (begin > 0) seriesKey(id, begin - 1) else {
+      // the smallest key that follows all keys of the series
+      var length = id.length
+      while (length > 0 && id(length - 1) == 0xFF.toByte) length -= 1
+      val next = java.util.Arrays.copyOf(id, length)
+      if (length > 0) next(length - 1) = (next(length - 1) + 1).toByte
+      next
+    }
+    val bytes = values.getApproximateSizes(new Range(start, limit))(0)
+    val estimate = bytes / (if (chunks.interval > 0) KvinLevelDb.BYTES_PER_CHUNKED_VALUE else KvinLevelDb.BYTES_PER_VALUE)
+    if (estimate >= KvinLevelDb.APPROXIMATE_SIZE_SCAN_LIMIT) estimate else {
+      val it = values.iterator
+      try {
+        val cursor = new SeriesCursor(this, it)
+        cursor.reset(id, end, begin)
+        var count = 0L
+        while (count < KvinLevelDb.APPROXIMATE_SIZE_SCAN_LIMIT && cursor.next()) count += 1
+        Math.max(count, estimate)
+      } finally {
+        it.close()
       }
     }
-    results
+  }
+
+  private def seriesKey(id: Array[Byte], time: Long): Array[Byte] = {
+    val key = new Array[Byte](id.length + Varint.calcLengthUnsigned(time))
+    val bb = ByteBuffer.wrap(key).order(BYTE_ORDER)
+    bb.put(id)
+    writeVarint(bb, time)
+    key
   }
 
   def encode(value: Any): Array[Byte] = {
@@ -766,9 +1071,8 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
       val it = values.iterator
       new StoreIterator[KvinTuple](it) {
         var currentProperty: URI = null
-        var id: Array[Byte] = null
-        val idTimePrefix: Array[Byte] = new Array[Byte](Varint.MAX_BYTES * 4)
-        val prefixBuffer: ByteBuffer = ByteBuffer.wrap(idTimePrefix).order(BYTE_ORDER)
+        // merges single values and the samples of chunks
+        val cursor = new SeriesCursor(KvinLevelDb.this, it)
 
         var intervalSeq: Int = 0
         var count: Long = 0
@@ -777,55 +1081,38 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
           var validProperty = false
           while (!validProperty && propertiesIt.hasNext) {
             currentProperty = propertiesIt.next()
-            id = toId(item, currentProperty, context, false, null)
+            val id = toId(item, currentProperty, context, false, null)
             if (id != null) {
               validProperty = true
-              util.Arrays.fill(idTimePrefix, 0.toByte)
-              prefixBuffer.clear()
-              prefixBuffer.put(id)
-              writeVarint(prefixBuffer, end)
+              count = 0
+              cursor.reset(id, end, begin)
             }
           }
-          if (validProperty) {
-            count = 0
-            it.seek(idTimePrefix)
-          } else {
-            close()
-          }
+          if (!validProperty) close()
         }
 
         override def init(): Unit = {
           nextProperty()
         }
 
+        // decoded samples of a chunk may be available although the underlying iterator is exhausted
+        override protected def baseHasNext: Boolean = it.hasNext || cursor.hasBuffered
+
         override def computeNext: Option[KvinTuple] = {
-          val entry = it.next
-          val key = entry.getKey
-          if (key.startsWith(id)) {
-            val bb = ByteBuffer.wrap(key, id.length, key.length - id.length).order(BYTE_ORDER)
-            val time = readVarint(bb)
-            val seq: Int = if (bb.hasRemaining) readVarint(bb).toInt else 0
-            if (time <= end && time >= begin && (limit == 0 || count < limit)) {
-              count += 1
-
-              // skips time intervals if requested, the upper value is exclusive, the lower value is inclusive
-              if (interval > 0) {
-                val intervalStart = time - (time % interval)
-                // seek to next interval
-                (id.length until idTimePrefix.length).foreach(idTimePrefix(_) = 0)
-                writeVarint(prefixBuffer, id.length, intervalStart - 1)
-                it.seek(idTimePrefix)
-
-                intervalSeq += 1
-                Some(new KvinTuple(item, currentProperty, currentContext, intervalStart,
-                  intervalSeq, decode(entry.getValue)))
-              } else {
-                Some(new KvinTuple(item, currentProperty, currentContext, time, seq,
-                  decode(entry.getValue)))
-              }
+          if ((limit == 0 || count < limit) && cursor.next()) {
+            count += 1
+
+            // skips time intervals if requested, the upper value is exclusive, the lower value is inclusive
+            if (interval > 0) {
+              val intervalStart = cursor.time - (cursor.time % interval)
+              val value = cursor.value
+              // seek to next interval
+              cursor.seek(intervalStart - 1)
+
+              intervalSeq += 1
+              Some(new KvinTuple(item, currentProperty, currentContext, intervalStart, intervalSeq, value))
             } else {
-              nextProperty()
-              if (open) computeNext else None
+              Some(new KvinTuple(item, currentProperty, currentContext, cursor.time, cursor.seq, cursor.value))
             }
           } else {
             nextProperty()
@@ -842,6 +1129,7 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
   }
 
   override def close(): Unit = {
+    disableGroupCommit()
     var errors: List[IOException] = Nil
     try {
       ids.close()
@@ -853,6 +1141,13 @@ class KvinLevelDb(path: File) extends KvinLevelDbBase with Kvin {
     } catch {
       case e: IOException => errors ::= e
     }
+    if (rollups != null) {
+      try {
+        rollups.close()
+      } catch {
+        case e: IOException => errors ::= e
+      }
+    }
     executor.shutdown()
     errors.headOption.foreach(e => throw new UncheckedIOException(e))
   }
@@ -1,16 +1,16 @@
 package io.github.linkedfactory.core.kvin.leveldb
 
-import io.github.linkedfactory.core.kvin.KvinTuple
+import io.github.linkedfactory.core.kvin.KvinCursor
 import io.github.linkedfactory.core.kvin.parquet.KvinParquet
-import net.enilink.commons.iterator.IExtendedIterator
 
 class KvinLevelDbArchiver(var databaseStore: KvinLevelDb, var archiveStore: KvinParquet) extends KvinLevelDbBase {
   def archive(): Unit = {
-    val dbIterator: IExtendedIterator[KvinTuple] = databaseStore.fetchAll()
+    // values are read without creating tuples
+    val cursor: KvinCursor = databaseStore.cursorAll()
     try {
-      archiveStore.put(dbIterator)
+      archiveStore.put(cursor)
     } finally {
-      dbIterator.close()
+      cursor.close()
     }
   }
 }
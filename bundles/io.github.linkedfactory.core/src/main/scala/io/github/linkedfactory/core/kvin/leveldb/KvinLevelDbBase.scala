@@ -44,6 +44,11 @@ trait KvinLevelDbBase {
 
     def init(): Unit = {}
 
+    /**
+     * Returns true if further elements may be computed. Iterators that buffer elements need to override this method.
+     */
+    protected def baseHasNext: Boolean = base.hasNext
+
     override def hasNext: Boolean = {
       if (!initialized) {
         // prepare this iterator
@@ -56,7 +61,7 @@ trait KvinLevelDbBase {
       }
 
       if (current.isDefined) true
-      else if (open && base.hasNext) {
+      else if (open && baseHasNext) {
         current = computeNext
         if (current.isDefined) true else {
           close()
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.leveldb
+
+import io.github.linkedfactory.core.kvin.{KvinCursor, KvinTuple}
+import io.github.linkedfactory.core.kvin.util.Varint
+import net.enilink.commons.iterator.IExtendedIterator
+import net.enilink.komma.core.URI
+
+/**
+ * Base class for cursors over the values of a [[KvinLevelDb]].
+ *
+ * Keys and values are decoded in place from the entries of the underlying LevelDB iterator. Numeric values can be read
+ * as primitives and neither the values nor tuples are created unless requested by the caller.
+ */
+abstract class KvinLevelDbCursor(store: KvinLevelDb) extends KvinCursor {
+  protected val it = store.values.iterator
+  // merges single values and the samples of chunks
+  protected val series = new SeriesCursor(store, it)
+  protected var hasSeries = false
+  protected var open = true
+
+  protected var item: URI = _
+  protected var property: URI = _
+  protected var context: URI = _
+
+  /**
+   * Positions the series cursor at the next series.
+   *
+   * @return false if no further series exists
+   */
+  protected def nextSeries(): Boolean
+
+  /**
+   * Returns false if the remaining values of the current series should be skipped.
+   */
+  protected def accept(): Boolean = true
+
+  override def next(): Boolean = {
+    var found = false
+    while (!found && open) {
+      if (hasSeries && series.next() && accept()) found = true
+      else {
+        hasSeries = nextSeries()
+        if (!hasSeries) close()
+      }
+    }
+    found
+  }
+
+  // the values of the next series are located by a seek instead of reading the remaining values
+  override def skipSeries(): Boolean = {
+    hasSeries = false
+    next()
+  }
+
+  override def getItem: URI = item
+
+  override def getProperty: URI = property
+
+  override def getContext: URI = context
+
+  override def getTime: Long = series.time
+
+  override def getSeqNr: Int = series.seq
+
+  override def isLong: Boolean = series.numericType == 'J'
+
+  override def isDouble: Boolean = series.numericType == 'D'
+
+  override def getLong: Long = series.longValue
+
+  override def getDouble: Double = series.doubleValue
+
+  override def getValue: AnyRef = series.value.asInstanceOf[AnyRef]
+
+  override def close(): Unit = if (open) {
+    open = false
+    it.close()
+  }
+}
+
+object KvinLevelDbCursor {
+  /**
+   * Creates a cursor over the given properties of an item.
+   */
+  def forItem(store: KvinLevelDb, itemUri: URI, properties: IExtendedIterator[URI], contextUri: URI,
+              end: Long, begin: Long, limit: Long): KvinCursor = new KvinLevelDbCursor(store) {
+    // the parameters are named differently as they would otherwise be shadowed by the fields of the cursor
+    item = itemUri
+    context = store.contextOrDefault(contextUri)
+    var count = 0L
+
+    override protected def nextSeries(): Boolean = {
+      var valid = false
+      while (!valid && properties.hasNext) {
+        property = properties.next()
+        val id = store.toId(itemUri, property, contextUri, false, null)
+        if (id != null) {
+          valid = true
+          count = 0
+          series.reset(id, end, begin)
+        }
+      }
+      valid
+    }
+
+    override protected def accept(): Boolean = {
+      count += 1
+      limit == 0 || count <= limit
+    }
+
+    override def close(): Unit = {
+      properties.close()
+      super.close()
+    }
+  }
+
+  /**
+   * Creates a cursor over all values of a store.
+   *
+   * The values are returned ordered by the ids of item, context and property and for each series in descending order
+   * of time and sequence number.
+   */
+  def all(store: KvinLevelDb): KvinCursor = new KvinLevelDbCursor(store) {
+    var id: Array[Byte] = _
+    var itemId: Array[Byte] = _
+    var contextId: Array[Byte] = _
+    var propertyId: Array[Byte] = _
+    it.seekToFirst()
+
+    // moves the iterator to the first key that does not start with the given prefix
+    def seekAfter(prefix: Array[Byte]): Unit = {
+      val end = prefix.clone
+      var i = end.length - 1
+      while (i >= 0 && end(i) == 0xFF.toByte) i -= 1
+      if (i < 0) {
+        // no greater prefix exists
+        while (it.hasNext) it.next
+      } else {
+        end(i) = (end(i) + 1).toByte
+        it.seek(java.util.Arrays.copyOf(end, i + 1))
+      }
+    }
+
+    // resolves an id only if it differs from the previous one
+    def resolve(key: Array[Byte], from: Int, to: Int, previous: Array[Byte],
+                entryType: EntryType)(update: (Array[Byte], URI) => Unit): Unit = {
+      if (previous == null || !java.util.Arrays.equals(key, from, to, previous, 0, previous.length)) {
+        val idBytes = java.util.Arrays.copyOfRange(key, from, to)
+        update(idBytes, store.toUri(idBytes, entryType).orNull)
+      }
+    }
+
+    override protected def nextSeries(): Boolean = {
+      var valid = false
+      // skip the remaining entries of the previous series
+      if (id != null) seekAfter(id)
+      while (!valid && it.hasNext) {
+        val key = it.peekNext.getKey
+        val itemIdLength = Varint.firstToLength(key(0))
+        val contextIdLength = Varint.firstToLength(key(itemIdLength))
+        val idLength = itemIdLength + contextIdLength + Varint.firstToLength(key(itemIdLength + contextIdLength))
+        id = java.util.Arrays.copyOf(key, idLength)
+        resolve(key, 0, itemIdLength, itemId, EntryType.SubjectToId) { (i, uri) => itemId = i; item = uri }
+        resolve(key, itemIdLength, itemIdLength + contextIdLength, contextId, EntryType.ContextToId) {
+          (i, uri) => contextId = i; context = uri
+        }
+        resolve(key, itemIdLength + contextIdLength, idLength, propertyId, EntryType.PropertyToId) {
+          (i, uri) => propertyId = i; property = uri
+        }
+        if (item != null && context != null && property != null) {
+          valid = true
+          series.reset(id, KvinTuple.TIME_MAX_VALUE, 0L)
+        } else {
+          seekAfter(id)
+        }
+      }
+      valid
+    }
+  }
+}
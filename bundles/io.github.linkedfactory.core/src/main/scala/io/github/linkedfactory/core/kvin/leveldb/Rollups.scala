@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.leveldb
+
+import com.google.common.util.concurrent.Striped
+import io.github.linkedfactory.core.kvin.util.Aggregator.Partial
+import io.github.linkedfactory.core.kvin.util.Varint
+import io.github.linkedfactory.core.kvin.{Kvin, KvinTuple}
+import net.enilink.commons.iterator.{IExtendedIterator, NiceIterator}
+import net.enilink.komma.core.URI
+import org.iq80.leveldb.impl.Iq80DBFactory.factory
+import org.iq80.leveldb.{DB, DBIterator}
+import org.slf4j.LoggerFactory
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.concurrent.locks.Lock
+import scala.collection.mutable
+
+object Rollups {
+  /** Tiers of 1 minute, 1 hour and 1 day. */
+  val DEFAULT_TIERS: Array[Long] = Array(60000L, 3600000L, 86400000L)
+
+  val FLAG_INTEGRAL: Byte = 1
+  val FLAG_NON_NUMERIC: Byte = 2
+
+  // key of the entry that stores the tier configuration
+  val META_KEY: Array[Byte] = Array(0xFF.toByte)
+
+  val log = LoggerFactory.getLogger(classOf[Rollups])
+
+  /**
+   * Accumulated values of a single bucket.
+   */
+  class Bucket {
+    val partial = new Partial
+    var nonNumeric = false
+    var empty = true
+    var firstTime, lastTime = 0L
+    var firstSeq, lastSeq = 0
+    // values were not added in ascending order or were overwritten
+    var recompute = false
+
+    def add(time: Long, seqNr: Int, value: Any): Unit = {
+      if (empty) {
+        firstTime = time
+        firstSeq = seqNr
+        empty = false
+      } else if (time < lastTime || time == lastTime && seqNr <= lastSeq) {
+        recompute = true
+      }
+      if (!recompute) {
+        lastTime = time
+        lastSeq = seqNr
+      }
+      value match {
+        case n: Number => partial.add(n)
+        case _ => nonNumeric = true
+      }
+    }
+  }
+
+  /**
+   * Rollup updates for a batch of tuples.
+   */
+  class Batch(tiers: Array[Long]) {
+    val buckets = new mutable.HashMap[ByteBuffer, mutable.HashMap[(Int, Long), Bucket]]
+
+    def add(id: Array[Byte], time: Long, seqNr: Int, value: Any): Unit = {
+      val seriesBuckets = buckets.getOrElseUpdate(ByteBuffer.wrap(id), new mutable.HashMap[(Int, Long), Bucket])
+      var tier = 0
+      while (tier < tiers.length) {
+        val start = time - time % tiers(tier)
+        seriesBuckets.getOrElseUpdate((tier, start), new Bucket).add(time, seqNr, value)
+        tier += 1
+      }
+    }
+
+    def isEmpty: Boolean = buckets.isEmpty
+  }
+}
+
+/**
+ * Pre-aggregated rollup tiers for the numeric time series of a [[KvinLevelDb]].
+ *
+ * Each tier summarizes the values of a series within fixed time buckets (e.g. 1 minute, 1 hour or 1 day) by
+ * their count, minimum, maximum and sum. The summaries are kept in a separate LevelDB instance with keys of the form
+ * (tier, series id, inverted bucket start) and are updated incrementally when values are added.
+ *
+ * Buckets receiving values out of order, overwritten values or values that were deleted are recomputed
+ * from the raw values of the store.
+ */
+class Rollups(store: KvinLevelDb, path: File, tierIntervals: Array[Long]) {
+  import Rollups._
+
+  val tiers: Array[Long] = tierIntervals.distinct.sorted
+  require(tiers.nonEmpty && tiers.length < 0xFF && tiers.forall(_ > 0), "Invalid rollup tiers: " + tierIntervals.mkString(", "))
+
+  val db: DB = factory.open(path, store.createOptions(true))
+  val locks: Striped[Lock] = Striped.lock(64)
+
+  initialize()
+
+  def newBatch(): Batch = new Batch(tiers)
+
+  /**
+   * Rebuilds all tiers if the store was not yet rolled up with the current configuration.
+   */
+  protected def initialize(): Unit = {
+    val bb = ByteBuffer.allocate(tiers.length * java.lang.Long.BYTES)
+    tiers.foreach(bb.putLong)
+    val config = bb.array
+    val existing = db.get(META_KEY)
+    if (existing == null || !java.util.Arrays.equals(existing, config)) {
+      log.info("Building rollups with tiers {}", tiers.mkString(", "))
+      clear()
+      rebuild()
+      db.put(META_KEY, config)
+    }
+  }
+
+  protected def clear(): Unit = {
+    val it = db.iterator()
+    try {
+      it.seekToFirst()
+      var batch = db.createWriteBatch()
+      var count = 0
+      while (it.hasNext) {
+        batch.delete(it.next.getKey)
+        count += 1
+        if (count % 10000 == 0) {
+          db.write(batch)
+          batch.close()
+          batch = db.createWriteBatch()
+        }
+      }
+      db.write(batch)
+      batch.close()
+    } finally {
+      it.close()
+    }
+  }
+
+  /**
+   * Computes all tiers from the raw values of the store.
+   */
+  protected def rebuild(): Unit = {
+    val it = store.values.iterator()
+    var batch = db.createWriteBatch()
+    var count = 0
+    try {
+      it.seekToFirst()
+      var id: Array[Byte] = null
+      var enabled = false
+      var itemId: ByteBuffer = null
+      val current = new Array[(Long, Bucket)](tiers.length)
+
+      def flush(): Unit = {
+        var tier = 0
+        while (tier < tiers.length) {
+          if (current(tier) != null) {
+            batch.put(bucketKey(tier, id, current(tier)._1), encode(current(tier)._2))
+            current(tier) = null
+            count += 1
+          }
+          tier += 1
+        }
+        if (count >= 10000) {
+          db.write(batch)
+          batch.close()
+          batch = db.createWriteBatch()
+          count = 0
+        }
+      }
+
+      val cursor = new SeriesCursor(store, it)
+      while (it.hasNext) {
+        val key = it.peekNext.getKey
+        val itemIdLength = Varint.firstToLength(key(0))
+        val contextIdLength = Varint.firstToLength(key(itemIdLength))
+        val idLength = itemIdLength + contextIdLength + Varint.firstToLength(key(itemIdLength + contextIdLength))
+        id = java.util.Arrays.copyOf(key, idLength)
+        val newItemId = ByteBuffer.wrap(key, 0, itemIdLength)
+        if (itemId == null || itemId != newItemId) {
+          itemId = ByteBuffer.wrap(java.util.Arrays.copyOf(key, itemIdLength))
+          enabled = store.toUri(itemId.array, EntryType.SubjectToId).exists(store.supportsRollups)
+        }
+        if (enabled) {
+          // the cursor reads all values of the series including those within chunks
+          // and stops at the first entry of the next series
+          cursor.reset(id, KvinTuple.TIME_MAX_VALUE, 0L)
+          while (cursor.next()) {
+            val time = cursor.time
+            val seq = cursor.seq
+            val value = cursor.value
+            var tier = 0
+            while (tier < tiers.length) {
+              val start = time - time % tiers(tier)
+              if (current(tier) != null && current(tier)._1 != start) {
+                batch.put(bucketKey(tier, id, current(tier)._1), encode(current(tier)._2))
+                current(tier) = null
+                count += 1
+              }
+              if (current(tier) == null) current(tier) = (start, new Bucket)
+              val bucket = current(tier)._2
+              // values are in descending order, hence the first one is the last value of the bucket
+              bucket.add(time, seq, value)
+              bucket.lastTime = bucket.firstTime
+              bucket.lastSeq = bucket.firstSeq
+              bucket.recompute = false
+              tier += 1
+            }
+          }
+          flush()
+        } else {
+          while (it.hasNext && it.peekNext.getKey.startsWith(id)) it.next
+        }
+      }
+      db.write(batch)
+    } finally {
+      batch.close()
+      it.close()
+    }
+  }
+
+  def bucketKey(tier: Int, id: Array[Byte], start: Long): Array[Byte] = {
+    val key = new Array[Byte](1 + id.length + Varint.calcLengthUnsigned(start))
+    val bb = ByteBuffer.wrap(key).order(store.BYTE_ORDER)
+    bb.put(tier.toByte)
+    bb.put(id)
+    store.writeVarint(bb, start)
+    key
+  }
+
+  def seriesPrefix(tier: Int, id: Array[Byte]): Array[Byte] = {
+    val prefix = new Array[Byte](1 + id.length)
+    prefix(0) = tier.toByte
+    System.arraycopy(id, 0, prefix, 1, id.length)
+    prefix
+  }
+
+  def encode(bucket: Bucket): Array[Byte] = {
+    val p = bucket.partial
+    val bb = ByteBuffer.allocate(1 + 3 * Varint.MAX_BYTES + 3 * java.lang.Long.BYTES)
+    var flags = 0
+    if (p.integral) flags |= FLAG_INTEGRAL
+    if (bucket.nonNumeric) flags |= FLAG_NON_NUMERIC
+    bb.put(flags.toByte)
+    Varint.writeUnsigned(bb, p.count)
+    Varint.writeUnsigned(bb, bucket.lastTime)
+    Varint.writeUnsigned(bb, bucket.lastSeq)
+    if (p.integral) {
+      bb.putLong(p.minLong).putLong(p.maxLong).putLong(p.sumLong)
+    } else {
+      bb.putDouble(p.min).putDouble(p.max).putDouble(p.sum)
+    }
+    java.util.Arrays.copyOf(bb.array, bb.position)
+  }
+
+  def decode(data: Array[Byte]): Bucket = {
+    val bb = ByteBuffer.wrap(data)
+    val bucket = new Bucket
+    val p = bucket.partial
+    val flags = bb.get
+    p.integral = (flags & FLAG_INTEGRAL) != 0
+    bucket.nonNumeric = (flags & FLAG_NON_NUMERIC) != 0
+    p.count = Varint.readUnsigned(bb)
+    bucket.lastTime = Varint.readUnsigned(bb)
+    bucket.lastSeq = Varint.readUnsigned(bb).toInt
+    bucket.empty = false
+    if (p.integral) {
+      p.minLong = bb.getLong
+      p.maxLong = bb.getLong
+      p.sumLong = bb.getLong
+    } else {
+      p.min = bb.getDouble
+      p.max = bb.getDouble
+      p.sum = bb.getDouble
+    }
+    bucket
+  }
+
+  /**
+   * Computes a bucket from the raw values of the store.
+   */
+  def compute(id: Array[Byte], tier: Int, start: Long): Bucket = {
+    val end = start + tiers(tier) - 1
+    val bucket = new Bucket
+    val it = store.values.iterator()
+    try {
+      val cursor = new SeriesCursor(store, it)
+      cursor.reset(id, end, start)
+      while (cursor.next()) {
+        val empty = bucket.empty
+        bucket.add(cursor.time, cursor.seq, cursor.value)
+        if (empty) {
+          // values are in descending order, hence the first one is the last value of the bucket
+          bucket.lastTime = cursor.time
+          bucket.lastSeq = cursor.seq
+        }
+        bucket.recompute = false
+      }
+    } finally {
+      it.close()
+    }
+    if (bucket.empty) null else bucket
+  }
+
+  /**
+   * Applies the rollup updates of a batch whose raw values have already been written to the store.
+   */
+  def write(batch: Batch): Unit = {
+    batch.buckets.foreach { case (idBuffer, buckets) =>
+      val id = idBuffer.array
+      val lock = locks.get(idBuffer)
+      lock.lock()
+      val writeBatch = db.createWriteBatch()
+      try {
+        buckets.foreach { case ((tier, start), bucket) =>
+          val key = bucketKey(tier, id, start)
+          val existingData = db.get(key)
+          val existing = if (existingData == null) null else decode(existingData)
+          val updated = if (bucket.recompute || existing != null && (bucket.firstTime < existing.lastTime ||
+            bucket.firstTime == existing.lastTime && bucket.firstSeq <= existing.lastSeq)) {
+            // values may have been overwritten
+            compute(id, tier, start)
+          } else if (existing != null) {
+            existing.partial.add(bucket.partial)
+            existing.nonNumeric |= bucket.nonNumeric
+            existing.lastTime = bucket.lastTime
+            existing.lastSeq = bucket.lastSeq
+            existing
+          } else bucket
+          if (updated == null) writeBatch.delete(key) else writeBatch.put(key, encode(updated))
+        }
+        db.write(writeBatch)
+      } finally {
+        writeBatch.close()
+        lock.unlock()
+      }
+    }
+  }
+
+  /**
+   * Updates the buckets of a series after its values within the range [begin, end] have been deleted.
+   */
+  def deleteRange(id: Array[Byte], end: Long, begin: Long): Unit = {
+    val lock = locks.get(ByteBuffer.wrap(id))
+    lock.lock()
+    val writeBatch = db.createWriteBatch()
+    try {
+      for (tier <- tiers.indices) {
+        val t = tiers(tier)
+        val first = begin - begin % t
+        val last = end - end % t
+        forEachBucket(tier, id, last, first) { (key, start) =>
+          if (start == first || start == last) {
+            // buckets at the boundaries may still contain other values
+            val bucket = compute(id, tier, start)
+            if (bucket == null) writeBatch.delete(key) else writeBatch.put(key, encode(bucket))
+          } else writeBatch.delete(key)
+        }
+      }
+      db.write(writeBatch)
+    } finally {
+      writeBatch.close()
+      lock.unlock()
+    }
+  }
+
+  /**
+   * Removes all buckets of the series starting with the given id prefix.
+   */
+  def deletePrefix(idPrefix: Array[Byte]): Unit = {
+    val writeBatch = db.createWriteBatch()
+    try {
+      for (tier <- tiers.indices) {
+        val prefix = seriesPrefix(tier, idPrefix)
+        val it = db.iterator()
+        try {
+          it.seek(prefix)
+          var done = false
+          while (!done && it.hasNext) {
+            val key = it.next.getKey
+            if (key.startsWith(prefix)) writeBatch.delete(key) else done = true
+          }
+        } finally {
+          it.close()
+        }
+      }
+      db.write(writeBatch)
+    } finally {
+      writeBatch.close()
+    }
+  }
+
+  private def forEachBucket(tier: Int, id: Array[Byte], last: Long, first: Long)(f: (Array[Byte], Long) => Unit): Unit = {
+    val prefix = seriesPrefix(tier, id)
+    val it = db.iterator()
+    try {
+      it.seek(bucketKey(tier, id, last))
+      var done = false
+      while (!done && it.hasNext) {
+        val key = it.next.getKey
+        if (key.startsWith(prefix)) {
+          val start = store.readVarint(ByteBuffer.wrap(key, prefix.length, key.length - prefix.length).order(store.BYTE_ORDER))
+          if (start >= first) f(key, start) else done = true
+        } else done = true
+      }
+    } finally {
+      it.close()
+    }
+  }
+
+  /**
+   * Returns the index of the coarsest tier that can be used to aggregate values within
+   * the given range and interval or -1 if no such tier exists.
+   */
+  def tierFor(end: Long, begin: Long, interval: Long): Int = {
+    var tier = tiers.length - 1
+    while (tier >= 0) {
+      val t = tiers(tier)
+      if ((interval == 0 || interval % t == 0) && alignedBegin(begin, t) <= alignedEnd(end, t)) return tier
+      tier -= 1
+    }
+    -1
+  }
+
+  private def alignedBegin(begin: Long, t: Long): Long = if (begin % t == 0) begin else begin - begin % t + t
+
+  private def alignedEnd(end: Long, t: Long): Long = (end + 1) - (end + 1) % t - 1
+
+  /**
+   * Returns the values of a series within the range [begin, end] in descending order where the values
+   * of all complete buckets of the given tier are replaced by [[Partial]] summaries.
+   */
+  def fetch(tier: Int, item: URI, property: URI, context: URI, end: Long, begin: Long): IExtendedIterator[KvinTuple] = {
+    val id = store.toId(item, property, context, false, null)
+    if (id == null) NiceIterator.emptyIterator[KvinTuple] else {
+      val t = tiers(tier)
+      val first = alignedBegin(begin, t)
+      val last = alignedEnd(end, t)
+      val currentContext = if (context == null) Kvin.DEFAULT_CONTEXT else context
+
+      var result: IExtendedIterator[KvinTuple] = NiceIterator.emptyIterator[KvinTuple]
+      // raw values after the last complete bucket
+      if (end > last) result = lazyIterator(store.fetchInternal(item, property, context, end, last + 1))
+
+      result = result.andThen(new NiceIterator[KvinTuple] {
+        var it: DBIterator = _
+        val prefix: Array[Byte] = seriesPrefix(tier, id)
+        var rawValues: IExtendedIterator[KvinTuple] = _
+        var nextTuple: KvinTuple = _
+        var open = true
+
+        override def hasNext: Boolean = {
+          if (nextTuple != null) return true
+          if (rawValues != null) {
+            if (rawValues.hasNext) {
+              nextTuple = rawValues.next
+              return true
+            }
+            rawValues = null
+          }
+          if (!open) return false
+          if (it == null) {
+            it = db.iterator()
+            it.seek(bucketKey(tier, id, last - last % t))
+          }
+          while (it.hasNext) {
+            val entry = it.next
+            val key = entry.getKey
+            if (!key.startsWith(prefix)) {
+              close()
+              return false
+            }
+            val start = store.readVarint(ByteBuffer.wrap(key, prefix.length, key.length - prefix.length).order(store.BYTE_ORDER))
+            if (start < first) {
+              close()
+              return false
+            }
+            val bucket = decode(entry.getValue)
+            if (bucket.nonNumeric) {
+              // use raw values if the bucket contains non-numeric values
+              rawValues = store.fetchInternal(item, property, context, start + t - 1, start)
+              if (rawValues.hasNext) {
+                nextTuple = rawValues.next
+                return true
+              }
+              rawValues = null
+            } else {
+              // use the time of the last value to be consistent with the aggregation of raw values
+              nextTuple = new KvinTuple(item, property, currentContext, bucket.lastTime, 0, bucket.partial)
+              return true
+            }
+          }
+          close()
+          false
+        }
+
+        override def next: KvinTuple = {
+          ensureHasNext()
+          val result = nextTuple
+          nextTuple = null
+          result
+        }
+
+        override def close(): Unit = {
+          if (open) {
+            open = false
+            if (rawValues != null) rawValues.close()
+            if (it != null) it.close()
+          }
+        }
+      })
+
+      // raw values before the first complete bucket
+      if (first > begin) result = result.andThen(lazyIterator(store.fetchInternal(item, property, context, first - 1, begin)))
+      result
+    }
+  }
+
+  private def lazyIterator(create: => IExtendedIterator[KvinTuple]): IExtendedIterator[KvinTuple] = new NiceIterator[KvinTuple] {
+    var base: IExtendedIterator[KvinTuple] = _
+
+    override def hasNext: Boolean = {
+      if (base == null) base = create
+      base.hasNext
+    }
+
+    override def next: KvinTuple = {
+      ensureHasNext()
+      base.next
+    }
+
+    override def close(): Unit = if (base != null) base.close()
+  }
+
+  def close(): Unit = db.close()
+}
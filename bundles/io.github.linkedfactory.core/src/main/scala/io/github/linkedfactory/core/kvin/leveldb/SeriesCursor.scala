@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin.leveldb
+
+import io.github.linkedfactory.core.kvin.leveldb.Chunks.Chunk
+import io.github.linkedfactory.core.kvin.util.{Values, Varint}
+import org.iq80.leveldb.DBIterator
+
+import java.nio.ByteBuffer
+
+/**
+ * Iterates over the values of a single series in descending order of time and sequence number while transparently
+ * decoding chunks and merging them with single value entries.
+ *
+ * The current sample is exposed by the fields `time` and `seq` and by accessors for its value. Values are only decoded
+ * on request and numeric values can be read as primitives without creating any objects.
+ */
+class SeriesCursor(store: KvinLevelDb, it: DBIterator) {
+  var id: Array[Byte] = _
+  var begin: Long = 0L
+  // upper bound for the time of the next sample
+  var upper: Long = 0L
+  val seekKey: Array[Byte] = new Array[Byte](Varint.MAX_BYTES * 4)
+  val seekBuffer: ByteBuffer = ByteBuffer.wrap(seekKey).order(store.BYTE_ORDER)
+
+  var chunk: Chunk = _
+  var chunkStart: Long = 0L
+  var chunkPos: Int = -1
+
+  // the current sample
+  var time: Long = 0L
+  var seq: Int = 0
+  // either the encoded value of a single entry or the chunk and the index of the sample
+  private var rawValue: Array[Byte] = _
+  private var sampleChunk: Chunk = _
+  private var sampleIndex: Int = 0
+
+  def reset(id: Array[Byte], end: Long, begin: Long): Unit = {
+    this.id = id
+    this.begin = begin
+    this.chunk = null
+    this.chunkPos = -1
+    seek(end)
+  }
+
+  /**
+   * Positions this cursor such that the next sample has a time less than or equal to the given time.
+   */
+  def seek(time: Long): Unit = {
+    upper = time
+    if (chunk != null && time >= chunkStart) {
+      // stay within the current chunk
+      while (chunkPos >= 0 && chunk.times(chunkPos) > time) chunkPos -= 1
+      seekRaw(time)
+    } else {
+      chunk = null
+      chunkPos = -1
+      // the chunk of the window precedes the single values
+      seekRaw(store.chunks.windowEnd(time))
+    }
+  }
+
+  private def seekRaw(time: Long): Unit = {
+    seekBuffer.clear()
+    seekBuffer.put(id)
+    store.writeVarint(seekBuffer, time)
+    // the key must not be padded as it would otherwise be sorted after a chunk with the same time
+    it.seek(java.util.Arrays.copyOf(seekKey, seekBuffer.position))
+  }
+
+  /**
+   * Returns true if decoded samples of a chunk are available that do not require the underlying iterator.
+   */
+  def hasBuffered: Boolean = chunkPos >= 0 && chunk.times(chunkPos) >= begin
+
+  /**
+   * Moves to the next sample.
+   *
+   * @return false if no further samples exist within the time range
+   */
+  def next(): Boolean = {
+    var rawTime = -1L
+    var rawSeq = 0
+    var rawData: Array[Byte] = null
+    var searching = true
+    while (searching && it.hasNext) {
+      val entry = it.peekNext
+      val key = entry.getKey
+      if (!key.startsWith(id)) searching = false else {
+        // decode the time and the sequence number in place
+        val t = Varint.readUnsignedInverted(key, id.length)
+        val seqPos = id.length + Varint.firstToLength((~key(id.length)).toByte)
+        if (seqPos == key.length && Chunks.isChunk(entry.getValue)) {
+          if (chunkPos >= 0) {
+            // the remaining samples of the current chunk are newer than those of the next chunk
+            searching = false
+          } else {
+            it.next
+            chunk = Chunks.decode(entry.getValue)
+            chunkStart = store.chunks.windowStart(t)
+            chunkPos = chunk.lastIndexAtOrBefore(upper)
+          }
+        } else if (t > upper) {
+          it.next
+        } else {
+          rawTime = t
+          rawSeq = if (seqPos < key.length) Varint.readUnsignedInverted(key, seqPos).toInt else 0
+          rawData = entry.getValue
+          searching = false
+        }
+      }
+    }
+    val useChunk = chunkPos >= 0 && (rawTime < 0 || chunk.times(chunkPos) > rawTime ||
+      chunk.times(chunkPos) == rawTime && chunk.seqs(chunkPos) > rawSeq)
+    if (useChunk) {
+      if (chunk.times(chunkPos) < begin) false else {
+        time = chunk.times(chunkPos)
+        seq = chunk.seqs(chunkPos)
+        rawValue = null
+        sampleChunk = chunk
+        sampleIndex = chunkPos
+        chunkPos -= 1
+        true
+      }
+    } else if (rawTime < 0 || rawTime < begin) false else {
+      if (chunkPos >= 0 && chunk.times(chunkPos) == rawTime && chunk.seqs(chunkPos) == rawSeq) {
+        // a single entry that was written after the chunk overrides its sample
+        chunkPos -= 1
+      }
+      time = rawTime
+      seq = rawSeq
+      rawValue = rawData
+      sampleChunk = null
+      it.next
+      true
+    }
+  }
+
+  /**
+   * Returns 'J' if the current value is an integral number, 'D' if it is a floating point number or 0 otherwise.
+   */
+  def numericType: Char = if (rawValue != null) Values.numericType(rawValue, 0) else sampleChunk.kind match {
+    case 'J' | 'I' => 'J'
+    case _ => 'D'
+  }
+
+  def longValue: Long = if (rawValue != null) {
+    if (Values.numericType(rawValue, 0) == 'J') Values.decodeLong(rawValue, 0) else Values.decodeDouble(rawValue, 0).toLong
+  } else sampleChunk.kind match {
+    case 'J' | 'I' => sampleChunk.values(sampleIndex)
+    case _ => java.lang.Double.longBitsToDouble(sampleChunk.values(sampleIndex)).toLong
+  }
+
+  def doubleValue: Double = if (rawValue != null) {
+    if (Values.numericType(rawValue, 0) == 'D') Values.decodeDouble(rawValue, 0) else Values.decodeLong(rawValue, 0).toDouble
+  } else sampleChunk.kind match {
+    case 'J' | 'I' => sampleChunk.values(sampleIndex).toDouble
+    case _ => java.lang.Double.longBitsToDouble(sampleChunk.values(sampleIndex))
+  }
+
+  /**
+   * Decodes the current value.
+   */
+  def value: Any = if (rawValue != null) store.decode(rawValue) else sampleChunk.value(sampleIndex)
+}
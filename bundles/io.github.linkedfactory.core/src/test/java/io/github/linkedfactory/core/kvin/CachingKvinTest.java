@@ -0,0 +1,121 @@
+package io.github.linkedfactory.core.kvin;
+
+import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingKvinTest {
+	static final URI item1 = URIs.createURI("http://example.org/item1");
+	static final URI item2 = URIs.createURI("http://example.org/item2");
+	static final URI property = URIs.createURI("http://example.org/p");
+
+	File tempDir;
+	Kvin store;
+	CachingKvin kvin;
+
+	@Before
+	public void setup() throws IOException {
+		tempDir = Files.createTempDirectory("cachingKvin").toFile();
+		store = new KvinLevelDb(tempDir);
+		kvin = new CachingKvin(store, 10000, CachingKvin.DEFAULT_EXPIRE_AFTER);
+		for (URI item : List.of(item1, item2)) {
+			for (int time = 1000; time <= 5000; time += 1000) {
+				store.put(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, time, (double) time));
+			}
+		}
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		kvin.close();
+		store.close();
+		FileUtils.deleteDirectory(tempDir);
+	}
+
+	List<KvinTuple> fetch(List<URI> items, long end, long begin) {
+		return kvin.fetch(items, List.of(property), Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, null).toList();
+	}
+
+	@Test
+	public void testClosedRange() {
+		List<KvinTuple> values = fetch(List.of(item1, item2), 3000, 1000);
+		assertEquals(6, values.size());
+		assertEquals(0, kvin.getStats().hitCount());
+		assertEquals(values, fetch(List.of(item1, item2), 3000, 1000));
+		assertEquals(2, kvin.getStats().hitCount());
+
+		// only the missing item is fetched from the store
+		assertEquals(4, fetch(List.of(item1), 5000, 2000).size());
+		assertEquals(8, fetch(List.of(item1, item2), 5000, 2000).size());
+		assertEquals(3, kvin.getStats().hitCount());
+
+		// properties are cached independently of the requested properties
+		assertEquals(5, kvin.fetch(item1, null, Kvin.DEFAULT_CONTEXT, 5000, 0, 0, 0, null).toList().size());
+		assertEquals(5, kvin.fetch(item1, null, Kvin.DEFAULT_CONTEXT, 5000, 0, 0, 0, null).toList().size());
+		assertEquals(4, kvin.getStats().hitCount());
+	}
+
+	@Test
+	public void testRequestOrder() {
+		URI item3 = URIs.createURI("http://example.org/item3");
+		store.put(new KvinTuple(item3, property, Kvin.DEFAULT_CONTEXT, 2000, 2.0));
+		List<URI> items = List.of(item1, item2, item3);
+		List<KvinTuple> expected = store.fetch(items, List.of(property), Kvin.DEFAULT_CONTEXT, 3000, 1000, 0, 0, null).toList();
+		// only the item in the middle is cached
+		fetch(List.of(item2), 3000, 1000);
+		assertEquals(expected, fetch(items, 3000, 1000));
+		assertEquals(1, kvin.getStats().hitCount());
+		// cached and loaded values are interleaved
+		kvin.invalidate(item1, null, Kvin.DEFAULT_CONTEXT, 0, KvinTuple.TIME_MAX_VALUE);
+		assertEquals(expected, fetch(items, 3000, 1000));
+		assertEquals(expected, fetch(items, 3000, 1000));
+	}
+
+	@Test
+	public void testInvalidation() {
+		assertEquals(3, fetch(List.of(item1), 3000, 1000).size());
+		// values outside of the time range do not invalidate the results
+		store.put(new KvinTuple(item1, property, Kvin.DEFAULT_CONTEXT, 6000, 6.0));
+		assertEquals(3, fetch(List.of(item1), 3000, 1000).size());
+		assertEquals(1, kvin.getStats().hitCount());
+
+		store.put(new KvinTuple(item1, property, Kvin.DEFAULT_CONTEXT, 2500, 2.5));
+		assertEquals(4, fetch(List.of(item1), 3000, 1000).size());
+		assertEquals(1, kvin.getStats().hitCount());
+
+		kvin.delete(item1, property, Kvin.DEFAULT_CONTEXT, 2500, 2500);
+		assertEquals(3, fetch(List.of(item1), 3000, 1000).size());
+		assertEquals(1, kvin.getStats().hitCount());
+	}
+
+	@Test
+	public void testUncachedRequests() {
+		// requests for current values are not cached
+		assertEquals(5, kvin.fetch(item1, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(5, kvin.fetch(item1, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(0, kvin.getStats().requestCount());
+
+		// values of incomplete iterations are not cached
+		IExtendedIterator<KvinTuple> it = kvin.fetch(List.of(item1), List.of(property), Kvin.DEFAULT_CONTEXT,
+				3000, 1000, 0, 0, null);
+		assertTrue(it.hasNext());
+		it.next();
+		it.close();
+		assertEquals(3, fetch(List.of(item1), 3000, 1000).size());
+		assertEquals(0, kvin.getStats().hitCount());
+		assertTrue(kvin.loads.isEmpty());
+	}
+}
@@ -0,0 +1,63 @@
+package io.github.linkedfactory.core.kvin;
+
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ValueFilterTest {
+	@Test
+	public void testRange() {
+		ValueFilter filter = ValueFilter.greaterThan(80).and(ValueFilter.atMost(90.5));
+		assertFalse(filter.test(80L));
+		assertTrue(filter.test(81));
+		assertTrue(filter.test(90.5));
+		assertFalse(filter.test(90.6f));
+		assertTrue(filter.test(new BigDecimal("85.25")));
+		// non-numeric values are rejected
+		assertFalse(filter.test("85"));
+		assertFalse(filter.test(Double.NaN));
+
+		// the tighter bound wins
+		ValueFilter tighter = filter.and(ValueFilter.atLeast(80)).and(ValueFilter.lessThan(90.5));
+		assertFalse(tighter.test(80));
+		assertFalse(tighter.test(90.5));
+		assertEquals(ValueFilter.equalTo(5), ValueFilter.atLeast(5).and(ValueFilter.atMost(5)));
+	}
+
+	@Test
+	public void testIntegralBounds() {
+		// integral values are compared exactly
+		long large = Long.MAX_VALUE - 1;
+		assertTrue(ValueFilter.greaterThan(large - 1).test(large));
+		assertFalse(ValueFilter.greaterThan(large).test(large));
+
+		ValueFilter times = ValueFilter.greaterThan(1000.5).and(ValueFilter.lessThan(2000));
+		assertEquals(1001, times.getMinLong());
+		assertEquals(1999, times.getMaxLong());
+		assertEquals(Long.MIN_VALUE, ValueFilter.atMost(5).getMinLong());
+		assertEquals(Long.MAX_VALUE, ValueFilter.atLeast(5).getMaxLong());
+	}
+
+	@Test
+	public void testCursor() {
+		URI item = URIs.createURI("item:1"), property = URIs.createURI("property:1");
+		List<KvinTuple> tuples = List.of(
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 40, 5L),
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 30, "text"),
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 20, 15.0),
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 10, 10));
+		KvinCursor cursor = ValueFilter.atLeast(10).filter(KvinCursor.of(WrappedIterator.create(tuples.iterator())));
+		assertEquals(List.of(15.0, 10), KvinCursor.toTuples(cursor, 0).mapWith(t -> t.value).toList());
+
+		cursor = ValueFilter.atLeast(10).filter(KvinCursor.of(WrappedIterator.create(tuples.iterator())));
+		assertEquals(List.of(15.0), KvinCursor.toTuples(cursor, 1).mapWith(t -> t.value).toList());
+	}
+}
@@ -0,0 +1,97 @@
+package io.github.linkedfactory.core.kvin.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientPoolTest {
+	HttpServer server;
+	HttpClientPool pool;
+	ExecutorService executor;
+
+	@Before
+	public void setup() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		pool = new HttpClientPool(10, 4, 5000, 5000, 5000);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		pool.close();
+		server.stop(0);
+	}
+
+	@Test(timeout = 20000)
+	public void testLimitsAndMetrics() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		server.createContext("/", exchange -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// the test server does not reliably support reusing connections
+			exchange.getResponseHeaders().add("Connection", "close");
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		String url = "http://localhost:" + server.getAddress().getPort() + "/";
+		// clients share the connections of the pool
+		List<Future<Integer>> requests = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			CloseableHttpClient client = pool.createClient();
+			requests.add(executor.submit(() -> {
+				try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+					EntityUtils.consume(response.getEntity());
+					return response.getStatusLine().getStatusCode();
+				} finally {
+					client.close();
+				}
+			}));
+		}
+		while (pool.getInFlightRequests() < 4 || pool.getPendingRequests() < 2) {
+			Thread.sleep(10);
+		}
+		// the limit per host is respected
+		assertEquals(4, pool.getInFlightRequests());
+		assertEquals(2, pool.getPendingRequests());
+		assertEquals(4, pool.getStats(new HttpHost("localhost", server.getAddress().getPort())).getLeased());
+		Thread.sleep(50);
+		release.countDown();
+		for (Future<Integer> request : requests) {
+			assertEquals(200, (int) request.get());
+		}
+		assertEquals(0, pool.getInFlightRequests());
+		// connections may be requested multiple times if requests are retried
+		assertTrue(pool.getPoolWaitCount() >= 6);
+		assertTrue(pool.getMaxPoolWaitTime(TimeUnit.MILLISECONDS) >= 50);
+		assertTrue(pool.getPoolWaitTime(TimeUnit.NANOSECONDS) >= pool.getMaxPoolWaitTime(TimeUnit.NANOSECONDS));
+
+		// the limit can be raised for single hosts
+		pool.setMaxConnections(new HttpHost("localhost", server.getAddress().getPort()), 8);
+		assertEquals(8, pool.getStats(new HttpHost("localhost", server.getAddress().getPort())).getMax());
+	}
+}
@@ -0,0 +1,334 @@
+package io.github.linkedfactory.core.kvin.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.util.BinaryFormatWriter;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KvinHttpTest {
+	final URI item = URIs.createURI("http://example.org/item");
+	final URI property = URIs.createURI("http://example.org/property");
+
+	HttpServer server;
+	HttpClientPool pool;
+	KvinHttp kvin;
+
+	@Before
+	public void setup() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		// leaked connections would block the requests as the pool is small
+		pool = new HttpClientPool(2, 2, 5000, 5000, 5000);
+		kvin = new KvinHttp("http://localhost:" + server.getAddress().getPort()) {
+			@Override
+			public CloseableHttpClient getHttpClient() {
+				return pool.createClient();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		kvin.close();
+		pool.close();
+		server.stop(0);
+	}
+
+	@Test(timeout = 20000)
+	public void testStreaming() {
+		CountDownLatch firstReceived = new CountDownLatch(1);
+		AtomicBoolean streamed = new AtomicBoolean();
+		server.createContext("/values", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(("{\"" + item + "\":{\"" + property + "\":[{\"time\":2,\"value\":2}").getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				// the remaining content is sent after the client has received the first value
+				streamed.set(firstReceived.await(10, TimeUnit.SECONDS));
+				out.write(",{\"time\":1,\"value\":1}]}}".getBytes(StandardCharsets.UTF_8));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		kvin.setBinaryFormat(false);
+		IExtendedIterator<KvinTuple> it = kvin.fetch(item, property, Kvin.DEFAULT_CONTEXT, 10);
+		assertTrue(it.hasNext());
+		assertEquals(2L, it.next().time);
+		firstReceived.countDown();
+		assertTrue(it.hasNext());
+		assertEquals(1L, it.next().time);
+		assertFalse(it.hasNext());
+		assertTrue(streamed.get());
+	}
+
+	@Test(timeout = 20000)
+	public void testEarlyClose() {
+		AtomicReference<String> accept = new AtomicReference<>();
+		server.createContext("/values", exchange -> {
+			accept.set(exchange.getRequestHeaders().getFirst("Accept"));
+			exchange.getResponseHeaders().add("Content-Type", BinaryFormatWriter.MIME_TYPE);
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = exchange.getResponseBody(); BinaryFormatWriter writer = new BinaryFormatWriter(out)) {
+				for (int i = 100000; i > 0; i--) {
+					writer.writeTuple(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, i, (double) i));
+				}
+			} catch (IOException e) {
+				// the client has aborted the request
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			IExtendedIterator<KvinTuple> it = kvin.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0);
+			assertTrue(it.hasNext());
+			assertEquals(100000L, it.next().time);
+			it.close();
+		}
+		assertTrue(accept.get().startsWith(BinaryFormatWriter.MIME_TYPE));
+		assertEquals(100000, kvin.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+	}
+
+	@Test(timeout = 20000)
+	public void testPropertiesAndDescendants() {
+		String json = "[{\"@id\":\"http://example.org/a\"},{\"@id\":\"http://example.org/b\"}]";
+		server.createContext("/", exchange -> respond(exchange, json));
+		List<URI> expected = List.of(URIs.createURI("http://example.org/a"), URIs.createURI("http://example.org/b"));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(expected, kvin.properties(item, Kvin.DEFAULT_CONTEXT).toList());
+			assertEquals(expected, kvin.descendants(item, Kvin.DEFAULT_CONTEXT).toList());
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testCompressedEarlyClose() {
+		server.createContext("/values", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", BinaryFormatWriter.MIME_TYPE);
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+			     BinaryFormatWriter writer = new BinaryFormatWriter(out)) {
+				for (int i = 100000; i > 0; i--) {
+					writer.writeTuple(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, i, (double) i));
+				}
+			} catch (IOException e) {
+				// the client has aborted the request
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			IExtendedIterator<KvinTuple> it = kvin.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0);
+			assertTrue(it.hasNext());
+			assertEquals(100000L, it.next().time);
+			it.close();
+		}
+		assertEquals(100000, kvin.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryInBody() {
+		List<URI> items = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			items.add(URIs.createURI("http://example.org/item" + i));
+		}
+		AtomicInteger requests = new AtomicInteger();
+		server.createContext("/values", exchange -> {
+			requests.incrementAndGet();
+			assertEquals("POST", exchange.getRequestMethod());
+			assertEquals(ValuesQuery.MIME_TYPE, exchange.getRequestHeaders().getFirst("Content-Type"));
+			// other parameters are sent within the URL
+			assertEquals("limit=1", exchange.getRequestURI().getRawQuery());
+			ValuesQuery query = ValuesQuery.read(exchange.getRequestBody());
+			assertEquals(List.of(property), query.getProperties());
+			respondValues(exchange, query.getItems());
+		});
+		List<KvinTuple> values = kvin.fetch(items, List.of(property), null, KvinTuple.TIME_MAX_VALUE, 0, 1, 0, null).toList();
+		assertEquals(1, requests.get());
+		assertEquals(items, values.stream().map(t -> t.item).collect(Collectors.toList()));
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryFallback() {
+		List<URI> items = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			items.add(URIs.createURI("http://example.org/item" + i));
+		}
+		List<String> contentTypes = new ArrayList<>();
+		server.createContext("/values", exchange -> {
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			contentTypes.add(contentType);
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			if (!contentType.startsWith("application/x-www-form-urlencoded")) {
+				// the endpoint does not support queries within the body
+				exchange.sendResponseHeaders(415, -1);
+				exchange.close();
+				return;
+			}
+			List<URI> requested = URLEncodedUtils.parse(body, StandardCharsets.UTF_8).stream()
+					.filter(p -> p.getName().equals("item"))
+					.flatMap(p -> Arrays.stream(p.getValue().split(" ")))
+					.map(URIs::createURI).collect(Collectors.toList());
+			respondValues(exchange, requested);
+		});
+		for (int i = 0; i < 2; i++) {
+			assertEquals(items.size(), kvin.fetch(items, List.of(property), null, KvinTuple.TIME_MAX_VALUE, 0, 1, 0, null).toList().size());
+		}
+		// the endpoint is only queried once with a query body
+		assertEquals(List.of(ValuesQuery.MIME_TYPE, "application/x-www-form-urlencoded; charset=UTF-8",
+				"application/x-www-form-urlencoded; charset=UTF-8"), contentTypes);
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryBadRequest() {
+		List<URI> items = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			items.add(URIs.createURI("http://example.org/item" + i));
+		}
+		List<String> contentTypes = new ArrayList<>();
+		server.createContext("/values", exchange -> {
+			contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+			exchange.getRequestBody().readAllBytes();
+			// errors of single queries do not disable queries within the body
+			respond(exchange, 400, "{\"error\":\"invalid query\"}");
+		});
+		for (int i = 0; i < 2; i++) {
+			assertFalse(kvin.fetch(items, List.of(property), null, KvinTuple.TIME_MAX_VALUE, 0, 1, 0, null).hasNext());
+		}
+		assertEquals(List.of(ValuesQuery.MIME_TYPE, ValuesQuery.MIME_TYPE), contentTypes);
+	}
+
+	@Test(timeout = 20000)
+	public void testPutFallback() {
+		List<String> contentTypes = new ArrayList<>();
+		server.createContext("/values", exchange -> {
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			contentTypes.add(contentType);
+			exchange.getRequestBody().readAllBytes();
+			// the endpoint only accepts JSON
+			exchange.sendResponseHeaders(contentType.startsWith("application/json") ? 200 : 415, -1);
+			exchange.close();
+		});
+		for (int i = 0; i < 2; i++) {
+			kvin.put(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, i, (double) i));
+		}
+		// binary values are only sent once
+		assertEquals(3, contentTypes.size());
+		assertEquals(BinaryFormatWriter.MIME_TYPE, contentTypes.get(0));
+		assertTrue(contentTypes.subList(1, 3).stream().allMatch(t -> t.startsWith("application/json")));
+	}
+
+	@Test(timeout = 20000)
+	public void testPutBadRequest() {
+		List<String> contentTypes = new ArrayList<>();
+		server.createContext("/values", exchange -> {
+			contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+			exchange.getRequestBody().readAllBytes();
+			// invalid data or store errors are reported as bad request
+			respond(exchange, 400, "{\"msg\":\"invalid data\"}");
+		});
+		for (int i = 0; i < 2; i++) {
+			try {
+				kvin.put(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, i, (double) i));
+				fail("Failed writes must not be ignored");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+		// the binary format is neither disabled nor are the values sent again
+		assertEquals(List.of(BinaryFormatWriter.MIME_TYPE, BinaryFormatWriter.MIME_TYPE), contentTypes);
+	}
+
+	@Test(timeout = 20000)
+	public void testPutFallbackIterator() {
+		List<String> contentTypes = new ArrayList<>();
+		server.createContext("/values", exchange -> {
+			String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+			contentTypes.add(contentType);
+			exchange.getRequestBody().readAllBytes();
+			exchange.sendResponseHeaders(contentType.startsWith("application/json") ? 200 : 415, -1);
+			exchange.close();
+		});
+		List<KvinTuple> tuples = List.of(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1, 1.0));
+		try {
+			// a one-shot source can not be sent again as JSON
+			kvin.put(WrappedIterator.create(tuples.iterator()));
+			fail("Values of a consumed iterator must not be lost silently");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		// further values are sent as JSON
+		kvin.put(WrappedIterator.create(tuples.iterator()));
+		assertEquals(2, contentTypes.size());
+		assertTrue(contentTypes.get(1).startsWith("application/json"));
+	}
+
+	@Test(timeout = 20000)
+	public void testPutFailure() {
+		server.createContext("/values", exchange -> {
+			exchange.getRequestBody().readAllBytes();
+			exchange.sendResponseHeaders(500, -1);
+			exchange.close();
+		});
+		for (boolean binary : List.of(true, false)) {
+			kvin.setBinaryFormat(binary);
+			try {
+				kvin.put(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1, 1.0));
+				fail("Failed writes must not be ignored");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+
+	void respondValues(HttpExchange exchange, List<URI> items) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", BinaryFormatWriter.MIME_TYPE);
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody(); BinaryFormatWriter writer = new BinaryFormatWriter(out)) {
+			for (URI item : items) {
+				writer.writeTuple(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1, 1.0));
+			}
+		}
+	}
+
+	void respond(HttpExchange exchange, String content) throws IOException {
+		respond(exchange, 200, content);
+	}
+
+	void respond(HttpExchange exchange, int status, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
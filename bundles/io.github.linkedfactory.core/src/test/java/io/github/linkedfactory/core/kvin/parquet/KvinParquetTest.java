@@ -3,17 +3,29 @@ package io.github.linkedfactory.core.kvin.parquet;
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.KvinTuple;
 import io.github.linkedfactory.core.kvin.Record;
+import io.github.linkedfactory.core.kvin.ValueFilter;
+import io.github.linkedfactory.core.kvin.parquet.records.KvinRecord;
+import io.github.linkedfactory.core.kvin.util.AggregatingIterator;
 import io.github.linkedfactory.core.kvin.util.KvinTupleGenerator;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.commons.iterator.IExtendedIterator;
 import net.enilink.komma.core.URI;
 import net.enilink.komma.core.URIs;
 import org.apache.commons.io.FileUtils;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
 import org.junit.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -102,6 +114,19 @@ public class KvinParquetTest {
 		tuples.close();
 	}
 
+	@Test
+	public void shouldApproximateSize() {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/10");
+		URI property = URIs.createURI("http://example.org/1");
+		long size = kvinParquet.approximateSize(item, property, Kvin.DEFAULT_CONTEXT, KvinTuple.TIME_MAX_VALUE, 0);
+		// the estimate is based on the statistics of the row groups that contain the series with 10 values
+		assertTrue(size > 0 && size < 100);
+		assertTrue(kvinParquet.approximateSize(item, null, Kvin.DEFAULT_CONTEXT, KvinTuple.TIME_MAX_VALUE, 0) > size);
+		assertEquals(0, kvinParquet.approximateSize(item, property, Kvin.DEFAULT_CONTEXT, startTime - 1, 0));
+		assertEquals(0, kvinParquet.approximateSize(URIs.createURI("http://example.org/unknown"), property,
+				Kvin.DEFAULT_CONTEXT, KvinTuple.TIME_MAX_VALUE, 0));
+	}
+
 	@Test
 	public void shouldDoFetchWithLimit() {
 		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/3");
@@ -139,6 +164,25 @@ public class KvinParquetTest {
 		assertEquals(1, dataFiles.length);
 	}
 
+	@Test
+	public void shouldCompactInBackground() throws Exception {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/existing-week/1");
+		URI property = URIs.createURI("http://example.org/1");
+		kvinParquet.put(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, startTime + 1, 1.0));
+		File nonSeqFolder = getNonSeqInsertFolder();
+		assertEquals(3, nonSeqFolder.listFiles((file, s) -> s.endsWith(".parquet")).length);
+		List<KvinTuple> expected = kvinParquet.fetch(item, null, Kvin.DEFAULT_CONTEXT, 0).toList();
+
+		try (CompactionScheduler scheduler = new CompactionScheduler(kvinParquet, 2, 100 * 1024 * 1024)) {
+			scheduler.requestCompaction().get();
+		}
+		assertEquals(1, nonSeqFolder.listFiles((file, s) -> s.endsWith(".parquet")).length);
+		assertFalse(new File(tempDir, ".compaction").exists());
+		assertEquals(expected.size(), kvinParquet.fetch(item, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(100, kvinParquet.fetch(URIs.createURI("http://localhost:8080/linkedfactory/demofactory/1"),
+				null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+	}
+
 	@Test
 	public void shouldFetchProperties() {
 		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/1");
@@ -148,6 +192,271 @@ public class KvinParquetTest {
 		properties.close();
 	}
 
+	@Test
+	public void shouldFetchInParallel() {
+		List<URI> items = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			items.add(URIs.createURI("http://localhost:8080/linkedfactory/demofactory/" + i));
+			items.add(URIs.createURI("http://localhost:8080/linkedfactory/demofactory/new-week/" + i));
+			items.add(URIs.createURI("http://localhost:8080/linkedfactory/demofactory/existing-week/" + i));
+		}
+		List<KvinTuple> expected = kvinParquet.fetch(items, Collections.emptyList(), Kvin.DEFAULT_CONTEXT,
+				KvinTuple.TIME_MAX_VALUE, 0, 0, 0, null).toList();
+		assertEquals(15 * 100, expected.size());
+
+		kvinParquet.setParallelFetch(new ParallelFetch(2, 2, 10));
+		List<KvinTuple> result = kvinParquet.fetch(items, Collections.emptyList(), Kvin.DEFAULT_CONTEXT,
+				KvinTuple.TIME_MAX_VALUE, 0, 0, 0, null).toList();
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); i++) {
+			KvinTuple e = expected.get(i), r = result.get(i);
+			assertTrue(e.item.equals(r.item) && e.property.equals(r.property) && e.time == r.time &&
+					e.seqNr == r.seqNr && Objects.deepEquals(e.value, r.value));
+		}
+
+		URI property = URIs.createURI("http://example.org/1");
+		assertEquals(3, kvinParquet.fetch(items.get(2), property, Kvin.DEFAULT_CONTEXT, 3).toList().size());
+	}
+
+	@Test
+	public void shouldFetchDescendants() {
+		URI root = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/new-week/");
+		List<URI> descendants = kvinParquet.descendants(root, null).toList();
+		assertEquals(10, descendants.size());
+		assertTrue(descendants.contains(URIs.createURI(root + "1")));
+		assertEquals(3, kvinParquet.descendants(root, null, 3).toList().size());
+		assertEquals(0, kvinParquet.descendants(URIs.createURI("http://localhost:8080/unknown/"), null).toList().size());
+
+		// the index is extended with new items
+		kvinParquet.put(new KvinTuple(URIs.createURI(root + "added"), URIs.createURI("http://example.org/1"),
+				Kvin.DEFAULT_CONTEXT, startTime, 1.0));
+		assertEquals(11, kvinParquet.descendants(root, null).toList().size());
+	}
+
+	@Test
+	public void shouldDeleteValues() throws IOException {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/2");
+		URI otherItem = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/3");
+		URI property = URIs.createURI("http://example.org/1");
+		List<KvinTuple> values = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList();
+		assertEquals(10, values.size());
+
+		long t1 = values.get(2).time, t2 = values.get(5).time;
+		long end = Math.max(t1, t2), begin = Math.min(t1, t2);
+		assertEquals(4, kvinParquet.delete(item, property, Kvin.DEFAULT_CONTEXT, end, begin));
+		List<KvinTuple> remaining = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList();
+		assertEquals(6, remaining.size());
+		assertTrue(remaining.stream().noneMatch(t -> t.time >= begin && t.time <= end));
+		assertEquals(0, kvinParquet.delete(item, property, Kvin.DEFAULT_CONTEXT, end, begin));
+		assertEquals(96, kvinParquet.fetch(item, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+
+		URI root = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/");
+		int descendantCount = kvinParquet.descendants(root, null).toList().size();
+		assertTrue(kvinParquet.delete(otherItem, Kvin.DEFAULT_CONTEXT));
+		assertFalse(kvinParquet.delete(otherItem, Kvin.DEFAULT_CONTEXT));
+		assertEquals(0, kvinParquet.fetch(otherItem, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(0, kvinParquet.properties(otherItem, null).toList().size());
+		assertEquals(descendantCount - 1, kvinParquet.descendants(root, null).toList().size());
+
+		// deletions are applied to the data files
+		new Compactor(kvinParquet).execute();
+		assertEquals(6, kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(0, kvinParquet.fetch(otherItem, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(descendantCount - 1, kvinParquet.descendants(root, null).toList().size());
+		assertEquals(100, kvinParquet.fetch(URIs.createURI(root + "4"), null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+
+		// values that are added after the deletion are visible
+		kvinParquet.put(new KvinTuple(otherItem, property, Kvin.DEFAULT_CONTEXT, startTime, 1.0));
+		assertEquals(1, kvinParquet.fetch(otherItem, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(descendantCount, kvinParquet.descendants(root, null).toList().size());
+	}
+
+	@Test
+	public void shouldNotRestoreValuesDeletedDuringCompaction() throws Exception {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/2");
+		URI property = URIs.createURI("http://example.org/1");
+		URI addedItem = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/added");
+		Compactor compactor = new Compactor(kvinParquet, 1, 1);
+		Compactor.Plan plan = compactor.plan();
+		assertFalse(plan.getTasks().isEmpty());
+
+		// delete and archive after the plan has been created
+		assertEquals(10, kvinParquet.delete(item, property, Kvin.DEFAULT_CONTEXT, KvinTuple.TIME_MAX_VALUE, 0));
+		kvinParquet.put(new KvinTuple(addedItem, property, Kvin.DEFAULT_CONTEXT, startTime + 1, 1.0));
+		for (Compactor.FolderTask task : plan.getTasks()) {
+			compactor.compactDataFiles(task.getFolder());
+		}
+		compactor.applyTombstones(plan);
+		assertEquals(0, kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(1, kvinParquet.fetch(addedItem, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+
+		// delete and archive while compactions are running in the background
+		try (CompactionScheduler scheduler = new CompactionScheduler(kvinParquet, 2, 0)) {
+			List<Future<?>> compactions = new ArrayList<>();
+			for (int i = 3; i <= 12; i++) {
+				compactions.add(scheduler.requestCompaction());
+				URI deletedItem = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/" + i);
+				assertTrue(kvinParquet.delete(deletedItem, Kvin.DEFAULT_CONTEXT));
+				kvinParquet.put(new KvinTuple(addedItem, property, Kvin.DEFAULT_CONTEXT, startTime + i, 1.0));
+			}
+			for (Future<?> compaction : compactions) {
+				compaction.get();
+			}
+			scheduler.requestCompaction().get();
+		}
+		for (int i = 3; i <= 12; i++) {
+			URI deletedItem = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/" + i);
+			assertEquals(0, kvinParquet.fetch(deletedItem, null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		}
+		assertEquals(11, kvinParquet.fetch(addedItem, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(100, kvinParquet.fetch(URIs.createURI("http://localhost:8080/linkedfactory/demofactory/13"),
+				null, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+	}
+
+	@Test
+	public void shouldSkipFilesWithBloomFilter() throws IOException {
+		URI first = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/1");
+		URI middle = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/250");
+		URI last = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/500");
+		URI property = URIs.createURI("http://example.org/1");
+		// add a file whose item id range includes the middle item
+		kvinParquet.put(new KvinTuple(first, property, Kvin.DEFAULT_CONTEXT, startTime + 1, 1.0),
+				new KvinTuple(last, property, Kvin.DEFAULT_CONTEXT, startTime + 1, 2.0));
+
+		File[] dataFiles = getNonSeqInsertFolder().listFiles((file, s) -> s.startsWith("data__3"));
+		assertEquals(1, dataFiles.length);
+		KvinParquet.InputFileInfo fileInfo = kvinParquet.getFile(new org.apache.hadoop.fs.Path(dataFiles[0].toString()));
+		long firstId = kvinParquet.getIdMappings(first, null, null).itemId;
+		long middleId = kvinParquet.getIdMappings(middle, null, null).itemId;
+		assertTrue(kvinParquet.bloomFilterStore.mightContain(fileInfo, new long[]{firstId}));
+		assertFalse(kvinParquet.bloomFilterStore.mightContain(fileInfo, new long[]{middleId}));
+
+		assertEquals(11, kvinParquet.fetch(first, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+		assertEquals(10, kvinParquet.fetch(middle, property, Kvin.DEFAULT_CONTEXT, 0).toList().size());
+	}
+
+	@Test
+	public void shouldAggregateFromColumns() {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/aggregated");
+		URI property = URIs.createURI("http://example.org/numeric");
+		URI otherProperty = URIs.createURI("http://example.org/text");
+		List<KvinTuple> tuples = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			tuples.add(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, startTime + i * 10, i % 2 == 0 ? i : i + 0.5));
+			tuples.add(new KvinTuple(item, otherProperty, Kvin.DEFAULT_CONTEXT, startTime + i * 10, "value " + i));
+		}
+		kvinParquet.put(tuples);
+
+		long end = startTime + 1000, begin = startTime;
+		List<KvinTuple> sums = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 0, 100, "sum").toList();
+		assertEquals(10, sums.size());
+		// values are returned in descending order of time
+		assertEquals(startTime + 900 - (startTime + 900) % 100, sums.get(0).time);
+		// sum of 90..99 and 5 * 0.5 for the odd values
+		assertEquals(945 + 2.5, ((Number) sums.get(0).value).doubleValue(), 1e-9);
+		List<KvinTuple> counts = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, "count").toList();
+		assertEquals(1, counts.size());
+		assertEquals(100L, counts.get(0).value);
+		assertEquals(99.5, ((Number) kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, "max")
+				.toList().get(0).value).doubleValue(), 0.0);
+
+		// non-numeric values use the row-based read path
+		List<KvinTuple> textCounts = kvinParquet.fetch(item, otherProperty, Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, "count")
+				.toList();
+		assertEquals(1, textCounts.size());
+		assertEquals(100L, textCounts.get(0).value);
+	}
+
+	@Test
+	public void shouldOmitDuplicatesAcrossAggregationBatches() throws IOException {
+		org.apache.hadoop.fs.Path file = new org.apache.hadoop.fs.Path(new File(tempDir, "duplicates.parquet").toString());
+		int rows = VectorizedAggregator.BATCH_SIZE + 10;
+		try (ParquetWriter<KvinRecord> writer = ParquetHelpers.getKvinRecordWriter(file)) {
+			for (int i = 0; i < rows; i++) {
+				KvinRecord record = new KvinRecord();
+				record.itemId = 1L;
+				record.contextId = 1L;
+				record.propertyId = 1L;
+				// the last row of the first batch is repeated as first row of the second batch
+				record.time = rows - (i == VectorizedAggregator.BATCH_SIZE ? i - 1 : i);
+				record.value = 1L;
+				writer.write(record);
+			}
+		}
+
+		VectorizedAggregator aggregator = new VectorizedAggregator(new long[]{1L}, null, 1L, 0, Long.MAX_VALUE,
+				Long.MAX_VALUE, Tombstones.EMPTY);
+		try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, ParquetHelpers.configuration))) {
+			aggregator.addFile(reader, 0L);
+		}
+		assertEquals(rows - 1, aggregator.results.get(1L).get(1L).firstEntry().getValue().count);
+	}
+
+	@Test
+	public void shouldFilterValues() {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/filtered");
+		URI property = URIs.createURI("http://example.org/numeric");
+		List<KvinTuple> tuples = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			tuples.add(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, startTime + i * 10, i % 2 == 0 ? i : i + 0.5));
+		}
+		tuples.add(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, startTime + 1000, "text"));
+		kvinParquet.put(tuples);
+
+		long end = startTime + 1000, begin = startTime;
+		ValueFilter filter = ValueFilter.greaterThan(80).and(ValueFilter.atMost(90));
+		List<KvinTuple> filtered = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, null,
+				filter).toList();
+		assertEquals(10, filtered.size());
+		assertTrue(filtered.stream().allMatch(t -> filter.test(t.value)));
+
+		// the limit is applied to the filtered values
+		List<KvinTuple> limited = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 2, 0, null,
+				filter).toList();
+		assertEquals(2, limited.size());
+		assertTrue(limited.stream().allMatch(t -> filter.test(t.value)));
+
+		List<KvinTuple> max = kvinParquet.fetch(item, property, Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, "max",
+				ValueFilter.lessThan(50)).toList();
+		assertEquals(1, max.size());
+		assertEquals(49.5, ((Number) max.get(0).value).doubleValue(), 0.0);
+	}
+
+	@Test
+	public void shouldAggregateLikeRowPath() {
+		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/1");
+		long end = startTime + 1000, begin = startTime;
+		List<List<URI>> propertyLists = new ArrayList<>();
+		propertyLists.add(List.of());
+		// single properties with numeric values are aggregated from the columns
+		kvinParquet.properties(item, Kvin.DEFAULT_CONTEXT).forEach(p -> propertyLists.add(List.of(p)));
+		for (List<URI> properties : propertyLists) {
+			for (String op : List.of("sum", "min", "max", "avg", "count")) {
+				List<KvinTuple> aggregated = kvinParquet.fetch(List.of(item), properties, Kvin.DEFAULT_CONTEXT,
+						end, begin, 0, 30, op).toList();
+				List<KvinTuple> expected = AggregatingIterator.create(kvinParquet.fetch(List.of(item), properties,
+						Kvin.DEFAULT_CONTEXT, end, begin, 0, 0, null), 30, op, 0).toList();
+				// the row-based path returns the values in the order of the data files
+				Comparator<KvinTuple> order = Comparator.comparing((KvinTuple t) -> t.property.toString())
+						.thenComparing(t -> t.time);
+				expected.sort(order);
+				aggregated.sort(order);
+				assertEquals(expected.size(), aggregated.size());
+				for (int i = 0; i < expected.size(); i++) {
+					KvinTuple e = expected.get(i), a = aggregated.get(i);
+					assertEquals(e.property, a.property);
+					assertEquals(e.time, a.time);
+					if (e.value instanceof Number) {
+						double ev = ((Number) e.value).doubleValue();
+						assertEquals(ev, ((Number) a.value).doubleValue(), Math.abs(ev) * 1e-6);
+					} else {
+						assertEquals(e.value, a.value);
+					}
+				}
+			}
+		}
+	}
+
 	@Test
 	public void shouldFetchRecord() {
 		URI item = URIs.createURI("http://localhost:8080/linkedfactory/demofactory/1");
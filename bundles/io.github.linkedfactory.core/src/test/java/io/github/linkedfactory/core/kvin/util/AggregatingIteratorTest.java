@@ -0,0 +1,123 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AggregatingIteratorTest {
+	static final URI item = URIs.createURI("http://example.org/item");
+	static final URI p1 = URIs.createURI("http://example.org/p1");
+	static final URI p2 = URIs.createURI("http://example.org/p2");
+
+	List<KvinTuple> tuples(URI property, long... values) {
+		List<KvinTuple> tuples = new ArrayList<>();
+		// tuples are delivered in descending time order by the stores
+		for (int i = values.length - 1; i >= 0; i--) {
+			tuples.add(new KvinTuple(item, property, null, i * 10, (int) values[i]));
+		}
+		return tuples;
+	}
+
+	List<Object> aggregate(List<KvinTuple> tuples, long interval, String op, long limit) {
+		List<Object> values = new ArrayList<>();
+		try (IExtendedIterator<KvinTuple> it = AggregatingIterator.create(tuples.iterator(), interval, op, limit)) {
+			while (it.hasNext()) {
+				values.add(it.next().value);
+			}
+		}
+		return values;
+	}
+
+	@Test
+	public void testOperators() {
+		List<KvinTuple> tuples = tuples(p1, 2, 4, 4, 4, 5, 5, 7, 9);
+		assertEquals(List.of(2), aggregate(tuples, 0, "min", 0));
+		assertEquals(List.of(9), aggregate(tuples, 0, "max", 0));
+		assertEquals(List.of(40L), aggregate(tuples, 0, "sum", 0));
+		assertEquals(List.of(5.0), aggregate(tuples, 0, "avg", 0));
+		assertEquals(List.of(8L), aggregate(tuples, 0, "count", 0));
+		assertEquals(List.of(2), aggregate(tuples, 0, "first", 0));
+		assertEquals(List.of(9), aggregate(tuples, 0, "last", 0));
+		assertEquals(32.0 / 7, (Double) aggregate(tuples, 0, "variance", 0).get(0), 1e-9);
+		assertEquals(Math.sqrt(32.0 / 7), (Double) aggregate(tuples, 0, "stddev", 0).get(0), 1e-9);
+	}
+
+	@Test
+	public void testIntervals() {
+		// times are 0, 10, ..., 50 -> intervals [0, 20), [20, 40), [40, 60)
+		List<KvinTuple> tuples = tuples(p1, 1, 2, 3, 4, 5, 6);
+		assertEquals(List.of(11L, 7L, 3L), aggregate(tuples, 20, "sum", 0));
+		assertEquals(List.of(11L, 7L), aggregate(tuples, 20, "sum", 2));
+	}
+
+	@Test
+	public void testSeries() {
+		List<KvinTuple> tuples = tuples(p1, 1, 2, 3);
+		tuples.addAll(tuples(p2, 4, 5, 6));
+		List<KvinTuple> result = new ArrayList<>();
+		AggregatingIterator.create(tuples.iterator(), 100, "max", 0).forEachRemaining(result::add);
+		assertEquals(2, result.size());
+		assertEquals(p1, result.get(0).property);
+		assertEquals(3, result.get(0).value);
+		assertEquals(p2, result.get(1).property);
+		assertEquals(6, result.get(1).value);
+		// the limit is applied to each series
+		assertEquals(List.of(3, 6), aggregate(tuples, 10, "max", 1));
+	}
+
+	@Test
+	public void testSingleSeriesLimit() {
+		List<KvinTuple> tuples = tuples(p1, 1, 2, 3, 4, 5, 6);
+		Iterator<KvinTuple> base = tuples.iterator();
+		List<Object> values = new ArrayList<>();
+		AggregatingIterator.create(base, 20, "sum", 1, true).forEachRemaining(t -> values.add(t.value));
+		assertEquals(List.of(11L), values);
+		// the remaining values are not read
+		assertTrue(base.hasNext());
+	}
+
+	@Test
+	public void testMixedValues() {
+		Aggregator aggregator = new Aggregator("sum");
+		aggregator.add(0, 1);
+		aggregator.add(1, 2.5);
+		aggregator.add(2, 3L);
+		assertEquals(6.5, aggregator.result());
+
+		aggregator = new Aggregator("min");
+		aggregator.add(0, 3);
+		aggregator.add(1, 2.5);
+		aggregator.add(2, 4L);
+		assertEquals(2.5, aggregator.result());
+
+		aggregator.reset();
+		assertFalse(aggregator.getCount() > 0);
+		aggregator.add(0, Long.MAX_VALUE);
+		aggregator.add(1, -1);
+		assertEquals(-1, aggregator.result());
+
+		aggregator = new Aggregator("sum");
+		aggregator.add(0, Long.MAX_VALUE);
+		aggregator.add(1, 1);
+		assertEquals((double) Long.MAX_VALUE + 1, aggregator.result());
+	}
+
+	@Test
+	public void testInvalidNumber() {
+		List<KvinTuple> tuples = new ArrayList<>();
+		tuples.add(new KvinTuple(item, p1, null, 1, "a"));
+		tuples.add(new KvinTuple(item, p1, null, 0, 1));
+		assertEquals(List.of(0), aggregate(tuples, 0, "avg", 0));
+		assertEquals(List.of("a"), aggregate(tuples, 0, "last", 0));
+	}
+}
@@ -0,0 +1,162 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.DelegatingKvin;
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchWriterTest {
+	final URI item = URIs.createURI("http://example.org/item");
+	final URI property = URIs.createURI("http://example.org/property");
+	final ExecutorService executor = Executors.newCachedThreadPool();
+
+	static class RecordingStore extends DelegatingKvin {
+		final List<List<KvinTuple>> batches = new ArrayList<>();
+		final long delay;
+		final int failAfter;
+
+		RecordingStore(long delay, int failAfter) {
+			super(() -> null);
+			this.delay = delay;
+			this.failAfter = failAfter;
+		}
+
+		@Override
+		public synchronized void put(Iterable<KvinTuple> tuples) {
+			if (batches.size() == failAfter) {
+				throw new IllegalStateException("Store failed");
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			List<KvinTuple> batch = new ArrayList<>();
+			tuples.forEach(batch::add);
+			batches.add(batch);
+		}
+	}
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	List<KvinTuple> tuples(int count) {
+		return IntStream.range(0, count).mapToObj(i -> new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, i, i))
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testBatches() {
+		RecordingStore store = new RecordingStore(0, -1);
+		List<KvinTuple> tuples = tuples(1050);
+		assertEquals(1050, new BatchWriter(store, executor, 100, 2).write(tuples.iterator()));
+		assertEquals(11, store.batches.size());
+		assertEquals(50, store.batches.get(10).size());
+		// the order of the tuples is retained
+		assertEquals(tuples, store.batches.stream().flatMap(List::stream).collect(Collectors.toList()));
+
+		// small inputs are written with a single batch
+		store.batches.clear();
+		assertEquals(20, new BatchWriter(store, executor, 100, 2).write(tuples(20).iterator()));
+		assertEquals(1, store.batches.size());
+	}
+
+	@Test
+	public void testBackPressure() {
+		RecordingStore store = new RecordingStore(5, -1);
+		AtomicInteger maxPending = new AtomicInteger();
+		Iterator<KvinTuple> source = tuples(2000).iterator();
+		AtomicInteger consumed = new AtomicInteger();
+		Iterator<KvinTuple> tuples = new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return source.hasNext();
+			}
+
+			@Override
+			public KvinTuple next() {
+				int written;
+				synchronized (store) {
+					written = store.batches.size() * 10;
+				}
+				maxPending.accumulateAndGet(consumed.incrementAndGet() - written, Math::max);
+				return source.next();
+			}
+		};
+		new BatchWriter(store, executor, 10, 2).write(tuples);
+		assertEquals(200, store.batches.size());
+		// two queued batches, one batch that is written and one batch that is filled
+		assertTrue("Too many pending tuples: " + maxPending.get(), maxPending.get() <= 40);
+	}
+
+	@Test
+	public void testErrors() {
+		RecordingStore store = new RecordingStore(0, 3);
+		AtomicInteger consumed = new AtomicInteger();
+		Iterator<KvinTuple> tuples = tuples(100000).stream().peek(t -> consumed.incrementAndGet()).iterator();
+		try {
+			new BatchWriter(store, executor, 10, 2).write(tuples);
+			fail("Store errors should be rethrown");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(3, store.batches.size());
+		assertTrue(consumed.get() < 100000);
+
+		// errors of the input are propagated
+		Iterator<KvinTuple> source = tuples(1000).iterator();
+		try {
+			new BatchWriter(new RecordingStore(0, -1), executor, 10, 2).write(new Iterator<>() {
+				@Override
+				public boolean hasNext() {
+					return source.hasNext();
+				}
+
+				@Override
+				public KvinTuple next() {
+					KvinTuple tuple = source.next();
+					if (tuple.time == 500) {
+						throw new IllegalArgumentException("Invalid input");
+					}
+					return tuple;
+				}
+			});
+			fail("Input errors should be rethrown");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testExecutors() {
+		// the default executor is independent of other executors
+		RecordingStore store = new RecordingStore(0, -1);
+		assertEquals(1050, new BatchWriter(store, 100, 2).write(tuples(1050).iterator()));
+		assertEquals(11, store.batches.size());
+
+		// the batches are written by the calling thread if the executor rejects the writer
+		store.batches.clear();
+		executor.shutdown();
+		assertEquals(1050, new BatchWriter(store, executor, 100, 2).write(tuples(1050).iterator()));
+		assertEquals(11, store.batches.size());
+		assertEquals(tuples(1050), store.batches.stream().flatMap(List::stream).collect(Collectors.toList()));
+	}
+}
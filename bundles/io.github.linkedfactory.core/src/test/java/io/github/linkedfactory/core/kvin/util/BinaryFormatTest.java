@@ -0,0 +1,131 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.Record;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryFormatTest {
+	final URI item = URIs.createURI("http://example.org/item");
+	final URI property = URIs.createURI("http://example.org/property");
+
+	List<KvinTuple> roundTrip(List<KvinTuple> tuples) throws IOException {
+		byte[] data = BinaryFormatWriter.toBytes(WrappedIterator.create(tuples.iterator()));
+		return new BinaryFormatParser(new ByteArrayInputStream(data)).parse().toList();
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		URI longProperty = URIs.createURI("http://example.org/" + "p".repeat(300));
+		List<KvinTuple> tuples = List.of(
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1000, 2, 42L),
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1000, 1, -1.5),
+				// times that are not ordered
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1200, 0, "text"),
+				new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 0, 0, true),
+				new KvinTuple(item, longProperty, Kvin.DEFAULT_CONTEXT, KvinTuple.TIME_MAX_VALUE, 0,
+						new Record(longProperty, URIs.createURI("http://example.org/other")).append(new Record(property, 7))),
+				new KvinTuple(URIs.createURI("http://example.org/other"), property, Kvin.DEFAULT_CONTEXT, 5, 0, 1.0f));
+		assertEquals(tuples, roundTrip(tuples));
+
+		// arrays do not implement equals
+		Object[] array = { 1, "a", item };
+		KvinTuple tuple = roundTrip(List.of(new KvinTuple(item, property, null, 1, array))).get(0);
+		assertNull(tuple.context);
+		assertArrayEquals(array, (Object[]) tuple.value);
+	}
+
+	@Test
+	public void testBlocks() throws IOException {
+		List<KvinTuple> tuples = new ArrayList<>();
+		for (int p = 0; p < 3; p++) {
+			URI prop = URIs.createURI("http://example.org/p" + p);
+			for (int i = 5000; i > 0; i--) {
+				tuples.add(new KvinTuple(item, prop, Kvin.DEFAULT_CONTEXT, 1700000000000L + i * 1000L, i % 3, (double) i));
+			}
+		}
+		byte[] data = BinaryFormatWriter.toBytes(WrappedIterator.create(tuples.iterator()));
+		// times, sequence numbers and values use about 13 bytes per value
+		assertTrue("Unexpected size: " + data.length, data.length < tuples.size() * 14);
+		assertEquals(tuples, new BinaryFormatParser(new ByteArrayInputStream(data)).parse().toList());
+	}
+
+	@Test
+	public void testInvalidData() throws IOException {
+		byte[] data = BinaryFormatWriter.toBytes(WrappedIterator.create(
+				List.of(new KvinTuple(item, property, null, 1, 1.5), new KvinTuple(item, property, null, 0, 2.5)).iterator()));
+		for (byte[] invalid : List.of(Arrays.copyOf(data, data.length - 3), "{}".getBytes(), new byte[0])) {
+			IExtendedIterator<KvinTuple> it = new BinaryFormatParser(new ByteArrayInputStream(invalid)).parse();
+			try {
+				it.toList();
+				fail("Invalid data should be rejected");
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+
+	static byte[] varint(long value) {
+		byte[] b = new byte[Varint.calcLengthUnsigned(value)];
+		Varint.writeUnsigned(b, 0, value);
+		return b;
+	}
+
+	@Test
+	public void testOversizedFrames() throws IOException {
+		List<byte[]> invalid = new ArrayList<>();
+		// a frame that exceeds the maximum frame size
+		ByteArrayOutputStream frameLength = new ByteArrayOutputStream();
+		frameLength.write(BinaryFormatWriter.HEADER);
+		frameLength.write(BinaryFormatWriter.SERIES_FRAME);
+		frameLength.write(varint(1L << 40));
+		invalid.add(frameLength.toByteArray());
+		// blocks with too many values
+		for (long count : List.of(BinaryFormatWriter.MAX_BLOCK_SIZE + 1L, 1L << 31, 100L)) {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write(varint(0));
+			frame.write(varint(0));
+			frame.write(varint(0));
+			frame.write(varint(count));
+			frame.write(new byte[10]);
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			data.write(BinaryFormatWriter.HEADER);
+			byte[] uri = item.toString().getBytes(StandardCharsets.UTF_8);
+			data.write(BinaryFormatWriter.URI_FRAME);
+			data.write(varint(uri.length));
+			data.write(uri);
+			data.write(BinaryFormatWriter.SERIES_FRAME);
+			data.write(varint(frame.size()));
+			frame.writeTo(data);
+			data.write(BinaryFormatWriter.END);
+			invalid.add(data.toByteArray());
+		}
+		for (byte[] data : invalid) {
+			IExtendedIterator<KvinTuple> it = new BinaryFormatParser(new ByteArrayInputStream(data)).parse();
+			try {
+				it.toList();
+				fail("Oversized frames should be rejected");
+			} catch (RuntimeException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdCacheTest {
+	static byte[] id(int nr) {
+		return new byte[]{(byte) (nr >>> 24), (byte) (nr >>> 16), (byte) (nr >>> 8), (byte) nr};
+	}
+
+	static String uri(int nr) {
+		return "http://example.org/item-" + nr;
+	}
+
+	@Test
+	public void testKeys() {
+		IdCache cache = new IdCache(100);
+		cache.put(1, uri(1), id(1));
+		cache.put(3, uri(1), id(2));
+		cache.put(0, uri(1), uri(2), uri(3), id(3));
+		cache.put(0, uri(3), uri(2), uri(1), id(4));
+
+		assertArrayEquals(id(1), cache.get(1, uri(1)));
+		assertArrayEquals(id(2), cache.get(3, uri(1)));
+		assertArrayEquals(id(3), cache.get(0, uri(1), uri(2), uri(3)));
+		assertArrayEquals(id(4), cache.get(0, uri(3), uri(2), uri(1)));
+		assertNull(cache.get(0, uri(1)));
+		assertNull(cache.get(1, uri(2)));
+
+		// replace existing entry
+		cache.put(1, uri(1), id(5));
+		assertArrayEquals(id(5), cache.get(1, uri(1)));
+		assertEquals(4, cache.size());
+		assertEquals(5, cache.hitCount());
+		assertEquals(2, cache.missCount());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.get(1, uri(1)));
+	}
+
+	@Test
+	public void testEviction() {
+		IdCache cache = new IdCache(5000);
+		Random random = new Random(1337);
+		for (int i = 0; i < 100000; i++) {
+			int nr = random.nextInt(20000);
+			byte[] id = cache.get(1, uri(nr));
+			if (id == null) {
+				cache.put(1, uri(nr), id(nr));
+			} else {
+				assertArrayEquals(id(nr), id);
+			}
+			assertTrue(cache.size() <= cache.capacity());
+		}
+		assertEquals(cache.capacity(), cache.size());
+		assertTrue(cache.evictionCount() > 0);
+	}
+
+	@Test
+	public void testScanResistance() {
+		IdCache cache = new IdCache(2000);
+		// frequently used entries
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 1000; i++) {
+				if (cache.get(1, uri(i)) == null) {
+					cache.put(1, uri(i), id(i));
+				}
+			}
+		}
+		// a scan over many entries that are used only once
+		for (int i = 1000; i < 100000; i++) {
+			cache.put(1, uri(i), id(i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertNotNull("Entry " + i + " should not be evicted", cache.get(1, uri(i)));
+		}
+	}
+}
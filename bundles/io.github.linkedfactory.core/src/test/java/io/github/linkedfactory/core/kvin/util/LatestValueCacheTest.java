@@ -0,0 +1,72 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LatestValueCacheTest {
+	static final URI item = URIs.createURI("http://example.org/item");
+	static final URI property = URIs.createURI("http://example.org/p");
+
+	static KvinTuple tuple(long time, int seqNr, Object value) {
+		return new KvinTuple(item, property, null, time, seqNr, value);
+	}
+
+	@Test
+	public void testUpdates() {
+		LatestValueCache<String> cache = new LatestValueCache<>(100000, String::length);
+		// values are not added by writes
+		cache.update("a", tuple(10, 0, 1.0));
+		assertNull(cache.get("a"));
+
+		cache.load("a", tuple(10, 0, 1.0), cache.stamp("a"));
+		cache.update("a", tuple(5, 0, 2.0));
+		assertEquals(1.0, cache.get("a").value);
+		cache.update("a", tuple(10, 1, 3.0));
+		assertEquals(3.0, cache.get("a").value);
+		cache.update("a", tuple(10, 0, 4.0));
+		assertEquals(3.0, cache.get("a").value);
+		cache.update("a", tuple(20, 0, "text"));
+		assertEquals("text", cache.get("a").value);
+
+		// values that are not cacheable remove the entry
+		cache.update("a", tuple(30, 0, new Object[]{1, 2}));
+		assertNull(cache.get("a"));
+
+		cache.load("b", tuple(10, 0, 1L), cache.stamp("b"));
+		cache.invalidate("b");
+		assertNull(cache.get("b"));
+		assertEquals(4, cache.hitCount());
+		assertEquals(3, cache.missCount());
+	}
+
+	@Test
+	public void testConcurrentWrite() {
+		LatestValueCache<String> cache = new LatestValueCache<>(100000, String::length);
+		long stamp = cache.stamp("a");
+		// the series is written while its latest value is read from the store
+		cache.update("a", tuple(20, 0, 2L));
+		cache.load("a", tuple(10, 0, 1L), stamp);
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void testMemoryBudget() {
+		long maxBytes = 64 * 1024;
+		LatestValueCache<String> cache = new LatestValueCache<>(maxBytes, key -> 40 + 2 * key.length());
+		for (int i = 0; i < 10000; i++) {
+			String key = "series-" + i;
+			cache.load(key, tuple(i, 0, (long) i), cache.stamp(key));
+		}
+		assertTrue(cache.weight() <= maxBytes);
+		assertTrue(cache.size() > 100);
+		assertEquals(10000, cache.size() + cache.evictionCount());
+		// the most recently added values are retained
+		assertEquals(9999L, cache.get("series-9999").value);
+	}
+}
@@ -0,0 +1,143 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.commons.iterator.WrappedIterator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelFetchTest {
+	static IExtendedIterator<Integer> slowRange(int start, int count, Random random, AtomicInteger open) {
+		open.incrementAndGet();
+		return new NiceIterator<>() {
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < count;
+			}
+
+			@Override
+			public Integer next() {
+				if (random.nextInt(10) == 0) {
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return start + i++;
+			}
+
+			@Override
+			public void close() {
+				open.decrementAndGet();
+			}
+		};
+	}
+
+	@Test
+	public void testOrder() {
+		ParallelFetch parallelFetch = new ParallelFetch(4, 3, 5);
+		Random random = new Random(1337);
+		AtomicInteger open = new AtomicInteger();
+		List<Supplier<IExtendedIterator<Integer>>> sources = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			int start = i * 100;
+			sources.add(() -> slowRange(start, 100, new Random(random.nextInt()), open));
+		}
+		List<Integer> result = parallelFetch.<Integer>concat(sources).toList();
+		assertEquals(IntStream.range(0, 2000).boxed().collect(Collectors.toList()), result);
+		assertEquals(0, open.get());
+	}
+
+	@Test
+	public void testError() {
+		ParallelFetch parallelFetch = new ParallelFetch(2, 2, 5);
+		List<Supplier<IExtendedIterator<Integer>>> sources = new ArrayList<>();
+		sources.add(() -> WrappedIterator.create(List.of(1, 2, 3).iterator()));
+		sources.add(() -> {
+			throw new IllegalStateException("failed");
+		});
+		sources.add(() -> WrappedIterator.create(List.of(4).iterator()));
+		IExtendedIterator<Integer> it = parallelFetch.concat(sources);
+		List<Integer> result = new ArrayList<>();
+		try {
+			while (it.hasNext()) {
+				result.add(it.next());
+			}
+			fail("Exception should be propagated");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(List.of(1, 2, 3), result);
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		ParallelFetch parallelFetch = new ParallelFetch(4, 4, 2);
+		AtomicInteger open = new AtomicInteger();
+		Random random = new Random(1337);
+		List<Supplier<IExtendedIterator<Integer>>> sources = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			sources.add(() -> slowRange(0, 1000, random, open));
+		}
+		IExtendedIterator<Integer> it = parallelFetch.concat(sources);
+		assertTrue(it.hasNext());
+		it.next();
+		it.close();
+		// background tasks should terminate and release their permits
+		for (int i = 0; i < 100 && (open.get() > 0 || parallelFetch.permits.availablePermits() < 4); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, open.get());
+		assertEquals(4, parallelFetch.permits.availablePermits());
+	}
+
+	@Test
+	public void testPrefetch() {
+		ParallelFetch parallelFetch = new ParallelFetch(2, 1, 300);
+		Random random = new Random(1337);
+		AtomicInteger open = new AtomicInteger();
+		List<IExtendedIterator<Integer>> iterators = new ArrayList<>();
+		// only two streams are read ahead, the others within the calling thread
+		for (int i = 0; i < 4; i++) {
+			int start = i * 1000;
+			iterators.add(parallelFetch.prefetch(() -> slowRange(start, 1000, new Random(random.nextInt()), open)));
+		}
+		for (int i = 0; i < 4; i++) {
+			assertEquals(IntStream.range(i * 1000, (i + 1) * 1000).boxed().collect(Collectors.toList()),
+					iterators.get(i).toList());
+		}
+		assertEquals(0, open.get());
+		assertEquals(2, parallelFetch.permits.availablePermits());
+
+		// close before all elements are consumed
+		IExtendedIterator<Integer> it = parallelFetch.prefetch(() -> slowRange(0, 10000, random, open));
+		assertEquals(0, (int) it.next());
+		it.close();
+		assertEquals(0, open.get());
+		assertEquals(2, parallelFetch.permits.availablePermits());
+
+		it = parallelFetch.prefetch(() -> {
+			throw new IllegalStateException("failed");
+		});
+		try {
+			it.hasNext();
+			fail("Exception should be propagated");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+	}
+}
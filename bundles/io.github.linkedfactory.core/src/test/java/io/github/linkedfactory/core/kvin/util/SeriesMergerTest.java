@@ -0,0 +1,124 @@
+package io.github.linkedfactory.core.kvin.util;
+
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinCursor;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import net.enilink.commons.iterator.IExtendedIterator;
+import net.enilink.commons.iterator.WrappedIterator;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesMergerTest {
+	final URI item = URIs.createURI("http://example.org/item");
+
+	List<KvinTuple> series(int nr, long... times) {
+		URI property = URIs.createURI("http://example.org/p" + nr);
+		return Arrays.stream(times).mapToObj(t -> new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, t, nr))
+				.sorted(Comparator.comparingLong((KvinTuple t) -> t.time).reversed())
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testRows() {
+		List<Supplier<IExtendedIterator<KvinTuple>>> series = List.of(
+				() -> WrappedIterator.create(series(0, 1, 3, 5).iterator()),
+				() -> WrappedIterator.create(series(1).iterator()),
+				() -> WrappedIterator.create(series(2, 2, 3, 6).iterator()));
+		SeriesMerger merger = new SeriesMerger(series);
+		assertEquals(3, merger.getColumnCount());
+		// time and values of the columns 0 and 2
+		long[][] expected = { { 6, -1, 2 }, { 5, 0, -1 }, { 3, 0, 2 }, { 2, -1, 2 }, { 1, 0, -1 } };
+		for (long[] row : expected) {
+			assertTrue(merger.next());
+			assertEquals(row[0], merger.getTime());
+			assertNull(merger.get(1));
+			for (int column : new int[] { 0, 2 }) {
+				KvinTuple tuple = merger.get(column);
+				long value = row[column == 0 ? 1 : 2];
+				if (value < 0) {
+					assertNull(tuple);
+				} else {
+					assertEquals(row[0], tuple.time);
+					assertEquals(value, ((Number) tuple.value).longValue());
+				}
+			}
+		}
+		assertFalse(merger.next());
+		assertFalse(merger.next());
+	}
+
+	@Test
+	public void testCursors() {
+		List<Supplier<KvinCursor>> series = List.of(
+				() -> KvinCursor.of(WrappedIterator.create(series(0, 1, 3).iterator())),
+				() -> KvinCursor.of(WrappedIterator.create(series(1, 3, 4).iterator())));
+		SeriesMerger merger = SeriesMerger.ofCursors(series);
+		// time and values of both columns
+		long[][] expected = { { 4, -1, 1 }, { 3, 0, 1 }, { 1, 0, -1 } };
+		for (long[] row : expected) {
+			assertTrue(merger.next());
+			assertEquals(row[0], merger.getTime());
+			for (int column = 0; column < 2; column++) {
+				long value = row[column + 1];
+				assertEquals(value >= 0, merger.hasValue(column));
+				if (value < 0) {
+					assertNull(merger.getValue(column));
+				} else {
+					assertEquals(value, ((Number) merger.getValue(column)).longValue());
+				}
+			}
+		}
+		assertFalse(merger.next());
+	}
+
+	@Test
+	public void testRandomSeries() {
+		Random random = new Random(42);
+		int columns = 50;
+		List<List<KvinTuple>> data = new ArrayList<>();
+		// expected rows by time in descending order
+		TreeMap<Long, KvinTuple[]> rows = new TreeMap<>(Comparator.reverseOrder());
+		for (int i = 0; i < columns; i++) {
+			long[] times = random.longs(random.nextInt(200), 0, 1000).distinct().toArray();
+			List<KvinTuple> s = series(i, times);
+			data.add(s);
+			for (KvinTuple tuple : s) {
+				rows.computeIfAbsent(tuple.time, t -> new KvinTuple[columns])[i] = tuple;
+			}
+		}
+		AtomicInteger opened = new AtomicInteger();
+		SeriesMerger merger = new SeriesMerger(data.stream().map(s -> (Supplier<IExtendedIterator<KvinTuple>>) () -> {
+			opened.incrementAndGet();
+			return WrappedIterator.create(s.iterator());
+		}).collect(Collectors.toList()));
+		// series are opened lazily
+		assertEquals(0, opened.get());
+		for (KvinTuple[] row : rows.values()) {
+			assertTrue(merger.next());
+			KvinTuple[] actual = new KvinTuple[columns];
+			for (int i = 0; i < columns; i++) {
+				actual[i] = merger.get(i);
+			}
+			assertArrayEquals(row, actual);
+		}
+		assertEquals(columns, opened.get());
+		assertFalse(merger.next());
+	}
+}
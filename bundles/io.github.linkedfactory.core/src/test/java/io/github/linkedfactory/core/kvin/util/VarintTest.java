@@ -41,6 +41,23 @@ public class VarintTest {
 		}
 	}
 
+	@Test
+	public void testVarintArray() {
+		ByteBuffer bb = ByteBuffer.allocate(9);
+		for (int i = 0; i < values.length; i++) {
+			byte[] b = new byte[10];
+			Varint.writeUnsigned(b, 1, values[i]);
+			assertEquals("Encoding should use " + (i + 1) + " bytes", i + 1, Varint.firstToLength(b[1]));
+			assertEquals("Encoded and decoded value should be equal", values[i], Varint.readUnsigned(b, 1));
+
+			bb.clear();
+			Varint.writeUnsigned(bb, values[i]);
+			byte[] expected = new byte[10];
+			System.arraycopy(bb.array(), 0, expected, 1, bb.position());
+			assertArrayEquals("Encoding should match encoding with byte buffer", expected, b);
+		}
+	}
+
 	@Test
 	public void testVarintList() {
 		ByteBuffer bb = ByteBuffer.allocate(2 + 4 * Long.BYTES);
@@ -0,0 +1,158 @@
+package io.github.linkedfactory.core.kvin.util.benchmark;
+
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.kvin.util.AggregatingIterator;
+import net.enilink.commons.iterator.NiceIterator;
+import net.enilink.commons.util.ValueUtils;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming {@link AggregatingIterator} with the former
+ * implementation that buffered all values of an interval within a list.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Dorg.slf4j.simpleLogger.defaultLogLevel=warn"})
+@Warmup(iterations = 3, time = 5000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 3, time = 5000, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AggregatingIteratorBenchmark {
+	@Param({"avg", "max"})
+	String op;
+
+	@Param({"1000", "100000"})
+	long interval;
+
+	List<KvinTuple> tuples;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(AggregatingIteratorBenchmark.class.getSimpleName())
+				.forks(1)
+				.build();
+
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		URI item = URIs.createURI("http://example.org/item");
+		URI property = URIs.createURI("http://example.org/property");
+		Random random = new Random(1337);
+		int size = 1_000_000;
+		tuples = new ArrayList<>(size);
+		for (int i = size - 1; i >= 0; i--) {
+			tuples.add(new KvinTuple(item, property, null, i * 10L, random.nextDouble()));
+		}
+	}
+
+	@Benchmark
+	public void streaming(Blackhole blackhole) {
+		Iterator<KvinTuple> it = AggregatingIterator.create(tuples.iterator(), interval, op, 0);
+		while (it.hasNext()) {
+			blackhole.consume(it.next());
+		}
+	}
+
+	@Benchmark
+	public void buffering(Blackhole blackhole) {
+		Iterator<KvinTuple> it = new BufferingAggregatingIterator(tuples.iterator(), interval, op, 0);
+		while (it.hasNext()) {
+			blackhole.consume(it.next());
+		}
+	}
+
+	/**
+	 * The former list-based implementation of {@link AggregatingIterator} as baseline.
+	 */
+	static class BufferingAggregatingIterator extends NiceIterator<KvinTuple> {
+		final Iterator<KvinTuple> base;
+		final long interval;
+		final String op;
+		final long limit;
+
+		KvinTuple next;
+		int seqNr = 1;
+		long count = 0;
+
+		BufferingAggregatingIterator(Iterator<KvinTuple> base, long interval, String op, long limit) {
+			this.base = base;
+			this.interval = interval;
+			this.op = op;
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			return (limit == 0 || count < limit) && base.hasNext();
+		}
+
+		@Override
+		public KvinTuple next() {
+			List<KvinTuple> inInterval = new ArrayList<>();
+			if (next == null) {
+				next = base.next();
+			}
+			inInterval.add(next);
+
+			long intervalStart = next.time - (next.time % interval);
+			next = null;
+			while (base.hasNext()) {
+				KvinTuple entry = base.next();
+				long entryIntervalStart = entry.time - (entry.time % interval);
+				if (entryIntervalStart != intervalStart) {
+					next = entry;
+					break;
+				} else {
+					inInterval.add(entry);
+				}
+			}
+
+			count++;
+			KvinTuple first = inInterval.get(0);
+			return new KvinTuple(first.item, first.property, first.context, intervalStart, seqNr++,
+					aggregate(inInterval, op));
+		}
+
+		Object aggregate(List<KvinTuple> elements, String op) {
+			ValueUtils utils = ValueUtils.getInstance();
+			Iterator<KvinTuple> it = elements.iterator();
+			Object value = it.next().value;
+			switch (op) {
+				case "max":
+					while (it.hasNext()) {
+						Object current = it.next().value;
+						if (utils.compareWithConversion(value, current) < 0) {
+							value = current;
+						}
+					}
+					break;
+				case "avg":
+					long count = 1;
+					while (it.hasNext()) {
+						value = utils.add(value, it.next().value);
+						count++;
+					}
+					value = utils.divide(value, count);
+					break;
+			}
+			return value;
+		}
+	}
+}
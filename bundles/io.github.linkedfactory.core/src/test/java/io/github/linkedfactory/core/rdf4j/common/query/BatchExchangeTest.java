@@ -0,0 +1,105 @@
+package io.github.linkedfactory.core.rdf4j.common.query;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchExchangeTest {
+	final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void cleanup() {
+		executor.shutdownNow();
+	}
+
+	@Test(timeout = 20000)
+	public void testTransfer() {
+		int count = 1_000_000;
+		BatchExchange<Integer> exchange = new BatchExchange<>(64, 2);
+		executor.submit(() -> {
+			for (int i = 0; i < count; i++) {
+				exchange.add(i);
+			}
+			exchange.complete();
+		});
+		for (int i = 0; i < count; i++) {
+			assertTrue(exchange.hasNext());
+			assertEquals(i, (int) exchange.next());
+		}
+		assertFalse(exchange.hasNext());
+	}
+
+	@Test(timeout = 20000)
+	public void testImmediateHandOver() throws Exception {
+		BatchExchange<Integer> exchange = new BatchExchange<>();
+		CountDownLatch received = new CountDownLatch(1);
+		executor.submit(() -> {
+			exchange.add(1);
+			// the element is handed over although the batch is not full
+			received.await(10, TimeUnit.SECONDS);
+			exchange.add(2);
+			exchange.complete();
+			return null;
+		});
+		assertEquals(1, (int) exchange.next());
+		received.countDown();
+		assertEquals(2, (int) exchange.next());
+		assertFalse(exchange.hasNext());
+	}
+
+	@Test(timeout = 20000)
+	public void testClose() throws Exception {
+		BatchExchange<Integer> exchange = new BatchExchange<>(16, 1);
+		AtomicInteger added = new AtomicInteger();
+		Future<?> producer = executor.submit(() -> {
+			// blocks as soon as the ring buffer is full
+			while (exchange.add(added.get())) {
+				added.incrementAndGet();
+			}
+		});
+		assertEquals(0, (int) exchange.next());
+		exchange.close();
+		producer.get(10, TimeUnit.SECONDS);
+		assertFalse(exchange.hasNext());
+		assertTrue(added.get() < 100);
+	}
+
+	@Test(timeout = 20000)
+	public void testError() {
+		BatchExchange<Integer> exchange = new BatchExchange<>();
+		executor.submit(() -> exchange.addAll(() -> new CloseableIteratorIteration<Integer, QueryEvaluationException>(
+				List.of(1, 2, 3).iterator()) {
+			@Override
+			public Integer next() {
+				Integer next = super.next();
+				if (next == 3) {
+					throw new QueryEvaluationException("failed");
+				}
+				return next;
+			}
+		}));
+		assertEquals(1, (int) exchange.next());
+		assertEquals(2, (int) exchange.next());
+		try {
+			exchange.hasNext();
+			fail("Expected an exception of the producer");
+		} catch (QueryEvaluationException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertFalse(exchange.hasNext());
+	}
+}
@@ -0,0 +1,216 @@
+package io.github.linkedfactory.core.rdf4j.common.query;
+
+import io.github.linkedfactory.core.kvin.util.AsyncExtendedIterator;
+import net.enilink.commons.iterator.NiceIterator;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryExecutorServiceTest {
+	QueryExecutorService executor;
+
+	@After
+	public void cleanup() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	void await(CountDownLatch latch) {
+		try {
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testLimit() throws Exception {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.CACHED, 1, 2, 0);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(executor.tryExecute(() -> {
+				started.countDown();
+				await(release);
+			}));
+		}
+		await(started);
+		assertEquals(2, executor.getActiveTasks());
+		assertFalse(executor.tryExecute(() -> {
+		}));
+		assertEquals(1, executor.getDeclinedTasks());
+
+		// queued until a running task has finished
+		CountDownLatch queuedRun = new CountDownLatch(1);
+		executor.execute(queuedRun::countDown);
+		assertEquals(1, executor.getQueuedTasks());
+		release.countDown();
+		await(queuedRun);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, executor.getQueuedTasks());
+		assertEquals(3, executor.getCompletedTasks());
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryScope() {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.PLATFORM, 4, 0, 1);
+		QueryExecutorService.QueryScope scope1 = executor.newQueryScope();
+		QueryExecutorService.QueryScope scope2 = executor.newQueryScope();
+		CountDownLatch release = new CountDownLatch(1);
+		assertTrue(scope1.tryExecute(() -> await(release)));
+		assertFalse(scope1.tryExecute(() -> {
+		}));
+		// other queries are not affected
+		assertTrue(scope2.tryExecute(() -> await(release)));
+		assertEquals(2, executor.getActiveTasks());
+		release.countDown();
+	}
+
+	@Test(timeout = 20000)
+	public void testQueryScopeQueue() {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.CACHED, 1, 0, 1);
+		QueryExecutorService.QueryScope scope = executor.newQueryScope();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(3);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			scope.execute(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				await(release);
+				running.decrementAndGet();
+				finished.countDown();
+			});
+		}
+		// queued tasks respect the limit of the scope
+		assertEquals(1, scope.getActiveTasks());
+		assertEquals(2, scope.getQueuedTasks());
+		assertFalse(scope.tryExecute(() -> {
+		}));
+		release.countDown();
+		await(finished);
+		assertEquals(1, maxRunning.get());
+		assertEquals(0, scope.getQueuedTasks());
+	}
+
+	@Test(timeout = 20000)
+	public void testInlineExtendedIterator() {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.CACHED, 1, 0, 0);
+		executor.shutdown();
+		AtomicBoolean closed = new AtomicBoolean();
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		// the iterator is computed by the consuming thread if the executor declines the task
+		AsyncExtendedIterator<String> it = new AsyncExtendedIterator<>(() -> {
+			thread.set(Thread.currentThread());
+			return new NiceIterator<>() {
+				final Iterator<String> values = List.of("a", "b").iterator();
+
+				@Override
+				public boolean hasNext() {
+					return values.hasNext();
+				}
+
+				@Override
+				public String next() {
+					return values.next();
+				}
+
+				@Override
+				public void close() {
+					closed.set(true);
+				}
+			};
+		}, () -> executor);
+		assertEquals(List.of("a", "b"), it.toList());
+		assertEquals(Thread.currentThread(), thread.get());
+		assertTrue(closed.get());
+	}
+
+	@Test
+	public void testVirtualThreads() {
+		executor = new QueryExecutorService();
+		boolean supported = Runtime.version().feature() >= 21;
+		assertEquals(supported ? QueryExecutorService.Mode.VIRTUAL : QueryExecutorService.Mode.CACHED,
+				executor.getMode());
+	}
+
+	@Test(timeout = 20000)
+	public void testInlineEvaluation() {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.CACHED, 1, 1, 0);
+		ExecutorService scope = QueryExecutorService.forQuery(executor);
+		List<String> threads = new ArrayList<>();
+		// the inner iterator is evaluated by the thread of the outer iterator as the budget is exhausted
+		AsyncIterator<String> outer = new AsyncIterator<>(() -> {
+			threads.add(Thread.currentThread().getName());
+			AsyncIterator<String> inner = new AsyncIterator<>(() -> {
+				threads.add(Thread.currentThread().getName());
+				return new CloseableIteratorIteration<>(List.of("a", "b").iterator());
+			}, () -> scope);
+			assertFalse(inner.isAsync());
+			return inner;
+		}, () -> scope);
+		assertTrue(outer.isAsync());
+		List<String> values = new ArrayList<>();
+		while (outer.hasNext()) {
+			values.add(outer.next());
+		}
+		assertEquals(List.of("a", "b"), values);
+		assertEquals(2, threads.size());
+		assertEquals(threads.get(0), threads.get(1));
+	}
+
+	@Test(timeout = 20000)
+	public void testInlineClose() {
+		executor = new QueryExecutorService(QueryExecutorService.Mode.CACHED, 1, 0, 0);
+		// tasks are declined and hence evaluated within the calling thread
+		executor.shutdown();
+		AtomicBoolean closed = new AtomicBoolean();
+		Iterator<String> values = List.of("a").iterator();
+		// an iteration that is only closed explicitly
+		AsyncIterator<String> it = new AsyncIterator<>(() -> new CloseableIteration<>() {
+			@Override
+			public boolean hasNext() {
+				return values.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return values.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		}, () -> executor);
+		assertFalse(it.isAsync());
+		assertTrue(it.hasNext());
+		assertEquals("a", it.next());
+		assertFalse(closed.get());
+		// the base iteration is closed as soon as it is exhausted
+		assertFalse(it.hasNext());
+		assertTrue(closed.get());
+	}
+}
@@ -0,0 +1,101 @@
+package io.github.linkedfactory.core.rdf4j.common.query.benchmark;
+
+import io.github.linkedfactory.core.rdf4j.common.query.BatchExchange;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link BatchExchange} with the former hand over of single
+ * elements through an {@link ArrayBlockingQueue} between a producer and a
+ * consumer thread.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Dorg.slf4j.simpleLogger.defaultLogLevel=warn"})
+@Warmup(iterations = 3, time = 5000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 3, time = 5000, timeUnit = TimeUnit.MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExchangeBenchmark {
+	static final Object NULL_ELEMENT = new Object();
+
+	@Param({"1000", "1000000"})
+	int size;
+
+	Integer[] elements;
+	ExecutorService executor;
+
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(ExchangeBenchmark.class.getSimpleName())
+				.forks(1)
+				.build();
+
+		new Runner(opt).run();
+	}
+
+	@Setup
+	public void setup() {
+		elements = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			elements[i] = i;
+		}
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public void batchExchange(Blackhole blackhole) {
+		BatchExchange<Integer> exchange = new BatchExchange<>();
+		executor.submit(() -> {
+			for (Integer element : elements) {
+				if (!exchange.add(element)) {
+					break;
+				}
+			}
+			exchange.complete();
+		});
+		while (exchange.hasNext()) {
+			blackhole.consume(exchange.next());
+		}
+	}
+
+	/**
+	 * The former queue-based hand over with a sentinel element as baseline.
+	 */
+	@Benchmark
+	public void blockingQueue(Blackhole blackhole) throws InterruptedException {
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<>(100);
+		executor.submit(() -> {
+			try {
+				for (Integer element : elements) {
+					while (!queue.offer(element, 10, TimeUnit.MILLISECONDS)) {
+						// retry
+					}
+				}
+				while (!queue.offer(NULL_ELEMENT, 10, TimeUnit.MILLISECONDS)) {
+					// retry
+				}
+			} catch (InterruptedException e) {
+				// just return
+			}
+		});
+		Object element;
+		while ((element = queue.take()) != NULL_ELEMENT) {
+			blackhole.consume(element);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package io.github.linkedfactory.core.rdf4j.kvin.query;
+
+import io.github.linkedfactory.core.kvin.Kvin;
+import io.github.linkedfactory.core.kvin.KvinTuple;
+import io.github.linkedfactory.core.rdf4j.common.HasValue;
+import net.enilink.komma.core.URI;
+import net.enilink.komma.core.URIs;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KvinTupleBatchTest {
+	final ValueFactory vf = SimpleValueFactory.getInstance();
+	final URI item = URIs.createURI("http://example.org/item");
+	final URI property = URIs.createURI("http://example.org/property");
+
+	KvinTupleBatch createBatch(BindingSet base) {
+		KvinTupleBatch.Layout layout = new KvinTupleBatch.Layout(vf, "item", "v", null, "time",
+				null, null, "seqNr", "index");
+		KvinTupleBatch batch = new KvinTupleBatch(layout, base, 4);
+		for (int i = 0; i < 4; i++) {
+			batch.add(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1000 - i, i % 2, (double) i),
+					vf.createIRI(property.toString()), i);
+		}
+		return batch;
+	}
+
+	@Test
+	public void testRows() {
+		QueryBindingSet base = new QueryBindingSet();
+		base.addBinding("other", vf.createLiteral("x"));
+		KvinTupleBatch batch = createBatch(base);
+		assertTrue(batch.isFull());
+
+		KvinTupleBatch.Row row = batch.get(2);
+		assertEquals(Set.of("other", "item", "v", "time", "seqNr", "index"), row.getBindingNames());
+		assertEquals(6, row.size());
+		assertEquals(vf.createLiteral("x"), row.getValue("other"));
+		assertEquals(vf.createIRI(item.toString()), row.getValue("item"));
+		assertEquals(vf.createLiteral(998L), row.getValue("time"));
+		assertEquals(vf.createLiteral(0), row.getValue("seqNr"));
+		assertEquals(vf.createLiteral(2), row.getValue("index"));
+		assertFalse(row.hasBinding("unknown"));
+		assertNull(row.getValue("unknown"));
+
+		// the raw values are read without creating literals
+		assertEquals(998L, row.getLongValue("time"));
+		assertEquals(2L, row.getLongValue("index"));
+		assertTrue(row.isValueVariable("v"));
+		assertEquals(2.0, row.getTupleValue());
+
+		// values are only created once per row
+		assertSame(row.getValue("v"), row.getValue("v"));
+		KvinTuple tuple = (KvinTuple) ((HasValue) row.getValue("v")).getValue();
+		assertEquals(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 998, 0, 2.0), tuple);
+
+		// rows are equal to materialized binding sets
+		QueryBindingSet materialized = new QueryBindingSet(row);
+		assertEquals(materialized, row);
+		assertEquals(materialized.hashCode(), row.hashCode());
+	}
+
+	@Test
+	public void testDuplicateNames() {
+		// the later variable wins as for bindings that are added sequentially
+		KvinTupleBatch.Layout layout = new KvinTupleBatch.Layout(vf, null, "v", null, "x",
+				null, null, null, "x");
+		KvinTupleBatch batch = new KvinTupleBatch(layout, new QueryBindingSet(), 1);
+		batch.add(new KvinTuple(item, property, Kvin.DEFAULT_CONTEXT, 1000, 0, 1.0), null, 5);
+		KvinTupleBatch.Row row = batch.get(0);
+		assertEquals(2, row.size());
+		assertEquals(vf.createLiteral(5), row.getValue("x"));
+	}
+}
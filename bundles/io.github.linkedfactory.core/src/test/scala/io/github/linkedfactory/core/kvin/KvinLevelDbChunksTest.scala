@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin
+
+import io.github.linkedfactory.core.kvin.leveldb.{Chunks, KvinLevelDb}
+import net.enilink.komma.core.URIs
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+import java.io.File
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+/**
+ * Tests for the chunked storage of numeric values within the LevelDB-based time series store.
+ *
+ * The results are compared with those of a store without chunks.
+ */
+class KvinLevelDbChunksTest extends KvinTestBase {
+  val chunkInterval = 100L
+  val item = URIs.createURI("http://example.org/item")
+  val property = URIs.createURI("http://example.org/p")
+
+  var reference: KvinLevelDb = _
+
+  @Before
+  def createStore: Unit = {
+    storeDirectory = new File("/tmp/leveldb-chunks-test-" + System.currentTimeMillis + "-" + Random.nextInt(1000) + "/")
+    storeDirectory.deleteOnExit
+    store = new KvinLevelDb(storeDirectory, null, KvinLevelDb.DEFAULT_ID_CACHE_SIZE, chunkInterval)
+    reference = new KvinLevelDb(new File(storeDirectory, "reference"))
+  }
+
+  @After
+  def closeStore: Unit = {
+    store.close
+    store = null
+    reference.close()
+    deleteDirectory(storeDirectory.toPath)
+  }
+
+  def put(tuples: Seq[KvinTuple]): Unit = {
+    store.put(tuples.asJava)
+    reference.put(tuples.asJava)
+  }
+
+  def assertSameValues(end: Long, begin: Long, limit: Long = 0L, interval: Long = 0L): Unit = {
+    def values(kvin: Kvin) = kvin.fetch(item, property, null, end, begin, limit, interval, null)
+      .toList.asScala.map(t => (t.time, t.seqNr, t.value)).toList
+    assertEquals(s"range=[$begin, $end] limit=$limit interval=$interval", values(reference), values(store))
+  }
+
+  @Test
+  def testRoundTrip: Unit = {
+    val random = new Random(1337)
+    val tuples = (0 until 1000).map { i =>
+      val value: Any = i % 4 match {
+        case 0 => random.nextDouble() * 1000
+        case 1 => random.nextLong()
+        case 2 => random.nextInt(100)
+        case _ => random.nextFloat()
+      }
+      // use an own property for each type
+      new KvinTuple(item, URIs.createURI(property.toString + i % 4), null, i * 7 + random.nextInt(5), value)
+    }
+    store.put(tuples.asJava)
+    for (p <- 0 until 4) {
+      val pUri = URIs.createURI(property.toString + p)
+      val expected = tuples.filter(_.property == pUri).reverse.map(t => (t.time, t.value))
+      assertEquals(expected, store.fetch(item, pUri, null, 0).toList.asScala.map(t => (t.time, t.value)))
+    }
+  }
+
+  @Test
+  def testAppendAndFetch: Unit = {
+    // write values in multiple batches and also directly
+    (0 until 10).foreach { b =>
+      put((0 until 50).map(t => new KvinTuple(item, property, null, b * 50 + t * 3, (b * 50 + t) * 1.5)))
+    }
+    put(List(new KvinTuple(item, property, null, 1500, 3.0)))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertSameValues(1000, 250)
+    assertSameValues(1000, 250, 10)
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0, 1)
+    assertSameValues(1499, 0, 0, 40)
+    assertSameValues(1234, 17, 5, 130)
+  }
+
+  @Test
+  def testOutOfOrderAndOverwrite: Unit = {
+    put((0 until 500).map(t => new KvinTuple(item, property, null, t * 2, t.toLong)))
+    // insert values in descending order
+    put((500 until 1000).reverse.map(t => new KvinTuple(item, property, null, t * 2, t.toLong)))
+    // overwrite values with different sequence numbers
+    put(List(new KvinTuple(item, property, null, 10, 1000L), new KvinTuple(item, property, null, 1998, -5L),
+      new KvinTuple(item, property, null, 500, 1, 42L)))
+    put((0 until 100).map(t => new KvinTuple(item, property, null, t * 20 + 1, t.toLong)))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertSameValues(1200, 300, 0, 50)
+  }
+
+  @Test
+  def testMixedTypes: Unit = {
+    put((0 until 200).map(t => new KvinTuple(item, property, null, t, if (t % 10 == 0) "value " + t else t)))
+    // values of other types are stored separately
+    put(List(new KvinTuple(item, property, null, 55, 5.5), new KvinTuple(item, property, null, 20, 2)))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertSameValues(150, 10, 0, 30)
+  }
+
+  @Test
+  def testDeleteRange: Unit = {
+    put((0 until 1000).map(t => new KvinTuple(item, property, null, t, t.toDouble)))
+    assertEquals(reference.delete(item, property, null, 555, 123), store.delete(item, property, null, 555, 123))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertEquals(reference.delete(item, property, null, 999, 900), store.delete(item, property, null, 999, 900))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertEquals(900 - 433, store.delete(item, property, null, KvinTuple.TIME_MAX_VALUE, 0))
+    assertEquals(0, store.fetch(item, property, null, 0).toList.size)
+  }
+
+  @Test
+  def testReopen: Unit = {
+    put((0 until 300).map(t => new KvinTuple(item, property, null, t, t)))
+    store.close()
+    // chunks remain readable and the persisted interval is used
+    store = new KvinLevelDb(storeDirectory, null, KvinLevelDb.DEFAULT_ID_CACHE_SIZE, 0L)
+    assertEquals(chunkInterval, store.asInstanceOf[KvinLevelDb].chunks.interval)
+    put((300 until 400).map(t => new KvinTuple(item, property, null, t, t)))
+    assertSameValues(KvinTuple.TIME_MAX_VALUE, 0)
+    assertEquals(400, store.asInstanceOf[KvinLevelDb].fetchAll().toList.size)
+  }
+
+  @Test
+  def testRollups: Unit = {
+    store.close()
+    store = new KvinLevelDb(storeDirectory, Array(10L, 1000L), KvinLevelDb.DEFAULT_ID_CACHE_SIZE, chunkInterval)
+    val random = new Random(42)
+    put((0 until 2000).map(t => new KvinTuple(item, property, null, t, random.nextInt(100))))
+    put(List(new KvinTuple(item, property, null, 17, 1000)))
+    def assertAggregates(): Unit = {
+      for (op <- List("min", "max", "sum", "count"); interval <- List(0L, 10L, 200L)) {
+        def aggregates(kvin: Kvin) = kvin.fetch(item, property, null, 1999, 5, 0, interval, op)
+          .toList.asScala.map(t => (t.time, t.value.asInstanceOf[Number].doubleValue))
+        assertEquals(s"op=$op interval=$interval", aggregates(reference), aggregates(store))
+      }
+    }
+    assertAggregates()
+    store.close()
+    // rebuild the rollups from the chunks
+    store = new KvinLevelDb(storeDirectory, Array(10L, 100L), KvinLevelDb.DEFAULT_ID_CACHE_SIZE, chunkInterval)
+    assertAggregates()
+  }
+
+  @Test
+  def testCompression: Unit = {
+    val db = store.asInstanceOf[KvinLevelDb]
+    // regular samples should need only a few bits per value
+    put((0 until 100).map(t => new KvinTuple(item, property, null, t, 20.0 + (t % 2) * 0.5)))
+    val id = db.toId(item, property, null, false, null)
+    val chunk = db.values.get(db.chunks.chunkKey(id, 0))
+    assertTrue(Chunks.isChunk(chunk))
+    assertTrue(chunk.length < 100 * 2 + Chunks.TRAILER_BYTES)
+  }
+}
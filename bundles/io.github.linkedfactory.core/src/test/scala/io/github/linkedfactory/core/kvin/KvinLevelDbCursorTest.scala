@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin
+
+import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
+import io.github.linkedfactory.core.kvin.util.AggregatingIterator
+import net.enilink.komma.core.URIs
+import org.apache.commons.io.FileUtils
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+import java.io.File
+import scala.collection.mutable.ListBuffer
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+/**
+ * Tests for the cursor-based read path of the LevelDB-based time series store.
+ */
+class KvinLevelDbCursorTest {
+  val item = URIs.createURI("http://example.org/item")
+  val properties = (0 until 3).map(i => URIs.createURI("http://example.org/p" + i))
+
+  var storeDirectory: File = _
+  var store: KvinLevelDb = _
+
+  @Before
+  def createStore: Unit = {
+    storeDirectory = new File("/tmp/leveldb-cursor-test-" + System.currentTimeMillis + "-" + Random.nextInt(1000) + "/")
+    storeDirectory.deleteOnExit
+    // use chunks to test the merging of single values and chunks
+    store = new KvinLevelDb(storeDirectory, null, KvinLevelDb.DEFAULT_ID_CACHE_SIZE, 100L)
+    val random = new Random(7)
+    store.put((0 until 500).map { t =>
+      val value: Any = t % 3 match {
+        case 0 => t.toLong
+        case 1 => random.nextDouble()
+        case _ => if (t % 50 == 2) "value " + t else random.nextInt(1000)
+      }
+      new KvinTuple(item, properties(t % 3), null, t * 3, value)
+    }.asJava)
+    store.put(new KvinTuple(URIs.createURI("http://example.org/other"), properties(0), null, 5, 1.5))
+  }
+
+  @After
+  def closeStore: Unit = {
+    store.close()
+    FileUtils.deleteDirectory(storeDirectory)
+  }
+
+  def read(cursor: KvinCursor): List[KvinTuple] = {
+    val tuples = ListBuffer[KvinTuple]()
+    try {
+      while (cursor.next()) {
+        if (cursor.isLong) assertEquals(cursor.getValue.asInstanceOf[Number].longValue, cursor.getLong)
+        if (cursor.isDouble) assertEquals(cursor.getValue.asInstanceOf[Number].doubleValue, cursor.getDouble, 0.0)
+        tuples += cursor.toTuple
+      }
+    } finally {
+      cursor.close()
+    }
+    tuples.toList
+  }
+
+  @Test
+  def testCursor: Unit = {
+    for ((end, begin, limit) <- List((KvinTuple.TIME_MAX_VALUE, 0L, 0L), (1000L, 200L, 0L), (1000L, 200L, 7L))) {
+      assertEquals(store.fetch(item, null, null, end, begin, limit, 0, null).toList.asScala,
+        read(store.cursor(item, null, null, end, begin, limit)))
+      assertEquals(store.fetch(item, properties(2), null, end, begin, limit, 0, null).toList.asScala,
+        read(store.cursor(item, properties(2), null, end, begin, limit)))
+    }
+  }
+
+  @Test
+  def testCursorAll: Unit = {
+    val all = read(store.cursorAll())
+    assertEquals(501, all.size)
+    assertEquals(store.fetchAll().toList.asScala.toSet, all.toSet)
+  }
+
+  @Test
+  def testAggregation: Unit = {
+    for (op <- List("sum", "avg", "count", "min", "max", "first", "last", "stddev"); interval <- List(0L, 10L, 100L)) {
+      for (property <- List(properties(0), properties(1))) {
+        val expected = AggregatingIterator.create(store.fetchInternal(item, property, null, 1000L, 100L),
+          interval, op, 0L).toList.asScala
+        assertEquals(s"op=$op interval=$interval", expected,
+          store.fetch(item, property, null, 1000L, 100L, 0L, interval, op).toList.asScala)
+      }
+    }
+  }
+
+  @Test
+  def testSkipSeries: Unit = {
+    // the first value of each series
+    val expected = store.fetch(item, null, null, KvinTuple.TIME_MAX_VALUE, 0L, 1L, 0, null).toList.asScala
+    val cursor = store.cursor(item, null, null, KvinTuple.TIME_MAX_VALUE, 0L, 0L)
+    val first = ListBuffer[KvinTuple]()
+    var hasNext = cursor.next()
+    while (hasNext) {
+      first += cursor.toTuple
+      hasNext = cursor.skipSeries()
+    }
+    assertEquals(expected, first.toList)
+
+    val all = store.cursorAll()
+    var series = 0
+    hasNext = all.next()
+    while (hasNext) {
+      series += 1
+      hasNext = all.skipSeries()
+    }
+    assertEquals(4, series)
+  }
+
+  @Test
+  def testAggregationLimit: Unit = {
+    for (op <- List("sum", "max", "first"); limit <- List(1L, 5L)) {
+      val expected = AggregatingIterator.create(store.fetchInternal(item, null, null, 1000L, 100L),
+        10L, op, limit).toList.asScala
+      assertEquals(s"op=$op limit=$limit", expected,
+        store.fetch(item, null, null, 1000L, 100L, limit, 10L, op).toList.asScala)
+    }
+  }
+}
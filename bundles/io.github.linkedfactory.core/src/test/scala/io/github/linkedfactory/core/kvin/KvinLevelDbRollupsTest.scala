@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2024 Fraunhofer IWU.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.linkedfactory.core.kvin
+
+import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
+import io.github.linkedfactory.core.kvin.util.AggregatingIterator
+import net.enilink.komma.core.URIs
+import org.junit.Assert._
+import org.junit.{After, Before, Test}
+
+import java.io.File
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+/**
+ * Tests for the pre-aggregated rollups of the LevelDB-based time series store.
+ */
+class KvinLevelDbRollupsTest extends KvinTestBase {
+  val tiers = Array(10L, 100L)
+  val item = URIs.createURI("http://example.org/item")
+  val property = URIs.createURI("http://example.org/p")
+
+  def levelDb = store.asInstanceOf[KvinLevelDb]
+
+  @Before
+  def createStore: Unit = {
+    storeDirectory = new File("/tmp/leveldb-rollups-test-" + System.currentTimeMillis + "-" + Random.nextInt(1000) + "/")
+    storeDirectory.deleteOnExit
+    store = new KvinLevelDb(storeDirectory, tiers)
+  }
+
+  @After
+  def closeStore: Unit = {
+    store.close
+    store = null
+    deleteDirectory(storeDirectory.toPath)
+  }
+
+  def assertAggregates(end: Long, begin: Long): Unit = {
+    for (op <- List("min", "max", "sum", "avg", "count"); interval <- List(0L, 10L, 100L, 200L)) {
+      val raw = AggregatingIterator.create(levelDb.fetchInternal(item, property, null, end, begin), interval, op, 0)
+        .toList.asScala.map(t => (t.time, t.value.asInstanceOf[Number].doubleValue))
+      val aggregated = store.fetch(item, property, null, end, begin, 0, interval, op)
+        .toList.asScala.map(t => (t.time, t.value.asInstanceOf[Number].doubleValue))
+      assertEquals(s"op=$op interval=$interval range=[$begin, $end]", raw, aggregated)
+    }
+  }
+
+  @Test
+  def testAggregation: Unit = {
+    val random = new Random(1337)
+    store.put((0 until 1000).map(t => new KvinTuple(item, property, null, t * 3, random.nextInt(100))).asJava)
+    assertAggregates(2999, 0)
+    assertAggregates(2950, 37)
+    assertAggregates(5, 1)
+  }
+
+  @Test
+  def testOutOfOrderAndOverwrite: Unit = {
+    store.put((0 until 500).map(t => new KvinTuple(item, property, null, t * 2, t)).asJava)
+    // insert values in descending order
+    store.put((500 until 1000).reverse.map(t => new KvinTuple(item, property, null, t * 2, t)).asJava)
+    assertAggregates(1999, 0)
+    // overwrite single values
+    store.put(new KvinTuple(item, property, null, 10, 1000.5))
+    store.put(new KvinTuple(item, property, null, 1998, -5))
+    assertAggregates(1999, 0)
+  }
+
+  @Test
+  def testDeleteValues: Unit = {
+    store.put((0 until 1000).map(t => new KvinTuple(item, property, null, t, t)).asJava)
+    store.delete(item, property, null, 555, 123)
+    assertAggregates(999, 0)
+    store.delete(item, null)
+    assertEquals(0, store.fetch(item, property, null, 999, 0, 0, 100, "count").toList.size)
+  }
+
+  @Test
+  def testNonNumeric: Unit = {
+    store.put((0 until 100).map(t => new KvinTuple(item, property, null, t, if (t == 42) "a" else t)).asJava)
+    // buckets with non-numeric values are aggregated from raw values
+    assertEquals(100L, store.fetch(item, property, null, 99, 0, 0, 0, "count").next.value)
+    // the interval with the invalid number is aggregated to 0
+    assertEquals(List[Any](945L, 845L, 745L, 645L, 545L, 0, 345L, 245L, 145L, 45L),
+      store.fetch(item, property, null, 99, 0, 0, 10, "sum").toList.asScala.map(_.value))
+  }
+
+  @Test
+  def testRebuild: Unit = {
+    store.close()
+    // create values without rollups
+    store = new KvinLevelDb(storeDirectory)
+    store.put((0 until 1000).map(t => new KvinTuple(item, property, null, t, t % 17)).asJava)
+    store.close()
+    store = new KvinLevelDb(storeDirectory, tiers)
+    assertAggregates(999, 0)
+  }
+}
@@ -16,7 +16,8 @@
 package io.github.linkedfactory.core.kvin
 
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
-import net.enilink.komma.core.URIs
+import io.github.linkedfactory.core.kvin.util.ParallelFetch
+import net.enilink.komma.core.{URI, URIs}
 import org.junit.Assert._
 import org.junit.{After, Before, Test}
 
@@ -113,4 +114,136 @@ class KvinLevelDbTest extends KvinTestBase {
     val nextIdsLoaded = store.asInstanceOf[KvinLevelDb].nextIds.map(_.get()).toList
     assertEquals(nextIds, nextIdsLoaded)
   }
-}
\ No newline at end of file
+
+  @Test
+  def testParallelFetch: Unit = {
+    addData(10, 20)
+    val items = (1 to 10).map(itemUri).toList.asJava
+    val properties = List(valueProperty, propertyUri(1)).asJava
+    val expected = store.fetch(items, properties, null, KvinTuple.TIME_MAX_VALUE, 0, 0, 0, null).toList
+    assertEquals(200, expected.size)
+
+    store.asInstanceOf[KvinLevelDb].setParallelFetch(new ParallelFetch(3, 2, 4))
+    val actual = store.fetch(items, properties, null, KvinTuple.TIME_MAX_VALUE, 0, 0, 0, null).toList
+    assertEquals(expected, actual)
+  }
+
+  @Test
+  def testGroupCommit: Unit = {
+    val levelDb = store.asInstanceOf[KvinLevelDb]
+    val notified = new java.util.concurrent.atomic.AtomicInteger
+    store.addListener(new KvinListener {
+      override def entityCreated(item: URI): Unit = {}
+
+      override def valueAdded(item: URI, property: URI, context: URI, time: Long, seqNr: Long, value: Any): Unit =
+        notified.incrementAndGet()
+    })
+    levelDb.enableGroupCommit(5, 100, false)
+
+    val items = 20
+    val values = 50
+    (1 to items).asJava.parallelStream().forEach { (nr: Int) =>
+      for (i <- 1 to values) store.put(new KvinTuple(itemUri(nr), valueProperty, null, i, i))
+    }
+    levelDb.putAsync(new KvinTuple(itemUri(1), valueProperty, null, values + 1, 0)).get()
+    assertEquals(items * values + 1, notified.get)
+
+    levelDb.disableGroupCommit()
+    for (nr <- 1 to items) {
+      assertEquals(if (nr == 1) values + 1 else values, store.fetch(itemUri(nr), valueProperty, null, 0).toList.size)
+    }
+  }
+
+  @Test(timeout = 60000)
+  def testGroupCommitSequential: Unit = {
+    val levelDb = store.asInstanceOf[KvinLevelDb]
+    levelDb.enableGroupCommit(1000, 100, false)
+    // a single writer does not wait for further writes
+    val start = System.currentTimeMillis
+    for (i <- 1 to 20) store.put(new KvinTuple(itemUri(1), valueProperty, null, i, i))
+    assertTrue(System.currentTimeMillis - start < 5000)
+    levelDb.disableGroupCommit()
+    assertEquals(20, store.fetch(itemUri(1), valueProperty, null, 0).toList.size)
+  }
+
+  @Test(timeout = 60000)
+  def testGroupCommitClose: Unit = {
+    val levelDb = store.asInstanceOf[KvinLevelDb]
+    // a small batch size lets writers wait due to back-pressure
+    levelDb.enableGroupCommit(5, 2, false)
+    val gc = levelDb.groupCommit
+    val futures = new java.util.concurrent.ConcurrentLinkedQueue[java.util.concurrent.CompletableFuture[Void]]
+    val writers = (1 to 8).map { nr =>
+      val t = new Thread(() => for (i <- 1 to 500) {
+        futures.add(gc.submit(Seq(new KvinTuple(itemUri(nr), valueProperty, null, i, i))))
+      })
+      t.start()
+      t
+    }
+    Thread.sleep(10)
+    levelDb.disableGroupCommit()
+    writers.foreach(_.join())
+
+    // each request is either written or rejected
+    assertEquals(8 * 500, futures.size)
+    val written = futures.asScala.count { f =>
+      assertTrue(f.isDone)
+      !f.isCompletedExceptionally
+    }
+    assertEquals(written, (1 to 8).map(nr => store.fetch(itemUri(nr), valueProperty, null, 0).toList.size).sum)
+  }
+
+  @Test
+  def testLatestValueCache: Unit = {
+    val levelDb = store.asInstanceOf[KvinLevelDb]
+    levelDb.enableLatestValueCache(1024 * 1024)
+    val cache = levelDb.getLatestValueCache
+    val item = itemUri(1)
+    def latest = store.fetch(item, valueProperty, null, 1).toList.asScala.toList
+
+    store.put((1 to 10).map(t => new KvinTuple(item, valueProperty, null, t, t.toLong)).asJava)
+    assertEquals(List(new KvinTuple(item, valueProperty, Kvin.DEFAULT_CONTEXT, 10, 10L)), latest)
+    assertEquals(1, cache.size)
+    assertEquals(List(new KvinTuple(item, valueProperty, Kvin.DEFAULT_CONTEXT, 10, 10L)), latest)
+    assertEquals(1, cache.hitCount)
+
+    // newer values are written through, older values are ignored
+    store.put(new KvinTuple(item, valueProperty, null, 20, "twenty"))
+    store.put(new KvinTuple(item, valueProperty, null, 5, 0L))
+    assertEquals(List(new KvinTuple(item, valueProperty, Kvin.DEFAULT_CONTEXT, 20, "twenty")), latest)
+    assertEquals(2, cache.hitCount)
+
+    // time ranges before and after the latest value
+    assertEquals(10L, store.fetch(item, valueProperty, null, 15, 0, 1, 0, null).next.value)
+    assertFalse(store.fetch(item, valueProperty, null, 100, 30, 1, 0, null).hasNext)
+
+    // values that may be changed by encoding invalidate the cache
+    store.put(new KvinTuple(item, valueProperty, null, 30, new Record(valueProperty, 1)))
+    assertEquals(0, cache.size)
+    assertEquals(new Record(valueProperty, 1), latest.head.value)
+
+    store.delete(item, valueProperty, null, 30, 30)
+    assertEquals(List(new KvinTuple(item, valueProperty, Kvin.DEFAULT_CONTEXT, 20, "twenty")), latest)
+    store.delete(item, null)
+    assertEquals(Nil, latest)
+  }
+
+  @Test
+  def testApproximateSize: Unit = {
+    val (small, large) = (itemUri(1), itemUri(2))
+    store.put((1 to 10).map(t => new KvinTuple(small, valueProperty, null, t, t.toDouble)).asJava)
+    store.put((1 to 50000).map(t => new KvinTuple(large, valueProperty, null, t, t.toDouble)).asJava)
+
+    // the values of small ranges are counted
+    assertEquals(10L, store.approximateSize(small, valueProperty, null, KvinTuple.TIME_MAX_VALUE, 0))
+    assertEquals(5L, store.approximateSize(small, null, null, 5, 1))
+    assertEquals(0L, store.approximateSize(itemUri(3), valueProperty, null, KvinTuple.TIME_MAX_VALUE, 0))
+
+    // the size of large ranges is estimated after the values were written to disk
+    recreateStore
+    val size = store.approximateSize(large, valueProperty, null, KvinTuple.TIME_MAX_VALUE, 0)
+    assertTrue(size > 1000)
+    assertTrue(store.approximateSize(large, valueProperty, null, 10000, 1) < size)
+    assertEquals(10L, store.approximateSize(small, valueProperty, null, KvinTuple.TIME_MAX_VALUE, 0))
+  }
+}
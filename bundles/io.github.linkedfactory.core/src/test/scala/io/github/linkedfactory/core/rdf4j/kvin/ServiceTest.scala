@@ -17,11 +17,14 @@ package io.github.linkedfactory.core.rdf4j.kvin
 
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
 import io.github.linkedfactory.core.kvin.{Kvin, KvinTuple, Record}
+import io.github.linkedfactory.core.rdf4j.kvin.query.KvinFetch
 import net.enilink.komma.core.URIs
 import net.enilink.vocab.rdf.RDF
-import org.eclipse.rdf4j.model.Literal
+import org.eclipse.rdf4j.model.{IRI, Literal}
 import org.eclipse.rdf4j.query.QueryLanguage
+import org.eclipse.rdf4j.query.algebra.QueryModelNode
 import org.eclipse.rdf4j.query.algebra.evaluation.federation.AbstractFederatedServiceResolver
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor
 import org.eclipse.rdf4j.repository.Repository
 import org.eclipse.rdf4j.repository.sail.SailRepository
 import org.eclipse.rdf4j.sail.memory.MemoryStore
@@ -31,6 +34,8 @@ import java.io.{File, IOException}
 import java.nio.file.attribute.BasicFileAttributes
 import java.nio.file.{FileVisitResult, Files, Path, SimpleFileVisitor}
 import java.util.concurrent.Executors
+import scala.collection.mutable.ListBuffer
+import scala.jdk.CollectionConverters._
 import scala.util.Random
 
 class ServiceTest {
@@ -41,6 +46,7 @@ class ServiceTest {
   var storeDirectory: File = _
   var store: Kvin = _
   var repository: Repository = _
+  var service: KvinFederatedService = _
 
   @Test
   def basicTest {
@@ -78,6 +84,163 @@ class ServiceTest {
     }
   }
 
+  @Test
+  def planCacheTest {
+    addData(10, 10)
+
+    val conn = repository.getConnection
+    try {
+      val time = START_TIME + 20
+      // blank nodes are parsed as variables with random names
+      val queryStr =
+        s"""select ?item ?value ?time where { values ?item { <item-1> <item-2> } service <kvin:> {
+           |?item <property:value> [ <kvin:to> $time ; <kvin:limit> 2 ; <kvin:value> ?value ; <kvin:time> ?time ]
+           |} } order by ?item ?time""".stripMargin
+
+      def evaluate() = {
+        val r = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryStr, "http://example.org/").evaluate
+        try {
+          r.asScala.map(bs => (bs.getValue("item"), bs.getValue("value"), bs.getValue("time"))).toList
+        } finally {
+          r.close
+        }
+      }
+
+      val results = evaluate()
+      Assert.assertEquals(4, results.size)
+      for (_ <- 1 to 3) {
+        Assert.assertEquals(results, evaluate())
+      }
+      // the optimized service expression is reused
+      Assert.assertEquals(1, service.planCache.size)
+    } finally {
+      conn.close
+    }
+  }
+
+  @Test
+  def fetchOrderTest {
+    addData(2, 10)
+
+    val conn = repository.getConnection
+    try {
+      val queryStr =
+        s"""select ?v1 ?v2 where { service <kvin:> {
+           |<item-1> <property:value> [ <kvin:value> ?v1 ] .
+           |<item-2> <property:value> [ <kvin:limit> 1 ; <kvin:value> ?v2 ] .
+           |} }""".stripMargin
+      val r = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryStr, "http://example.org/").evaluate
+      try {
+        Assert.assertEquals(10, r.asScala.size)
+      } finally {
+        r.close
+      }
+
+      // the fetch with the lowest estimated number of values is evaluated first
+      val fetches = new ListBuffer[KvinFetch]
+      service.planCache.asMap.values.asScala.head.expr.visit(new AbstractQueryModelVisitor[RuntimeException] {
+        override def meetOther(node: QueryModelNode): Unit = node match {
+          case fetch: KvinFetch => fetches += fetch
+          case _ => super.meetOther(node)
+        }
+      })
+      Assert.assertEquals(List("item-2", "item-1"),
+        fetches.map(_.getStatement.getSubjectVar.getValue.asInstanceOf[IRI].getLocalName).toList)
+    } finally {
+      conn.close
+    }
+  }
+
+  @Test
+  def filterPushDownTest {
+    val data = addData(2, 10)
+
+    val conn = repository.getConnection
+    try {
+      val queryStr =
+        s"""select ?time ?value where { service <kvin:> {
+           |<item-1> <property:value> [ <kvin:value> ?value ; <kvin:time> ?time ] .
+           |filter (?value > 20 && ?time >= ${START_TIME + 30})
+           |} } order by ?time""".stripMargin
+      val r = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryStr, "http://example.org/").evaluate
+      val results = try {
+        r.asScala.map(bs => (bs.getValue("time").asInstanceOf[Literal].longValue,
+          bs.getValue("value").asInstanceOf[Literal].doubleValue)).toList
+      } finally {
+        r.close
+      }
+      val expected = data.filter(t => t.item == itemUri(1) && t.time >= START_TIME + 30
+        && t.value.asInstanceOf[Double] > 20).map(t => (t.time, t.value.asInstanceOf[Double])).sortBy(_._1)
+      Assert.assertTrue(expected.nonEmpty)
+      Assert.assertEquals(expected, results)
+
+      // both comparisons are evaluated by the store
+      val fetches = collectFetches()
+      Assert.assertEquals(1, fetches.size)
+      Assert.assertNotNull(fetches.head.getParams.valueFilter)
+      Assert.assertNotNull(fetches.head.getParams.timeFilter)
+    } finally {
+      conn.close
+    }
+  }
+
+  @Test
+  def aggregatePushDownTest {
+    val data = addData(2, 10)
+
+    val conn = repository.getConnection
+    try {
+      for (op <- List("max", "avg", "count")) {
+        val queryStr =
+          s"""select ?b ?m where { service <kvin:> {
+             |select ?b ($op(?value) as ?m) where {
+             |<item-1> <property:value> [ <kvin:value> ?value ; <kvin:time> ?time ]
+             |} group by (floor(?time / 50) as ?b)
+             |} } order by ?b""".stripMargin
+        val r = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryStr, "http://example.org/").evaluate
+        val results = try {
+          r.asScala.map(bs => (bs.getValue("b").asInstanceOf[Literal].longValue,
+            bs.getValue("m").asInstanceOf[Literal].doubleValue)).toList
+        } finally {
+          r.close
+        }
+        val expected = data.filter(_.item == itemUri(1)).groupBy(_.time / 50).view.mapValues { tuples =>
+          val values = tuples.map(_.value.asInstanceOf[Double])
+          op match {
+            case "max" => values.max
+            case "avg" => values.sum / values.size
+            case "count" => values.size.toDouble
+          }
+        }.toList.sortBy(_._1)
+        Assert.assertEquals(2, results.size)
+        expected.zip(results).foreach { case ((b, m), (rb, rm)) =>
+          Assert.assertEquals(b, rb)
+          Assert.assertEquals(m, rm, 0.001)
+        }
+
+        // the values are aggregated by the store
+        val fetches = collectFetches()
+        Assert.assertEquals(1, fetches.size)
+        Assert.assertEquals(op, fetches.head.getParams.aggregationFunction.getValue.stringValue)
+        Assert.assertEquals(50L, fetches.head.getParams.interval.getValue.asInstanceOf[Literal].longValue)
+        service.planCache.invalidateAll()
+      }
+    } finally {
+      conn.close
+    }
+  }
+
+  def collectFetches(): List[KvinFetch] = {
+    val fetches = new ListBuffer[KvinFetch]
+    service.planCache.asMap.values.asScala.head.expr.visit(new AbstractQueryModelVisitor[RuntimeException] {
+      override def meetOther(node: QueryModelNode): Unit = node match {
+        case fetch: KvinFetch => fetches += fetch
+        case _ => super.meetOther(node)
+      }
+    })
+    fetches.toList
+  }
+
   @Test
   def recordTest {
     val data = addRecords(2, 10)
@@ -356,7 +519,7 @@ class ServiceTest {
       val executorService = Executors.newCachedThreadPool()
 
       override def createService(url: String) = {
-        val service = new KvinFederatedService(store, () => executorService, null, false)
+        service = new KvinFederatedService(store, () => executorService, null, false)
         service
       }
 
@@ -2,13 +2,18 @@ package io.github.linkedfactory.service.config;
 
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.composition.annotations.Iri;
+import net.enilink.komma.core.ILiteral;
 import org.eclipse.core.runtime.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 
 @Iri("plugin://io.github.linkedfactory.service/data/KvinLevelDb")
 public abstract class KvinLevelDbFactory implements IKvinFactory {
@@ -16,11 +21,160 @@ public abstract class KvinLevelDbFactory implements IKvinFactory {
 
 	public static String TYPE = "plugin://io.github.linkedfactory.service/data/KvinLevelDb";
 
+	static final int FETCH_BUFFER_SIZE = 1000;
+	static final int DEFAULT_GROUP_COMMIT_BATCH_SIZE = 10000;
+
 	@Override
 	public Kvin create() {
 		File valueStorePath = getStorePAthOr("linkedfactory-valuestore");
 		log.info("Using store path: {}", valueStorePath);
-		return new KvinLevelDb(valueStorePath);
+		long[] rollupTiers = parseRollupTiers();
+		if (rollupTiers != null) {
+			log.info("Using rollup tiers: {}", Arrays.toString(rollupTiers));
+		}
+		int idCacheSize = parseIdCacheSize();
+		long chunkInterval = parseChunkInterval();
+		if (chunkInterval > 0) {
+			log.info("Using chunks of {} ms for numeric values", chunkInterval);
+		}
+		KvinLevelDb store = new KvinLevelDb(valueStorePath, rollupTiers, idCacheSize, chunkInterval);
+		int fetchParallelism = parseFetchParallelism();
+		if (fetchParallelism > 1) {
+			log.info("Using parallel fetch with {} concurrent streams", fetchParallelism);
+			store.setParallelFetch(new ParallelFetch(fetchParallelism, fetchParallelism, FETCH_BUFFER_SIZE));
+		}
+		long groupCommitLatency = parseGroupCommitLatency();
+		if (groupCommitLatency >= 0) {
+			int groupCommitBatchSize = parseGroupCommitBatchSize();
+			log.info("Using group commit with a maximum latency of {} ms and batches of up to {} values",
+					groupCommitLatency, groupCommitBatchSize);
+			store.enableGroupCommit(groupCommitLatency, groupCommitBatchSize, false);
+		}
+		long latestValueCacheSize = parseLatestValueCacheSize();
+		if (latestValueCacheSize > 0) {
+			log.info("Using cache for latest values with {} bytes", latestValueCacheSize);
+			store.enableLatestValueCache(latestValueCacheSize);
+		}
+		return store;
+	}
+
+	protected int parseIdCacheSize() {
+		ILiteral idCacheSize = getIdCacheSize();
+		if (idCacheSize != null) {
+			try {
+				int size = Integer.parseInt(idCacheSize.getLabel().trim());
+				if (size > 0) {
+					return size;
+				}
+				log.error("invalid id cache size: {}", idCacheSize);
+			} catch (NumberFormatException nfe) {
+				log.error("invalid id cache size: {}", idCacheSize);
+			}
+		}
+		return KvinLevelDb.DEFAULT_ID_CACHE_SIZE();
+	}
+
+	/**
+	 * Parses the optional chunk interval given as duration in milliseconds or
+	 * ISO-8601 format (e.g. "PT1H").
+	 */
+	protected long parseChunkInterval() {
+		ILiteral chunkInterval = getChunkInterval();
+		if (chunkInterval != null) {
+			String s = chunkInterval.getLabel().trim();
+			try {
+				return Long.parseLong(s);
+			} catch (NumberFormatException nfe) {
+				try {
+					return Duration.parse(s).toMillis();
+				} catch (DateTimeParseException dtpe) {
+					log.error("invalid chunk interval: {}", chunkInterval);
+				}
+			}
+		}
+		return 0;
+	}
+
+	protected long parseGroupCommitLatency() {
+		ILiteral groupCommitLatency = getGroupCommitLatency();
+		if (groupCommitLatency != null) {
+			try {
+				return Long.parseLong(groupCommitLatency.getLabel().trim());
+			} catch (NumberFormatException nfe) {
+				log.error("invalid group commit latency: {}", groupCommitLatency);
+			}
+		}
+		return -1;
+	}
+
+	protected int parseGroupCommitBatchSize() {
+		ILiteral groupCommitBatchSize = getGroupCommitBatchSize();
+		if (groupCommitBatchSize != null) {
+			try {
+				int size = Integer.parseInt(groupCommitBatchSize.getLabel().trim());
+				if (size > 0) {
+					return size;
+				}
+				log.error("invalid group commit batch size: {}", groupCommitBatchSize);
+			} catch (NumberFormatException nfe) {
+				log.error("invalid group commit batch size: {}", groupCommitBatchSize);
+			}
+		}
+		return DEFAULT_GROUP_COMMIT_BATCH_SIZE;
+	}
+
+	/**
+	 * Parses the optional memory budget in bytes of the cache for latest values.
+	 */
+	protected long parseLatestValueCacheSize() {
+		ILiteral latestValueCacheSize = getLatestValueCacheSize();
+		if (latestValueCacheSize != null) {
+			try {
+				return Long.parseLong(latestValueCacheSize.getLabel().trim());
+			} catch (NumberFormatException nfe) {
+				log.error("invalid latest value cache size: {}", latestValueCacheSize);
+			}
+		}
+		return 0;
+	}
+
+	protected int parseFetchParallelism() {
+		ILiteral fetchParallelism = getFetchParallelism();
+		if (fetchParallelism != null) {
+			try {
+				return Integer.parseInt(fetchParallelism.getLabel().trim());
+			} catch (NumberFormatException nfe) {
+				log.error("invalid fetch parallelism: {}", fetchParallelism);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Parses the optional rollup tiers given as space or comma separated list
+	 * of durations in milliseconds or ISO-8601 format (e.g. "PT1M PT1H P1D").
+	 */
+	protected long[] parseRollupTiers() {
+		ILiteral rollups = getRollups();
+		if (rollups == null) {
+			return null;
+		}
+		return Arrays.stream(rollups.getLabel().trim().split("[\\s,]+"))
+				.filter(s -> !s.isEmpty())
+				.mapToLong(s -> {
+					try {
+						return Long.parseLong(s);
+					} catch (NumberFormatException nfe) {
+						try {
+							return Duration.parse(s).toMillis();
+						} catch (DateTimeParseException dtpe) {
+							log.error("invalid rollup tier: {}", s);
+							return 0;
+						}
+					}
+				})
+				.filter(t -> t > 0)
+				.toArray();
 	}
 
 	protected File getStorePAthOr(String name) {
@@ -43,4 +197,25 @@ public abstract class KvinLevelDbFactory implements IKvinFactory {
 
 	@Iri("plugin://io.github.linkedfactory.service/data/dirName")
 	public abstract String getDirName();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/rollups")
+	public abstract ILiteral getRollups();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/fetchParallelism")
+	public abstract ILiteral getFetchParallelism();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/groupCommitLatency")
+	public abstract ILiteral getGroupCommitLatency();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/groupCommitBatchSize")
+	public abstract ILiteral getGroupCommitBatchSize();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/idCacheSize")
+	public abstract ILiteral getIdCacheSize();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/chunkInterval")
+	public abstract ILiteral getChunkInterval();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/latestValueCacheSize")
+	public abstract ILiteral getLatestValueCacheSize();
 }
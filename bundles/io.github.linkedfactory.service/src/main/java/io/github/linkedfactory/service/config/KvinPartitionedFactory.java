@@ -2,6 +2,7 @@ package io.github.linkedfactory.service.config;
 
 import io.github.linkedfactory.core.kvin.Kvin;
 import io.github.linkedfactory.core.kvin.partitioned.KvinPartitioned;
+import io.github.linkedfactory.core.kvin.util.ParallelFetch;
 import net.enilink.composition.annotations.Iri;
 import net.enilink.komma.core.ILiteral;
 import org.slf4j.Logger;
@@ -39,12 +40,60 @@ public abstract class KvinPartitionedFactory extends KvinLevelDbFactory {
 				}
 			}
 
-			return new KvinPartitioned(archivePath, archiveIntervalDuration);
+			KvinPartitioned store = new KvinPartitioned(archivePath, archiveIntervalDuration);
+			int fetchParallelism = parseFetchParallelism();
+			if (fetchParallelism > 1) {
+				log.info("Using parallel archive scans with {} concurrent files", fetchParallelism);
+				store.setArchiveParallelFetch(new ParallelFetch(fetchParallelism, fetchParallelism, FETCH_BUFFER_SIZE));
+			}
+			int compactionParallelism = parseCompactionParallelism();
+			long compactionRate = parseCompactionRate();
+			if (compactionParallelism > 1 || compactionRate > 0) {
+				log.info("Using archive compaction with {} concurrent folders and a rate of {} bytes/s",
+						Math.max(1, compactionParallelism), compactionRate > 0 ? compactionRate : "unlimited");
+				store.setArchiveCompaction(Math.max(1, compactionParallelism), compactionRate);
+			}
+			long latestValueCacheSize = parseLatestValueCacheSize();
+			if (latestValueCacheSize > 0) {
+				log.info("Using cache for latest values with {} bytes", latestValueCacheSize);
+				store.enableLatestValueCache(latestValueCacheSize);
+			}
+			return store;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	protected int parseCompactionParallelism() {
+		ILiteral compactionParallelism = getCompactionParallelism();
+		if (compactionParallelism != null) {
+			try {
+				return Integer.parseInt(compactionParallelism.getLabel().trim());
+			} catch (NumberFormatException nfe) {
+				log.error("invalid compaction parallelism: {}", compactionParallelism);
+			}
+		}
+		return 1;
+	}
+
+	protected long parseCompactionRate() {
+		ILiteral compactionRate = getCompactionRate();
+		if (compactionRate != null) {
+			try {
+				return Long.parseLong(compactionRate.getLabel().trim());
+			} catch (NumberFormatException nfe) {
+				log.error("invalid compaction rate: {}", compactionRate);
+			}
+		}
+		return 0;
+	}
+
 	@Iri("plugin://io.github.linkedfactory.service/data/archiveInterval")
 	public abstract ILiteral getArchiveInterval();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/compactionParallelism")
+	public abstract ILiteral getCompactionParallelism();
+
+	@Iri("plugin://io.github.linkedfactory.service/data/compactionRate")
+	public abstract ILiteral getCompactionRate();
 }
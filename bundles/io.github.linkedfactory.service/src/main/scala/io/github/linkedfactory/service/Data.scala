@@ -16,7 +16,10 @@
 package io.github.linkedfactory.service
 
 import com.google.common.cache.CacheBuilder
-import io.github.linkedfactory.core.kvin.{Kvin, KvinListener}
+import io.github.linkedfactory.core.kvin.http.HttpClientPool
+import io.github.linkedfactory.core.kvin.util.BatchWriter
+import io.github.linkedfactory.core.rdf4j.common.query.{InnerJoinIterator, QueryExecutorService}
+import io.github.linkedfactory.core.kvin.{CachingKvin, Kvin, KvinListener}
 import io.github.linkedfactory.service.config.{IKvinFactory, KvinLevelDbFactory}
 import io.github.linkedfactory.service.model.ssn._
 import io.github.linkedfactory.service.util.ResourceHelpers.withTransaction
@@ -56,18 +59,74 @@ object Data {
 
   // FIXME: make withPluginConfig return a result, use val from result
   private var _modelURI: URI = _
+  private var _uploadBatchSize = BatchWriter.DEFAULT_BATCH_SIZE
+  private var _uploadQueueSize = BatchWriter.DEFAULT_QUEUE_SIZE
+  private var _httpClientPool: Option[HttpClientPool] = None
+  private var _fetchCache: Option[(Long, Long)] = None
+  private var _joinPrefetch: Option[Int] = None
+  private var _queryExecutor: Option[QueryExecutorService] = None
+
+  private def positiveInt(value: Any, defaultValue: Int): Int = value match {
+    case n: Number if n.intValue > 0 => n.intValue
+    case s: String if s.trim.toIntOption.exists(_ > 0) => s.trim.toInt
+    case null => defaultValue
+    case other =>
+      log.error("Invalid configuration value: {}", other)
+      defaultValue
+  }
 
   if (bundleContext != null) {
     // configure default model
     Globals.withPluginConfig { pcModel => {
-      val defaultModel = pcModel.getManager.find(cfgUri, classOf[IResource])
-        .getSingle(cfgUri.appendLocalPart("defaultModel"));
+      val cfg = pcModel.getManager.find(cfgUri, classOf[IResource])
+      val defaultModel = cfg.getSingle(cfgUri.appendLocalPart("defaultModel"));
       _modelURI = defaultModel match {
         case r: IReference if r.getURI != null => r.getURI
         case s: String => URIs.createURI(s)
         case _ => URIs.createURI("http://linkedfactory.github.io/data/")
       }
       log.info("Using default data model: {}", _modelURI)
+      _uploadBatchSize = positiveInt(cfg.getSingle(cfgUri.appendLocalPart("uploadBatchSize")), _uploadBatchSize)
+      _uploadQueueSize = positiveInt(cfg.getSingle(cfgUri.appendLocalPart("uploadQueueSize")), _uploadQueueSize)
+      cfg.getSingle(cfgUri.appendLocalPart("httpClient")) match {
+        case httpCfg: IResource =>
+          def setting(name: String, defaultValue: Int) = positiveInt(httpCfg.getSingle(cfgUri.appendLocalPart(name)), defaultValue)
+
+          _httpClientPool = Some(new HttpClientPool(
+            setting("maxConnections", HttpClientPool.DEFAULT_MAX_CONNECTIONS),
+            setting("maxConnectionsPerHost", HttpClientPool.DEFAULT_MAX_CONNECTIONS_PER_HOST),
+            setting("connectTimeout", HttpClientPool.DEFAULT_CONNECT_TIMEOUT),
+            setting("socketTimeout", HttpClientPool.DEFAULT_SOCKET_TIMEOUT),
+            setting("keepAlive", HttpClientPool.DEFAULT_KEEP_ALIVE.toInt)))
+        case _ =>
+      }
+      cfg.getSingle(cfgUri.appendLocalPart("fetchCache")) match {
+        case cacheCfg: IResource =>
+          def setting(name: String, defaultValue: Int) = positiveInt(cacheCfg.getSingle(cfgUri.appendLocalPart(name)), defaultValue)
+
+          _fetchCache = Some((setting("maxValues", 1000000).toLong,
+            setting("expireAfter", CachingKvin.DEFAULT_EXPIRE_AFTER.toInt).toLong))
+        case _ =>
+      }
+      _joinPrefetch = Option(cfg.getSingle(cfgUri.appendLocalPart("joinPrefetch")))
+        .map(positiveInt(_, InnerJoinIterator.DEFAULT_PREFETCH))
+      cfg.getSingle(cfgUri.appendLocalPart("queryExecutor")) match {
+        case executorCfg: IResource =>
+          def setting(name: String, defaultValue: Int) = positiveInt(executorCfg.getSingle(cfgUri.appendLocalPart(name)), defaultValue)
+
+          val mode = executorCfg.getSingle(cfgUri.appendLocalPart("mode")) match {
+            case null => QueryExecutorService.Mode.VIRTUAL
+            case name => QueryExecutorService.Mode.values.find(_.name.equalsIgnoreCase(name.toString.trim)).getOrElse {
+              log.error("Invalid query executor mode: {}", name)
+              QueryExecutorService.Mode.VIRTUAL
+            }
+          }
+          _queryExecutor = Some(new QueryExecutorService(mode,
+            setting("threads", Runtime.getRuntime.availableProcessors),
+            setting("maxConcurrency", QueryExecutorService.DEFAULT_MAX_CONCURRENCY),
+            setting("maxConcurrencyPerQuery", QueryExecutorService.DEFAULT_MAX_CONCURRENCY_PER_QUERY)))
+        case _ =>
+      }
     }
     }
   }
@@ -81,6 +140,18 @@ object Data {
     .build[URI, Any]()
 
   val modelURI = _modelURI
+  // number of tuples that are written at once when values are uploaded
+  val uploadBatchSize = _uploadBatchSize
+  // number of parsed batches that may wait to be written
+  val uploadQueueSize = _uploadQueueSize
+  // connection pool for requests to remote services if configured
+  val httpClientPool = _httpClientPool
+  // maximum number of values and expiry time in milliseconds of the cache for SPARQL services if configured
+  val fetchCache = _fetchCache
+  // number of join results of SPARQL services that are computed ahead in parallel if configured
+  val joinPrefetch = _joinPrefetch
+  // executor for the asynchronous evaluation of SPARQL services if configured
+  val queryExecutor = _queryExecutor
 
   // caches currentModel for each request
   object modelForRequest extends RequestVar[Box[IModel]](currentModel)
@@ -15,9 +15,12 @@
  */
 package io.github.linkedfactory.service
 
-import io.github.linkedfactory.core.kvin.util.{AsyncExtendedIterator, CsvFormatParser, JsonFormatWriter}
-import io.github.linkedfactory.core.kvin.{Kvin, KvinTuple, Record}
+import io.github.linkedfactory.core.kvin.util.{AsyncExtendedIterator, BatchWriter, BinaryFormatParser, BinaryFormatWriter, CsvFormatParser, JsonFormatWriter, SeriesMerger}
+import io.github.linkedfactory.core.kvin.http.ValuesQuery
+import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
+import io.github.linkedfactory.core.kvin.{Kvin, KvinCursor, KvinTuple, Record}
 import io.github.linkedfactory.core.rdf4j.FederatedServiceComponent
+import io.github.linkedfactory.core.rdf4j.common.query.QueryExecutorService
 import io.github.linkedfactory.service.util.{JsonFormatParser, LineProtocolParser}
 import net.enilink.commons.iterator.{IExtendedIterator, NiceIterator}
 import net.enilink.komma.core.{URI, URIs}
@@ -35,9 +38,17 @@ import java.io.{InputStream, OutputStream, OutputStreamWriter}
 import java.text.SimpleDateFormat
 import java.util
 import java.util.Date
+import java.util.function.Supplier
 import scala.jdk.CollectionConverters._
 
-class KvinService(path: List[String], store: Kvin) extends RestHelper with Loggable {
+/**
+ * REST service for reading and writing values of a Kvin store.
+ *
+ * Uploaded values are parsed incrementally and written in batches of `uploadBatchSize` tuples while at most
+ * `uploadQueueSize` batches are pending.
+ */
+class KvinService(path: List[String], store: Kvin, uploadBatchSize: Int = BatchWriter.DEFAULT_BATCH_SIZE,
+                  uploadQueueSize: Int = BatchWriter.DEFAULT_QUEUE_SIZE) extends RestHelper with Loggable {
   val MAX_LIMIT = 500000
   val valueProperty: URI = URIs.createURI("value")
 
@@ -57,9 +68,16 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
       (r.weightedAccept.isEmpty || r.acceptsStarStar) && r.path.suffix.equalsIgnoreCase("csv")
   }
 
+  protected def binaryResponse_?(r: Req): Boolean = {
+    S.param("type").exists(_ == BinaryFormatWriter.MIME_TYPE) ||
+      r.weightedAccept.exists(_.matches("application" -> "x-kvin")) && !r.acceptsStarStar
+  }
+
   protected def responseType(r: Req): Box[String] = {
     S.param("type") or {
-      if (jsonResponse_?(r)) Full("application/json")
+      // the binary format is preferred if the client supports it
+      if (binaryResponse_?(r)) Full(BinaryFormatWriter.MIME_TYPE)
+      else if (jsonResponse_?(r)) Full("application/json")
       else if (csvResponse_?(r)) Full("text/csv")
       else Empty
     }
@@ -75,15 +93,23 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     case list Get req if list.endsWith("values" :: Nil) => serveValues(list, responseType(req))
     case list Post req if list.endsWith("values" :: Nil) &&
       req.contentType.exists(_ == "application/x-www-form-urlencoded") => serveValues(list, responseType(req))
+    // items and properties are given within the request body, all other parameters as URL parameters
+    case list Post req if list.endsWith("values" :: Nil) && req.contentType.exists(_ == ValuesQuery.MIME_TYPE) =>
+      req.rawInputStream.flatMap(in => tryo(ValuesQuery.read(in))) match {
+        case Full(query) => serveValues(list, responseType(req), Full(query))
+        case Failure(msg, _, _) => FailureResponse(msg)
+        case _ => BadRequestResponse()
+      }
     case list Post req if list.endsWith("values" :: Nil) =>
       val result = req.contentType match {
         case Full("application/influxdb-line") =>
           req.rawInputStream.flatMap(saveLineValues(_, path ++ list.dropRight(1), System.currentTimeMillis))
         case Full("text/csv") =>
           req.rawInputStream.flatMap(saveCsvValues(_, path ++ list.dropRight(1), System.currentTimeMillis))
+        case Full(BinaryFormatWriter.MIME_TYPE) =>
+          req.rawInputStream.flatMap(saveBinaryValues(_))
         case _ =>
-          req.json.flatMap(saveValues(_, path ++ list.dropRight(1), System.currentTimeMillis))
-        // req.rawInputStream.flatMap(saveValues(_, path ++ list.dropRight(1), System.currentTimeMillis))
+          req.rawInputStream.flatMap(saveValues(_, path ++ list.dropRight(1), System.currentTimeMillis))
       }
       result match {
         case Failure(msg, _, _) => FailureResponse(msg)
@@ -96,7 +122,7 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     // case list Get _ => // TODO return RDF description
   })
 
-  def serveValues(path: List[String], contentType: Box[String]): LiftResponse = {
+  def serveValues(path: List[String], contentType: Box[String], query: Box[ValuesQuery] = Empty): LiftResponse = {
     val limit = S.param("limit") flatMap (v => tryo(v.toLong)) filter (_ > 0) openOr 10000L
 
     if (limit > MAX_LIMIT) {
@@ -144,81 +170,99 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
 
       val response = contentType map {
         case "application/json" =>
-          val values = getValues(path ++ path.dropRight(1), limit)
           // { "item" : { "property1" : [ { "time" : 123, "seqNr" : 2, "value" : 1.3 } ], "property2" : [ { "time" : 123, "seqNr" : 5, "value" : 3.2 } ] } }
+          val streamer = getValueCursors(path ++ path.dropRight(1), limit, query) match {
+            case Full(cursors) => (os: OutputStream) => {
+              // raw values are written directly from the store without creating tuples
+              val writer = new JsonFormatWriter(os, false)
+              try {
+                cursors.foreach { createCursor =>
+                  val cursor = createCursor()
+                  try {
+                    while (cursor.next()) writer.writeCursor(cursor)
+                  } finally {
+                    cursor.close()
+                  }
+                }
+              } catch {
+                case e: Exception => logger.error("Error while writing JSON data", e)
+              } finally {
+                writer.close()
+                os.close()
+              }
+            }
+            case _ =>
+              val values = getValues(path ++ path.dropRight(1), limit, query)
+              (os: OutputStream) => {
+                val writer = new JsonFormatWriter(os, false)
+                try {
+                  values.forEach(writer.writeTuple(_))
+                } catch {
+                  case e: Exception => logger.error("Error while writing JSON data", e)
+                } finally {
+                  try {
+                    values.close()
+                  } finally {
+                    writer.close()
+                    os.close()
+                  }
+                }
+              }
+          }
+          OutputStreamResponse(streamer, -1, ("Content-Type", "application/json; charset=utf-8") ::
+            ("Content-Disposition", s"""inline; filename=${filename("json")}""") :: responseHeaders, S.responseCookies, 200)
+        case BinaryFormatWriter.MIME_TYPE =>
+          val values = getValues(path ++ path.dropRight(1), limit, query)
           val streamer = (os: OutputStream) => {
-            val writer = new JsonFormatWriter(os, false)
+            val writer = new BinaryFormatWriter(os)
+            var failed = false
             try {
               values.forEach(writer.writeTuple(_))
             } catch {
-              case e : Exception => logger.error("Error while writing JSON data", e)
+              case e: Exception =>
+                failed = true
+                logger.error("Error while writing binary data", e)
             } finally {
               try {
                 values.close()
               } finally {
-                writer.close()
-                os.close()
+                // the end marker is omitted after a failure to signal the client that the data is incomplete
+                try {
+                  if (!failed) writer.close()
+                } finally {
+                  os.close()
+                }
               }
             }
           }
-          OutputStreamResponse(streamer, -1, ("Content-Type", "application/json; charset=utf-8") ::
-            ("Content-Disposition", s"""inline; filename=${filename("json")}""") :: responseHeaders, S.responseCookies, 200)
+          OutputStreamResponse(streamer, -1, ("Content-Type", BinaryFormatWriter.MIME_TYPE) ::
+            ("Content-Disposition", s"""inline; filename=${filename("kvin")}""") :: responseHeaders, S.responseCookies, 200)
         case "text/csv" =>
-          // { "item" : { "property1" : [ { "time" : 123, "seqNr" : 2, "value" : 1.3 } ], "property2" : [ { "time" : 123, "seqNr" : 5, "value" : 3.2 } ] } }
-          // TODO find solution to not materialize everything as map
-          val valuesMap = getValuesMap(path ++ path.dropRight(1), limit)
+          val columns = getValueColumns(path ++ path.dropRight(1), limit, query)
           val streamer = (os: OutputStream) => {
-            val streamWriter = new OutputStreamWriter(os)
-            val csvFormat = CSVFormat.EXCEL
-            val csvPrinter = new CSVPrinter(streamWriter, csvFormat)
-
-            // either use supplied properties or properties retrieved from database
-            val propertiesParam = S.param("properties").map(_.split("\\s+").toList)
-
-            val itemProperties = valuesMap.map(v => {
-              (propertiesParam openOr v._2.map(_._1).toSet.toList.sorted).map((v._1, _))
-            }).flatten.toList
-
-            // print header row
-            csvPrinter.printRecord(("time" :: itemProperties.map(p => s"<${p._1}>@<${p._2}>")).asJava)
-
-            var itemData = valuesMap.flatMap(v => {
-              val ps = propertiesParam openOr v._2.map(_._1).toSet.toList.sorted
-              ps.flatMap(p => v._2.get(p).map(it => (if (it.hasNext()) it.next() else null, it)))
-            })
-
-            val ordering: Ordering[KvinTuple] = (a: KvinTuple, b: KvinTuple) => {
-              // compare first by time and then by seqNr
-              val diffTime = a.time - b.time
-              if (diffTime != 0) diffTime.toInt else a.seqNr - b.seqNr
-            }
-            var finished = false
-            while (!finished) {
-              val nextTuples = itemData.map(_._1).filter(_ != null)
-              val maxTuple = if (nextTuples.isEmpty) null else nextTuples.max(ordering)
-              if (maxTuple != null) {
-                // print the row, properties without values at row timestamp stay unset
-                csvPrinter.printRecord((formatDate(maxTuple.time) :: itemData.map(d => {
-                  if (d._1 != null && ordering.compare(maxTuple, d._1) == 0 && d._1.value != null) value2Str(d._1.value, false) else null
-                }).toList).asJava)
-
-                // select next tuple from iterators
-                itemData = itemData.map(d => {
-                  if (d._1 != null && ordering.compare(maxTuple, d._1) == 0) {
-                    val it = d._2
-                    val next = if (it.hasNext()) it.next() else {
-                      it.close()
-                      null
-                    }
-                    (next, if (next != null) it else null)
-                  } else d
-                })
-              } else {
-                finished = true
+            val csvPrinter = new CSVPrinter(new OutputStreamWriter(os), CSVFormat.EXCEL)
+            // the series are merged into rows with one column per item and property
+            val merger = SeriesMerger.ofCursors(columns.map(_._3).asJava)
+            try {
+              // print header row
+              csvPrinter.printRecord(("time" :: columns.map(c => s"<${c._1}>@<${c._2}>")).asJava)
+
+              val row = new Array[String](columns.size + 1)
+              while (merger.next()) {
+                // properties without values at row timestamp stay unset
+                row(0) = formatDate(merger.getTime)
+                for (i <- 1 until row.length) {
+                  val value = merger.getValue(i - 1)
+                  row(i) = if (value != null) value2Str(value, false) else null
+                }
+                csvPrinter.printRecord(row: _*)
               }
+            } catch {
+              case e: Exception => logger.error("Error while writing CSV data", e)
+            } finally {
+              merger.close()
+              csvPrinter.close()
             }
-
-            csvPrinter.close()
           }
           OutputStreamResponse(streamer, -1, ("Content-Type", "text/csv; charset=utf-8") ::
             ("Content-Disposition", s"""inline; filename=${filename("csv")}""") :: responseHeaders, S.responseCookies, 200)
@@ -233,9 +277,9 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     var parentUri = Data.pathToURI(path)
     if (parentUri.lastSegment != "") parentUri = parentUri.appendSegment("")
 
-    JsonFormatParser.parseItem(parentUri, contextModelUri, json, currentTime) map (_.foreach { tuple =>
-      store.put(tuple)
-    })
+    JsonFormatParser.parseItem(parentUri, contextModelUri, json, currentTime) flatMap { tuples =>
+      writeValues(tuples.iterator.asJava)
+    }
   }
 
   // handle JSON post content
@@ -243,13 +287,7 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     var parentUri = Data.pathToURI(path)
     if (parentUri.lastSegment != "") parentUri = parentUri.appendSegment("")
 
-    try {
-      val tuples: IExtendedIterator[KvinTuple] = new io.github.linkedfactory.core.kvin.util.JsonFormatParser(in).parse(currentTime)
-      store.put(tuples)
-      Empty
-    } catch {
-      case e: Exception => new Failure(e.getMessage(), Full(e), Empty)
-    }
+    writeValues(JsonFormatParser.parseItems(parentUri, contextModelUri, in, currentTime).asJava)
   }
 
   // handle CSV post content
@@ -261,30 +299,64 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
       val separator = S.param("separator").map(_.trim).filter(_.nonEmpty).map(_.charAt(0)).getOrElse(',')
       val parser = new CsvFormatParser(parentUri, separator, in)
       parser.setContext(contextModelUri)
-      val tuples: IExtendedIterator[KvinTuple] = parser.parse()
-      store.put(tuples)
-      Empty
+      writeValues(parser.parse())
     } catch {
       case e: Exception => new Failure(e.getMessage(), Full(e), Empty)
     }
   }
 
+  // handle content in binary format, the tuples contain absolute URIs
+  def saveBinaryValues(in: InputStream): Box[_] = {
+    val modelUri = contextModelUri
+    writeValues(new BinaryFormatParser(in).parse().mapWith { t =>
+      if (t.context != null) t else new KvinTuple(t.item, t.property, modelUri, t.time, t.seqNr, t.value)
+    })
+  }
+
   // handle InfluxDB line protocol content
   def saveLineValues(is: InputStream, path: List[String], currentTime: Long): Box[_] = {
     var parentUri = Data.pathToURI(path)
     if (parentUri.lastSegment != "") parentUri = parentUri.appendSegment("")
 
-    LineProtocolParser.parseLines(parentUri, contextModelUri, is, currentTime) map (_.foreach { tuple =>
-      store.put(tuple)
-    })
+    writeValues(LineProtocolParser.parseLinesIncrementally(parentUri, contextModelUri, is, currentTime).asJava)
   }
 
-  def getSingleItem(path: List[String]): URI = S.param("item") flatMap { s => tryo(URIs.createURI(s)) } openOr Data.pathToURI(path)
+  /**
+   * Writes the given tuples in batches to the store while they are parsed.
+   *
+   * @return the number of written tuples
+   */
+  def writeValues(tuples: => java.util.Iterator[KvinTuple]): Box[Long] = {
+    try {
+      // uploads use their own threads and do not take slots of the query executor
+      Full(new BatchWriter(store, uploadBatchSize, uploadQueueSize).write(tuples))
+    } catch {
+      case e: Exception => new Failure(e.getMessage(), Full(e), Empty)
+    }
+  }
 
-  def getValues(path: List[String], limit: Long): IExtendedIterator[KvinTuple] = {
-    val items = (S.param("item") or S.param("items")).map {
+  /**
+   * Returns the requested items either from the query within the request body or from the request parameters.
+   */
+  def requestedItems(path: List[String], query: Box[ValuesQuery]): List[URI] = query.map(_.getItems.asScala.toList) openOr {
+    (S.param("item") or S.param("items")).map {
       _.split("\\s+").flatMap { i => tryo(URIs.createURI(i)) }.toList
     } openOr List(Data.pathToURI(path))
+  }
+
+  /**
+   * Returns the requested properties either from the query within the request body or from the request parameters.
+   */
+  def requestedProperties(query: Box[ValuesQuery]): List[URI] = query.map(_.getProperties.asScala.toList) openOr {
+    (S.param("property") or S.param("properties")).map {
+      _.split("\\s+").flatMap { s => tryo(URIs.createURI(s)) }.toList
+    } openOr Nil
+  }
+
+  def getSingleItem(path: List[String]): URI = S.param("item") flatMap { s => tryo(URIs.createURI(s)) } openOr Data.pathToURI(path)
+
+  def getValues(path: List[String], limit: Long, query: Box[ValuesQuery] = Empty): IExtendedIterator[KvinTuple] = {
+    val items = requestedItems(path, query)
 
     val end = S.param("to") flatMap (v => tryo(v.toLong)) openOr KvinTuple.TIME_MAX_VALUE
     val begin = S.param("from") flatMap (v => tryo(v.toLong)) openOr 0L
@@ -293,12 +365,11 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     val interval = S.param("interval") flatMap (v => tryo(v.toDouble.longValue)) openOr 0L
     val op = S.param("op") map (_.trim)
 
-    val executorService = FederatedServiceComponent.getExecutorService()
+    // the concurrent fetches of a request are limited like those of a query
+    val executorService = QueryExecutorService.forQuery(FederatedServiceComponent.getExecutorService())
     val modelUri = contextModelUri
 
-    val properties = (S.param("property") or S.param("properties")).map {
-      _.split("\\s+").flatMap { s => tryo(URIs.createURI(s)) }.toList
-    } openOr Nil
+    val properties = requestedProperties(query)
 
     if (limit > 0 && items.size < 5) {
       // for now only optimize case where few items are
@@ -317,10 +388,36 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     }
   }
 
-  def getValuesMap(path: List[String], limit: Long): Map[String, Map[String, IExtendedIterator[KvinTuple]]] = {
-    val items = (S.param("item") or S.param("items")).map {
-      _.split("\\s+").flatMap { i => tryo(URIs.createURI(i)) }.toList
-    } openOr List(Data.pathToURI(path))
+  /**
+   * Returns functions for opening cursors over the requested raw values if they can be read directly from a local
+   * store. Aggregated or sampled values are not supported.
+   */
+  def getValueCursors(path: List[String], limit: Long, query: Box[ValuesQuery] = Empty): Box[List[() => KvinCursor]] = {
+    val interval = S.param("interval") flatMap (v => tryo(v.toDouble.longValue)) openOr 0L
+    if (!store.isInstanceOf[KvinLevelDb] || S.param("op").isDefined || interval != 0L) Empty else {
+      val items = requestedItems(path, query)
+
+      val end = S.param("to") flatMap (v => tryo(v.toLong)) openOr KvinTuple.TIME_MAX_VALUE
+      val begin = S.param("from") flatMap (v => tryo(v.toLong)) openOr 0L
+      val modelUri = contextModelUri
+
+      val properties = requestedProperties(query)
+
+      Full(items.flatMap { item =>
+        // a property of null selects all properties of the item
+        (if (properties.isEmpty) List(null) else properties).map { property =>
+          () => store.cursor(item, property, modelUri, end, begin, limit)
+        }
+      })
+    }
+  }
+
+  /**
+   * Returns the requested item-property pairs together with functions for opening cursors over their values. The
+   * values are only fetched when the functions are invoked. Raw values are read without creating tuples.
+   */
+  def getValueColumns(path: List[String], limit: Long, query: Box[ValuesQuery] = Empty): List[(URI, URI, Supplier[KvinCursor])] = {
+    val items = requestedItems(path, query)
 
     val end = S.param("to") flatMap (v => tryo(v.toLong)) openOr KvinTuple.TIME_MAX_VALUE
     val begin = S.param("from") flatMap (v => tryo(v.toLong)) openOr 0L
@@ -329,23 +426,22 @@ class KvinService(path: List[String], store: Kvin) extends RestHelper with Logga
     val interval = S.param("interval") flatMap (v => tryo(v.toDouble.longValue)) openOr 0L
     val op = S.param("op") map (_.trim)
 
-    val executorService = FederatedServiceComponent.getExecutorService()
     val modelUri = contextModelUri
 
-    val properties = (S.param("property") or S.param("properties")).map {
-      _.split("\\s+").flatMap { s => tryo(URIs.createURI(s)) }.toList
-    } openOr Nil
+    val properties = requestedProperties(query)
 
-    items.map { item =>
-      val is = util.List.of(item)
-      val ps = if (properties.isEmpty) store.properties(item, contextModelUri).toList.asScala else properties
-      val propertyData = ps.map { property =>
-        (property.toString, new AsyncExtendedIterator[KvinTuple](
-          () => store.fetch(is, util.List.of(property), modelUri, end, begin, limit, interval, op openOr null),
-          () => executorService))
-      }.toMap
-      (item.toString, propertyData)
-    }.toMap
+    items.flatMap { item =>
+      val ps = if (properties.isEmpty) store.properties(item, contextModelUri).toList.asScala.sortBy(_.toString)
+      else properties
+      ps.map { property =>
+        val fetch: Supplier[KvinCursor] = if (op.isEmpty && interval == 0L) {
+          () => store.cursor(item, property, modelUri, end, begin, limit)
+        } else {
+          () => KvinCursor.of(store.fetch(item, property, modelUri, end, begin, limit, interval, op openOr null))
+        }
+        (item, property, fetch)
+      }
+    }
   }
 
   def deleteValues(path: List[String]): JObject = {
@@ -16,7 +16,9 @@
 package io.github.linkedfactory.service
 
 import io.github.linkedfactory.core.kvin.Kvin
-import io.github.linkedfactory.core.rdf4j.ContextProvider
+import io.github.linkedfactory.core.kvin.http.HttpClientPool
+import io.github.linkedfactory.core.rdf4j.common.query.InnerJoinIterator
+import io.github.linkedfactory.core.rdf4j.{ContextProvider, FederatedServiceComponent}
 import net.enilink.komma.core.{IReference, URI, URIs}
 import net.enilink.komma.em.concepts.IResource
 import net.enilink.platform.lift.LiftService
@@ -80,13 +82,29 @@ class LiftModule {
       LiftModule.versionInfo = version + " (build: " + commitId + ")"
     }
 
+    // use the configured connection pool for requests to remote services
+    Data.httpClientPool.foreach { pool =>
+      HttpClientPool.setShared(pool)
+      shutdownHooks :+= (() => pool.close())
+    }
+
+    // cache results of SPARQL services for closed time ranges
+    Data.fetchCache.foreach { case (maxValues, expireAfter) =>
+      FederatedServiceComponent.setFetchCache(maxValues, expireAfter)
+    }
+    Data.joinPrefetch.foreach(InnerJoinIterator.setDefaultPrefetch)
+    Data.queryExecutor.foreach { executor =>
+      Option(FederatedServiceComponent.setExecutorService(executor)).foreach(_.shutdown())
+      shutdownHooks :+= (() => executor.shutdown())
+    }
+
     // initialize data object and value store service
     // FIXME: initialize value store differently (not as side-effect of Data ctor)
     Data.kvin map { kvin =>
       shutdownHooks :+= (() => kvin.close())
       val kvinSvc = FrameworkUtil.getBundle(getClass).getBundleContext.registerService(classOf[Kvin], kvin, new util.Hashtable[String, Object]())
       shutdownHooks :+= (() => kvinSvc.unregister())
-      LiftRules.statelessDispatch.append(new KvinService("linkedfactory" :: Nil, kvin))
+      LiftRules.statelessDispatch.append(new KvinService("linkedfactory" :: Nil, kvin, Data.uploadBatchSize, Data.uploadQueueSize))
     }
 
     // overwrite existing SparqlRest
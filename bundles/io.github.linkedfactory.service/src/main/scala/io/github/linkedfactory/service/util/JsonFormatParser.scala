@@ -15,6 +15,7 @@
  */
 package io.github.linkedfactory.service.util
 
+import com.fasterxml.jackson.core.{JsonFactory, JsonParseException, JsonParser, JsonToken}
 import io.github.linkedfactory.core.kvin.{Kvin, KvinTuple, Record}
 import net.enilink.komma.core.{URI, URIs}
 import net.liftweb.common.Box.box2Iterable
@@ -22,13 +23,16 @@ import net.liftweb.common._
 import net.liftweb.json.JsonAST._
 import net.liftweb.json.JsonDSL._
 
+import java.io.InputStream
 import javax.xml.datatype.DatatypeFactory
+import scala.collection.mutable.ListBuffer
 
 /**
  * Parses JSON objects with linked factory item data.
  */
 object JsonFormatParser extends Loggable {
   val dtFactoryLocal = new ThreadLocal[DatatypeFactory]
+  val jsonFactory = new JsonFactory().configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true)
 
   def datatypeFactory = {
     var factory = dtFactoryLocal.get
@@ -39,6 +43,81 @@ object JsonFormatParser extends Loggable {
     factory
   }
 
+  /**
+   * Parses JSON data incrementally from an input stream.
+   * <p>
+   * The items of a top-level object are converted one after another by [[parseItem]] such that only the data of the
+   * current item is kept in memory. An exception is thrown when the first invalid item is reached.
+   */
+  def parseItems(rootItem: URI, context: URI, in: InputStream, currentTime: Long = System.currentTimeMillis): Iterator[KvinTuple] = {
+    val parser = jsonFactory.createParser(in)
+    // the JSON-LD contexts that precede the current item
+    var contexts = Vector[JField]()
+
+    def tuples(result: Box[List[KvinTuple]]): List[KvinTuple] = result match {
+      case Failure(msg, _, _) =>
+        parser.close()
+        throw new IllegalArgumentException(msg)
+      case other => other.openOr(Nil)
+    }
+
+    def end(): Unit = {
+      if (parser.nextToken != null) throw new JsonParseException(parser, "Unexpected content after end of data")
+      parser.close()
+    }
+
+    parser.nextToken match {
+      case JsonToken.START_OBJECT =>
+        Iterator.continually(parser.nextToken).takeWhile {
+          case JsonToken.END_OBJECT => end(); false
+          case JsonToken.FIELD_NAME => true
+          case _ => throw new JsonParseException(parser, "Unexpected end of data")
+        }.flatMap { _ =>
+          val field = parser.currentName
+          parser.nextToken
+          val value = readValue(parser)
+          if (field == "@context") {
+            contexts :+= JField(field, value)
+            Nil
+          } else tuples(parseItem(rootItem, context, JObject((contexts :+ JField(field, value)).toList), currentTime))
+        }
+      case JsonToken.START_ARRAY =>
+        val values = readValue(parser)
+        end()
+        tuples(parseItem(rootItem, context, values, currentTime)).iterator
+      case _ =>
+        parser.close()
+        throw new IllegalArgumentException("Invalid data")
+    }
+  }
+
+  /**
+   * Reads the JSON value at the current position of the parser.
+   */
+  private def readValue(parser: JsonParser): JValue = parser.currentToken match {
+    case JsonToken.START_OBJECT =>
+      val fields = ListBuffer[JField]()
+      while (parser.nextToken == JsonToken.FIELD_NAME) {
+        val name = parser.currentName
+        parser.nextToken
+        fields += JField(name, readValue(parser))
+      }
+      JObject(fields.toList)
+    case JsonToken.START_ARRAY =>
+      val values = ListBuffer[JValue]()
+      while (parser.nextToken != JsonToken.END_ARRAY) {
+        values += readValue(parser)
+      }
+      JArray(values.toList)
+    case JsonToken.VALUE_STRING => JString(parser.getText)
+    case JsonToken.VALUE_NUMBER_INT => JInt(BigInt(parser.getBigIntegerValue))
+    case JsonToken.VALUE_NUMBER_FLOAT => JDouble(parser.getDoubleValue)
+    case JsonToken.VALUE_TRUE => JBool(true)
+    case JsonToken.VALUE_FALSE => JBool(false)
+    case JsonToken.VALUE_NULL => JNull
+    case token => throw new JsonParseException(parser, "Unexpected token: " + token)
+  }
+
   def parseItem(rootItem: URI, context: URI, json: JValue, currentTime: Long = System.currentTimeMillis): Box[List[KvinTuple]] = {
     var activeContexts = List[JValue]()
 
@@ -55,6 +55,31 @@ object LineProtocolParser extends Loggable {
     }
   }
 
+  /**
+   * Parses the lines of the given input stream on demand.
+   * <p>
+   * In contrast to [[parseLines]] only the current line is kept in memory. An exception is thrown when the first
+   * invalid line is reached.
+   */
+  def parseLinesIncrementally(rootItem: URI, context: URI, is: InputStream, currentTime: Long = System.currentTimeMillis): Iterator[KvinTuple] = {
+    val reader = new BufferedReader(new InputStreamReader(is))
+    val p = new Parser
+    var lineNr = 0
+    Iterator.continually(reader.readLine()).takeWhile { l =>
+      if (l == null) reader.close()
+      l != null
+    }.flatMap { l =>
+      lineNr += 1
+      if (l.isEmpty) None else try {
+        Some(p.parse(l, context, currentTime))
+      } catch {
+        case e: Exception =>
+          reader.close()
+          throw new IllegalArgumentException("Invalid data in line " + lineNr + ": " + e.getMessage, e)
+      }
+    }
+  }
+
   def mkItemData(property: String, item: String, context: URI, value: String, time: String, currentTime: Long = System.currentTimeMillis): KvinTuple = {
     new KvinTuple(
       URIs.createURI(item.trim),
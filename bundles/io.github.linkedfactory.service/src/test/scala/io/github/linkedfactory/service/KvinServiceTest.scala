@@ -3,6 +3,7 @@ package io.github.linkedfactory.service
 import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
 import com.google.inject.Guice
 import io.github.linkedfactory.core.kvin.{Kvin, KvinTuple}
+import io.github.linkedfactory.core.kvin.http.ValuesQuery
 import io.github.linkedfactory.core.kvin.leveldb.KvinLevelDb
 import io.github.linkedfactory.core.kvin.util.JsonFormatParser
 import net.enilink.commons.iterator.NiceIterator
@@ -186,6 +187,43 @@ class KvinServiceTest {
     }
   }
 
+  @Test
+  def queryInBodyTest(): Unit = {
+    val postReq = new MockHttpServletRequest(baseUrl) {
+      method = "POST"
+      body_=(TestData.item1, "application/json")
+    }
+    assertEquals(Full(200), kvinRest(toReq(postReq))().map(_.toResponse.code))
+
+    // items and properties are sent within the body
+    val queryReq = new MockHttpServletRequest(baseUrl) {
+      method = "POST"
+      body_=("""{ "items" : [ "http://example.org/item1" ], "properties" : [ "http://example.org/properties/p1" ] }""",
+        ValuesQuery.MIME_TYPE)
+      headers = (("Accept", "application/json" :: Nil) :: Nil).toMap
+    }
+    val response = kvinRest(toReq(queryReq))().map(_.toResponse).openOr(null)
+    val rStream = new ByteArrayOutputStream()
+    response match {
+      case r: OutputStreamResponse => r.out(rStream)
+      case _ => throw new RuntimeException("Invalid response type")
+    }
+
+    val kvinTuples = new JsonFormatParser(new ByteArrayInputStream(rStream.toByteArray)).parse().toList
+    assertFalse(kvinTuples.isEmpty)
+    kvinTuples.forEach { tuple =>
+      assertEquals("http://example.org/item1", tuple.item.toString)
+      assertEquals("http://example.org/properties/p1", tuple.property.toString)
+    }
+
+    // invalid queries are rejected
+    val invalidReq = new MockHttpServletRequest(baseUrl) {
+      method = "POST"
+      body_=("""{ "items" : "http://example.org/item1" }""", ValuesQuery.MIME_TYPE)
+    }
+    assertEquals(Full(400), kvinRest(toReq(invalidReq))().map(_.toResponse.code))
+  }
+
   @Test
   def queryDataWithLimitTest(): Unit = {
 
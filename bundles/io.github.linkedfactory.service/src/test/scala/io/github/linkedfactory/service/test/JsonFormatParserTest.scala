@@ -21,8 +21,12 @@ import net.enilink.komma.core.URIs
 import net.liftweb.common.Full
 import net.liftweb.json.JsonAST._
 import net.liftweb.json.JsonDSL._
+import net.liftweb.json.{compactRender, parse}
 import org.junit.{Assert, Test}
 
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets
+
 
 class JsonFormatParserTest {
 
@@ -97,4 +101,44 @@ class JsonFormatParserTest {
     ))
     Assert.assertEquals(expected, parsed)
   }
+  @Test
+  def testParseItems(): Unit = {
+    val context = Kvin.DEFAULT_CONTEXT
+    val time = System.currentTimeMillis
+    val root = URIs.createURI("http://example.root/")
+    val json = """{
+      "@context" : { "pref" : "http://test1.example/" },
+      "pref:item1" : { "pref:p1" : [ { "time" : 100, "value" : 1.5 }, { "time" : 200, "seqNr" : 1, "value" : 2 } ] },
+      "@context" : { "pref" : "http://test2.example/" },
+      "item2" : { "p2" : { "value" : { "pref:a" : true, "b" : "x" } }, "p3" : "text" }
+    }"""
+    val parsed = JsonFormatParser.parseItems(root, context,
+      new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), time).toList
+    Assert.assertEquals(JsonFormatParser.parseItem(root, context, parse(json), time).openOr(Nil), parsed)
+    Assert.assertEquals(4, parsed.size)
+    Assert.assertEquals(URIs.createURI("http://test1.example/item1"), parsed.head.item)
+    Assert.assertEquals(URIs.createURI("http://test2.example/a"),
+      parsed(2).value.asInstanceOf[Record].getProperty)
+
+    // arrays of values for the root item
+    val values = """[ { "time" : 100, "value" : 1 }, { "value" : 2 }, { "value" : 3 } ]"""
+    Assert.assertEquals(JsonFormatParser.parseItem(root, context, parse(values), time).openOr(Nil),
+      JsonFormatParser.parseItems(root, context,
+        new ByteArrayInputStream(values.getBytes(StandardCharsets.UTF_8)), time).toList)
+  }
+
+  @Test
+  def testParseItemsInvalid(): Unit = {
+    val root = URIs.createURI("http://example.root/")
+    for (json <- List("""{ "item" : { "p" : [ { "time" : 1 } ] } }""", """{ "item" : [false, 1]} }""",
+      """{ "item" : { "p" : 1 """, "42")) {
+      try {
+        JsonFormatParser.parseItems(root, Kvin.DEFAULT_CONTEXT,
+          new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).toList
+        Assert.fail("Invalid data should be rejected: " + json)
+      } catch {
+        case _: Exception => // expected
+      }
+    }
+  }
 }
\ No newline at end of file
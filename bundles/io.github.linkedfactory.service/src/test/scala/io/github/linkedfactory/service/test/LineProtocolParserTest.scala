@@ -22,6 +22,9 @@ import org.junit.Test
 import org.junit.Assert
 import net.enilink.komma.core.URIs
 
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets
+
 object LineProtocolParserTest {
   def main(args: Array[String]) = new LineProtocolParserTest().benchmark(args)
 }
@@ -68,6 +71,32 @@ class LineProtocolParserTest {
     Assert.assertEquals(false, d4.value)
   }
 
+  @Test
+  def testIncremental = {
+    val time = System.currentTimeMillis
+    val context = Kvin.DEFAULT_CONTEXT
+    val root = URIs.createURI("http://example.org/")
+    val lines = "a,item=http://example.org/item value=1i 1000000\n\nb,item=http://example.org/item value=2.5\n"
+
+    val tuples = LineProtocolParser.parseLinesIncrementally(root, context,
+      new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)), time).toList
+    Assert.assertEquals(LineProtocolParser.parseLines(root, context,
+      new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)), time).openOr(Nil), tuples)
+    Assert.assertEquals(2, tuples.size)
+
+    // parsing stops at the first invalid line
+    val invalid = LineProtocolParser.parseLinesIncrementally(root, context,
+      new ByteArrayInputStream((lines + "c,item=http://example.org/item\nd value=1").getBytes(StandardCharsets.UTF_8)), time)
+    Assert.assertEquals(tuples.head, invalid.next())
+    Assert.assertEquals(tuples(1), invalid.next())
+    try {
+      invalid.next()
+      Assert.fail("Invalid line should be rejected")
+    } catch {
+      case e: IllegalArgumentException => Assert.assertTrue(e.getMessage.contains("line 4"))
+    }
+  }
+
   // simple benchmark: regex vs. tokenizer vs. parser
   def benchmark(args: Array[String]) = {
     // InfluxDB line protocol: measurement[,tag_set] field_set [timestamp]